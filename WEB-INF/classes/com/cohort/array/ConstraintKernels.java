@@ -0,0 +1,502 @@
+/* This file is part of the EMA project and is
+ * Copyright (c) 2005 Robert Simons (CoHortSoftware@gmail.com).
+ * See the MIT/X-like license in LICENSE.txt.
+ * For more information visit www.cohortsoftware.com or contact CoHortSoftware@gmail.com.
+ */
+package com.cohort.array;
+
+import com.cohort.util.Math2;
+import com.cohort.util.SimpleException;
+import com.cohort.util.String2;
+import java.util.BitSet;
+
+/**
+ * This is used by PrimitiveArray.applyConstraint to test the numeric PrimitiveArrays. Instead of
+ * calling e.g., testValueOpValue(getFloat(row), op, value2) for each keep=true row (a virtual get
+ * call and a String switch per row), this works on blocks of 64 rows, which correspond to the 64
+ * bits of one of keep's long words. For each block, the op is resolved once, the values are taken
+ * from (or unpacked from) the backing array, and a simple, branch-free loop makes a 64 bit mask of
+ * the rows which pass the test, which is then ANDed with keep's word. Blocks where keep's word is 0
+ * are skipped.
+ *
+ * <p>The results are exactly the same as the per row tests: the values are unpacked exactly like
+ * getInt and getDouble (e.g., with maxIsMV), and for the float and double tests which use
+ * Math2.almostEqual, the strict test is done for all rows and almostEqual is only called for the
+ * few rows which fail the strict test but are near value2.
+ *
+ * <p>This doesn't use the jdk.incubator.vector API (which needs --add-modules at compile time and
+ * at runtime, e.g., in Tomcat's setenv). The kernels are simple counted loops over primitive
+ * arrays, which the JIT compiles to tight (and, where the hardware allows, SIMD) code.
+ */
+class ConstraintKernels {
+
+  /** The number of rows in a block (the number of bits in one of BitSet's long words). */
+  static final int BLOCK = 64;
+
+  /** The op codes. */
+  static final int EQ = 0, NE = 1, LE = 2, GE = 3, LT = 4, GT = 5;
+
+  /**
+   * This converts an op into an op code.
+   *
+   * @param op one of EDDTable.OPERATORS (other than PrimitiveArray.REGEX_OP)
+   * @return the op code (e.g., EQ)
+   * @throws SimpleException if op is unknown
+   */
+  static int opCode(String op) {
+    return switch (op) {
+      case "=" -> EQ;
+      case "!=" -> NE;
+      case "<=" -> LE;
+      case ">=" -> GE;
+      case "<" -> LT;
+      case ">" -> GT;
+      default ->
+          // Regex test has to be handled via String testValueOpValue
+          throw new SimpleException("Query error: " + "Unknown operator=\"" + op + "\".");
+    };
+  }
+
+  /**
+   * This is the block version of PrimitiveArray.applyConstraint for numeric PrimitiveArrays (other
+   * than ULongArray). It chooses the same tests as applyConstraint: testValueOpValue(int, long,
+   * float, or double), testValueOpValueExtra, or testValueOpValueExact.
+   *
+   * @param pa a numeric PrimitiveArray, but not a ULongArray
+   * @param morePrecise e.g., for tests of time values which are very precise.
+   * @param keep The test is only applied to keep=true elements. If the test is false, the keep
+   *     element is set to false. keep.length() must be &lt;= pa.size().
+   * @param op one of EDDTable.OPERATORS (other than PrimitiveArray.REGEX_OP)
+   * @param value2
+   * @return nStillGood
+   * @throws RuntimeException if trouble (e.g., invalid op)
+   */
+  static int applyConstraint(
+      PrimitiveArray pa, boolean morePrecise, BitSet keep, String op, String value2) {
+    // like the per row tests, which don't even look at op if there are no keep=true rows
+    if (keep.isEmpty()) return 0;
+    int opCode = opCode(op);
+    long[] words = keep.toLongArray();
+    int size = pa.size();
+    int nStillGood = 0;
+    PAType paType = pa.elementType();
+
+    if (paType == PAType.LONG) {
+      double value2d = String2.parseDouble(value2);
+      long value2l = String2.parseLong(value2); // LongArray.MAX_VALUE if trouble
+      if (value2d == value2l && value2l != Long.MAX_VALUE) { // value2 parsed cleanly as a long
+        long[] array = ((LongArray) pa).array; // getLong returns the raw value
+        for (int w = 0; w < words.length; w++) {
+          if (words[w] == 0) continue;
+          int from = w * BLOCK;
+          words[w] &= longMask(array, from, Math.min(BLOCK, size - from), opCode, value2l);
+          nStillGood += Long.bitCount(words[w]);
+        }
+      } else { // do 'exact' test via double
+        nStillGood = doubleBlocks(pa, words, opCode, value2d, 0);
+      }
+
+    } else if (pa.isIntegerType()) {
+      double value2d = String2.parseDouble(value2);
+      int value2i = String2.parseInt(value2);
+      if (value2d == value2i && value2d != Integer.MAX_VALUE) { // value2 parsed cleanly as int
+        int[] values = new int[BLOCK];
+        for (int w = 0; w < words.length; w++) {
+          if (words[w] == 0) continue;
+          int from = w * BLOCK;
+          int n = Math.min(BLOCK, size - from);
+          loadInts(pa, from, n, values);
+          words[w] &= intMask(values, n, opCode, value2i);
+          nStillGood += Long.bitCount(words[w]);
+        }
+      } else { // do exact test
+        nStillGood = doubleBlocks(pa, words, opCode, value2d, 0);
+      }
+
+    } else if (paType == PAType.FLOAT) {
+      float[] array = ((FloatArray) pa).array;
+      float value2f = String2.parseFloat(value2);
+      for (int w = 0; w < words.length; w++) {
+        if (words[w] == 0) continue;
+        int from = w * BLOCK;
+        words[w] &= floatMask(array, from, Math.min(BLOCK, size - from), opCode, value2f);
+        nStillGood += Long.bitCount(words[w]);
+      }
+
+    } else {
+      // morePrecise (Extra) or normal double tests
+      nStillGood =
+          doubleBlocks(pa, words, opCode, String2.parseDouble(value2), morePrecise ? 12 : 9);
+    }
+
+    keep.clear();
+    keep.or(BitSet.valueOf(words));
+    return nStillGood;
+  }
+
+  /**
+   * This applies a double test to all of the blocks with keep=true rows.
+   *
+   * @param pa a numeric PrimitiveArray
+   * @param words keep's long words, which will be modified
+   * @param opCode e.g., EQ
+   * @param value2
+   * @param nDigits 9 (like testValueOpValue(double)), 12 (like testValueOpValueExtra), or 0 (like
+   *     testValueOpValueExact)
+   * @return nStillGood
+   */
+  private static int doubleBlocks(
+      PrimitiveArray pa, long[] words, int opCode, double value2, int nDigits) {
+    int size = pa.size();
+    int nStillGood = 0;
+    double[] array = pa instanceof DoubleArray da ? da.array : null;
+    double[] values = array == null ? new double[BLOCK] : null;
+    for (int w = 0; w < words.length; w++) {
+      if (words[w] == 0) continue;
+      int from = w * BLOCK;
+      int n = Math.min(BLOCK, size - from);
+      if (array == null) loadDoubles(pa, from, n, values);
+      words[w] &=
+          array == null
+              ? doubleMask(values, 0, n, opCode, value2, nDigits)
+              : doubleMask(array, from, n, opCode, value2, nDigits);
+      nStillGood += Long.bitCount(words[w]);
+    }
+    return nStillGood;
+  }
+
+  /**
+   * This gets n values, starting at row 'from', exactly like pa.getInt(row) would.
+   *
+   * @param pa an integer type PrimitiveArray (other than LongArray and ULongArray)
+   * @param from the first row
+   * @param n the number of rows
+   * @param values receives the values
+   */
+  static void loadInts(PrimitiveArray pa, int from, int n, int[] values) {
+    boolean mv = pa.maxIsMV;
+    switch (pa.elementType()) {
+      case BYTE -> {
+        byte[] array = ((ByteArray) pa).array;
+        for (int i = 0; i < n; i++) {
+          int v = array[from + i];
+          values[i] = mv && v == Byte.MAX_VALUE ? Integer.MAX_VALUE : v;
+        }
+      }
+      case UBYTE -> {
+        byte[] array = ((UByteArray) pa).array;
+        for (int i = 0; i < n; i++) {
+          int v = array[from + i] & 0xff;
+          values[i] = mv && v == 0xff ? Integer.MAX_VALUE : v;
+        }
+      }
+      case SHORT -> {
+        short[] array = ((ShortArray) pa).array;
+        for (int i = 0; i < n; i++) {
+          int v = array[from + i];
+          values[i] = mv && v == Short.MAX_VALUE ? Integer.MAX_VALUE : v;
+        }
+      }
+      case USHORT -> {
+        short[] array = ((UShortArray) pa).array;
+        for (int i = 0; i < n; i++) {
+          int v = array[from + i] & 0xffff;
+          values[i] = mv && v == 0xffff ? Integer.MAX_VALUE : v;
+        }
+      }
+      case CHAR -> {
+        char[] array = ((CharArray) pa).array;
+        for (int i = 0; i < n; i++) {
+          int v = array[from + i];
+          values[i] = v == Character.MAX_VALUE ? Integer.MAX_VALUE : v; // always maxIsMV
+        }
+      }
+      case INT -> System.arraycopy(((IntArray) pa).array, from, values, 0, n);
+      case UINT -> {
+        int[] array = ((UIntArray) pa).array;
+        for (int i = 0; i < n; i++) {
+          int v = array[from + i];
+          values[i] = v < 0 ? Integer.MAX_VALUE : v; // big values (and MAX_VALUE) -> MAX_VALUE
+        }
+      }
+      default -> {
+        for (int i = 0; i < n; i++) values[i] = pa.getInt(from + i);
+      }
+    }
+  }
+
+  /**
+   * This gets n values, starting at row 'from', exactly like pa.getDouble(row) would.
+   *
+   * @param pa a numeric PrimitiveArray
+   * @param from the first row
+   * @param n the number of rows
+   * @param values receives the values
+   */
+  static void loadDoubles(PrimitiveArray pa, int from, int n, double[] values) {
+    boolean mv = pa.maxIsMV;
+    switch (pa.elementType()) {
+      case BYTE -> {
+        byte[] array = ((ByteArray) pa).array;
+        for (int i = 0; i < n; i++) {
+          int v = array[from + i];
+          values[i] = mv && v == Byte.MAX_VALUE ? Double.NaN : v;
+        }
+      }
+      case UBYTE -> {
+        byte[] array = ((UByteArray) pa).array;
+        for (int i = 0; i < n; i++) {
+          int v = array[from + i] & 0xff;
+          values[i] = mv && v == 0xff ? Double.NaN : v;
+        }
+      }
+      case SHORT -> {
+        short[] array = ((ShortArray) pa).array;
+        for (int i = 0; i < n; i++) {
+          int v = array[from + i];
+          values[i] = mv && v == Short.MAX_VALUE ? Double.NaN : v;
+        }
+      }
+      case USHORT -> {
+        short[] array = ((UShortArray) pa).array;
+        for (int i = 0; i < n; i++) {
+          int v = array[from + i] & 0xffff;
+          values[i] = mv && v == 0xffff ? Double.NaN : v;
+        }
+      }
+      case CHAR -> {
+        char[] array = ((CharArray) pa).array;
+        for (int i = 0; i < n; i++) {
+          int v = array[from + i];
+          values[i] = v == Character.MAX_VALUE ? Double.NaN : v; // always maxIsMV
+        }
+      }
+      case INT -> {
+        int[] array = ((IntArray) pa).array;
+        for (int i = 0; i < n; i++) {
+          int v = array[from + i];
+          values[i] = mv && v == Integer.MAX_VALUE ? Double.NaN : v;
+        }
+      }
+      case UINT -> {
+        int[] array = ((UIntArray) pa).array;
+        for (int i = 0; i < n; i++) {
+          long v = array[from + i] & 0xffffffffL;
+          values[i] = mv && v == 0xffffffffL ? Double.NaN : v;
+        }
+      }
+      case LONG -> {
+        long[] array = ((LongArray) pa).array;
+        for (int i = 0; i < n; i++) {
+          long v = array[from + i];
+          values[i] = mv && v == Long.MAX_VALUE ? Double.NaN : v;
+        }
+      }
+      case DOUBLE -> System.arraycopy(((DoubleArray) pa).array, from, values, 0, n);
+      default -> {
+        for (int i = 0; i < n; i++) values[i] = pa.getDouble(from + i);
+      }
+    }
+  }
+
+  /**
+   * This tests values[0 ... n-1] like testValueOpValue(int, op, int) (Integer.MAX_VALUE is treated
+   * as NaN).
+   *
+   * @return a mask with bit i set if values[i] passes the test
+   */
+  static long intMask(int[] values, int n, int opCode, int value2) {
+    long mask = 0;
+    if (opCode >= LE && value2 == Integer.MAX_VALUE) return 0;
+    final int mv = Integer.MAX_VALUE;
+    switch (opCode) {
+      case EQ -> {
+        for (int i = 0; i < n; i++) mask |= (values[i] == value2 ? 1L : 0L) << i;
+      }
+      case NE -> {
+        for (int i = 0; i < n; i++) mask |= (values[i] != value2 ? 1L : 0L) << i;
+      }
+      case LE -> {
+        for (int i = 0; i < n; i++) mask |= (values[i] <= value2 ? 1L : 0L) << i;
+      }
+      case GE -> {
+        for (int i = 0; i < n; i++) {
+          int v = values[i];
+          mask |= (v >= value2 & v != mv ? 1L : 0L) << i;
+        }
+      }
+      case LT -> {
+        for (int i = 0; i < n; i++) mask |= (values[i] < value2 ? 1L : 0L) << i;
+      }
+      default -> { // GT
+        for (int i = 0; i < n; i++) {
+          int v = values[i];
+          mask |= (v > value2 & v != mv ? 1L : 0L) << i;
+        }
+      }
+    }
+    return mask;
+  }
+
+  /**
+   * This tests array[from ... from+n-1] like testValueOpValue(long, op, long) (Long.MAX_VALUE is
+   * treated as NaN).
+   *
+   * @return a mask with bit i set if array[from + i] passes the test
+   */
+  static long longMask(long[] array, int from, int n, int opCode, long value2) {
+    long mask = 0;
+    if (opCode >= LE && value2 == Long.MAX_VALUE) return 0;
+    final long mv = Long.MAX_VALUE;
+    switch (opCode) {
+      case EQ -> {
+        for (int i = 0; i < n; i++) mask |= (array[from + i] == value2 ? 1L : 0L) << i;
+      }
+      case NE -> {
+        for (int i = 0; i < n; i++) mask |= (array[from + i] != value2 ? 1L : 0L) << i;
+      }
+      case LE -> {
+        for (int i = 0; i < n; i++) mask |= (array[from + i] <= value2 ? 1L : 0L) << i;
+      }
+      case GE -> {
+        for (int i = 0; i < n; i++) {
+          long v = array[from + i];
+          mask |= (v >= value2 & v != mv ? 1L : 0L) << i;
+        }
+      }
+      case LT -> {
+        for (int i = 0; i < n; i++) mask |= (array[from + i] < value2 ? 1L : 0L) << i;
+      }
+      default -> { // GT
+        for (int i = 0; i < n; i++) {
+          long v = array[from + i];
+          mask |= (v > value2 & v != mv ? 1L : 0L) << i;
+        }
+      }
+    }
+    return mask;
+  }
+
+  /**
+   * This returns a distance from value2 beyond which Math2.almostEqual(nDigits, value, value2) is
+   * always false (so rows that far away needn't be tested with almostEqual). It is generous: it
+   * only has to be big enough.
+   *
+   * @param nDigits the number of significant digits used by almostEqual
+   * @param eps the epsilon used by almostEqual
+   */
+  private static double nearDistance(int nDigits, double eps, double value2) {
+    return Math.max(Math.abs(value2) * Math.pow(10, 1 - nDigits), 4 * eps);
+  }
+
+  /**
+   * This tests array[from ... from+n-1] like testValueOpValue(float, op, float) (which uses
+   * Math2.almostEqual(6) for &lt;=, &gt;=, and =).
+   *
+   * @return a mask with bit i set if array[from + i] passes the test
+   */
+  static long floatMask(float[] array, int from, int n, int opCode, float value2) {
+    long mask = 0;
+    switch (opCode) {
+      case NE -> {
+        if (Float.isNaN(value2)) {
+          for (int i = 0; i < n; i++) mask |= (Float.isNaN(array[from + i]) ? 0L : 1L) << i;
+        } else {
+          for (int i = 0; i < n; i++) mask |= (array[from + i] != value2 ? 1L : 0L) << i;
+        }
+        return mask;
+      }
+      case LT -> {
+        for (int i = 0; i < n; i++) mask |= (array[from + i] < value2 ? 1L : 0L) << i;
+        return mask;
+      }
+      case GT -> {
+        for (int i = 0; i < n; i++) mask |= (array[from + i] > value2 ? 1L : 0L) << i;
+        return mask;
+      }
+      case LE -> {
+        for (int i = 0; i < n; i++) mask |= (array[from + i] <= value2 ? 1L : 0L) << i;
+      }
+      case GE -> {
+        for (int i = 0; i < n; i++) mask |= (array[from + i] >= value2 ? 1L : 0L) << i;
+      }
+      default -> { // EQ
+        if (Float.isNaN(value2)) {
+          for (int i = 0; i < n; i++) mask |= (Float.isNaN(array[from + i]) ? 1L : 0L) << i;
+          return mask;
+        }
+      }
+    }
+
+    // almostEqual for the rows (which failed the strict test) that are near value2
+    double near = nearDistance(6, Math2.fEps, value2);
+    long candidates = 0;
+    for (int i = 0; i < n; i++)
+      candidates |= (Math.abs((double) array[from + i] - value2) <= near ? 1L : 0L) << i;
+    candidates &= ~mask;
+    while (candidates != 0) {
+      int i = Long.numberOfTrailingZeros(candidates);
+      candidates &= candidates - 1;
+      if (Math2.almostEqual(6, array[from + i], value2)) mask |= 1L << i;
+    }
+    return mask;
+  }
+
+  /**
+   * This tests array[from ... from+n-1] like testValueOpValue(double, op, double) (nDigits=9),
+   * testValueOpValueExtra (nDigits=12), or testValueOpValueExact (nDigits=0).
+   *
+   * @return a mask with bit i set if array[from + i] passes the test
+   */
+  static long doubleMask(double[] array, int from, int n, int opCode, double value2, int nDigits) {
+    long mask = 0;
+    switch (opCode) {
+      case NE -> {
+        if (Double.isNaN(value2)) {
+          for (int i = 0; i < n; i++) mask |= (Double.isNaN(array[from + i]) ? 0L : 1L) << i;
+        } else {
+          for (int i = 0; i < n; i++) mask |= (array[from + i] != value2 ? 1L : 0L) << i;
+        }
+        return mask;
+      }
+      case LT -> {
+        for (int i = 0; i < n; i++) mask |= (array[from + i] < value2 ? 1L : 0L) << i;
+        return mask;
+      }
+      case GT -> {
+        for (int i = 0; i < n; i++) mask |= (array[from + i] > value2 ? 1L : 0L) << i;
+        return mask;
+      }
+      case LE -> {
+        for (int i = 0; i < n; i++) mask |= (array[from + i] <= value2 ? 1L : 0L) << i;
+      }
+      case GE -> {
+        for (int i = 0; i < n; i++) mask |= (array[from + i] >= value2 ? 1L : 0L) << i;
+      }
+      default -> { // EQ
+        if (Double.isNaN(value2)) {
+          for (int i = 0; i < n; i++) mask |= (Double.isNaN(array[from + i]) ? 1L : 0L) << i;
+          return mask;
+        }
+        if (nDigits == 0) { // exact: no fudge, and Infinity = Infinity
+          for (int i = 0; i < n; i++) mask |= (array[from + i] == value2 ? 1L : 0L) << i;
+          return mask;
+        }
+      }
+    }
+    if (nDigits == 0) return mask;
+
+    // almostEqual for the rows (which failed the strict test) that are near value2
+    double near = nearDistance(nDigits, nDigits >= 6 ? Math2.dEps : Math2.fEps, value2);
+    long candidates = 0;
+    for (int i = 0; i < n; i++)
+      candidates |= (Math.abs(array[from + i] - value2) <= near ? 1L : 0L) << i;
+    candidates &= ~mask;
+    while (candidates != 0) {
+      int i = Long.numberOfTrailingZeros(candidates);
+      candidates &= candidates - 1;
+      if (Math2.almostEqual(nDigits, array[from + i], value2)) mask |= 1L << i;
+    }
+    return mask;
+  }
+}
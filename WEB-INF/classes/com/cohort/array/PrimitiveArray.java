@@ -16,7 +16,6 @@ import java.math.BigInteger;
 import java.sql.Types;
 import java.text.MessageFormat;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.BitSet;
 import java.util.HashSet;
 import java.util.List;
@@ -2409,30 +2408,12 @@ public abstract class PrimitiveArray {
    *     rank[1] is the row number of the second item in the sorted list, ...).
    */
   public static int[] rank(List<PrimitiveArray> table, int keys[], boolean[] ascending) {
-    return lowRank(new RowComparator(table, keys, ascending), table);
+    return new RowSorter(table, keys, ascending, false).rank();
   }
 
   /** This is like rank, but StringArrays are tested case insensitively. */
   public static int[] rankIgnoreCase(List<PrimitiveArray> table, int keys[], boolean[] ascending) {
-    return lowRank(new RowComparatorIgnoreCase(table, keys, ascending), table);
-  }
-
-  private static int[] lowRank(RowComparator comparator, List<PrimitiveArray> table) {
-
-    // create the rowArray with pointer to specific rows
-    int n = table.getFirst().size();
-    Integer[] rowArray = new Integer[n];
-    for (int i = 0; i < n; i++) rowArray[i] = i;
-
-    // sort the rows
-    Arrays.sort(rowArray, comparator); // this is "stable"
-    // String2.log("rank results: " + String2.toCSSVString(integerArray));
-
-    // create the int[]
-    int[] newArray = new int[n];
-    for (int i = 0; i < n; i++) newArray[i] = rowArray[i];
-
-    return newArray;
+    return new RowSorter(table, keys, ascending, true).rank();
   }
 
   /**
@@ -3478,6 +3459,10 @@ public abstract class PrimitiveArray {
    * Tests of "nonNaN != NaN" will evaluate to true. <br>
    * All other tests where value1 is NaN or value2 is NaN will evaluate to false.
    *
+   * <p>For the numeric types (other than ULONG), the tests are done by ConstraintKernels, 64 rows
+   * (one of keep's long words) at a time, directly on the backing array. The results are the same
+   * as the per row testValueOpValue methods. A keep=true element at or beyond size() is an error.
+   *
    * @param morePrecise e.g., for tests of time values which are very precise.
    * @param keep The test is only applied to keep=true elements. If the test is false, the keep
    *     element is set to false.
@@ -3534,81 +3519,18 @@ public abstract class PrimitiveArray {
       return nStillGood;
     }
 
-    // long
-    if (elementType() == PAType.LONG) {
-      double value2d = String2.parseDouble(value2);
-      long value2l = String2.parseLong(value2); // LongArray.MAX_VALUE if trouble
-      int nStillGood = 0;
-      if (value2d == value2l && value2l != Long.MAX_VALUE) { // value2 parsed cleanly as a long
-        // String2.log("applyConstraint(long)");
-        for (int row = keep.nextSetBit(0); row >= 0; row = keep.nextSetBit(row + 1)) {
-          if (testValueOpValue(getLong(row), op, value2l)) nStillGood++;
-          else keep.clear(row);
-        }
-      } else { // do 'exact' test via double
-        for (int row = keep.nextSetBit(0); row >= 0; row = keep.nextSetBit(row + 1)) {
-          if (testValueOpValueExact(getDouble(row), op, value2d)) nStillGood++;
-          else keep.clear(row);
-        }
-      }
-      return nStillGood;
-    }
-
-    // int types
-    if (isIntegerType()) {
-      double value2d = String2.parseDouble(value2);
-      int value2i = String2.parseInt(value2);
-      int nStillGood = 0;
-      if (value2d == value2i && value2d != Integer.MAX_VALUE) { // value2 parsed cleanly as int
-        // String2.log("applyConstraint(int)");
-        for (int row = keep.nextSetBit(0); row >= 0; row = keep.nextSetBit(row + 1)) {
-          if (testValueOpValue(getInt(row), op, value2i)) nStillGood++;
-          else keep.clear(row);
-        }
-      } else { // do exact test
-        for (int row = keep.nextSetBit(0); row >= 0; row = keep.nextSetBit(row + 1)) {
-          if (testValueOpValueExact(getDouble(row), op, value2d)) nStillGood++;
-          else keep.clear(row);
-        }
-      }
-      return nStillGood;
-    }
-
-    // float
-    if (elementType() == PAType.FLOAT) {
-      // String2.log("applyConstraint(float)");
-      int nStillGood = 0;
-      float value2f = String2.parseFloat(value2);
-      for (int row = keep.nextSetBit(0); row >= 0; row = keep.nextSetBit(row + 1)) {
-        if (testValueOpValue(getFloat(row), op, value2f)) nStillGood++;
-        else keep.clear(row);
-      }
-      return nStillGood;
-    }
-
-    // morePrecise
-    if (morePrecise) {
-      int nStillGood = 0;
-      double value2d = String2.parseDouble(value2);
-      for (int row = keep.nextSetBit(0); row >= 0; row = keep.nextSetBit(row + 1)) {
-        if (testValueOpValueExtra(getDouble(row), op, value2d)) // extra
-        nStillGood++;
-        else keep.clear(row);
-      }
-      // String2.log(">> applyConstraint(double, morePrecise) nStillGood=" + nStillGood);
-      return nStillGood;
-    }
-
-    // treat everything else via double tests (that should be all that is left)
-    // String2.log("applyConstraint(double)");
-    int nStillGood = 0;
-    double value2d = String2.parseDouble(value2);
-    for (int row = keep.nextSetBit(0); row >= 0; row = keep.nextSetBit(row + 1)) {
-      if (testValueOpValue(getDouble(row), op, value2d)) // normal
-      nStillGood++;
-      else keep.clear(row);
-    }
-    return nStillGood;
+    // the other numeric types: test blocks of 64 rows at a time (see ConstraintKernels)
+    if (keep.length() > size)
+      throw new IllegalArgumentException(
+          String2.ERROR
+              + " in "
+              + getClass().getSimpleName()
+              + ".applyConstraint: index ("
+              + (keep.length() - 1)
+              + ") >= size ("
+              + size
+              + ").");
+    return ConstraintKernels.applyConstraint(this, morePrecise, keep, op, value2);
   }
 
   /**
@@ -0,0 +1,292 @@
+/* This file is part of the EMA project and is
+ * Copyright (c) 2005 Robert Simons (CoHortSoftware@gmail.com).
+ * See the MIT/X-like license in LICENSE.txt.
+ * For more information visit www.cohortsoftware.com or contact CoHortSoftware@gmail.com.
+ */
+package com.cohort.array;
+
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This is used by PrimitiveArray.rank and rankIgnoreCase to rank the rows of a table of data stored
+ * as a List of PrimitiveArrays. It works on an int[] of row numbers (not an Integer[]) and gets
+ * each key column's values once (not once per comparison).
+ *
+ * <p>Numeric key columns are converted to a long[] of "sortable" values: long values which sort (as
+ * signed longs) in exactly the same order as that PrimitiveArray's compare() method (so missing
+ * values which are stored as e.g., Byte.MAX_VALUE with maxIsMV, still sort as the largest value,
+ * and NaN's sort as bigger than +Infinity). For descending keys, the sortable value is complemented
+ * (~), which exactly reverses the order without affecting ties. If all keys are numeric and there
+ * are lots of rows, the rows are ranked with an LSD radix sort (one pass per byte which actually
+ * varies, last key first). Otherwise (e.g., String keys), the rows are ranked with a merge sort,
+ * which is done in parallel for large tables.
+ *
+ * <p>Both sorts are stable: rows with equal keys stay in their original order.
+ */
+class RowSorter {
+
+  /** Tables with fewer rows than this are ranked with the merge sort. */
+  static final int RADIX_MIN_ROWS = 1024;
+
+  /** Merge sorts of more than this many rows are done in parallel. */
+  static final int PARALLEL_MIN_ROWS = 8192;
+
+  /** Parts of a merge sort with up to this many rows are done with an insertion sort. */
+  private static final int INSERTION_MAX_ROWS = 32;
+
+  /** For each key, the sortable values (or null if that key is a String key). */
+  private final long[][] longKeys;
+
+  /** For each key, the String values (or null if that key is a numeric key). */
+  private final String[][] stringKeys;
+
+  /** For each key, the comparator for the String values (or null). */
+  private final Comparator<? super String>[] stringComparators;
+
+  private final boolean[] ascending;
+  private final int nRows;
+  private final boolean allNumeric;
+
+  /**
+   * The constructor. This gets the values of the key columns.
+   *
+   * @param table a List of PrimitiveArrays
+   * @param keys an array of the key column numbers (each is 0..nColumns-1, the first key is the
+   *     most important) which are used to determine the sort order
+   * @param ascending an array of booleans corresponding to the keys indicating if the arrays are to
+   *     be sorted by a given key in ascending or descending order.
+   * @param ignoreCase if true, CharArray and StringArray keys are compared case insensitively (see
+   *     PrimitiveArray.compareIgnoreCase).
+   * @throws RuntimeException if trouble
+   */
+  @SuppressWarnings("unchecked")
+  RowSorter(List<PrimitiveArray> table, int keys[], boolean[] ascending, boolean ignoreCase) {
+    String errorInMethod = String2.ERROR + " in RowSorter constructor:\n";
+    Test.ensureNotEqual(keys.length, 0, errorInMethod + "keys.length must not be 0.");
+    Test.ensureEqual(
+        keys.length, ascending.length, errorInMethod + "keys.length must equal ascending.length.");
+    for (int k = 0; k < keys.length; k++)
+      Test.ensureBetween(
+          keys[k],
+          0,
+          table.size() - 1,
+          errorInMethod + "keys[" + k + "] points to a column that isn't in the table.");
+
+    int nKeys = keys.length;
+    nRows = table.getFirst().size();
+    this.ascending = ascending;
+    longKeys = new long[nKeys][];
+    stringKeys = new String[nKeys][];
+    stringComparators = new Comparator[nKeys];
+    boolean tAllNumeric = true;
+    for (int k = 0; k < nKeys; k++) {
+      PrimitiveArray pa = table.get(keys[k]);
+      PAType paType = pa.elementType();
+      if (paType == PAType.STRING || paType == PAType.CHAR) {
+        tAllNumeric = false;
+        String[] sar = new String[nRows];
+        for (int row = 0; row < nRows; row++) sar[row] = pa.getString(row);
+        stringKeys[k] = sar;
+        if (!ignoreCase) stringComparators[k] = Comparator.naturalOrder();
+        else if (paType == PAType.STRING)
+          stringComparators[k] = StringArray.stringComparatorIgnoreCase;
+        else stringComparators[k] = String2.STRING_COMPARATOR_IGNORE_CASE;
+      } else {
+        long[] lar = sortableValues(pa, nRows);
+        if (!ascending[k]) for (int row = 0; row < nRows; row++) lar[row] = ~lar[row];
+        longKeys[k] = lar;
+      }
+    }
+    allNumeric = tAllNumeric;
+  }
+
+  /**
+   * This returns long values which sort (as signed longs) in the same order as pa.compare(i1, pa,
+   * i2) sorts the values in pa.
+   *
+   * @param pa a numeric PrimitiveArray
+   * @param nRows the number of rows to be converted
+   * @return a new long[nRows]
+   */
+  static long[] sortableValues(PrimitiveArray pa, int nRows) {
+    long[] lar = new long[nRows];
+    switch (pa.elementType()) {
+      case BYTE, SHORT, UBYTE, USHORT -> {
+        // compare() uses Integer.compare(getInt()), which handles maxIsMV
+        for (int row = 0; row < nRows; row++) lar[row] = pa.getInt(row);
+      }
+      case INT, UINT, LONG -> {
+        // compare() uses Long.compare(getLong()), which handles maxIsMV
+        for (int row = 0; row < nRows; row++) lar[row] = pa.getLong(row);
+      }
+      case ULONG -> {
+        // compare() compares the unsigned values (ignoring maxIsMV)
+        long[] array = ((ULongArray) pa).array;
+        for (int row = 0; row < nRows; row++) lar[row] = array[row] ^ Long.MIN_VALUE;
+      }
+      case FLOAT -> {
+        // like Float.compare(getFloat()): -0 < 0 and NaN is bigger than +Infinity
+        for (int row = 0; row < nRows; row++) {
+          int bits = Float.floatToIntBits(pa.getFloat(row));
+          lar[row] = bits ^ ((bits >> 31) & Integer.MAX_VALUE);
+        }
+      }
+      default -> {
+        // DOUBLE: like Double.compare(getDouble()): -0 < 0 and NaN is bigger than +Infinity
+        for (int row = 0; row < nRows; row++) {
+          long bits = Double.doubleToLongBits(pa.getDouble(row));
+          lar[row] = bits ^ ((bits >> 63) & Long.MAX_VALUE);
+        }
+      }
+    }
+    return lar;
+  }
+
+  /**
+   * This ranks the rows.
+   *
+   * @return an int[] with values (0 ... size-1) which points to the row number for a row with a
+   *     specific rank (e.g., rank[0] is the row number of the first item in the sorted list,
+   *     rank[1] is the row number of the second item in the sorted list, ...).
+   */
+  int[] rank() {
+    int[] rows = new int[nRows];
+    for (int i = 0; i < nRows; i++) rows[i] = i;
+    if (nRows < 2) return rows;
+    return allNumeric && nRows >= RADIX_MIN_ROWS ? radixSort(rows) : mergeSort(rows);
+  }
+
+  /**
+   * This ranks the rows with an LSD radix sort. All of the keys must be numeric.
+   *
+   * @param rows the initial row numbers
+   * @return the ranked row numbers (rows or a new array)
+   */
+  int[] radixSort(int[] rows) {
+    int[] temp = new int[nRows];
+    int[] count = new int[257];
+    for (int k = longKeys.length - 1; k >= 0; k--) { // least important key first
+      long[] lar = longKeys[k];
+
+      // which bits vary?
+      long first = lar[0];
+      long diff = 0;
+      for (int row = 1; row < nRows; row++) diff |= lar[row] ^ first;
+
+      for (int shift = 0; shift < 64; shift += 8) {
+        if (((diff >>> shift) & 0xff) == 0) continue; // this byte is the same for all rows
+        int flip = shift == 56 ? 0x80 : 0; // so negative values sort before positive
+        Arrays.fill(count, 0);
+        for (int i = 0; i < nRows; i++)
+          count[(((int) (lar[rows[i]] >>> shift) & 0xff) ^ flip) + 1]++;
+        for (int b = 1; b < 257; b++) count[b] += count[b - 1];
+        for (int i = 0; i < nRows; i++) {
+          int row = rows[i];
+          temp[count[((int) (lar[row] >>> shift) & 0xff) ^ flip]++] = row;
+        }
+        int[] tRows = rows;
+        rows = temp;
+        temp = tRows;
+      }
+    }
+    return rows;
+  }
+
+  /**
+   * This ranks the rows with a merge sort (in parallel if there are lots of rows).
+   *
+   * @param rows the initial row numbers
+   * @return rows, now ranked
+   */
+  int[] mergeSort(int[] rows) {
+    int[] temp = new int[nRows];
+    if (nRows < PARALLEL_MIN_ROWS || ForkJoinPool.getCommonPoolParallelism() < 2)
+      mergeSort(rows, temp, 0, nRows);
+    else ForkJoinPool.commonPool().invoke(new MergeSortTask(rows, temp, 0, nRows));
+    return rows;
+  }
+
+  /** This is the parallel version of mergeSort(rows, temp, from, to). */
+  private class MergeSortTask extends RecursiveAction {
+    private final int[] rows, temp;
+    private final int from, to;
+
+    MergeSortTask(int[] rows, int[] temp, int from, int to) {
+      this.rows = rows;
+      this.temp = temp;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from < PARALLEL_MIN_ROWS) {
+        mergeSort(rows, temp, from, to);
+        return;
+      }
+      int mid = (from + to) >>> 1;
+      invokeAll(new MergeSortTask(rows, temp, from, mid), new MergeSortTask(rows, temp, mid, to));
+      merge(rows, temp, from, mid, to);
+    }
+  }
+
+  /** This sorts rows[from ... to-1]. */
+  private void mergeSort(int[] rows, int[] temp, int from, int to) {
+    if (to - from <= INSERTION_MAX_ROWS) {
+      for (int i = from + 1; i < to; i++) {
+        int row = rows[i];
+        int j = i - 1;
+        while (j >= from && compareRows(rows[j], row) > 0) {
+          rows[j + 1] = rows[j];
+          j--;
+        }
+        rows[j + 1] = row;
+      }
+      return;
+    }
+    int mid = (from + to) >>> 1;
+    mergeSort(rows, temp, from, mid);
+    mergeSort(rows, temp, mid, to);
+    merge(rows, temp, from, mid, to);
+  }
+
+  /** This merges the sorted rows[from ... mid-1] and rows[mid ... to-1]. */
+  private void merge(int[] rows, int[] temp, int from, int mid, int to) {
+    if (compareRows(rows[mid - 1], rows[mid]) <= 0) return; // already in order
+    System.arraycopy(rows, from, temp, from, mid - from);
+    int i = from, j = mid, o = from;
+    while (i < mid && j < to)
+      rows[o++] = compareRows(temp[i], rows[j]) <= 0 ? temp[i++] : rows[j++];
+    while (i < mid) rows[o++] = temp[i++];
+  }
+
+  /**
+   * This compares two rows.
+   *
+   * @param row1 a row number
+   * @param row2 another row number
+   * @return a negative integer, zero, or a positive integer if row1 sorts before, the same as, or
+   *     after row2.
+   */
+  int compareRows(int row1, int row2) {
+    for (int k = 0; k < longKeys.length; k++) {
+      long[] lar = longKeys[k];
+      int result;
+      if (lar != null) {
+        result = Long.compare(lar[row1], lar[row2]); // descending is already handled
+      } else {
+        String[] sar = stringKeys[k];
+        result = stringComparators[k].compare(sar[row1], sar[row2]);
+        if (!ascending[k]) result = -result;
+      }
+      if (result != 0) return result;
+    }
+    return 0;
+  }
+}
@@ -0,0 +1,131 @@
+/* This file is Copyright (c) 2010, NOAA.
+ * See the MIT/X-like license in LICENSE.txt.
+ * For more information, email BobSimons2.00@gmail.com.
+ */
+package com.cohort.util;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * A thread-safe map with weak keys and weak values, used by String2.canonical and
+ * String2.canonicalLock. It replaces the synchronized WeakHashMaps, which were a point of
+ * contention when lots of threads were reading files (and so making lots of canonical strings) at
+ * once.
+ *
+ * <p>It is a ConcurrentHashMap, so reads (the common case: the canonical value already exists) are
+ * lock-free, and writes only lock one bin of the map. The keys are WeakReferences which are
+ * registered with a ReferenceQueue. When a key is garbage collected, its entry is removed the next
+ * time the map is used (a poll of an empty ReferenceQueue is just a volatile read).
+ *
+ * <p>If the value is the key (as with canonical Strings), the key's WeakReference is also used as
+ * the value's WeakReference, so there is just one WeakReference per entry.
+ */
+public class CanonicalMap<K, V> {
+
+  private final ConcurrentHashMap<Object, WeakReference<V>> map;
+  private final ReferenceQueue<K> queue = new ReferenceQueue<>();
+
+  /**
+   * The constructor.
+   *
+   * @param initialCapacity the initial capacity of the map
+   */
+  public CanonicalMap(int initialCapacity) {
+    map = new ConcurrentHashMap<>(initialCapacity);
+  }
+
+  /** This is the key stored in the map. */
+  private static final class WeakKey<K> extends WeakReference<K> {
+    final int hash;
+
+    WeakKey(K key, ReferenceQueue<K> queue) {
+      super(key, queue);
+      hash = key.hashCode();
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (o == this) return true;
+      Object r = get();
+      if (r == null) return false; // a collected key is only equal to itself
+      if (o instanceof WeakKey<?> other) return hash == other.hash && r.equals(other.get());
+      return o instanceof LookupKey other && hash == other.hash && r.equals(other.key);
+    }
+  }
+
+  /** This is a short-lived key, just used to look for a key in the map. */
+  private static final class LookupKey {
+    final Object key;
+    final int hash;
+
+    LookupKey(Object key) {
+      this.key = key;
+      hash = key.hashCode();
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (o == this) return true;
+      if (o instanceof WeakKey<?> other) return hash == other.hash && key.equals(other.get());
+      return o instanceof LookupKey other && hash == other.hash && key.equals(other.key);
+    }
+  }
+
+  /**
+   * This returns the canonical value for the key. If there isn't one (or it has been garbage
+   * collected), this makes one with makeValue and stores it. This is thread safe. If two threads
+   * try to make the value for a key at the same time, both threads will get the same value.
+   *
+   * @param key the key (not null)
+   * @param makeValue makes a value for a key (it may return the key, e.g., for canonical strings).
+   *     It must not return null.
+   * @return the canonical value
+   */
+  @SuppressWarnings("unchecked")
+  public V get(K key, Function<? super K, ? extends V> makeValue) {
+    expungeStaleEntries();
+    WeakReference<V> ref = map.get(new LookupKey(key));
+    V value = ref == null ? null : ref.get();
+    if (value != null) return value;
+
+    value = makeValue.apply(key);
+    WeakKey<K> weakKey = new WeakKey<>(key, queue);
+    WeakReference<V> valueRef =
+        value == key ? (WeakReference<V>) weakKey : new WeakReference<>(value);
+    while (true) {
+      WeakReference<V> oldRef = map.putIfAbsent(weakKey, valueRef);
+      if (oldRef == null) return value;
+      V oldValue = oldRef.get();
+      if (oldValue != null) return oldValue; // another thread just made it
+      // the key is still in use, but the value was garbage collected
+      if (map.replace(weakKey, oldRef, valueRef)) return value;
+    }
+  }
+
+  /** This removes the entries whose keys have been garbage collected. */
+  private void expungeStaleEntries() {
+    for (Object ref; (ref = queue.poll()) != null; ) map.remove(ref);
+  }
+
+  /**
+   * This returns the number of entries in the map. Entries whose keys have been garbage collected,
+   * but which haven't been removed yet, are included.
+   */
+  public int size() {
+    expungeStaleEntries();
+    return map.size();
+  }
+}
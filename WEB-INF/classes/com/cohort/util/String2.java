@@ -15,7 +15,6 @@ import java.io.File;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PushbackInputStream;
-import java.lang.ref.WeakReference;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.math.MathContext;
@@ -34,8 +33,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
-import java.util.WeakHashMap;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.apache.commons.codec.binary.Base64;
@@ -197,20 +196,12 @@ public class String2 {
   private static final DecimalFormat genStdFormat10 = new DecimalFormat("0.##########");
   private static final DecimalFormat genExpFormat10 = new DecimalFormat("0.##########E0");
 
-  // splitting canonicalMap into 127 maps allows each
-  // to be bigger and makes synchronized contention less common.
-  // 127 seems better than 128. See stats at end of Table.testBigAscii();
-  private static final int nCanonicalMaps = 127;
-  static final Map<String, WeakReference<String>>[] canonicalMap = new Map[nCanonicalMaps];
+  // canonicalMap is a ConcurrentHashMap (see CanonicalMap), so lookups of existing
+  // canonical strings are lock-free. It replaced 127 synchronized WeakHashMaps.
+  static final CanonicalMap<String, String> canonicalMap = new CanonicalMap<>(1 << 16);
 
-  static {
-    for (int i = 0; i < nCanonicalMaps; i++) {
-      canonicalMap[i] = new WeakHashMap<>();
-    }
-  }
-
-  private static final Map<Object, WeakReference<ReentrantLock>> canonicalLockMap =
-      new WeakHashMap<>();
+  private static final CanonicalMap<Object, ReentrantLock> canonicalLockMap =
+      new CanonicalMap<>(256);
   public static final int longTimeoutSeconds =
       300; // 5 minutes. This is >= other timeouts in the system. This is used in places that
 
@@ -5815,14 +5806,14 @@ public class String2 {
   }
 
   /**
-   * This is like String.intern(), but uses a WeakHashMap so the canonical strings can be garbage
-   * collected. <br>
-   * This is thread safe. <br>
+   * This is like String.intern(), but uses a CanonicalMap (with weak keys and values) so the
+   * canonical strings can be garbage collected. <br>
+   * This is thread safe. Getting an existing canonical string is lock-free. <br>
    * It is fast: ~0.002ms per call. <br>
    * See TestUtil.testString2canonical().
    *
-   * <p>Using this increases memory use by ~6 bytes per canonical string (4 for pointer, and hashMap
-   * load factor = 0.75). <br>
+   * <p>Using this increases memory use by ~80 bytes per canonical string (the map's entry and a
+   * WeakReference). <br>
    * So it only saves memory if many strings would otherwise be duplicated. <br>
    * But if lots of strings are originally duplicates, it saves *lots* of memory.
    *
@@ -5832,35 +5823,15 @@ public class String2 {
   public static String canonical(String s) {
     if (s == null) return null;
     if (s.length() == 0) return EMPTY_STRING;
-    // generally, it slows things down to see if same as last canonical String.
-    Map<String, WeakReference<String>> tCanonicalMap =
-        canonicalMap[
-            Math.abs(s.hashCode() ^ s.length())
-                % nCanonicalMaps]; // ^length makes it different, so not lots of collisions within
-    // tCanonicalMap[i]
-    // see stats at end of Table.testBigAscii();
-
-    // faster and logically better to use synchronized(canonicalMap) once
-    //  (and use a few times in consistent state)
-    // than to synchronize canonicalMap and lock/unlock twice
-    synchronized (tCanonicalMap) {
-      WeakReference<String> wr = tCanonicalMap.get(s);
-      // wr won't be garbage collected, but reference might (making wr.get() return null)
-      String canonical = wr == null ? null : wr.get();
-      if (canonical == null) {
-        // For proof that new String(s.substring(,)) is just storing relevant chars,
-        // not a reference to the parent string, see TestUtil.testString2canonical2()
-        canonical = s;
-        tCanonicalMap.put(canonical, new WeakReference<>(canonical));
-      }
-      return canonical;
-    }
+    // For proof that new String(s.substring(,)) is just storing relevant chars,
+    // not a reference to the parent string, see TestUtil.testString2canonical2()
+    return canonicalMap.get(s, Function.identity());
   }
 
   /**
-   * This returns a canonical ReentrantLock for the specified object. It uses a WeakHashMap so the
-   * canonical locks can be garbage collected. <br>
-   * This is thread safe. <br>
+   * This returns a canonical ReentrantLock for the specified object. It uses a CanonicalMap (with
+   * weak keys and values) so the canonical locks can be garbage collected. <br>
+   * This is thread safe. Getting an existing lock is lock-free. <br>
    * It is fast: ~0.002ms per call.
    *
    * @param o an object. I think that, unlike canonical(s), when o is a String, this needen't be the
@@ -5870,33 +5841,15 @@ public class String2 {
    */
   public static ReentrantLock canonicalLock(Object o) {
     if (o == null) return null;
-
-    // faster and logically better to use synchronized(canonicalLockMap) once
-    //  (and use a few times in consistent state)
-    // than to synchronize canonicalMap and lock/unlock twice
-    synchronized (canonicalLockMap) {
-      WeakReference<ReentrantLock> wr = canonicalLockMap.get(o);
-      // wr won't be garbage collected, but reference might (making wr.get() return null)
-      ReentrantLock canonical = wr == null ? null : wr.get();
-      if (canonical == null) {
-        canonical = new ReentrantLock();
-        canonicalLockMap.put(o, new WeakReference<>(canonical));
-      }
-      return canonical;
-    }
+    return canonicalLockMap.get(o, k -> new ReentrantLock());
   }
 
   /** This is only used to test canonical. There isn't a trailing newline. */
   public static String canonicalStatistics() {
-    StringBuilder sb = new StringBuilder("canonical map sizes: ");
-    int sum = 0;
-    for (int i = 0; i < canonicalMap.length; i++) {
-      int tSize = canonicalMap[i].size();
-      sum += tSize;
-      sb.append((i == 0 ? "" : " + ") + (i % 16 == 0 ? "\n" : "") + tSize);
-    }
-    sb.append(" = " + sum + "\n");
-    return sb.toString();
+    return "canonical map sizes: strings="
+        + canonicalMap.size()
+        + " locks="
+        + canonicalLockMap.size();
   }
 
   /**
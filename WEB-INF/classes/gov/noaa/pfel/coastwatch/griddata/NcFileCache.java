@@ -0,0 +1,354 @@
+/*
+ * NcFileCache Copyright 2026, NOAA.
+ * See the LICENSE.txt file in this file's directory.
+ */
+package gov.noaa.pfel.coastwatch.griddata;
+
+import com.cohort.util.File2;
+import com.cohort.util.MustBe;
+import com.cohort.util.String2;
+import com.sun.management.UnixOperatingSystemMXBean;
+import gov.noaa.pfel.erddap.util.Metrics;
+import io.prometheus.metrics.core.metrics.Counter;
+import io.prometheus.metrics.core.metrics.Gauge;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import ucar.nc2.NetcdfFile;
+
+/**
+ * This is a pool of open NetcdfFiles, so that repeated requests for data from the same file don't
+ * have to open the file and re-read and re-parse its header (which is slow for big HDF5/NetCDF-4
+ * files) each time.
+ *
+ * <p>A NetcdfFile isn't thread-safe, so each open NetcdfFile is used by just one thread at a time:
+ * acquire() leases an idle NetcdfFile for the file (or opens a new one) and Handle.close() returns
+ * it to the pool. So several threads may each have a NetcdfFile for the same file open at once.
+ *
+ * <p>Idle NetcdfFiles are keyed by fullName + lastModified + length, so a changed file never gets a
+ * stale NetcdfFile. The least-recently-used idle NetcdfFiles are closed when more than maxOpen
+ * NetcdfFiles (idle + leased) are open, or when the process has more than MAX_OPEN_FILES_PERCENT of
+ * its maximum number of open files open. invalidate() closes a file's idle NetcdfFiles right away
+ * (e.g., when SharedWatchService sees that the file changed).
+ *
+ * <p>By default, maxOpen=0, which turns the pool off: acquire() just opens the file and
+ * Handle.close() closes it. Remote files and .ncml files are never pooled.
+ */
+public class NcFileCache {
+
+  /**
+   * Set this to true (by calling verbose=true in your program, not by changing the code here) if
+   * you want some diagnostic messages sent to String2.log.
+   */
+  public static boolean verbose = false;
+
+  /** If more than this % of the process's maximum open files are open, nothing is kept idle. */
+  public static final int MAX_OPEN_FILES_PERCENT = 50;
+
+  /** How often (in millis) the process's number of open files is checked. */
+  public static final long CHECK_OPEN_FILES_MILLIS = 10000;
+
+  /** Counts acquire() requests that were (cached) or weren't (not_cached) satisfied by the pool. */
+  public static final Counter requests =
+      Counter.builder()
+          .name("nc_file_cache_requests_total")
+          .help("Count of requests to NcFileCache for an open NetcdfFile")
+          .labelNames("cache")
+          .build();
+
+  /** The number of NetcdfFiles (idle + leased) which are open via the pool. */
+  public static final Gauge openFiles =
+      Gauge.builder()
+          .name("nc_file_cache_open_files")
+          .help("Number of NetcdfFiles (idle + leased) held open by NcFileCache")
+          .build();
+
+  private static volatile int maxOpen = 0;
+
+  // all of these are guarded by synchronized (idle)
+  // key -> the idle NetcdfFiles for that key. accessOrder=true, so the eldest is the LRU.
+  private static final LinkedHashMap<String, ArrayDeque<NetcdfFile>> idle =
+      new LinkedHashMap<>(16, 0.75f, true);
+  private static int nIdle = 0;
+  private static int nLeased = 0;
+  private static long openFilesCheckedAt = 0;
+  private static boolean tooManyOpenFiles = false;
+
+  /**
+   * A leased NetcdfFile. Use it in a try-with-resources block. Don't close the NetcdfFile itself.
+   */
+  public static final class Handle implements AutoCloseable {
+    private final String key; // null if not pooled
+    private final String fullName;
+    private NetcdfFile netcdfFile;
+
+    private Handle(String key, String fullName, NetcdfFile netcdfFile) {
+      this.key = key;
+      this.fullName = fullName;
+      this.netcdfFile = netcdfFile;
+    }
+
+    /**
+     * This returns the NetcdfFile.
+     *
+     * @return the NetcdfFile
+     * @throws IllegalStateException if this Handle has been closed
+     */
+    public NetcdfFile netcdfFile() {
+      if (netcdfFile == null)
+        throw new IllegalStateException("NcFileCache.Handle for " + fullName + " is closed.");
+      return netcdfFile;
+    }
+
+    /** This returns the NetcdfFile to the pool (or closes it if it isn't pooled). */
+    @Override
+    public void close() {
+      NetcdfFile tNetcdfFile = netcdfFile;
+      if (tNetcdfFile == null) return; // already closed
+      netcdfFile = null;
+      release(this, tNetcdfFile);
+    }
+  }
+
+  /**
+   * This sets the maximum number of NetcdfFiles (idle + leased) that the pool tries to keep open.
+   * Leased NetcdfFiles are never closed by the pool, so this may be exceeded briefly.
+   *
+   * @param tMaxOpen 0 turns the pool off (and closes all idle NetcdfFiles).
+   */
+  public static void setMaxOpen(int tMaxOpen) {
+    maxOpen = Math.max(0, tMaxOpen);
+    List<NetcdfFile> toClose = new ArrayList<>();
+    synchronized (idle) {
+      trim(toClose);
+    }
+    closeAll(toClose);
+  }
+
+  /**
+   * This returns the current maxOpen setting.
+   *
+   * @return the current maxOpen setting (0 = the pool is off)
+   */
+  public static int maxOpen() {
+    return maxOpen;
+  }
+
+  /**
+   * This leases an open NetcdfFile for the file. ALWAYS close the Handle (not the NetcdfFile) when
+   * you are finished with it, preferably via try-with-resources.
+   *
+   * @param fullName This may be a local file name, an "http:" address of a .nc file (discouraged),
+   *     or an opendap url. If this is an .ncml file, the name must end in .ncml. See
+   *     NcHelper.openFile.
+   * @return a Handle with the NetcdfFile
+   * @throws Exception if trouble
+   */
+  public static Handle acquire(String fullName) throws Exception {
+    String key = maxOpen > 0 ? makeKey(fullName) : null;
+    if (key != null) {
+      synchronized (idle) {
+        ArrayDeque<NetcdfFile> deque = idle.get(key);
+        NetcdfFile netcdfFile = deque == null ? null : deque.pollFirst();
+        if (netcdfFile != null) {
+          if (deque.isEmpty()) idle.remove(key);
+          nIdle--;
+          nLeased++;
+          requests.labelValues(Metrics.Cache.cached.name()).inc();
+          return new Handle(key, fullName, netcdfFile);
+        }
+        nLeased++; // reserve it now, so trim() sees it
+      }
+    }
+
+    // open a new NetcdfFile (outside of the lock)
+    try {
+      NetcdfFile netcdfFile = NcHelper.openFile(fullName);
+      if (key != null) {
+        requests.labelValues(Metrics.Cache.not_cached.name()).inc();
+        openFiles.inc();
+      }
+      return new Handle(key, fullName, netcdfFile);
+    } catch (Exception e) {
+      if (key != null) {
+        synchronized (idle) {
+          nLeased--;
+        }
+      }
+      throw e;
+    }
+  }
+
+  /** This is called by Handle.close(). */
+  private static void release(Handle handle, NetcdfFile netcdfFile) {
+    if (handle.key == null) {
+      closeQuietly(netcdfFile);
+      return;
+    }
+
+    // Don't keep it if the pool is off, the file has changed, or this thread was interrupted
+    // (the NetcdfFile may be in an unknown state).
+    boolean keep =
+        maxOpen > 0
+            && !Thread.currentThread().isInterrupted()
+            && handle.key.equals(makeKey(handle.fullName))
+            && !tooManyOpenFiles();
+    List<NetcdfFile> toClose = new ArrayList<>();
+    synchronized (idle) {
+      nLeased--;
+      if (keep) {
+        idle.computeIfAbsent(handle.key, k -> new ArrayDeque<>()).addFirst(netcdfFile);
+        nIdle++;
+        trim(toClose);
+      } else {
+        toClose.add(netcdfFile);
+      }
+    }
+    closeAll(toClose);
+  }
+
+  /**
+   * This closes the idle NetcdfFiles for a file. Call this when a file has changed or been deleted.
+   * NetcdfFiles for this file which are currently leased won't be returned to the pool if the file
+   * has changed.
+   *
+   * @param fullName the name of the file
+   */
+  public static void invalidate(String fullName) {
+    String prefix = fullName + "\t";
+    List<NetcdfFile> toClose = new ArrayList<>();
+    synchronized (idle) {
+      if (nIdle == 0) return;
+      Iterator<Map.Entry<String, ArrayDeque<NetcdfFile>>> it = idle.entrySet().iterator();
+      while (it.hasNext()) {
+        Map.Entry<String, ArrayDeque<NetcdfFile>> entry = it.next();
+        if (entry.getKey().startsWith(prefix)) {
+          nIdle -= entry.getValue().size();
+          toClose.addAll(entry.getValue());
+          it.remove();
+        }
+      }
+    }
+    if (verbose && !toClose.isEmpty())
+      String2.log("NcFileCache.invalidate closed " + toClose.size() + " for " + fullName);
+    closeAll(toClose);
+  }
+
+  /** This closes all of the idle NetcdfFiles. */
+  public static void clear() {
+    List<NetcdfFile> toClose = new ArrayList<>();
+    synchronized (idle) {
+      for (ArrayDeque<NetcdfFile> deque : idle.values()) toClose.addAll(deque);
+      idle.clear();
+      nIdle = 0;
+    }
+    closeAll(toClose);
+  }
+
+  /**
+   * This returns a string with statistics (e.g., for the daily report).
+   *
+   * @return a string with statistics
+   */
+  public static String statistics() {
+    synchronized (idle) {
+      return "NcFileCache: maxOpen="
+          + maxOpen
+          + " nIdle="
+          + nIdle
+          + " nLeased="
+          + nLeased
+          + " nCached="
+          + requests.labelValues(Metrics.Cache.cached.name()).getLongValue()
+          + " nNotCached="
+          + requests.labelValues(Metrics.Cache.not_cached.name()).getLongValue();
+    }
+  }
+
+  /**
+   * This returns the key for the current version of the file.
+   *
+   * @return the key, or null if this file can't be pooled (e.g., it is remote or doesn't exist)
+   */
+  private static String makeKey(String fullName) {
+    if (String2.isUrl(fullName) || fullName.endsWith(".ncml")) return null;
+    long length = File2.length(fullName);
+    if (length < 0) return null;
+    return fullName + "\t" + File2.getLastModified(fullName) + "\t" + length;
+  }
+
+  /**
+   * This closes LRU idle NetcdfFiles until there are at most maxOpen (idle + leased). Call this
+   * while synchronized on idle.
+   *
+   * @param toClose receives the NetcdfFiles which should be closed (after leaving the lock)
+   */
+  private static void trim(List<NetcdfFile> toClose) {
+    Iterator<ArrayDeque<NetcdfFile>> it = idle.values().iterator();
+    while (nIdle > 0 && nIdle + nLeased > maxOpen && it.hasNext()) {
+      ArrayDeque<NetcdfFile> deque = it.next(); // the least recently used
+      while (!deque.isEmpty() && nIdle + nLeased > maxOpen) {
+        toClose.add(deque.pollLast());
+        nIdle--;
+      }
+      if (deque.isEmpty()) it.remove();
+    }
+  }
+
+  /**
+   * This checks (at most every CHECK_OPEN_FILES_MILLIS) if the process has more than
+   * MAX_OPEN_FILES_PERCENT of its maximum number of open files open (see
+   * LoadDatasets.getOpenFiles).
+   *
+   * @return true if there are too many open files
+   */
+  private static boolean tooManyOpenFiles() {
+    long now = System.currentTimeMillis();
+    synchronized (idle) {
+      if (now - openFilesCheckedAt < CHECK_OPEN_FILES_MILLIS) return tooManyOpenFiles;
+      openFilesCheckedAt = now;
+    }
+    boolean tooMany = false;
+    try {
+      OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+      if (osBean instanceof UnixOperatingSystemMXBean uBean) {
+        long maxF = uBean.getMaxFileDescriptorCount();
+        tooMany =
+            maxF > 0 && uBean.getOpenFileDescriptorCount() * 100 > maxF * MAX_OPEN_FILES_PERCENT;
+      }
+    } catch (Throwable t) {
+      // leave tooMany=false
+    }
+    if (tooMany) {
+      String2.log(
+          "NcFileCache: more than "
+              + MAX_OPEN_FILES_PERCENT
+              + "% of the max open files are open, so idle NetcdfFiles are being closed.");
+      clear();
+    }
+    synchronized (idle) {
+      tooManyOpenFiles = tooMany;
+    }
+    return tooMany;
+  }
+
+  private static void closeAll(List<NetcdfFile> toClose) {
+    for (NetcdfFile netcdfFile : toClose) {
+      closeQuietly(netcdfFile);
+      openFiles.dec();
+    }
+  }
+
+  private static void closeQuietly(NetcdfFile netcdfFile) {
+    try {
+      netcdfFile.close();
+    } catch (Throwable t) {
+      String2.log(MustBe.throwable("NcFileCache: while closing " + netcdfFile.getLocation(), t));
+    }
+  }
+}
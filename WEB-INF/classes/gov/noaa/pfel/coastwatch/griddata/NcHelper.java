@@ -757,6 +757,20 @@ public class NcHelper {
         NetcdfFiles.open(fullName); // 's' is the new API
   }
 
+  /**
+   * This is like openFile, but the NetcdfFile may come from (and will be returned to) NcFileCache,
+   * the pool of open NetcdfFiles. This is much faster than openFile when the same big HDF5/NetCDF-4
+   * file is read repeatedly. ALWAYS close the Handle (not the NetcdfFile) when you are finished
+   * with it, preferably via try-with-resources. Don't use the NetcdfFile in another thread.
+   *
+   * @param fullName see openFile
+   * @return a Handle with the NetcdfFile
+   * @throws Exception if trouble
+   */
+  public static NcFileCache.Handle openCachedFile(String fullName) throws Exception {
+    return NcFileCache.acquire(fullName);
+  }
+
   /**
    * This converts a List&lt;variable&gt; to a Variable[].
    *
@@ -48,8 +48,10 @@ import dods.dap.DataDDS;
 import gov.noaa.pfel.coastwatch.griddata.DataHelper;
 import gov.noaa.pfel.coastwatch.griddata.FileNameUtility;
 import gov.noaa.pfel.coastwatch.griddata.Matlab;
+import gov.noaa.pfel.coastwatch.griddata.NcFileCache;
 import gov.noaa.pfel.coastwatch.griddata.NcHelper;
 import gov.noaa.pfel.coastwatch.griddata.OpendapHelper;
+import gov.noaa.pfel.coastwatch.pointdata.parquet.ParquetColumnReader;
 import gov.noaa.pfel.coastwatch.pointdata.parquet.ParquetWriterBuilder;
 import gov.noaa.pfel.coastwatch.util.HtmlWidgets;
 import gov.noaa.pfel.coastwatch.util.SSR;
@@ -161,6 +163,15 @@ public class Table {
     void apply(String[] columnNames) throws Exception;
   }
 
+  /** A ChunkConsumer gets the chunks of data from a read which is done in chunks. */
+  public static interface ChunkConsumer {
+    /**
+     * @param chunk a table with the metadata and some rows of data. The consumer may keep it.
+     * @return true if more data is wanted
+     */
+    boolean accept(Table chunk) throws Throwable;
+  }
+
   /**
    * Set this to true (by calling verbose=true in your program, not by changing the code here) if
    * you want lots of diagnostic messages sent to String2.log.
@@ -3325,8 +3336,53 @@ public class Table {
    * @throws SimpleException if trouble (but doesn't close the reader)
    */
   public void lowReadNccsv(String fullName, boolean readData, BufferedReader reader) {
+    try {
+      lowReadNccsv(fullName, readData, reader, 0, null);
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable t) {
+      throw new RuntimeException(t); // can't happen since there is no consumer
+    }
+  }
+
+  /**
+   * This reads an NCCSV .csv file in chunks, so that a huge file (e.g., the response from a remote
+   * ERDDAP) never has to be in memory all at once. When this returns, this table has the metadata
+   * (and no rows of data). See https://erddap.github.io/docs/user/nccsv-1.20 . *SCALAR* and
+   * *DATA_TYPE* attributes are processed and removed.
+   *
+   * @param fullName for error messages only
+   * @param reader from a file or URL
+   * @param chunkNRows the maximum number of rows in each chunk (&gt;=1)
+   * @param consumer gets each chunk (a new table with copies of the metadata and with *SCALAR*
+   *     columns expanded). It always gets at least one chunk (perhaps with 0 rows), unless there is
+   *     trouble with the metadata. If it returns false, no more data is read.
+   * @throws Throwable if trouble (but doesn't close the reader). Exceptions thrown by the consumer
+   *     are thrown unchanged.
+   */
+  public void readNccsvInChunks(
+      String fullName, BufferedReader reader, int chunkNRows, ChunkConsumer consumer)
+      throws Throwable {
+    lowReadNccsv(fullName, true, reader, Math.max(1, chunkNRows), consumer);
+  }
+
+  /**
+   * This does the work for lowReadNccsv and readNccsvInChunks.
+   *
+   * @param chunkNRows the maximum number of rows in each chunk (ignored if consumer is null)
+   * @param consumer gets each chunk of data, or null to read all of the data into this table
+   */
+  private void lowReadNccsv(
+      String fullName,
+      boolean readData,
+      BufferedReader reader,
+      int chunkNRows,
+      ChunkConsumer consumer)
+      throws Throwable {
     long time = System.currentTimeMillis();
     long lineNumber = 0;
+    long nRowsRead = 0;
+    boolean inConsumer = false;
     clear();
     String conventionsNotFound =
         String2.NCCSV_GLOBAL + ",Conventions,\"..., NCCSV-...\" not found on line 1.";
@@ -3462,6 +3518,13 @@ public class Table {
             "Some variables are missing in the data section: "
                 + String2.toCSSVString(expectedDCols.toArray()));
 
+      // for chunks: which data column (or -1 if a *SCALAR*) is each column?
+      int dcolOfCol[] = new int[nc];
+      Arrays.fill(dcolOfCol, -1);
+      for (int dcol = 0; dcol < nDataCol; dcol++) dcolOfCol[findColumnNumber(sa.get(dcol))] = dcol;
+      int nChunkRows = 0;
+      boolean nothingSent = true;
+
       // read the data
       StringBuilder warnings = new StringBuilder();
       while ((s = reader.readLine()) != null) {
@@ -3504,6 +3567,25 @@ public class Table {
           // String2.log(">> dcol=" + dcol + " " + dpa[dcol].elementType() + " ts=" + ts + " -> " +
           // dpa[dcol].getString(dpa[dcol].size() - 1));
         }
+        nRowsRead++;
+
+        // send a chunk?
+        if (consumer != null && ++nChunkRows >= chunkNRows) {
+          Table chunk = makeNccsvChunk(dpa, dcolOfCol, chunkNRows);
+          nChunkRows = 0;
+          nothingSent = false;
+          inConsumer = true;
+          boolean more = consumer.accept(chunk);
+          inConsumer = false;
+          if (!more) break;
+        }
+      }
+      if (consumer != null && (nChunkRows > 0 || nothingSent)) {
+        // the last chunk. 0 rows is okay.
+        Table chunk = makeNccsvChunk(dpa, dcolOfCol, chunkNRows);
+        inConsumer = true;
+        consumer.accept(chunk);
+        inConsumer = false;
       }
       // if (s == null)  //NCCSV_END_DATA now optional
       //    throw new SimpleException(String2.NCCSV_END_DATA + NOT_FOUND_EOF);
@@ -3512,7 +3594,7 @@ public class Table {
         String2.log(WARNING_BAD_LINE_OF_DATA_IN + "readNccsv(" + fullName + "):\n" + warnings);
 
       // expand scalars
-      ensureColumnsAreSameSize_LastValue();
+      if (consumer == null) ensureColumnsAreSameSize_LastValue();
 
       String2.log(
           "readNccsv("
@@ -3520,12 +3602,13 @@ public class Table {
               + ") finished successfully.  nColumns="
               + nColumns()
               + " nRows="
-              + nRows()
+              + (consumer == null ? nRows() : nRowsRead)
               + " time="
               + (System.currentTimeMillis() - time)
               + "ms");
 
     } catch (Exception e) {
+      if (inConsumer) throw e;
       String2.log(MustBe.throwableToString(e));
       throw new SimpleException(
           String2.ERROR
@@ -3538,6 +3621,36 @@ public class Table {
     }
   }
 
+  /**
+   * This makes a chunk for readNccsvInChunks: a new table with copies of this table's metadata and
+   * *SCALAR* columns (expanded) and with this table's data columns (which are replaced by new,
+   * empty columns).
+   *
+   * @param dpa the data columns (which are replaced by new, empty columns)
+   * @param dcolOfCol the data column number of each column (or -1 for a *SCALAR* column)
+   * @param chunkNRows the capacity of the new data columns
+   */
+  private Table makeNccsvChunk(PrimitiveArray dpa[], int dcolOfCol[], int chunkNRows) {
+    Table chunk = new Table();
+    globalAttributes.copyTo(chunk.globalAttributes());
+    boolean noRows = dpa.length > 0 && dpa[0].size() == 0; // then *SCALAR*s have no rows, too
+    int nc = nColumns();
+    for (int col = 0; col < nc; col++) {
+      PrimitiveArray pa = columns.get(col);
+      int dcol = dcolOfCol[col];
+      if (dcol >= 0) {
+        dpa[dcol] = PrimitiveArray.factory(pa.elementType(), chunkNRows, false);
+        columns.set(col, dpa[dcol]);
+      } else {
+        pa = (PrimitiveArray) pa.clone();
+        if (noRows) pa.clear();
+      }
+      chunk.addColumn(col, getColumnName(col), pa, new Attributes(columnAttributes(col)));
+    }
+    chunk.ensureColumnsAreSameSize_LastValue();
+    return chunk;
+  }
+
   /** This is like saveAsNccsv(true, true, Integer.MAX_VALUE) */
   public String saveAsNccsv() throws Exception {
     return saveAsNccsv(true, true, 0, Integer.MAX_VALUE);
@@ -5944,7 +6057,8 @@ public class Table {
     // get information
     Attributes gridMappingAtts = null;
     StringArray varsNotFound = new StringArray();
-    try (NetcdfFile ncFile = NcHelper.openFile(fullName)) {
+    try (NcFileCache.Handle ncHandle = NcHelper.openCachedFile(fullName)) {
+      NetcdfFile ncFile = ncHandle.netcdfFile();
       // load the global metadata
       NcHelper.getGroupAttributes(ncFile.getRootGroup(), globalAttributes());
 
@@ -15100,6 +15214,58 @@ public class Table {
     }
   }
 
+  /**
+   * This reads some columns from a parquet file. Unlike readParquet(fullFileName, colNames,
+   * colTypes, simplify), this uses ParquetColumnReader to read just the requested columns straight
+   * into PrimitiveArrays of the requested types and to skip the row groups which (according to the
+   * min and max statistics in the file's footer) can't have rows which match the constraints. If a
+   * requested column is a nested or repeated field, this falls back to the other readParquet().
+   *
+   * @param fullFileName the name of the parquet file
+   * @param colNames the names of the columns to be read. If a column isn't in the file, there won't
+   *     be a column for it in the table.
+   * @param colTypes the corresponding types (e.g., "double" or "boolean")
+   * @param conVars the names of the constraint variables. May be null. The constraints are just
+   *     used to skip row groups, so the table may have rows which don't match the constraints. The
+   *     constraints must be for the values as they are in the file (e.g., before unpacking).
+   * @param conOps the operators for the constraints. May be null.
+   * @param conValues the values of the constraints. May be null.
+   * @throws Exception if serious trouble
+   */
+  public void readParquet(
+      String fullFileName,
+      StringArray colNames,
+      String[] colTypes,
+      StringArray conVars,
+      StringArray conOps,
+      StringArray conValues)
+      throws Exception {
+    long time = System.currentTimeMillis();
+    ParquetColumnReader reader =
+        new ParquetColumnReader(colNames, colTypes, conVars, conOps, conValues);
+    PrimitiveArray pas[] = reader.read(fullFileName);
+    if (pas == null) {
+      readParquet(fullFileName, colNames, colTypes, false);
+      return;
+    }
+    clear();
+    for (int col = 0; col < pas.length; col++)
+      if (pas[col] != null) addColumn(colNames.get(col), pas[col]);
+    if (reallyVerbose)
+      String2.log(
+          "  Table.readParquet "
+              + fullFileName
+              + " nRows="
+              + nRows()
+              + " nRowGroups="
+              + reader.nRowGroups
+              + " nSkipped="
+              + reader.nRowGroupsSkipped
+              + " TIME="
+              + (System.currentTimeMillis() - time)
+              + "ms");
+  }
+
   private boolean isTimeColumn(int col) {
     return "time".equalsIgnoreCase(getColumnName(col))
         && Calendar2.SECONDS_SINCE_1970.equals(columnAttributes.get(col).getString("units"));
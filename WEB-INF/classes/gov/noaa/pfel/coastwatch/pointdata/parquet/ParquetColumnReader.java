@@ -0,0 +1,340 @@
+package gov.noaa.pfel.coastwatch.pointdata.parquet;
+
+import com.cohort.array.PAType;
+import com.cohort.array.PrimitiveArray;
+import com.cohort.array.StringArray;
+import com.cohort.util.Math2;
+import com.cohort.util.String2;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.parquet.ParquetReadOptions;
+import org.apache.parquet.column.ColumnDescriptor;
+import org.apache.parquet.column.ColumnReader;
+import org.apache.parquet.column.impl.ColumnReadStoreImpl;
+import org.apache.parquet.column.page.PageReadStore;
+import org.apache.parquet.column.statistics.Statistics;
+import org.apache.parquet.example.data.simple.convert.GroupRecordConverter;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
+import org.apache.parquet.hadoop.metadata.ColumnChunkMetaData;
+import org.apache.parquet.io.LocalInputFile;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.schema.LogicalTypeAnnotation;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.PrimitiveType;
+import org.apache.parquet.schema.PrimitiveType.PrimitiveTypeName;
+import org.apache.parquet.schema.Type;
+
+/**
+ * This reads some columns of a parquet file into PrimitiveArrays of the requested types. Unlike
+ * Table.readParquet(fullFileName, colNames, colTypes, simplify), this reads just the requested
+ * columns, one column at a time, without converting each value to a String and back, and it skips
+ * the row groups which (according to the min and max values in the file's footer) can't have rows
+ * which match the constraints.
+ *
+ * <p>This only reads files where all of the requested columns are simple (not nested or repeated)
+ * columns of a supported type. Otherwise, read() returns null and the caller should use
+ * Table.readParquet(). The values are the same as Table.readParquet()'s, e.g., nulls become missing
+ * values and booleans become 1 or 0.
+ */
+public class ParquetColumnReader {
+
+  private final StringArray colNames;
+  private final String colTypes[];
+  private final StringArray conVars, conOps, conValues;
+
+  /** After read(), these are the number of row groups in the file and the number skipped. */
+  public int nRowGroups, nRowGroupsSkipped;
+
+  /**
+   * The constructor.
+   *
+   * @param colNames the names of the columns to be read
+   * @param colTypes the corresponding types (e.g., "double" or "boolean") for the PrimitiveArrays
+   * @param conVars the names of the constraint variables. May be null. The constraints are just
+   *     used to skip row groups which can't have matching rows, so the caller still needs to apply
+   *     them to the rows that are returned. A constraint on a var that isn't in colNames is
+   *     ignored. The constraints must be for the values as they are in the file (e.g., before
+   *     unpacking).
+   * @param conOps the operators for the constraints. All ERDDAP ops are supported, but only =,
+   *     &lt;, &lt;=, &gt;, and &gt;= are used. May be null.
+   * @param conValues the values of the constraints. May be null.
+   */
+  public ParquetColumnReader(
+      StringArray colNames,
+      String colTypes[],
+      StringArray conVars,
+      StringArray conOps,
+      StringArray conValues) {
+    this.colNames = colNames;
+    this.colTypes = colTypes;
+    boolean haveConstraints =
+        conVars != null
+            && conOps != null
+            && conOps.size() == conVars.size()
+            && conValues != null
+            && conValues.size() == conVars.size();
+    this.conVars = haveConstraints ? conVars : new StringArray();
+    this.conOps = haveConstraints ? conOps : new StringArray();
+    this.conValues = haveConstraints ? conValues : new StringArray();
+  }
+
+  /**
+   * This reads the requested columns from the file.
+   *
+   * @param fullFileName the name of the parquet file
+   * @return the columns (parallel to colNames, with null for the columns which aren't in the file),
+   *     or null if some requested column can't be read by this class (e.g., it's a repeated field).
+   * @throws Exception if trouble
+   */
+  public PrimitiveArray[] read(String fullFileName) throws Exception {
+    nRowGroups = 0;
+    nRowGroupsSkipped = 0;
+    int nCols = colNames.size();
+    try (ParquetFileReader fileReader =
+        new ParquetFileReader(
+            new LocalInputFile(java.nio.file.Path.of(fullFileName)),
+            ParquetReadOptions.builder().build())) {
+      MessageType schema = fileReader.getFileMetaData().getSchema();
+
+      // find the requested fields
+      List<Type> fields = schema.getFields();
+      List<Type> requestedFields = new ArrayList<>();
+      int which[] = new int[fields.size()]; // the colNames index of each requested field
+      Map<String, Integer> fieldCol = new HashMap<>(); // field name -> colNames index
+      for (Type field : fields) {
+        String tName = field.getName();
+        int col = colNames.indexOf(tName.equals("null") ? "" : tName);
+        if (col < 0 || fieldCol.containsKey(tName)) continue;
+        if (!field.isPrimitive()
+            || field.isRepetition(Type.Repetition.REPEATED)
+            || field.asPrimitiveType().getPrimitiveTypeName() == PrimitiveTypeName.INT96)
+          return null; // let Table.readParquet() deal with it
+        which[requestedFields.size()] = col;
+        requestedFields.add(field);
+        fieldCol.put(tName, col);
+      }
+      MessageType projection = new MessageType(schema.getName(), requestedFields);
+      fileReader.setRequestedSchema(projection);
+
+      // find the row groups which may have matching rows
+      List<BlockMetaData> blocks = fileReader.getRowGroups();
+      nRowGroups = blocks.size();
+      List<Integer> keepBlocks = new ArrayList<>();
+      long nKeepRows = 0;
+      for (int b = 0; b < nRowGroups; b++) {
+        if (mayMatch(blocks.get(b), fieldCol)) {
+          keepBlocks.add(b);
+          nKeepRows += blocks.get(b).getRowCount();
+        }
+      }
+      nRowGroupsSkipped = nRowGroups - keepBlocks.size();
+
+      // make the PrimitiveArrays
+      PrimitiveArray pas[] = new PrimitiveArray[nCols];
+      int nRequested = requestedFields.size();
+      PrimitiveArray fieldPas[] = new PrimitiveArray[nRequested];
+      boolean isBoolean[] = new boolean[nRequested];
+      int capacity = Math2.narrowToInt(nKeepRows);
+      for (int f = 0; f < nRequested; f++) {
+        int col = which[f];
+        pas[col] =
+            PrimitiveArray.factory(
+                PAType.fromCohortString(colTypes[col]), // it handles boolean
+                capacity == Integer.MAX_VALUE ? 8 : capacity,
+                false);
+        fieldPas[f] = pas[col];
+        isBoolean[f] = "boolean".equals(colTypes[col]);
+      }
+      if (nRequested == 0) return pas;
+
+      // read the row groups
+      String createdBy = fileReader.getFileMetaData().getCreatedBy();
+      List<ColumnDescriptor> descriptors = projection.getColumns();
+      StringBuilder warnings = new StringBuilder();
+      for (int b : keepBlocks) {
+        int oldSize = fieldPas[0].size();
+        try {
+          PageReadStore pages = fileReader.readRowGroup(b);
+          ColumnReadStoreImpl readStore =
+              new ColumnReadStoreImpl(
+                  pages,
+                  new GroupRecordConverter(projection).getRootConverter(),
+                  projection,
+                  createdBy);
+          for (int f = 0; f < nRequested; f++)
+            readColumn(
+                readStore.getColumnReader(descriptors.get(f)),
+                descriptors.get(f),
+                isBoolean[f],
+                fieldPas[f]);
+        } catch (Exception e) {
+          for (PrimitiveArray pa : fieldPas)
+            pa.removeRange(Math.min(oldSize, pa.size()), pa.size());
+          warnings.append("  rowGroup #" + b + ": " + e.getMessage() + "\n");
+        }
+      }
+      if (warnings.length() > 0)
+        String2.log(
+            "WARNING: ParquetColumnReader.read(" + fullFileName + ") bad row groups:\n" + warnings);
+      return pas;
+    }
+  }
+
+  /**
+   * This returns false if the min and max statistics in the row group's metadata show that the row
+   * group can't have rows which match the constraints.
+   *
+   * @param block the row group's metadata
+   * @param fieldCol maps the names of the requested fields to their colNames index
+   */
+  private boolean mayMatch(BlockMetaData block, Map<String, Integer> fieldCol) {
+    int nCon = conVars.size();
+    if (nCon == 0) return true;
+    for (ColumnChunkMetaData chunk : block.getColumns()) {
+      String path[] = chunk.getPath().toArray();
+      Integer col = path.length == 1 ? fieldCol.get(path[0]) : null;
+      if (col == null) continue;
+      String tName = colNames.get(col);
+      Statistics<?> stats = chunk.getStatistics();
+      if (stats == null || stats.isEmpty()) continue; // no information
+      for (int con = 0; con < nCon; con++) {
+        if (tName.equals(conVars.get(con))
+            && !mayMatch(
+                chunk.getPrimitiveType(),
+                colTypes[col],
+                stats,
+                conOps.get(con),
+                conValues.get(con))) return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * This returns false if a column chunk with these statistics can't have values which match the
+   * constraint. The numeric tests are like EDDTableFromFiles.isOK(), so they are a little lenient.
+   *
+   * @param type the column's type in the file
+   * @param colType the type of the column's PrimitiveArray
+   * @param stats the column chunk's statistics (not empty)
+   */
+  static boolean mayMatch(
+      PrimitiveType type, String colType, Statistics<?> stats, String conOp, String conValue) {
+    PrimitiveTypeName typeName = type.getPrimitiveTypeName();
+    PAType paType = "boolean".equals(colType) ? PAType.BOOLEAN : PAType.fromCohortString(colType);
+    boolean isNumeric =
+        switch (typeName) {
+          case INT32, INT64, FLOAT, DOUBLE -> true;
+          default -> false;
+        };
+    if (isNumeric
+        && paType != PAType.STRING
+        && paType != PAType.CHAR
+        && paType != PAType.BOOLEAN
+        && !(type.getLogicalTypeAnnotation()
+                instanceof LogicalTypeAnnotation.IntLogicalTypeAnnotation intType
+            && !intType.isSigned())) { // unsigned min and max are sorted as unsigned
+      double value = String2.parseDouble(conValue);
+      if (Double.isNaN(value)) return true; // missing values aren't in the statistics
+      if (!stats.hasNonNullValue()) // all nulls (i.e., missing values)
+      return !conOp.equals("=")
+            && !conOp.equals("<")
+            && !conOp.equals("<=")
+            && !conOp.equals(">")
+            && !conOp.equals(">=");
+      double min = ((Number) stats.genericGetMin()).doubleValue();
+      double max = ((Number) stats.genericGetMax()).doubleValue();
+      if (Double.isNaN(min) || Double.isNaN(max)) return true;
+      // precision=5, 9, or 18 (full) significant figures
+      int p = paType == PAType.FLOAT ? 5 : paType == PAType.DOUBLE ? 9 : 18;
+      return switch (conOp) {
+        case "<=" -> Math2.lessThanAE(p, min, value);
+        case ">=" -> Math2.greaterThanAE(p, max, value);
+        case "=" -> Math2.lessThanAE(p, min, value) && Math2.greaterThanAE(p, max, value);
+        case "<" -> min < value;
+        case ">" -> max > value;
+        default -> true;
+      };
+    }
+
+    // String tests of <, <=, >, >= ignore case, so just = can use the (case-sensitive) statistics
+    if (typeName == PrimitiveTypeName.BINARY
+        && paType == PAType.STRING
+        && conOp.equals("=")
+        && conValue.length() > 0) {
+      if (!stats.hasNonNullValue()) return false; // all nulls (i.e., "")
+      @SuppressWarnings("unchecked")
+      Statistics<Binary> binaryStats = (Statistics<Binary>) stats;
+      Binary value = Binary.fromString(conValue);
+      return binaryStats.compareMinToValue(value) <= 0 && binaryStats.compareMaxToValue(value) >= 0;
+    }
+    return true;
+  }
+
+  /**
+   * This reads all of a column chunk's values into pa. Nulls become missing values.
+   *
+   * @param reader the column chunk's reader
+   * @param descriptor the column's descriptor
+   * @param isBoolean if true, booleans become 1 or 0 (else "true" or "false")
+   * @param pa receives the values
+   */
+  private static void readColumn(
+      ColumnReader reader, ColumnDescriptor descriptor, boolean isBoolean, PrimitiveArray pa) {
+    long n = reader.getTotalValueCount();
+    int maxDef = descriptor.getMaxDefinitionLevel();
+    switch (descriptor.getPrimitiveType().getPrimitiveTypeName()) {
+      case INT32 -> {
+        for (long i = 0; i < n; i++) {
+          if (reader.getCurrentDefinitionLevel() == maxDef) pa.addInt(reader.getInteger());
+          else pa.addString("");
+          reader.consume();
+        }
+      }
+      case INT64 -> {
+        for (long i = 0; i < n; i++) {
+          if (reader.getCurrentDefinitionLevel() == maxDef) pa.addLong(reader.getLong());
+          else pa.addString("");
+          reader.consume();
+        }
+      }
+      case FLOAT -> {
+        // like the String route, floats become nice doubles (e.g., 0.1f becomes 0.1, not
+        // 0.10000000149011612)
+        boolean toDouble = pa.elementType() == PAType.DOUBLE;
+        for (long i = 0; i < n; i++) {
+          if (reader.getCurrentDefinitionLevel() != maxDef) pa.addString("");
+          else if (toDouble) pa.addDouble(Math2.floatToDouble(reader.getFloat()));
+          else pa.addFloat(reader.getFloat());
+          reader.consume();
+        }
+      }
+      case DOUBLE -> {
+        for (long i = 0; i < n; i++) {
+          if (reader.getCurrentDefinitionLevel() == maxDef) pa.addDouble(reader.getDouble());
+          else pa.addString("");
+          reader.consume();
+        }
+      }
+      case BOOLEAN -> {
+        for (long i = 0; i < n; i++) {
+          if (reader.getCurrentDefinitionLevel() != maxDef) pa.addString("");
+          else if (isBoolean) pa.addInt(reader.getBoolean() ? 1 : 0);
+          else pa.addString(reader.getBoolean() ? "true" : "false");
+          reader.consume();
+        }
+      }
+      default -> { // BINARY and FIXED_LEN_BYTE_ARRAY
+        for (long i = 0; i < n; i++) {
+          if (reader.getCurrentDefinitionLevel() == maxDef)
+            pa.addString(reader.getBinary().toStringUsingUTF8());
+          else pa.addString("");
+          reader.consume();
+        }
+      }
+    }
+  }
+}
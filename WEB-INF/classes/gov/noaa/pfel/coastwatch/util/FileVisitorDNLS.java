@@ -23,15 +23,22 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemLoopException;
 import java.nio.file.FileSystems;
 import java.nio.file.FileVisitOption;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.EnumSet;
@@ -39,8 +46,15 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -146,6 +160,23 @@ public class FileVisitorDNLS extends SimpleFileVisitor<Path> {
   /** Don't change this here. Only use a smaller number for testing. */
   public static int S3_CHUNK_TO_FILE = 10000;
 
+  /**
+   * The number of threads oneStep uses to crawl a recursive local directory tree or a recursive
+   * WAF, THREDDS, or Hyrax catalog, so sibling subdirectories (or catalog pages) are listed
+   * concurrently. 1 means crawl on the calling thread (the original way). All crawls share one pool
+   * with this many threads, so this is also the limit for all concurrent crawls. Set here but reset
+   * by EDStatic from setup.xml's &lt;fileVisitorThreads&gt;.
+   */
+  public static int nThreads = 1;
+
+  private static final AtomicInteger crawlerThreadNumber = new AtomicInteger();
+
+  /** The pool shared by all crawls (made by crawlPool()). Guarded by FileVisitorDNLS.class. */
+  private static ForkJoinPool crawlPool;
+
+  /** On a CrawlerThread, the stop flag of the crawl that the current task is part of. */
+  private static final ThreadLocal<AtomicBoolean> crawlStopped = new ThreadLocal<>();
+
   /** things set by constructor */
   public String dir; // with \\ or / separators. With trailing slash (to match).
 
@@ -288,6 +319,355 @@ public class FileVisitorDNLS extends SimpleFileVisitor<Path> {
     return FileVisitResult.CONTINUE;
   }
 
+  /**
+   * This is like Files.walkFileTree(start, FOLLOW_LINKS, Integer.MAX_VALUE, this), but the
+   * directories are listed in parallel (by the nThreads threads in the shared crawl pool). So the
+   * rows are added to the table in a nondeterministic order and the caller must sort the table. As
+   * with walkFileTree, trouble with a file or directory (e.g., permission denied) just generates a
+   * warning (via visitFileFailed). Unlike walkFileTree, trouble part way through listing a
+   * directory doesn't stop the whole walk.
+   *
+   * @param start the starting directory
+   * @throws IOException if "Too many open files" or if interrupted
+   */
+  void walkInParallel(Path start) throws IOException {
+    BasicFileAttributes startAttrs;
+    try {
+      startAttrs = Files.readAttributes(start, BasicFileAttributes.class);
+    } catch (IOException e) {
+      visitFileFailed(start, e);
+      return;
+    }
+    try {
+      runInCrawlPool(() -> new DirectoryTask(start, startAttrs, null).invoke());
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } catch (IOException | RuntimeException | Error e) {
+      throw e;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while listing " + start);
+    } catch (Throwable t) {
+      throw new IOException(t);
+    }
+  }
+
+  /**
+   * A task for walkInParallel which lists one directory, adds its rows to the table, then forks a
+   * task for each subdirectory.
+   */
+  private class DirectoryTask extends CrawlTask {
+    private final Path path;
+    private final BasicFileAttributes attrs;
+    private final DirectoryTask parent; // null for the starting directory
+
+    DirectoryTask(Path path, BasicFileAttributes attrs, DirectoryTask parent) {
+      this.path = path;
+      this.attrs = attrs;
+      this.parent = parent;
+    }
+
+    @Override
+    protected void work() {
+      // the same tests as preVisitDirectory, but before the directory is read
+      String ttDir = String2.replaceAll(path.toString(), fromSlash, toSlash) + toSlash;
+      boolean initialDir = ttDir.equals(dir);
+      if (!initialDir && pathPattern != null && !pathPattern.matcher(ttDir).matches()) {
+        if (debugMode) String2.log(">> doesn't match pathRegex: " + ttDir + " regex=" + pathRegex);
+        return;
+      }
+
+      StringArray tDirectoryPA = new StringArray();
+      StringArray tNamePA = new StringArray();
+      LongArray tLastModifiedPA = new LongArray();
+      LongArray tSizePA = new LongArray();
+      List<DirectoryTask> subdirTasks = new ArrayList<>();
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+        if (directoriesToo && !initialDir) {
+          tDirectoryPA.add(ttDir);
+          tNamePA.add("");
+          tLastModifiedPA.add(attrs.lastModifiedTime().toMillis());
+          tSizePA.add(0);
+        }
+        for (Path file : stream) {
+          BasicFileAttributes fileAttrs = readAttributes(file);
+          if (fileAttrs == null) continue;
+          if (fileAttrs.isDirectory()) {
+            if (isLoop(file, fileAttrs)) failed(file, new FileSystemLoopException(file.toString()));
+            else subdirTasks.add(new DirectoryTask(file, fileAttrs, this));
+            continue;
+          }
+          String name = file.getFileName().toString();
+          if (!fileNamePattern.matcher(name).matches()) {
+            if (debugMode)
+              String2.log(">> fileName doesn't match: name=" + name + " regex=" + fileNameRegex);
+            continue;
+          }
+          tDirectoryPA.add(ttDir);
+          tNamePA.add(name);
+          tLastModifiedPA.add(fileAttrs.lastModifiedTime().toMillis());
+          tSizePA.add(fileAttrs.size());
+        }
+      } catch (IOException | DirectoryIteratorException e) {
+        // keep the info gathered so far and continue with the subdirectories found so far
+        failed(
+            path, e instanceof DirectoryIteratorException die ? die.getCause() : (IOException) e);
+      }
+
+      if (tNamePA.size() > 0) {
+        synchronized (table) {
+          directoryPA.append(tDirectoryPA);
+          namePA.append(tNamePA);
+          lastModifiedPA.append(tLastModifiedPA);
+          sizePA.append(tSizePA);
+        }
+      }
+      invokeAll(subdirTasks);
+    }
+
+    /**
+     * This gets a file's attributes, following symbolic links. Like walkFileTree, if the link can't
+     * be followed (e.g., it is broken), this returns the attributes of the link itself.
+     *
+     * @return the attributes, or null if trouble (which has been logged)
+     */
+    private BasicFileAttributes readAttributes(Path file) {
+      try {
+        return Files.readAttributes(file, BasicFileAttributes.class);
+      } catch (IOException e) {
+        try {
+          return Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e2) {
+          failed(file, e2);
+          return null;
+        }
+      }
+    }
+
+    /** This indicates if a subdirectory is this directory or one of its ancestors. */
+    private boolean isLoop(Path subdir, BasicFileAttributes subdirAttrs) {
+      Object key = subdirAttrs.fileKey();
+      for (DirectoryTask task = this; task != null; task = task.parent) {
+        Object taskKey = task.attrs.fileKey();
+        if (key != null && taskKey != null) {
+          if (key.equals(taskKey)) return true;
+        } else {
+          try {
+            if (Files.isSameFile(task.path, subdir)) return true;
+          } catch (IOException | SecurityException e) {
+            // assume it isn't a loop
+          }
+        }
+      }
+      return false;
+    }
+
+    /** This logs the trouble, or stops the walk if it is "Too many open files". */
+    private void failed(Path file, IOException e) {
+      try {
+        visitFileFailed(file, e);
+      } catch (IOException e2) {
+        throw new UncheckedIOException(e2);
+      }
+    }
+  }
+
+  /** The threads in the crawl pool. */
+  private static class CrawlerThread extends ForkJoinWorkerThread {
+    CrawlerThread(ForkJoinPool pool) {
+      super(pool);
+      setName("FileVisitorDNLS-crawler" + crawlerThreadNumber.incrementAndGet());
+    }
+  }
+
+  /**
+   * A task in the crawl pool. If its crawl has been stopped (e.g., because the thread waiting for
+   * it was interrupted), the task does nothing.
+   */
+  private abstract static class CrawlTask extends RecursiveAction {
+    private final AtomicBoolean stopped = crawlStopped.get(); // the crawl's flag (or null)
+
+    @Override
+    protected final void compute() {
+      if (stopped != null && stopped.get()) return;
+      // while waiting to join, a thread may run tasks from other crawls
+      AtomicBoolean oStopped = crawlStopped.get();
+      crawlStopped.set(stopped);
+      try {
+        work();
+      } finally {
+        crawlStopped.set(oStopped);
+      }
+    }
+
+    /** This does the task's work. */
+    protected abstract void work();
+  }
+
+  /** Some crawling work for runInCrawlPool. This is like Callable, but may throw any Throwable. */
+  @FunctionalInterface
+  private interface CrawlWork<T> {
+    T call() throws Throwable;
+  }
+
+  /**
+   * This returns the pool shared by all crawls, with nThreads threads. The pool never adds threads
+   * beyond that (not even to compensate for a thread waiting to join a task), so nThreads is the
+   * maximum number of directories or catalog pages being listed at once, no matter how many crawls
+   * are in progress. If nThreads has changed, the old pool is shut down (after its crawls finish)
+   * and a new one is made.
+   */
+  private static synchronized ForkJoinPool crawlPool() {
+    int n = Math.max(1, nThreads);
+    if (crawlPool == null || crawlPool.getParallelism() != n) {
+      if (crawlPool != null) crawlPool.shutdown();
+      crawlPool =
+          new ForkJoinPool(
+              n, CrawlerThread::new, null, false, 0, n, 1, pool -> true, 60, TimeUnit.SECONDS);
+    }
+    return crawlPool;
+  }
+
+  /**
+   * This does the work in the shared crawl pool, so the tasks it forks (e.g., for subdirectories)
+   * are run in parallel. If this is called on a CrawlerThread (i.e., within a crawl), the work is
+   * just done on this thread. When this returns (or throws), the crawl is stopped, so its remaining
+   * tasks (if any) do nothing.
+   *
+   * @param work the work
+   * @return the work's result
+   * @throws Throwable whatever the work throws, or InterruptedException if this thread is
+   *     interrupted while waiting
+   */
+  private static <T> T runInCrawlPool(CrawlWork<T> work) throws Throwable {
+    if (Thread.currentThread() instanceof CrawlerThread) return work.call();
+    AtomicBoolean stopped = new AtomicBoolean();
+    ForkJoinTask<T> task =
+        crawlPool()
+            .submit(
+                () -> {
+                  AtomicBoolean oStopped = crawlStopped.get();
+                  crawlStopped.set(stopped);
+                  try {
+                    return work.call();
+                  } catch (Exception | Error e) {
+                    throw e;
+                  } catch (Throwable t) {
+                    throw new ExecutionException(t);
+                  } finally {
+                    crawlStopped.set(oStopped);
+                  }
+                });
+    try {
+      return task.get();
+    } catch (ExecutionException e) {
+      throw e.getCause();
+    } finally {
+      stopped.set(true);
+      task.cancel(true);
+    }
+  }
+
+  /**
+   * This calls a remote catalog crawler (e.g., addToWAFUrlList), in a crawl pool if the crawl is
+   * recursive and nThreads &gt; 1.
+   */
+  private static <T> T crawlCatalog(boolean recursive, CrawlWork<T> crawler) throws Throwable {
+    return recursive && nThreads > 1 ? runInCrawlPool(crawler) : crawler.call();
+  }
+
+  /** This crawls one subdirectory of a remote catalog into the arrays. */
+  @FunctionalInterface
+  private interface SubdirCrawler<E extends Throwable> {
+    /**
+     * @param arrays the arrays that the crawler adds info to
+     * @return a list of errors (or "" if no errors)
+     */
+    String crawl(PrimitiveArray[] arrays) throws E;
+  }
+
+  /**
+   * This crawls the subdirectories found on one page of a remote (WAF, THREDDS, or Hyrax) catalog.
+   * On a CrawlerThread, each subdirectory is crawled by a forked task into its own arrays and
+   * finish() appends the results (in the order the subdirectories were found) to the page's arrays.
+   * Otherwise, each subdirectory is crawled immediately into the page's arrays (the original way).
+   */
+  private static class CatalogSubdirs<E extends Throwable> {
+    private final PrimitiveArray[] arrays;
+    private final List<SubdirTask<E>> tasks = new ArrayList<>();
+
+    /**
+     * @param arrays the page's arrays
+     */
+    CatalogSubdirs(PrimitiveArray... arrays) {
+      this.arrays = arrays;
+    }
+
+    /**
+     * This crawls a subdirectory (or forks a task to do it).
+     *
+     * @return the errors from crawling the subdirectory (or "" if no errors or if it was forked)
+     */
+    String crawl(SubdirCrawler<E> crawler) throws E {
+      if (!(Thread.currentThread() instanceof CrawlerThread)) return crawler.crawl(arrays);
+      PrimitiveArray[] tArrays = new PrimitiveArray[arrays.length];
+      for (int i = 0; i < arrays.length; i++)
+        tArrays[i] =
+            PrimitiveArray.factory(arrays[i].elementType(), 8, false)
+                .setMaxIsMV(arrays[i].getMaxIsMV());
+      SubdirTask<E> task = new SubdirTask<>(crawler, tArrays);
+      task.fork();
+      tasks.add(task);
+      return "";
+    }
+
+    /**
+     * This waits for the forked tasks and appends their results to the page's arrays.
+     *
+     * @return the errors from the forked tasks (or "" if no errors)
+     * @throws E the first exception thrown by a forked task (after all have finished)
+     */
+    @SuppressWarnings("unchecked")
+    String finish() throws E {
+      StringBuilder errors = new StringBuilder();
+      Throwable throwable = null;
+      for (SubdirTask<E> task : tasks) {
+        task.join();
+        if (task.throwable != null) {
+          if (throwable == null) throwable = task.throwable;
+          continue;
+        }
+        errors.append(task.errors);
+        for (int i = 0; i < arrays.length; i++) arrays[i].append(task.arrays[i]);
+      }
+      tasks.clear();
+      if (throwable != null) throw (E) throwable; // a crawler only throws E or unchecked exceptions
+      return errors.toString();
+    }
+  }
+
+  /** A forked task for CatalogSubdirs. */
+  private static class SubdirTask<E extends Throwable> extends CrawlTask {
+    private final SubdirCrawler<E> crawler;
+    private final PrimitiveArray[] arrays;
+    private String errors = "";
+    private Throwable throwable = null;
+
+    SubdirTask(SubdirCrawler<E> crawler, PrimitiveArray[] arrays) {
+      this.crawler = crawler;
+      this.arrays = arrays;
+    }
+
+    @Override
+    protected void work() {
+      try {
+        errors = crawler.crawl(arrays);
+      } catch (Throwable t) {
+        throwable = t;
+      }
+    }
+  }
+
   /**
    * This returns an empty table with Dir,Name,LastMod,Size columns suitable for the instance table
    * or oneStep.
@@ -558,6 +938,10 @@ public class FileVisitorDNLS extends SimpleFileVisitor<Path> {
         }
       }
 
+      // effectively final, for the crawlers' lambdas
+      String crawlDir = tDir;
+      String crawlPathRegex = tPathRegex;
+
       // HYRAX before THREDDS
       // http://dods.jpl.nasa.gov/opendap/ocean_wind/ccmp/L3.5a/data/flk/1988/
       // hyrax displays precise size and lastModified
@@ -573,15 +957,18 @@ public class FileVisitorDNLS extends SimpleFileVisitor<Path> {
           LongArray sizePA = (LongArray) table.getColumn(SIZE);
 
           DoubleArray lastModDA = new DoubleArray();
-          addToHyraxUrlList(
-              tDir,
-              tFileNameRegex,
+          crawlCatalog(
               tRecursive,
-              tPathRegex,
-              tDirectoriesToo,
-              namePA,
-              lastModDA,
-              sizePA);
+              () ->
+                  addToHyraxUrlList(
+                      crawlDir,
+                      tFileNameRegex,
+                      tRecursive,
+                      crawlPathRegex,
+                      tDirectoriesToo,
+                      namePA,
+                      lastModDA,
+                      sizePA));
           int n = namePA.size();
           for (int i = 0; i < n; i++) {
             String fn = namePA.get(i);
@@ -612,15 +999,18 @@ public class FileVisitorDNLS extends SimpleFileVisitor<Path> {
           LongArray sizePA = (LongArray) table.getColumn(SIZE);
 
           DoubleArray lastModDA = new DoubleArray();
-          addToThreddsUrlList(
-              tDir,
-              tFileNameRegex,
+          crawlCatalog(
               tRecursive,
-              tPathRegex,
-              tDirectoriesToo,
-              namePA,
-              lastModDA,
-              sizePA);
+              () ->
+                  addToThreddsUrlList(
+                      crawlDir,
+                      tFileNameRegex,
+                      tRecursive,
+                      crawlPathRegex,
+                      tDirectoriesToo,
+                      namePA,
+                      lastModDA,
+                      sizePA));
           int n = namePA.size();
           for (int i = 0; i < n; i++) {
             String fn = namePA.get(i);
@@ -649,16 +1039,19 @@ public class FileVisitorDNLS extends SimpleFileVisitor<Path> {
         LongArray lastModLA = (LongArray) table.getColumn(LASTMODIFIED); // epochMillis
         LongArray sizeLA = (LongArray) table.getColumn(SIZE);
 
-        addToWAFUrlList( // does its best.  returns list of errors (or "")
-            tDir,
-            tFileNameRegex,
+        crawlCatalog(
             tRecursive,
-            tPathRegex,
-            tDirectoriesToo,
-            directorySA,
-            nameSA,
-            lastModLA,
-            sizeLA);
+            () ->
+                addToWAFUrlList( // does its best.  returns list of errors (or "")
+                    crawlDir,
+                    tFileNameRegex,
+                    tRecursive,
+                    crawlPathRegex,
+                    tDirectoriesToo,
+                    directorySA,
+                    nameSA,
+                    lastModLA,
+                    sizeLA));
         table.leftToRightSortIgnoreCase(2);
         return table;
       } catch (Throwable t) {
@@ -673,13 +1066,18 @@ public class FileVisitorDNLS extends SimpleFileVisitor<Path> {
     //  http://bugs.java.com/bugdatabase/view_bug.do?bug_id=4237760
     FileVisitorDNLS fv =
         new FileVisitorDNLS(tDir, tFileNameRegex, tRecursive, tPathRegex, tDirectoriesToo);
-    EnumSet<FileVisitOption> opts = EnumSet.of(FileVisitOption.FOLLOW_LINKS);
-    // 2021-02-16 I revised so it throws IOException if "Too many open files"
-    Files.walkFileTree(
-        FileSystems.getDefault().getPath(tDir),
-        opts, // follow symbolic links
-        Integer.MAX_VALUE, // maxDepth
-        fv);
+    if (tRecursive && nThreads > 1) {
+      // list sibling subdirectories in parallel (same results, after sorting)
+      fv.walkInParallel(FileSystems.getDefault().getPath(tDir));
+    } else {
+      EnumSet<FileVisitOption> opts = EnumSet.of(FileVisitOption.FOLLOW_LINKS);
+      // 2021-02-16 I revised so it throws IOException if "Too many open files"
+      Files.walkFileTree(
+          FileSystems.getDefault().getPath(tDir),
+          opts, // follow symbolic links
+          Integer.MAX_VALUE, // maxDepth
+          fv);
+    }
     fv.table.leftToRightSortIgnoreCase(2);
     if (verbose)
       String2.log(
@@ -1404,9 +1802,12 @@ public class FileVisitorDNLS extends SimpleFileVisitor<Path> {
 
     StringBuilder completelySuccessful = new StringBuilder();
     if (pathRegex == null || pathRegex.length() == 0) pathRegex = ".*";
+    String tPathRegex = pathRegex; // effectively final, for the lambdas
     BufferedReader in = null;
     lastModified.setMaxIsMV(true);
     size.setMaxIsMV(true);
+    CatalogSubdirs<RuntimeException> subdirs =
+        new CatalogSubdirs<>(dirs, names, lastModified, size);
     try {
       url = File2.addSlash(url);
 
@@ -1459,16 +1860,18 @@ public class FileVisitorDNLS extends SimpleFileVisitor<Path> {
               }
               if (recursive) {
                 completelySuccessful.append(
-                    addToWAFUrlList(
-                        tUrl,
-                        fileNameRegex,
-                        recursive,
-                        pathRegex,
-                        dirsToo,
-                        dirs,
-                        names,
-                        lastModified,
-                        size));
+                    subdirs.crawl(
+                        a ->
+                            addToWAFUrlList(
+                                tUrl,
+                                fileNameRegex,
+                                recursive,
+                                tPathRegex,
+                                dirsToo,
+                                (StringArray) a[0],
+                                (StringArray) a[1],
+                                (LongArray) a[2],
+                                (LongArray) a[3])));
               }
             }
             continue;
@@ -1565,17 +1968,20 @@ public class FileVisitorDNLS extends SimpleFileVisitor<Path> {
                   size.add(Long.MAX_VALUE);
                 }
                 if (recursive) {
+                  String tName = name;
                   completelySuccessful.append(
-                      addToWAFUrlList(
-                          name,
-                          fileNameRegex,
-                          recursive,
-                          pathRegex,
-                          dirsToo,
-                          dirs,
-                          names,
-                          lastModified,
-                          size));
+                      subdirs.crawl(
+                          a ->
+                              addToWAFUrlList(
+                                  tName,
+                                  fileNameRegex,
+                                  recursive,
+                                  tPathRegex,
+                                  dirsToo,
+                                  (StringArray) a[0],
+                                  (StringArray) a[1],
+                                  (LongArray) a[2],
+                                  (LongArray) a[3])));
                 }
               }
               continue;
@@ -1648,6 +2054,7 @@ public class FileVisitorDNLS extends SimpleFileVisitor<Path> {
       } catch (Throwable t) {
       }
     }
+    completelySuccessful.append(subdirs.finish());
     return completelySuccessful.toString();
   }
 
@@ -1720,6 +2127,38 @@ public class FileVisitorDNLS extends SimpleFileVisitor<Path> {
       LongArray size)
       throws Throwable {
 
+    CatalogSubdirs<Throwable> subdirs = new CatalogSubdirs<>(childUrls, lastModified, size);
+    String errors =
+        addToHyraxUrlList(
+            url,
+            fileNameRegex,
+            recursive,
+            pathRegex,
+            dirsToo,
+            childUrls,
+            lastModified,
+            size,
+            subdirs);
+    return errors + subdirs.finish();
+  }
+
+  /**
+   * This does the work for addToHyraxUrlList for one Hyrax catalog page.
+   *
+   * @param subdirs crawls the subdirectories found on this page
+   */
+  private static String addToHyraxUrlList(
+      String url,
+      String fileNameRegex,
+      boolean recursive,
+      String pathRegex,
+      boolean dirsToo,
+      StringArray childUrls,
+      DoubleArray lastModified,
+      LongArray size,
+      CatalogSubdirs<Throwable> subdirs)
+      throws Throwable {
+
     if (reallyVerbose)
       String2.log("\naddToHyraxUrlList childUrls.size=" + childUrls.size() + "\n  url=" + url);
     if (pathRegex == null || pathRegex.length() == 0) pathRegex = ".*";
@@ -1892,16 +2331,19 @@ public class FileVisitorDNLS extends SimpleFileVisitor<Path> {
           }
           String tUrl = url + thisRow.substring(quotePo + 1, conPo + 1);
           if (tUrl.matches(pathRegex)) {
+            String tPathRegex = pathRegex;
             completelySuccessful.append(
-                addToHyraxUrlList(
-                    tUrl,
-                    fileNameRegex,
-                    recursive,
-                    pathRegex,
-                    dirsToo,
-                    childUrls,
-                    lastModified,
-                    size));
+                subdirs.crawl(
+                    a ->
+                        addToHyraxUrlList(
+                            tUrl,
+                            fileNameRegex,
+                            recursive,
+                            tPathRegex,
+                            dirsToo,
+                            (StringArray) a[0],
+                            (DoubleArray) a[1],
+                            (LongArray) a[2])));
           }
           po = endRow;
           continue;
@@ -1943,6 +2385,38 @@ public class FileVisitorDNLS extends SimpleFileVisitor<Path> {
       LongArray size)
       throws Throwable {
 
+    CatalogSubdirs<Throwable> subdirs = new CatalogSubdirs<>(childUrls, lastModified, size);
+    String errors =
+        addToThreddsUrlList(
+            url,
+            fileNameRegex,
+            recursive,
+            pathRegex,
+            dirsToo,
+            childUrls,
+            lastModified,
+            size,
+            subdirs);
+    return errors + subdirs.finish();
+  }
+
+  /**
+   * This does the work for addToThreddsUrlList for one THREDDS catalog page.
+   *
+   * @param subdirs crawls the subdirectories found on this page
+   */
+  private static String addToThreddsUrlList(
+      String url,
+      String fileNameRegex,
+      boolean recursive,
+      String pathRegex,
+      boolean dirsToo,
+      StringArray childUrls,
+      DoubleArray lastModified,
+      LongArray size,
+      CatalogSubdirs<Throwable> subdirs)
+      throws Throwable {
+
     if (reallyVerbose)
       String2.log("\naddToThreddsUrlList childUrls.size=" + childUrls.size() + "\n  url=" + url);
     if (pathRegex == null || pathRegex.length() == 0) pathRegex = ".*";
@@ -2042,17 +2516,20 @@ public class FileVisitorDNLS extends SimpleFileVisitor<Path> {
         if (diagnosticMode) String2.log("=== folder row");
         String content1 = String2.extractRegex(td1, "href='[^']*/catalog.html'>", 0);
         if (recursive && content1 != null && content1.length() > 21) { // 21 is non-.* stuff
-          content1 = content1.substring(6, content1.length() - 2);
+          String tUrl = url + content1.substring(6, content1.length() - 2);
+          String tPathRegex = pathRegex;
           completelySuccessful.append(
-              addToThreddsUrlList(
-                  url + content1,
-                  fileNameRegex,
-                  recursive,
-                  pathRegex,
-                  dirsToo,
-                  childUrls,
-                  lastModified,
-                  size));
+              subdirs.crawl(
+                  a ->
+                      addToThreddsUrlList(
+                          tUrl,
+                          fileNameRegex,
+                          recursive,
+                          tPathRegex,
+                          dirsToo,
+                          (StringArray) a[0],
+                          (DoubleArray) a[1],
+                          (LongArray) a[2])));
         }
         po = nextRow;
         continue;
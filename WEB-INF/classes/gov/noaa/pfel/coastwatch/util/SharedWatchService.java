@@ -3,6 +3,10 @@ package gov.noaa.pfel.coastwatch.util;
 import com.cohort.array.StringArray;
 import com.cohort.util.File2;
 import com.cohort.util.String2;
+import gov.noaa.pfel.coastwatch.griddata.NcFileCache;
+import gov.noaa.pfel.erddap.util.EDStatic;
+import io.prometheus.metrics.core.metrics.Counter;
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.FileStore;
 import java.nio.file.FileSystem;
@@ -12,10 +16,15 @@ import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class SharedWatchService {
   public static final WatchEvent.Kind<Path> CREATE = StandardWatchEventKinds.ENTRY_CREATE;
@@ -31,6 +40,31 @@ public class SharedWatchService {
   private static final ConcurrentHashMap<String, WatchUpdateHandler> handlerIdToHandler =
       new ConcurrentHashMap<>();
 
+  /**
+   * Each handler's events which haven't been given to the handler yet. An entry is only here while
+   * it has events (see handle). Entries are added (in processEvents) and removed (in handle) with
+   * compute methods, so an event can't be added to an entry which was just removed.
+   */
+  private static final ConcurrentHashMap<String, PendingEvents> pendingEventsByHandler =
+      new ConcurrentHashMap<>();
+
+  /** When processEvents last polled the WatchServices (0 if never). */
+  private static final AtomicLong lastPollMillis = new AtomicLong(0);
+
+  /** The values of the events counter's "stage" label. */
+  public static final String RECEIVED = "received", COALESCED = "coalesced", APPLIED = "applied";
+
+  /**
+   * Counts the file events which were received from the WatchServices, coalesced (i.e., merged with
+   * a pending event for the same file), and applied (i.e., the contexts given to handleUpdates).
+   */
+  public static final Counter events =
+      Counter.builder()
+          .name("watch_service_events_total")
+          .help("Count of file events received, coalesced, and applied by SharedWatchService")
+          .labelNames("stage")
+          .build();
+
   /**
    * Registers a directory with the shared watch service.
    *
@@ -102,16 +136,35 @@ public class SharedWatchService {
   }
 
   /**
-   * Process all events for keys queued to the watcher
+   * This gets the events from the WatchServices and adds them to each handler's pending events,
+   * then gives each handler whose pending events are ready (see PendingEvents.isReady) all of its
+   * pending events as one batch (via handleUpdates). So a burst of events (e.g., from rsync adding
+   * lots of files) is coalesced into one call of handleUpdates (after the burst ends) instead of
+   * many calls. If a handler is still handling a previous batch (in another thread), its new events
+   * wait until the next call of processEvents.
+   *
+   * <p>The WatchServices don't say when an event happened, just that it happened since the previous
+   * poll. Usually processEvents is called by the datasets' update() (at most every
+   * updateEveryNMillis), so the previous poll was often longer ago than watchDebounceMillis. Then
+   * the new events are treated as if they happened at the previous poll, so a change is handled by
+   * the first update() that sees it, instead of waiting for the next update(). When processEvents
+   * is called often (e.g., during a burst of requests), the events are treated as if they just
+   * happened, so a burst of events is still coalesced.
    *
-   * @throws Throwable
+   * <p>An OVERFLOW event (i.e., some events were lost) for a directory leads to a rescan of just
+   * that directory (see rescanDirectory), or (if the handler doesn't support that) a call of the
+   * handler's doReload().
+   *
+   * @throws Throwable if trouble
    */
   public static void processEvents() throws Throwable {
-    // for each file service, get watch service
-
-    HashMap<String, StringArray> contextsByHandler = new HashMap<>();
-    HashSet<String> handlerToReset = new HashSet<>();
+    long now = System.currentTimeMillis();
+    long debounceMillis = EDStatic.config == null ? 0 : EDStatic.config.watchDebounceMillis;
+    long maxDelayMillis = EDStatic.config == null ? 0 : EDStatic.config.watchMaxDelayMillis;
+    long previousPollMillis = lastPollMillis.getAndSet(now);
+    long eventMillis = now - previousPollMillis > debounceMillis ? previousPollMillis : now;
 
+    // for each file service, get watch service
     for (String fsId : fileSystemToService.keySet()) {
       WatchService watchService = fileSystemToService.get(fsId);
       WatchKey key = null;
@@ -124,21 +177,29 @@ public class SharedWatchService {
           continue;
         }
 
-        for (WatchEvent<?> event : key.pollEvents()) {
-          if (event.kind() == SharedWatchService.OVERFLOW) {
-            handlerToReset.add(handlerId);
-            // If we're doing a full reset we don't need to process the events.
-            break;
-          }
-          String context = dir + (event.context() == null ? "" : event.context());
-          if (contextsByHandler.containsKey(handlerId)) {
-            contextsByHandler.get(handlerId).add(context);
-          } else {
-            StringArray contexts = new StringArray();
-            contexts.add(context);
-            contextsByHandler.put(handlerId, contexts);
-          }
-        }
+        List<WatchEvent<?>> keyEvents = key.pollEvents();
+        pendingEventsByHandler.compute(
+            handlerId,
+            (id, pending) -> {
+              if (pending == null) pending = new PendingEvents();
+              synchronized (pending) {
+                for (WatchEvent<?> event : keyEvents) {
+                  events.labelValues(RECEIVED).inc();
+                  if (pending.isEmpty()) pending.firstEventMillis = eventMillis;
+                  pending.lastEventMillis = Math.max(pending.lastEventMillis, eventMillis);
+                  if (event.kind() == SharedWatchService.OVERFLOW) {
+                    // Events for this dir were lost, so the other events for it don't matter.
+                    pending.overflowDirs.add(dir);
+                    continue;
+                  }
+                  String context = dir + (event.context() == null ? "" : event.context());
+                  if (event.kind() != CREATE) NcFileCache.invalidate(context);
+                  // e.g., CREATE then MODIFY events for a file just need 1 context
+                  if (!pending.contexts.add(context)) events.labelValues(COALESCED).inc();
+                }
+              }
+              return pending;
+            });
 
         // reset key and remove from set if directory no longer accessible
         boolean valid = key.reset();
@@ -154,14 +215,141 @@ public class SharedWatchService {
       }
     }
 
-    for (String handlerId : handlerToReset) {
-      // Remove the contexts for this handler, just trigger the full reset.
-      contextsByHandler.remove(handlerId);
-      handlerIdToHandler.get(handlerId).doReload();
+    for (Entry<String, PendingEvents> entry : pendingEventsByHandler.entrySet()) {
+      WatchUpdateHandler handler = handlerIdToHandler.get(entry.getKey());
+      if (handler == null) pendingEventsByHandler.remove(entry.getKey(), entry.getValue());
+      else handle(handler, entry.getKey(), entry.getValue(), now, debounceMillis, maxDelayMillis);
+    }
+  }
+
+  /**
+   * This indicates if a handler has events which haven't been given to it yet.
+   *
+   * @param handlerId the identifier of the dataset
+   * @return true if the handler has pending events
+   */
+  static boolean hasPendingEvents(String handlerId) {
+    return pendingEventsByHandler.containsKey(handlerId);
+  }
+
+  /**
+   * This gives a handler its pending events (if they are ready) as one batch. Afterwards, if no new
+   * events arrived while the handler was busy, the handler's entry is removed from
+   * pendingEventsByHandler (so entries don't accumulate for handlers which are quiet or gone).
+   *
+   * @param handlerId the identifier of the dataset
+   * @param now the currentTimeMillis
+   * @param debounceMillis the events are ready when there have been no new events for this long
+   * @param maxDelayMillis or when the first event was this long ago (so a steady stream of events
+   *     doesn't delay the changes forever)
+   */
+  private static void handle(
+      WatchUpdateHandler handler,
+      String handlerId,
+      PendingEvents pending,
+      long now,
+      long debounceMillis,
+      long maxDelayMillis)
+      throws Throwable {
+    // if another thread is handling a batch for this handler, the events can wait
+    if (!pending.handlerLock.tryLock()) return;
+    try {
+      LinkedHashSet<String> contexts;
+      HashSet<String> overflowDirs;
+      synchronized (pending) {
+        if (!pending.isReady(now, debounceMillis, maxDelayMillis)) return;
+        contexts = new LinkedHashSet<>(pending.contexts);
+        overflowDirs = new HashSet<>(pending.overflowDirs);
+        pending.contexts.clear();
+        pending.overflowDirs.clear();
+      }
+
+      for (String dir : overflowDirs) {
+        if (!rescanDirectory(handler, dir, contexts)) {
+          // Just trigger the full reset. It will process all the changes.
+          handler.doReload();
+          return;
+        }
+      }
+      if (contexts.isEmpty()) return;
+      events.labelValues(APPLIED).inc(contexts.size());
+      handler.handleUpdates(new StringArray(contexts.iterator()));
+    } finally {
+      pendingEventsByHandler.computeIfPresent(
+          handlerId,
+          (id, p) -> {
+            synchronized (p) {
+              return p == pending && p.isEmpty() ? null : p;
+            }
+          });
+      pending.handlerLock.unlock();
+    }
+  }
+
+  /**
+   * After an OVERFLOW event for a directory, this compares the files in the directory with the
+   * files the handler knows about (see WatchUpdateHandler.knownFiles) and adds the files which were
+   * added, changed, or deleted to contexts.
+   *
+   * @param handler the handler
+   * @param dir the directory (with a trailing slash)
+   * @param contexts receives the dir+fileName of the files which need to be updated
+   * @return false if the handler doesn't support knownFiles (so it needs a full reload)
+   * @throws Throwable if trouble
+   */
+  static boolean rescanDirectory(WatchUpdateHandler handler, String dir, Set<String> contexts)
+      throws Throwable {
+    Map<String, Long> known = handler.knownFiles(dir);
+    if (known == null) return false;
+    HashSet<String> found = new HashSet<>();
+    File[] files = new File(dir).listFiles(); // null if the dir no longer exists
+    if (files != null) {
+      for (File file : files) {
+        if (!file.isFile()) continue;
+        String name = file.getName();
+        found.add(name);
+        Long lastMod = known.get(name);
+        if (lastMod == null || lastMod != file.lastModified()) {
+          NcFileCache.invalidate(dir + name);
+          contexts.add(dir + name);
+        }
+      }
+    }
+    for (String name : known.keySet()) {
+      if (!found.contains(name)) {
+        NcFileCache.invalidate(dir + name);
+        contexts.add(dir + name);
+      }
+    }
+    String2.log(
+        "SharedWatchService rescanned "
+            + dir
+            + " after an OVERFLOW event. nFiles="
+            + found.size()
+            + " nChanged(total)="
+            + contexts.size());
+    return true;
+  }
+
+  /** A handler's events which haven't been given to the handler yet. */
+  private static class PendingEvents {
+    // these are guarded by synchronized (this)
+    final LinkedHashSet<String> contexts = new LinkedHashSet<>();
+    final HashSet<String> overflowDirs = new HashSet<>();
+    long firstEventMillis;
+    long lastEventMillis;
+
+    /** This is held while the handler handles a batch (so only 1 batch at a time). */
+    final ReentrantLock handlerLock = new ReentrantLock();
+
+    boolean isEmpty() {
+      return contexts.isEmpty() && overflowDirs.isEmpty();
     }
 
-    for (Entry<String, StringArray> entry : contextsByHandler.entrySet()) {
-      handlerIdToHandler.get(entry.getKey()).handleUpdates(entry.getValue());
+    /** The events are ready to be handled when there have been no new events for a while. */
+    boolean isReady(long now, long debounceMillis, long maxDelayMillis) {
+      return !isEmpty()
+          && (now - lastEventMillis >= debounceMillis || now - firstEventMillis >= maxDelayMillis);
     }
   }
 }
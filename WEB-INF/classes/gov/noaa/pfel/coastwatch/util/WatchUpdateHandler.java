@@ -1,9 +1,22 @@
 package gov.noaa.pfel.coastwatch.util;
 
 import com.cohort.array.StringArray;
+import java.util.Map;
 
 public interface WatchUpdateHandler {
   public void doReload();
 
   public void handleUpdates(StringArray contexts) throws Throwable;
+
+  /**
+   * This returns the files in a directory which the handler knows about, so SharedWatchService can
+   * rescan just that directory after an OVERFLOW event (instead of calling doReload).
+   *
+   * @param dir a watched directory (with a trailing slash)
+   * @return fileName -&gt; lastModified (millis), or null if the handler doesn't support this
+   * @throws Throwable if trouble
+   */
+  public default Map<String, Long> knownFiles(String dir) throws Throwable {
+    return null;
+  }
 }
@@ -0,0 +1,372 @@
+/*
+ * DatasetLoadScheduler Copyright 2026, NOAA.
+ * See the LICENSE.txt file in this file's directory.
+ */
+package gov.noaa.pfel.erddap;
+
+import com.cohort.util.File2;
+import com.cohort.util.String2;
+import com.cohort.util.XML;
+import gov.noaa.pfel.coastwatch.util.SimpleXMLReader;
+import gov.noaa.pfel.erddap.dataset.EDD;
+import gov.noaa.pfel.erddap.util.EDStatic;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This constructs the top-level datasets from datasets.xml in a pool of worker threads. It is used
+ * by LoadDatasets when nLoadDatasetsThreads &gt; 1.
+ *
+ * <p>LoadDatasets still reads datasets.xml in its own thread. For each dataset that needs to be
+ * (re)loaded, it captures the dataset's xml (see captureXml) and submits it here. The worker
+ * threads just construct the EDD. Finished datasets are handed back to the LoadDatasets thread (see
+ * next()), which publishes them into erddap exactly the way the serial loop does.
+ *
+ * <p>Dependencies: a dataset that refers to another dataset in this ERDDAP (e.g., an
+ * EDDTableFromEDDGrid, EDDGridSideBySide, EDDTableAggregateRows, or EDDGridLonPM180 with a child
+ * *FromErddap dataset whose sourceUrl points to this ERDDAP, or a top-level *FromErddap dataset
+ * pointing to this ERDDAP) is not started until the dataset it refers to has been published. Like
+ * the serial loop, only datasets which appear earlier in datasets.xml are waited for, so there
+ * can't be cycles.
+ *
+ * <p>If constructing a dataset takes longer than timeoutMillis, its worker thread is interrupted,
+ * but a thread stuck in I/O may not notice. So a replacement worker thread is added to the pool
+ * until the stuck thread finishes, and the other datasets aren't held up.
+ *
+ * <p>All methods must be called from the LoadDatasets thread. The worker threads only run
+ * construct(), so none of the bookkeeping here needs to be synchronized (other than Task's finished
+ * and timedOut, which are guarded by this).
+ */
+class DatasetLoadScheduler {
+
+  /** One top-level &lt;dataset&gt; from datasets.xml, captured so it can be constructed later. */
+  record Job(String datasetID, String type, String xml, long lineNumber, Set<String> dependsOn) {}
+
+  /**
+   * The outcome of constructing one dataset. Exactly one of dataset and throwable will be non-null.
+   */
+  record Result(Job job, EDD dataset, Throwable throwable, long elapsedMillis) {}
+
+  /** This makes the EDD for a job (normally, from the job's xml). */
+  @FunctionalInterface
+  interface Builder {
+    EDD build(Job job) throws Throwable;
+  }
+
+  /** A job which has been started. */
+  private static final class Task {
+    final Job job;
+    volatile long startMillis; // when a worker thread started it (0 until then)
+    boolean finished; // guarded by the DatasetLoadScheduler
+    boolean timedOut; // guarded by the DatasetLoadScheduler
+
+    Task(Job job) {
+      this.job = job;
+    }
+  }
+
+  private static final AtomicInteger threadNumber = new AtomicInteger();
+
+  private final Builder builder;
+  private final long timeoutMillis;
+  private final ThreadPoolExecutor executorService;
+  private final CompletionService<Result> completionService;
+
+  /** The datasetIDs submitted during this LoadDatasets that haven't been published yet. */
+  private final Set<String> unpublished = new HashSet<>();
+
+  /** Jobs which are waiting for other datasets to be published. value=unpublished dependencies */
+  private final Map<Job, Set<String>> waiting = new HashMap<>();
+
+  /** The jobs which are running in a worker thread. */
+  private final Map<Future<Result>, Task> running = new HashMap<>();
+
+  /**
+   * The constructor.
+   *
+   * @param erddap the erddap that the datasets will be constructed for
+   * @param nThreads the number of worker threads (2+)
+   * @param timeoutMillis the maximum time allowed for constructing one dataset
+   */
+  DatasetLoadScheduler(Erddap erddap, int nThreads, long timeoutMillis) {
+    this(nThreads, timeoutMillis, job -> fromXml(erddap, job));
+  }
+
+  /**
+   * The constructor used by the tests.
+   *
+   * @param nThreads the number of worker threads (2+)
+   * @param timeoutMillis the maximum time allowed for constructing one dataset
+   * @param builder which makes the EDD for a job
+   */
+  DatasetLoadScheduler(int nThreads, long timeoutMillis, Builder builder) {
+    this.builder = builder;
+    this.timeoutMillis = timeoutMillis;
+    executorService =
+        new ThreadPoolExecutor(
+            nThreads,
+            nThreads,
+            0,
+            TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(),
+            runnable -> {
+              Thread thread =
+                  new Thread(runnable, "LoadDatasets-worker" + threadNumber.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+    completionService = new ExecutorCompletionService<>(executorService);
+  }
+
+  /**
+   * This reads the rest of a top-level &lt;dataset&gt; from xmlReader and returns the equivalent
+   * xml. Call this right after xmlReader has read the &lt;erddapDatasets&gt;&lt;dataset&gt; tag.
+   * Afterwards, xmlReader will be at the &lt;erddapDatasets&gt;&lt;/dataset&gt; tag.
+   *
+   * @param xmlReader the datasets.xml reader
+   * @param dependsOn receives the datasetIDs of the datasets in this ERDDAP that this dataset (or
+   *     one of its child datasets) refers to via a &lt;sourceUrl&gt;.
+   * @return the xml for this dataset (the content and attribute values are re-encoded)
+   * @throws Exception if trouble
+   */
+  static String captureXml(SimpleXMLReader xmlReader, Set<String> dependsOn) throws Exception {
+    StringBuilder sb = new StringBuilder();
+    int datasetStackSize = xmlReader.stackSize();
+    appendStartTag(sb, xmlReader);
+    while (true) {
+      xmlReader.nextTag();
+      String topTag = xmlReader.topTag();
+      if (topTag.startsWith("/")) {
+        String content = xmlReader.content();
+        if (topTag.equals("/sourceUrl") && EDStatic.urlIsThisComputer(content)) {
+          // e.g., http://localhost:8080/erddap/griddap/etopo180
+          dependsOn.add(File2.getNameNoExtension(content));
+        }
+        sb.append(XML.encodeAsXML(content)).append('<').append(topTag).append(">\n");
+        if (xmlReader.stackSize() == datasetStackSize) return sb.toString();
+      } else {
+        appendStartTag(sb, xmlReader);
+      }
+    }
+  }
+
+  private static void appendStartTag(StringBuilder sb, SimpleXMLReader xmlReader) {
+    sb.append('<').append(xmlReader.topTag());
+    String names[] = xmlReader.attributeNames();
+    for (String name : names)
+      sb.append(' ')
+          .append(name)
+          .append("=\"")
+          .append(XML.encodeAsXML(xmlReader.attributeValue(name)))
+          .append('"');
+    sb.append('>');
+  }
+
+  /**
+   * This submits a job. It will be started as soon as the (earlier) datasets it depends on have
+   * been published.
+   *
+   * @param job the job
+   * @return false if the job wasn't submitted because a job with the same datasetID was submitted
+   *     and hasn't been published yet (i.e., a duplicate datasetID)
+   */
+  boolean submit(Job job) {
+    if (unpublished.contains(job.datasetID())) return false;
+    Set<String> tDependsOn = new HashSet<>(job.dependsOn());
+    tDependsOn.retainAll(unpublished);
+    tDependsOn.remove(job.datasetID());
+    unpublished.add(job.datasetID());
+    if (tDependsOn.isEmpty()) {
+      start(job);
+    } else {
+      if (LoadDatasets.verbose)
+        String2.log(
+            "DatasetLoadScheduler: datasetID="
+                + job.datasetID()
+                + " is waiting for "
+                + String2.toCSSVString(tDependsOn));
+      waiting.put(job, tDependsOn);
+    }
+    return true;
+  }
+
+  private void start(Job job) {
+    Task task = new Task(job);
+    Future<Result> future = completionService.submit(() -> construct(task));
+    running.put(future, task);
+  }
+
+  /** This is run in a worker thread. */
+  private Result construct(Task task) {
+    Job job = task.job;
+    task.startMillis = System.currentTimeMillis();
+    try {
+      EDD dataset = builder.build(job);
+      return new Result(job, dataset, null, System.currentTimeMillis() - task.startMillis);
+    } catch (Throwable t) {
+      return new Result(job, null, t, System.currentTimeMillis() - task.startMillis);
+    } finally {
+      synchronized (this) {
+        task.finished = true;
+        // the replacement thread isn't needed any more
+        if (task.timedOut) resizePool(-1);
+      }
+    }
+  }
+
+  /** This is the default Builder: it makes the EDD from the job's xml. */
+  private static EDD fromXml(Erddap erddap, Job job) throws Throwable {
+    SimpleXMLReader xmlReader = null;
+    try {
+      xmlReader =
+          new SimpleXMLReader(
+              new ByteArrayInputStream(
+                  ("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n<erddapDatasets>\n"
+                          + job.xml()
+                          + "</erddapDatasets>\n")
+                      .getBytes(StandardCharsets.UTF_8)),
+              "erddapDatasets");
+      xmlReader.nextTag(); // <erddapDatasets><dataset>
+      return EDD.fromXml(erddap, job.type(), xmlReader);
+    } finally {
+      if (xmlReader != null) xmlReader.close();
+    }
+  }
+
+  /** This changes the number of worker threads. The caller must synchronize on this. */
+  private void resizePool(int delta) {
+    if (executorService.isShutdown()) return;
+    int n = executorService.getCorePoolSize() + delta;
+    if (delta > 0) {
+      executorService.setMaximumPoolSize(n);
+      executorService.setCorePoolSize(n); // this starts a thread if a job is waiting
+    } else {
+      executorService.setCorePoolSize(n);
+      executorService.setMaximumPoolSize(n);
+    }
+  }
+
+  /**
+   * @return the current number of worker threads (including the ones stuck in a timed out job)
+   */
+  synchronized int nWorkerThreads() {
+    return executorService.getCorePoolSize();
+  }
+
+  /**
+   * This returns the next finished (or timed out) job. If a job takes longer than timeoutMillis,
+   * its thread is interrupted and this returns a Result with a TimeoutException.
+   *
+   * @param waitMillis the maximum time to wait (0 = don't wait)
+   * @return the next Result, or null if none is available yet
+   * @throws InterruptedException if this thread is interrupted while waiting
+   */
+  Result next(long waitMillis) throws InterruptedException {
+    Future<Result> future =
+        waitMillis <= 0
+            ? completionService.poll()
+            : completionService.poll(waitMillis, TimeUnit.MILLISECONDS);
+    while (future != null) {
+      Task task = running.remove(future);
+      if (task != null) { // else it already timed out and was reported
+        try {
+          return future.get();
+        } catch (ExecutionException e) {
+          return new Result(
+              task.job, null, e.getCause(), System.currentTimeMillis() - task.startMillis);
+        }
+      }
+      future = completionService.poll();
+    }
+
+    // look for jobs which have taken too long
+    long now = System.currentTimeMillis();
+    Iterator<Map.Entry<Future<Result>, Task>> it = running.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<Future<Result>, Task> entry = it.next();
+      Task task = entry.getValue();
+      long elapsed = task.startMillis == 0 ? 0 : now - task.startMillis; // 0 if not started yet
+      if (elapsed > timeoutMillis) {
+        synchronized (this) {
+          // the worker thread may not notice the interrupt (e.g., if it is stuck in I/O),
+          // so add a replacement thread until the job finishes
+          if (!task.finished) {
+            task.timedOut = true;
+            resizePool(1);
+          }
+        }
+        entry.getKey().cancel(true); // interrupt the worker thread
+        it.remove();
+        return new Result(
+            task.job,
+            null,
+            new TimeoutException(
+                "Constructing the dataset took longer than loadDatasetTimeoutMinutes="
+                    + timeoutMillis / 60000
+                    + "."),
+            elapsed);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * LoadDatasets calls this after it has published (or failed to publish) a dataset. This starts
+   * any jobs that were waiting just for this dataset.
+   *
+   * @param datasetID the datasetID
+   */
+  void published(String datasetID) {
+    unpublished.remove(datasetID);
+    List<Job> toStart = new ArrayList<>();
+    Iterator<Map.Entry<Job, Set<String>>> it = waiting.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<Job, Set<String>> entry = it.next();
+      entry.getValue().remove(datasetID);
+      if (entry.getValue().isEmpty()) {
+        toStart.add(entry.getKey());
+        it.remove();
+      }
+    }
+    // start in datasets.xml order
+    toStart.sort((a, b) -> Long.compare(a.lineNumber(), b.lineNumber()));
+    for (Job job : toStart) start(job);
+  }
+
+  /**
+   * This indicates if all submitted jobs have been returned by next().
+   *
+   * @return true if there are no running or waiting jobs
+   */
+  boolean isIdle() {
+    return running.isEmpty() && waiting.isEmpty();
+  }
+
+  /** This shuts down the worker threads after the running jobs are finished. */
+  synchronized void shutdown() {
+    executorService.shutdown();
+  }
+
+  /** This interrupts the running jobs and shuts down the worker threads. */
+  synchronized void shutdownNow() {
+    waiting.clear();
+    running.clear();
+    executorService.shutdownNow();
+  }
+}
@@ -59,9 +59,12 @@ import gov.noaa.pfel.erddap.dataset.WaitThenTryAgainException;
 import gov.noaa.pfel.erddap.filetypes.TransparentPngFiles;
 import gov.noaa.pfel.erddap.handlers.SaxParsingContext;
 import gov.noaa.pfel.erddap.util.CfToFromGcmd;
+import gov.noaa.pfel.erddap.util.DatasetCatalogIndex;
 import gov.noaa.pfel.erddap.util.EDConfig;
 import gov.noaa.pfel.erddap.util.EDMessages.Message;
 import gov.noaa.pfel.erddap.util.EDStatic;
+import gov.noaa.pfel.erddap.util.OriginalSearchIndex;
+import gov.noaa.pfel.erddap.util.RequestScheduler;
 import gov.noaa.pfel.erddap.util.Subscriptions;
 import gov.noaa.pfel.erddap.util.TaskThread;
 import gov.noaa.pfel.erddap.util.TranslateMessages;
@@ -85,9 +88,11 @@ import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.StringReader;
 import java.io.Writer;
+import java.net.URLConnection;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -97,11 +102,12 @@ import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -212,6 +218,19 @@ public class Erddap extends HttpServlet {
   public final ConcurrentHashMap<String, EDDTable> tableDatasetHashMap =
       new ConcurrentHashMap<>(16, 0.75f, 4);
 
+  /**
+   * The original search engine's indexes: key=language index, value=the index (made when the first
+   * search in that language is done).
+   */
+  public final ConcurrentHashMap<Integer, OriginalSearchIndex> originalSearchIndexes =
+      new ConcurrentHashMap<>(16, 0.75f, 4);
+
+  /**
+   * The index of the datasets' longitude, latitude, and time ranges and categoryInfo (used by
+   * advanced search and allDatasets if EDStatic.config.catalogIndex).
+   */
+  public final DatasetCatalogIndex catalogIndex = new DatasetCatalogIndex();
+
   /** The RSS info: key=datasetId, value=utf8 byte[] of rss xml */
   public static final ConcurrentHashMap<String, byte[]> rssHashMap =
       new ConcurrentHashMap<>(16, 0.75f, 4);
@@ -516,6 +535,8 @@ public class Erddap extends HttpServlet {
     int requestNumber = totalNRequests.incrementAndGet();
     int language = 0; // use English until known
     String ipAddress = EDStatic.ipAddressNotSetYet; // won't be null
+    boolean registered = false; // in EDStatic.requestScheduler
+    RequestScheduler.Permit permit = null;
 
     try {
 
@@ -567,88 +588,67 @@ public class Erddap extends HttpServlet {
 
       // then immediately test ipAddress (so little possible error in between)
       // This is the "on-ramp metering" system to limit requests from a given IP address.
-      if (!EDStatic.ipAddressUnlimited.contains(ipAddress)) {
-        // always add requestNumber to ipAddressQueue for this ipAddress
-        // Important: ipAddressQueue is thread-safe so only 1 thread will succeed in creating a new
-        // IntArray for this ipAddress
-        IntArray iaq =
-            EDStatic.ipAddressQueue.putIfAbsent(
-                ipAddress, new IntArray(EDStatic.ipAddressMaxRequests, false));
-        if (iaq == null) iaq = EDStatic.ipAddressQueue.get(ipAddress);
-        synchronized (EDStatic.ipAddressQueue.get(ipAddress)) {
-          // first thing
-          iaq.add(requestNumber);
-
-          // isOnBlacklist?
-          if (EDStatic.isOnBlacklist(language, ipAddress, requestNumber, response)) return;
-
-          // too many simultaneous requests
-          if (iaq.size() > EDStatic.ipAddressMaxRequests) {
-            EDStatic.tooManyRequests++;
-            EDStatic.tally.add(
-                "Requester's IP Address (Too Many Requests) (since last Major LoadDatasets)",
-                ipAddress);
-            EDStatic.tally.add(
-                "Requester's IP Address (Too Many Requests) (since last daily report)", ipAddress);
-            EDStatic.tally.add(
-                "Requester's IP Address (Too Many Requests) (since startup)", ipAddress);
-            EDStatic.lowSendError(
-                requestNumber,
-                response,
-                429, // 429=Too Many Requests
-                EDStatic.messages.get(Message.ONE_REQUEST_AT_A_TIME, language));
-            // FUTURE? email yesterday's list to erddap admin when generating daily report
-            // so they can consider blacklisting them?
-            return;
-          }
+      boolean unlimited = EDStatic.ipAddressUnlimited.contains(ipAddress);
+      if (!unlimited) {
+        // always register this request for this ipAddress
+        int nRequests = EDStatic.requestScheduler.register(ipAddress);
+        registered = true;
+
+        // isOnBlacklist?
+        if (EDStatic.isOnBlacklist(language, ipAddress, requestNumber, response)) return;
+
+        // too many simultaneous requests
+        if (nRequests > EDStatic.ipAddressMaxRequests) {
+          EDStatic.tooManyRequests++;
+          EDStatic.tally.add(
+              "Requester's IP Address (Too Many Requests) (since last Major LoadDatasets)",
+              ipAddress);
+          EDStatic.tally.add(
+              "Requester's IP Address (Too Many Requests) (since last daily report)", ipAddress);
+          EDStatic.tally.add(
+              "Requester's IP Address (Too Many Requests) (since startup)", ipAddress);
+          EDStatic.lowSendError(
+              requestNumber,
+              response,
+              429, // 429=Too Many Requests
+              EDStatic.messages.get(Message.ONE_REQUEST_AT_A_TIME, language));
+          // FUTURE? email yesterday's list to erddap admin when generating daily report
+          // so they can consider blacklisting them?
+          return;
         }
+      }
 
-        // if (debugMode) String2.log(">> requestUrl=" + requestUrl);
-        if (getUrlWithoutLang(request).startsWith("/" + EDStatic.config.warName + "/download/")
-            || getUrlWithoutLang(request).startsWith("/" + EDStatic.config.warName + "/images/")) {
-          // small static content (e.g., erddap.css) is exempt from request limits
-          //   (but still counts toward ipAddressMaxRequests above)
-          // so don't wait
-          // if (debugMode) String2.log(">> requestUrl=" + requestUrl + " is exempt");
-        } else {
-          // Wait up to 2 minutes until requestNumber is in top ipAddressMaxRequestsActive slots of
-          // this user's queue.
-          // This automatically deals with users making multiple simultaneous requests (no blacklist
-          // needed).
-          // This is a really good approach because it disperses the burden on ERDDAP.
-          long start = System.currentTimeMillis();
-          boolean printMsg = reallyVerbose; // just print msg first time, if reallyVerbose
-          TOP_N:
-          while (true) {
-            synchronized (iaq) { // this takes very little time (~ 31 nanoseconds) (see
-              // IntArray.testSynchSpeed())
-              for (int which = Math.min(iaq.size() - 1, EDStatic.ipAddressMaxRequestsActive - 1);
-                  which >= 0;
-                  which--)
-                if (iaq.get(which) == requestNumber)
-                  break TOP_N; // fall through and respond to this request
-            }
-            // getting here (multiple simultaneous requests) should be rare
-            // but there are legit reasons, e.g., WMS client, web pages like BloomWatch
-            // FUTURE? Do tally of these IP addresses?
-            if (printMsg) {
-              String2.log(
-                  ipAddress
-                      + " has exceeded ipAddressMaxRequestsActive="
-                      + EDStatic.ipAddressMaxRequestsActive);
-              printMsg = false;
-            }
-            // this number determines how ~max requests/second/user.
-            // 1000ms/200ms *2maxRequestsActive = 10/second = 9000/15minutes which is a lot for 1
-            // user
-            Thread.sleep(
-                200); // millis. Not Math2.sleep() because we want to allow InterruptedException
-            if (System.currentTimeMillis() - start > 120000) // 120s * 1000 millis/s
-            throw new TimeoutException(
-                  EDStatic.messages.get(Message.TIMEOUT_OTHER_REQUESTS, language)
-                      + " "
-                      + EDStatic.messages.get(Message.ONE_REQUEST_AT_A_TIME, language));
-          }
+      // Wait (up to requestQueueMaxSeconds) for a slot for this class of request.
+      // Each ipAddress can have at most ipAddressMaxRequestsActive active requests.
+      // This automatically deals with users making multiple simultaneous
+      // requests (no blacklist needed) and, since slots go to the users with the fewest active
+      // requests first, one heavy user can't use all of the slots.
+      // As with the old ipAddressQueue, ipAddressUnlimited requests never wait.
+      // Small static content (e.g., erddap.css) is exempt (but still counts toward
+      // ipAddressMaxRequests above), so doesn't wait.
+      RequestScheduler.RequestClass requestClass =
+          unlimited ? null : requestClass(getUrlWithoutLang(request), queryString);
+      if (requestClass != null) {
+        permit =
+            EDStatic.requestScheduler.acquire(
+                ipAddress,
+                1, // weight
+                EDStatic.ipAddressMaxRequestsActive,
+                requestClass,
+                EDStatic.config.requestQueueMaxMillis);
+        if (permit == null) {
+          // getting here should be rare: the server is very busy
+          EDStatic.tally.add(
+              "Request Queue Timeout (since last daily report)", requestClass.name());
+          EDStatic.tally.add("Request Queue Timeout (since startup)", requestClass.name());
+          response.setHeader(
+              "Retry-After", "" + EDStatic.requestScheduler.retryAfterSeconds(requestClass));
+          EDStatic.lowSendError(
+              requestNumber,
+              response,
+              HttpServletResponse.SC_SERVICE_UNAVAILABLE, // 503
+              EDStatic.messages.get(Message.WAIT_THEN_TRY_AGAIN, language));
+          return;
         }
       }
 
@@ -1036,23 +1036,112 @@ public class Erddap extends HttpServlet {
         // remove requestNumber from activeRequests
         EDStatic.activeRequests.remove(requestNumber + ""); // shouldn't ever fail
 
-        // remove requestNumber from ipAddressQueue for this ipAddress
-        if (!EDStatic.ipAddressUnlimited.contains(ipAddress)) {
-          IntArray iaq = EDStatic.ipAddressQueue.get(ipAddress);
-          if (iaq != null) { // will be null if just added to ipAddressUnlimited
-            synchronized (iaq) {
-              int which = iaq.indexOf(requestNumber);
-              if (which >= 0) // it should be
-              iaq.remove(which);
-            }
-          }
-        }
+        // release this request's slot and unregister it (so other requests can proceed)
+        if (permit != null) permit.close();
+        if (registered) EDStatic.requestScheduler.unregister(ipAddress);
       } catch (Throwable t2) {
         String2.log("Caught: " + MustBe.throwableToString(t2));
       }
     }
   }
 
+  /**
+   * This determines the RequestScheduler.RequestClass of a request, so it can wait for a slot of
+   * that class. This is a quick heuristic based on the URL, since the size of the response isn't
+   * known yet. A griddap or tabledap data request is a small_data request if it constrains the data
+   * (a griddap query with [subset] brackets, or a tabledap query with a constraint, e.g.,
+   * &amp;time&gt;=2020-01-01). Otherwise (e.g., ?sst or ?time,temperature), it may get all of the
+   * data in the dataset, so it is a large_download request.
+   *
+   * @param urlWithoutLang e.g., /erddap/griddap/erdMHchla8day.nc (see getUrlWithoutLang)
+   * @param queryString the query (or "")
+   * @return the RequestClass, or null if the request is exempt (small static content).
+   */
+  static RequestScheduler.RequestClass requestClass(String urlWithoutLang, String queryString) {
+    String start = "/" + EDStatic.config.warName + "/";
+    String endOfRequest =
+        urlWithoutLang.startsWith(start)
+            ? urlWithoutLang.substring(start.length())
+            : urlWithoutLang;
+    if (endOfRequest.startsWith("download/") || endOfRequest.startsWith("images/")) return null;
+    int slashPo = endOfRequest.indexOf('/');
+    String protocol = slashPo < 0 ? endOfRequest : endOfRequest.substring(0, slashPo);
+    switch (protocol) {
+      case "griddap", "tabledap" -> {
+        String fileTypeName = File2.getExtension(endOfRequest);
+        EDDFileTypeInfo fileTypeInfo = EDD.EDD_FILE_TYPE_INFO.get(fileTypeName);
+        if (fileTypeInfo != null && fileTypeInfo.getIsImage())
+          return RequestScheduler.RequestClass.image;
+        if (fileTypeInfo == null // e.g., .html, .graph, .subset
+            || String2.indexOf(DAP_METADATA_FILE_TYPES, fileTypeName) >= 0)
+          return RequestScheduler.RequestClass.metadata;
+        return isConstrained(protocol, queryString)
+            ? RequestScheduler.RequestClass.small_data
+            : RequestScheduler.RequestClass.large_download;
+      }
+      case "files" -> {
+        return endOfRequest.endsWith("/") || endOfRequest.endsWith(".html")
+            ? RequestScheduler.RequestClass.metadata // a directory listing
+            : RequestScheduler.RequestClass.large_download;
+      }
+      case "wms" -> {
+        return String2.looselyContains(queryString, "GetMap")
+            ? RequestScheduler.RequestClass.image
+            : RequestScheduler.RequestClass.metadata;
+      }
+      case "sos", "rest", "convert" -> {
+        return RequestScheduler.RequestClass.small_data;
+      }
+      default -> {
+        return RequestScheduler.RequestClass.metadata;
+      }
+    }
+  }
+
+  /**
+   * This returns true if a griddap or tabledap data query constrains the data (see requestClass).
+   *
+   * @param protocol griddap or tabledap
+   * @param queryString the query (percent-encoded or not)
+   * @return true if the query constrains the data
+   */
+  private static boolean isConstrained(String protocol, String queryString) {
+    String query;
+    try {
+      query = SSR.percentDecode(queryString);
+    } catch (Exception e) {
+      query = queryString;
+    }
+    if (protocol.equals("griddap")) return query.indexOf('[') >= 0;
+    String parts[] = String2.split(query, '&');
+    for (int i = 1; i < parts.length; i++) { // parts[0] is the list of results variables
+      // a constraint (e.g., time>=2020), not a filter (e.g., orderBy("time")) or a switch
+      if (!parts[i].matches("[a-zA-Z]+\\(.*")
+          && (parts[i].indexOf('<') > 0 || parts[i].indexOf('>') > 0 || parts[i].indexOf('=') > 0))
+        return true;
+    }
+    return false;
+  }
+
+  /** The griddap and tabledap fileTypes that just return metadata. */
+  private static final String[] DAP_METADATA_FILE_TYPES = {
+    ".croissant",
+    ".das",
+    ".dds",
+    ".fgdc",
+    ".iso19115",
+    ".iso19115_2",
+    ".iso19115_3_2016",
+    ".iso19139_2007",
+    ".ncml",
+    ".nccsvMetadata",
+    ".ncHeader",
+    ".ncCFHeader",
+    ".ncCFMAHeader",
+    ".nc4Header",
+    ".timeGaps"
+  };
+
   private void recordRequestResponseTime(int responseStatus, String requestUrl, long responseTime) {
     int protocolStart = EDStatic.config.warName.length() + 2; // lead and trailing /
 
@@ -6507,6 +6596,7 @@ widgets.select("frequencyOption", "", 1, frequencyOptions, frequencyOption, "")
     // if EDDGridFromErddap or EDDTableFromErddap, forward request
     // Note that .html and .graph are handled locally so links on web pages
     //  are for this server and the responses can be handled quickly.
+    String passThroughUrl = null; // if not null, pass through the response from the source ERDDAP
     if (dataset instanceof FromErddap fromErddap) {
       Semver sourceVersion = fromErddap.sourceErddapVersion();
       // some requests are handled locally...
@@ -6533,7 +6623,6 @@ widgets.select("frequencyOption", "", 1, frequencyOptions, frequencyOption, "")
           && queryString.indexOf("orderByDescending(") >= 0) newOrderBy = true;
       EDDFileTypeInfo fileTypeInfo = EDD.EDD_FILE_TYPE_INFO.get(fileTypeName);
       if (newOrderBy
-          || !fromErddap.redirect()
           || fileTypeName.equals(".das")
           || fileTypeName.equals(".dds")
           || fileTypeName.equals(".html")
@@ -6546,12 +6635,20 @@ widgets.select("frequencyOption", "", 1, frequencyOptions, frequencyOption, "")
               && fileTypeInfo.getVersionAdded().isGreaterThanOrEqualTo(sourceVersion))
           || fileTypeName.equals(".subset")) {
         // handle locally
-      } else {
+      } else if (fromErddap.redirect()) {
         // redirect the request
         String tUrl = fromErddap.getPublicSourceErddapUrl() + fileTypeName;
         String tqs = EDStatic.questionQuery(request.getQueryString()); // still encoded
         sendRedirect(response, tUrl + tqs);
         return;
+      } else if (EDStatic.config.fromErddapPassThrough && fromErddap.canPassThrough()) {
+        // the source ERDDAP can make exactly this response (and this dataset doesn't change
+        //  the source's metadata), so just pass its bytes through
+        //  (instead of decoding the data and making the response again here)
+        passThroughUrl =
+            fromErddap.getLocalSourceErddapUrl()
+                + fileTypeName
+                + EDStatic.questionQuery(request.getQueryString()); // still encoded
       }
     }
 
@@ -6586,6 +6683,11 @@ widgets.select("frequencyOption", "", 1, frequencyOptions, frequencyOption, "")
 
     // *** tell the dataset to send the data
     try {
+      if (passThroughUrl != null) {
+        passThrough(passThroughUrl, outputStreamSource);
+        return;
+      }
+
       // give the dataset the opportunity to update (DAP)
       dataset.update(language);
 
@@ -13382,6 +13484,41 @@ widgets.select("frequencyOption", "", 1, frequencyOptions, frequencyOption, "")
     }
   }
 
+  /**
+   * This passes the response from a source ERDDAP (for an EDDGridFromErddap or EDDTableFromErddap
+   * dataset with redirect=false and canPassThrough()) through to the user, as it arrives, so the
+   * response is never in memory all at once.
+   *
+   * @param url the source ERDDAP's url for the request (including the file type and the still
+   *     percentEncoded query)
+   * @param outputStreamSource for the user's response. It is only used if the source ERDDAP's
+   *     response starts successfully, so e.g., its error message can still be sent to the user.
+   * @throws Throwable if trouble
+   */
+  private static void passThrough(String url, OutputStreamSource outputStreamSource)
+      throws Throwable {
+    long time = System.currentTimeMillis();
+    Object[] cisc = SSR.getUrlConnBufferedInputStream(url, 120000); // decompressed if necessary
+    try (InputStream in = (InputStream) cisc[1]) {
+      String contentType = cisc[0] instanceof URLConnection conn ? conn.getContentType() : null;
+      String charset =
+          contentType != null && contentType.toLowerCase().indexOf("charset=") >= 0
+              ? (String) cisc[2]
+              : "";
+      OutputStream out = outputStreamSource.outputStream(charset);
+      long nBytes = in.transferTo(out); // the caller closes out
+      if (verbose)
+        String2.log(
+            "passThrough "
+                + url
+                + " nBytes="
+                + nBytes
+                + " time="
+                + (System.currentTimeMillis() - time)
+                + "ms");
+    }
+  }
+
   /**
    * This responds to a user's requst for a file in the (pseudo)'protocol' (e.g., images) directory.
    * This works with files in subdirectories of 'protocol'.
@@ -16386,109 +16523,137 @@ widgets.select("frequencyOption", "", 1, frequencyOptions, frequencyOption, "")
       // String2.log("  after protocol=" + protocol + ", nMatching=" + matchingDatasetIDs.size());
     }
 
-    // test category...
-    for (int ca = 0; ca < nCatAtts; ca++) {
-      if (whichCatSAIndex[ca] > 0) {
-        StringArray tMatching = categoryInfo(catAtts[ca], catSAs[ca][whichCatSAIndex[ca]]);
+    boolean testLon = !Double.isNaN(minLon) || !Double.isNaN(maxLon);
+    boolean testLat = !Double.isNaN(minLat) || !Double.isNaN(maxLat);
+    boolean testTime = !Double.isNaN(minTimeD) || !Double.isNaN(maxTimeD);
+    if (EDStatic.config.catalogIndex) {
+      // test category and bounding box with catalogIndex
+      BitSet matching = null;
+      for (int ca = 0; ca < nCatAtts; ca++) {
+        if (whichCatSAIndex[ca] > 0) {
+          BitSet bits = catalogIndex.facet(catAtts[ca], catSAs[ca][whichCatSAIndex[ca]]);
+          if (matching == null) matching = bits;
+          else matching.and(bits);
+        }
+      }
+      if (testLon || testLat || testTime) {
+        BitSet bits = catalogIndex.boundingBox(minLon, maxLon, minLat, maxLat, minTimeD, maxTimeD);
+        if (matching == null) matching = bits;
+        else matching.and(bits);
+      }
+      if (matching != null) {
+        StringArray tMatching = catalogIndex.datasetIDs(matching);
         tMatching.sort(); // must be plain sort()
         if (matchingDatasetIDs == null) {
           matchingDatasetIDs = tMatching;
         } else {
           matchingDatasetIDs.inCommon(tMatching);
         }
-        // String2.log("  after " + catAttsInURLs[ca] + ", nMatching=" + matchingDatasetIDs.size());
+        // String2.log("  after catalogIndex, nMatching=" + matchingDatasetIDs.size());
       }
-    }
-
-    // test bounding box...
-    boolean testLon = !Double.isNaN(minLon) || !Double.isNaN(maxLon);
-    boolean testLat = !Double.isNaN(minLat) || !Double.isNaN(maxLat);
-    boolean testTime = !Double.isNaN(minTimeD) || !Double.isNaN(maxTimeD);
-    if (testLon || testLat || testTime) {
-      if (matchingDatasetIDs == null) matchingDatasetIDs = allDatasetIDs();
-      int dsn = matchingDatasetIDs.size();
-      BitSet keep = new BitSet(dsn);
-      keep.set(0, dsn, true); // so look for a reason not to keep it
-      for (int dsi = 0; dsi < dsn; dsi++) {
-        String tDatasetID = matchingDatasetIDs.get(dsi);
-        EDDGrid eddg = gridDatasetHashMap.get(tDatasetID);
-        EDV lonEdv = null, latEdv = null, timeEdv = null;
-        if (eddg == null) {
-          EDDTable eddt = tableDatasetHashMap.get(tDatasetID);
-          if (eddt != null) {
-            if (eddt.lonIndex() >= 0) lonEdv = eddt.dataVariables()[eddt.lonIndex()];
-            if (eddt.latIndex() >= 0) latEdv = eddt.dataVariables()[eddt.latIndex()];
-            if (eddt.timeIndex() >= 0) timeEdv = eddt.dataVariables()[eddt.timeIndex()];
+    } else {
+      // test category...
+      for (int ca = 0; ca < nCatAtts; ca++) {
+        if (whichCatSAIndex[ca] > 0) {
+          StringArray tMatching = categoryInfo(catAtts[ca], catSAs[ca][whichCatSAIndex[ca]]);
+          tMatching.sort(); // must be plain sort()
+          if (matchingDatasetIDs == null) {
+            matchingDatasetIDs = tMatching;
+          } else {
+            matchingDatasetIDs.inCommon(tMatching);
           }
-        } else {
-          if (eddg.lonIndex() >= 0) lonEdv = eddg.axisVariables()[eddg.lonIndex()];
-          if (eddg.latIndex() >= 0) latEdv = eddg.axisVariables()[eddg.latIndex()];
-          if (eddg.timeIndex() >= 0) timeEdv = eddg.axisVariables()[eddg.timeIndex()];
+          // String2.log("  after " + catAttsInURLs[ca] + ", nMatching=" +
+          // matchingDatasetIDs.size());
         }
+      }
 
-        // testLon
-        if (testLon) {
-          if (lonEdv == null) {
-            keep.clear(dsi);
+      // test bounding box...
+      if (testLon || testLat || testTime) {
+        if (matchingDatasetIDs == null) matchingDatasetIDs = allDatasetIDs();
+        int dsn = matchingDatasetIDs.size();
+        BitSet keep = new BitSet(dsn);
+        keep.set(0, dsn, true); // so look for a reason not to keep it
+        for (int dsi = 0; dsi < dsn; dsi++) {
+          String tDatasetID = matchingDatasetIDs.get(dsi);
+          EDDGrid eddg = gridDatasetHashMap.get(tDatasetID);
+          EDV lonEdv = null, latEdv = null, timeEdv = null;
+          if (eddg == null) {
+            EDDTable eddt = tableDatasetHashMap.get(tDatasetID);
+            if (eddt != null) {
+              if (eddt.lonIndex() >= 0) lonEdv = eddt.dataVariables()[eddt.lonIndex()];
+              if (eddt.latIndex() >= 0) latEdv = eddt.dataVariables()[eddt.latIndex()];
+              if (eddt.timeIndex() >= 0) timeEdv = eddt.dataVariables()[eddt.timeIndex()];
+            }
           } else {
-            if (!Double.isNaN(minLon)) {
-              if (Double.isNaN(lonEdv.destinationMaxDouble())
-                  || minLon > lonEdv.destinationMaxDouble()) {
-                keep.clear(dsi);
+            if (eddg.lonIndex() >= 0) lonEdv = eddg.axisVariables()[eddg.lonIndex()];
+            if (eddg.latIndex() >= 0) latEdv = eddg.axisVariables()[eddg.latIndex()];
+            if (eddg.timeIndex() >= 0) timeEdv = eddg.axisVariables()[eddg.timeIndex()];
+          }
+
+          // testLon
+          if (testLon) {
+            if (lonEdv == null) {
+              keep.clear(dsi);
+            } else {
+              if (!Double.isNaN(minLon)) {
+                if (Double.isNaN(lonEdv.destinationMaxDouble())
+                    || minLon > lonEdv.destinationMaxDouble()) {
+                  keep.clear(dsi);
+                }
               }
-            }
-            if (!Double.isNaN(maxLon)) {
-              if (Double.isNaN(lonEdv.destinationMinDouble())
-                  || maxLon < lonEdv.destinationMinDouble()) {
-                keep.clear(dsi);
+              if (!Double.isNaN(maxLon)) {
+                if (Double.isNaN(lonEdv.destinationMinDouble())
+                    || maxLon < lonEdv.destinationMinDouble()) {
+                  keep.clear(dsi);
+                }
               }
             }
           }
-        }
 
-        // testLat
-        if (testLat) {
-          if (latEdv == null) {
-            keep.clear(dsi);
-          } else {
-            if (!Double.isNaN(minLat)) {
-              if (Double.isNaN(latEdv.destinationMaxDouble())
-                  || minLat > latEdv.destinationMaxDouble()) {
-                keep.clear(dsi);
+          // testLat
+          if (testLat) {
+            if (latEdv == null) {
+              keep.clear(dsi);
+            } else {
+              if (!Double.isNaN(minLat)) {
+                if (Double.isNaN(latEdv.destinationMaxDouble())
+                    || minLat > latEdv.destinationMaxDouble()) {
+                  keep.clear(dsi);
+                }
               }
-            }
-            if (!Double.isNaN(maxLat)) {
-              if (Double.isNaN(latEdv.destinationMinDouble())
-                  || maxLat < latEdv.destinationMinDouble()) {
-                keep.clear(dsi);
+              if (!Double.isNaN(maxLat)) {
+                if (Double.isNaN(latEdv.destinationMinDouble())
+                    || maxLat < latEdv.destinationMinDouble()) {
+                  keep.clear(dsi);
+                }
               }
             }
           }
-        }
 
-        // testTime
-        if (testTime) {
-          if (timeEdv == null) {
-            keep.clear(dsi);
-          } else {
-            if (!Double.isNaN(minTimeD)) {
-              if (Double.isNaN(timeEdv.destinationMaxDouble())) {
-                // test is ambiguous, since destMax=NaN may mean current time
-              } else if (minTimeD > timeEdv.destinationMaxDouble()) {
-                keep.clear(dsi);
+          // testTime
+          if (testTime) {
+            if (timeEdv == null) {
+              keep.clear(dsi);
+            } else {
+              if (!Double.isNaN(minTimeD)) {
+                if (Double.isNaN(timeEdv.destinationMaxDouble())) {
+                  // test is ambiguous, since destMax=NaN may mean current time
+                } else if (minTimeD > timeEdv.destinationMaxDouble()) {
+                  keep.clear(dsi);
+                }
               }
-            }
-            if (!Double.isNaN(maxTimeD)) {
-              if (Double.isNaN(timeEdv.destinationMinDouble())
-                  || maxTimeD < timeEdv.destinationMinDouble()) {
-                keep.clear(dsi);
+              if (!Double.isNaN(maxTimeD)) {
+                if (Double.isNaN(timeEdv.destinationMinDouble())
+                    || maxTimeD < timeEdv.destinationMinDouble()) {
+                  keep.clear(dsi);
+                }
               }
             }
           }
         }
+        matchingDatasetIDs.justKeep(keep);
+        // String2.log("  after boundingBox, nMatching=" + matchingDatasetIDs.size());
       }
-      matchingDatasetIDs.justKeep(keep);
-      // String2.log("  after boundingBox, nMatching=" + matchingDatasetIDs.size());
     }
 
     // do text search last, since it is the most time-consuming
@@ -16975,6 +17140,7 @@ widgets.select("frequencyOption", "", 1, frequencyOptions, frequencyOption, "")
     // rankings.
     // prepare the jump byte[]s
     boolean isNegative[] = new boolean[nSearchWords];
+    String searchWordsS[] = new String[nSearchWords];
     byte searchWordsB[][] = new byte[nSearchWords][];
     int jumpB[][] = new int[nSearchWords][];
     for (int w = 0; w < nSearchWords; w++) {
@@ -16985,10 +17151,26 @@ widgets.select("frequencyOption", "", 1, frequencyOptions, frequencyOption, "")
       // remove enclosing double quotes
       sw = String2.fromJson(sw);
 
+      searchWordsS[w] = sw;
       searchWordsB[w] = String2.stringToUtf8Bytes(sw);
       jumpB[w] = String2.makeJumpTable(searchWordsB[w]);
     }
 
+    // With the original search index, just the datasets which have the search words' terms
+    // need to be searched. The ranks are the same.
+    OriginalSearchIndex searchIndex = null;
+    OriginalSearchIndex.Candidates candidates = null;
+    if (EDStatic.config.originalSearchIndex) {
+      searchIndex = originalSearchIndexes.computeIfAbsent(language, OriginalSearchIndex::new);
+      for (int i = 0; i < ntDatasetIDs; i++) { // fast if the datasets are already indexed
+        String tId = tDatasetIDs.get(i);
+        EDD edd = gridDatasetHashMap.get(tId);
+        if (edd == null) edd = tableDatasetHashMap.get(tId);
+        if (edd != null) searchIndex.update(tId, edd);
+      }
+      candidates = searchIndex.candidates(searchWordsS, isNegative);
+    }
+
     for (int i = 0; i < ntDatasetIDs; i++) {
       String tId = tDatasetIDs.get(i);
       EDD edd = gridDatasetHashMap.get(tId);
@@ -16999,7 +17181,10 @@ widgets.select("frequencyOption", "", 1, frequencyOptions, frequencyOption, "")
           && !edd.isAccessibleTo(roles)
           && !edd.graphsAccessibleToPublic()) // search for datasets is always a metadata request
       continue;
-      int rank = edd.searchRank(language, isNegative, searchWordsB, jumpB);
+      int rank =
+          searchIndex == null
+              ? edd.searchRank(language, isNegative, searchWordsB, jumpB)
+              : searchIndex.searchRank(tId, edd, candidates, isNegative, searchWordsB, jumpB);
       if (rank < Integer.MAX_VALUE) {
         // /10 makes rank less sensitive to exact char positions
         // so more likely to be tied,
@@ -25165,6 +25350,21 @@ widgets.select("frequencyOption", "", 1, frequencyOptions, frequencyOption, "")
         LoadDatasets.categorizeVariableAtts(add, catInfo, eddGrid.axisVariables()[av], id);
       }
     }
+
+    // and update catalogIndex (which gets the dataset's facets from a catInfo with just this
+    // dataset)
+    if (catInfo == categoryInfo && EDStatic.config.catalogIndex) {
+      if (add) {
+        ConcurrentHashMap<String, ConcurrentHashMap<String, ConcurrentHashMap<String, Boolean>>>
+            datasetCatInfo = new ConcurrentHashMap<>();
+        addRemoveDatasetInfo(true, datasetCatInfo, edd);
+        HashMap<String, Set<String>> facets = new HashMap<>();
+        datasetCatInfo.forEach((attribute, values) -> facets.put(attribute, values.keySet()));
+        catalogIndex.update(id, edd, facets);
+      } else {
+        catalogIndex.remove(id, edd);
+      }
+    }
   }
 
   /**
@@ -25260,6 +25460,16 @@ widgets.select("frequencyOption", "", 1, frequencyOptions, frequencyOption, "")
       EDStatic.needNewLuceneIndexReader = true;
       EDStatic.luceneIndexSearcher();
     }
+
+    // update the original search engine's indexes
+    for (OriginalSearchIndex searchIndex : originalSearchIndexes.values()) {
+      for (int idi = 0; idi < nDatasetIDs; idi++) {
+        String tDatasetID = datasetIDs.get(idi);
+        EDD edd = gridDatasetHashMap.get(tDatasetID);
+        if (edd == null) edd = tableDatasetHashMap.get(tDatasetID);
+        searchIndex.update(tDatasetID, edd);
+      }
+    }
     datasetIDs.clear();
   }
 }
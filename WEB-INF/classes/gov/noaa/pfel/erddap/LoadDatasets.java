@@ -11,6 +11,7 @@ import com.cohort.util.Math2;
 import com.cohort.util.MustBe;
 import com.cohort.util.String2;
 import com.sun.management.UnixOperatingSystemMXBean;
+import gov.noaa.pfel.coastwatch.griddata.NcFileCache;
 import gov.noaa.pfel.coastwatch.sgt.SgtMap;
 import gov.noaa.pfel.coastwatch.util.FileVisitorDNLS;
 import gov.noaa.pfel.coastwatch.util.SSR;
@@ -65,8 +66,10 @@ import org.apache.commons.text.io.StringSubstitutorReader;
  *   <li>Datasets are made available in Erddap one-by-one as they are loaded (not in batch mode).
  *   <li>Loading datasets takes time, but is done in a separate thread so it never slows down
  *       requests for a dataset.
- *   <li>Only one thread is used to load all the datasets, so loading datasets never becomes a drain
- *       of computer resources.
+ *   <li>By default, only one thread is used to load all the datasets, so loading datasets never
+ *       becomes a drain of computer resources. If nLoadDatasetsThreads &gt; 1 (in datasets.xml),
+ *       independent datasets are constructed in parallel by a DatasetLoadScheduler, but they are
+ *       still published into Erddap by this thread.
  *   <li>The datasets.xml file is read anew each time this is run, so you can make changes to the
  *       file (e.g., add datasets or change metadata) and the results take effect without restarting
  *       Erddap.
@@ -91,8 +94,12 @@ public class LoadDatasets extends Thread {
   private final boolean majorLoad;
   private long lastLuceneUpdate = System.currentTimeMillis();
 
+  /** The nLoadDatasetsThreads used to construct the datasets (0 if there were no datasets). */
+  int nLoadThreadsUsed = 0;
+
   private static final boolean ADD = true;
   private static final boolean REMOVE = false;
+  private static final long MAX_MILLIS_BEFORE_LUCENE_UPDATE = 5 * Calendar2.MILLIS_PER_MINUTE;
 
   /* This is set by run if there is an unexpected error. */
   public String unexpectedError = "";
@@ -196,7 +203,8 @@ public class LoadDatasets extends Thread {
         if (!erddap.tableDatasetHashMap.containsKey(EDDTableFromAllDatasets.DATASET_ID))
           erddap.tableDatasetHashMap.put(
               EDDTableFromAllDatasets.DATASET_ID,
-              new EDDTableFromAllDatasets(erddap.gridDatasetHashMap, erddap.tableDatasetHashMap));
+              new EDDTableFromAllDatasets(
+                  erddap.gridDatasetHashMap, erddap.tableDatasetHashMap, erddap.catalogIndex));
       } catch (Throwable t) {
         String2.log(MustBe.throwableToString(t));
       }
@@ -396,6 +404,7 @@ public class LoadDatasets extends Thread {
 
         // get OpenFiles
         String openFiles = getOpenFiles("     ?");
+        if (EDStatic.ncFileCacheMaxOpen > 0) String2.log(NcFileCache.statistics());
 
         String2.log(
             "  "
@@ -526,6 +535,10 @@ public class LoadDatasets extends Thread {
       StringBuilder failedDatasetsWithErrorsSB,
       Map<String, Object[]> tUserHashMap) {
     SimpleXMLReader xmlReader = null;
+    // The scheduler is made when the first <dataset> is seen, so the top-level tags
+    // (e.g., <nLoadDatasetsThreads>) before it have been read.
+    DatasetLoadScheduler scheduler = null;
+    boolean schedulerDecided = false;
     int nTry = 0, nDatasets = 0;
     try {
       xmlReader = new SimpleXMLReader(inputStream, "erddapDatasets");
@@ -547,6 +560,17 @@ public class LoadDatasets extends Thread {
           case "</erddapDatasets>":
             break label;
           case "<erddapDatasets><dataset>":
+            if (!schedulerDecided) {
+              schedulerDecided = true;
+              nLoadThreadsUsed = EDStatic.nLoadDatasetsThreads;
+              if (EDStatic.nLoadDatasetsThreads > 1)
+                scheduler =
+                    new DatasetLoadScheduler(
+                        erddap,
+                        EDStatic.nLoadDatasetsThreads,
+                        EDStatic.loadDatasetTimeoutMinutes * Calendar2.MILLIS_PER_MINUTE);
+            }
+
             // just load minimal datasets?
             nDatasets++;
             String tId = xmlReader.attributeValue("datasetID");
@@ -581,7 +605,6 @@ public class LoadDatasets extends Thread {
             }
 
             // Test third: look at flag/age  or active=false
-            long MAX_MILLIS_BEFORE_LUCENE_UPDATE = 5 * Calendar2.MILLIS_PER_MINUTE;
             if (!skip) {
               // always check both flag locations
               boolean isFlagged = File2.delete(EDStatic.config.fullResetFlagDirectory + tId);
@@ -685,6 +708,31 @@ public class LoadDatasets extends Thread {
                 xmlReader.nextTag();
                 tags = xmlReader.allTags();
               }
+            } else if (scheduler != null) {
+              // construct this dataset in a worker thread; publish it when it is finished
+              long tLineNumber = xmlReader.lineNumber();
+              String tType = xmlReader.attributeValue("type");
+              Set<String> tDependsOn = new HashSet<>();
+              String tXml = DatasetLoadScheduler.captureXml(xmlReader, tDependsOn);
+              if (!scheduler.submit(
+                  new DatasetLoadScheduler.Job(tId, tType, tXml, tLineNumber, tDependsOn))) {
+                // datasetIDSet should have caught this, but act as if it doesn't occur
+                duplicateDatasetIDs.add(tId);
+                String2.log("*** skipping datasetID=" + tId + " because it's a duplicate.");
+                break;
+              }
+              nTry++;
+              EDStatic.cldNTry = nTry;
+              EDStatic.cldStartMillis = System.currentTimeMillis();
+              EDStatic.cldDatasetID = tId;
+
+              // publish the datasets that are already finished
+              if (!publishSchedulerResults(
+                  scheduler,
+                  false,
+                  changedDatasetIDs,
+                  datasetsThatFailedToLoadSB,
+                  failedDatasetsWithErrorsSB)) return;
             } else {
               // try to load this dataset
               nTry++;
@@ -723,23 +771,7 @@ public class LoadDatasets extends Thread {
                 }
 
                 // put dataset in place
-                // (hashMap.put atomically replaces old version with new)
-                if ((oldDataset == null || oldDataset instanceof EDDGrid)
-                    && dataset instanceof EDDGrid eddGrid) {
-                  erddap.gridDatasetHashMap.put(tId, eddGrid); // was/is grid
-
-                } else if ((oldDataset == null || oldDataset instanceof EDDTable)
-                    && dataset instanceof EDDTable eddTable) {
-                  erddap.tableDatasetHashMap.put(tId, eddTable); // was/is table
-
-                } else if (dataset instanceof EDDGrid eddGrid) {
-                  if (oldDataset != null) erddap.tableDatasetHashMap.remove(tId); // was table
-                  erddap.gridDatasetHashMap.put(tId, eddGrid); // now grid
-
-                } else if (dataset instanceof EDDTable eddTable) {
-                  if (oldDataset != null) erddap.gridDatasetHashMap.remove(tId); // was grid
-                  erddap.tableDatasetHashMap.put(tId, eddTable); // now table
-                }
+                putInPlace(tId, oldDataset, dataset);
 
                 // add new info to categoryInfo
                 erddap.addRemoveDatasetInfo(ADD, erddap.categoryInfo, dataset);
@@ -856,10 +888,14 @@ public class LoadDatasets extends Thread {
           "<erddapDatasets><partialRequestMaxBytes>",
           "<erddapDatasets><palettes>",
           "<erddapDatasets><nTableThreads>",
+          "<erddapDatasets><nLoadDatasetsThreads>",
           "<erddapDatasets><nGridThreads>",
+          "<erddapDatasets><gridReadAheadChunks>",
+          "<erddapDatasets><ncFileCacheMaxOpen>",
           "<erddapDatasets><logLevel>",
           "<erddapDatasets><loadDatasetsMaxMinutes>",
           "<erddapDatasets><loadDatasetsMinMinutes>",
+          "<erddapDatasets><loadDatasetTimeoutMinutes>",
           "<erddapDatasets><ipAddressUnlimited>",
           "<erddapDatasets><ipAddressMaxRequestsActive>",
           "<erddapDatasets><ipAddressMaxRequests>",
@@ -1040,12 +1076,12 @@ public class LoadDatasets extends Thread {
               EDStatic.ipAddressUnlimited =
                   new HashSet<>(String2.toArrayList(sar)); // atomically swap into place
 
-              // then remove all these from ipAddressQueue
+              // then remove all these from requestScheduler
               // This also offers a way to solve problem where a user has a
-              // request permanently in the ipAddressQueue so s/he only receives
-              // "Timeout waiting for your other requests to process.":
-              // This clears his/her ipAddressQueue.
-              for (String s : sar) EDStatic.ipAddressQueue.remove(s);
+              // request permanently registered in the requestScheduler so s/he only receives
+              // "Too Many Requests":
+              // This clears his/her record.
+              for (String s : sar) EDStatic.requestScheduler.forget(s);
               String2.log("ipAddressUnlimited=" + String2.toCSVString(EDStatic.ipAddressUnlimited));
 
               break;
@@ -1090,6 +1126,45 @@ public class LoadDatasets extends Thread {
                   tnt < 1 || tnt == Integer.MAX_VALUE ? EDStatic.DEFAULT_nGridThreads : tnt;
               String2.log("nGridThreads=" + EDStatic.nGridThreads);
 
+              break;
+            }
+          case "<erddapDatasets></gridReadAheadChunks>":
+            {
+              int tnc = String2.parseInt(xmlReader.content());
+              EDStatic.gridReadAheadChunks =
+                  tnc < 0 || tnc == Integer.MAX_VALUE ? EDStatic.DEFAULT_gridReadAheadChunks : tnc;
+              String2.log("gridReadAheadChunks=" + EDStatic.gridReadAheadChunks);
+
+              break;
+            }
+          case "<erddapDatasets></ncFileCacheMaxOpen>":
+            {
+              int tnc = String2.parseInt(xmlReader.content());
+              EDStatic.ncFileCacheMaxOpen =
+                  tnc < 0 || tnc == Integer.MAX_VALUE ? EDStatic.DEFAULT_ncFileCacheMaxOpen : tnc;
+              NcFileCache.setMaxOpen(EDStatic.ncFileCacheMaxOpen);
+              String2.log("ncFileCacheMaxOpen=" + EDStatic.ncFileCacheMaxOpen);
+
+              break;
+            }
+          case "<erddapDatasets></nLoadDatasetsThreads>":
+            {
+              int tnt = String2.parseInt(xmlReader.content());
+              EDStatic.nLoadDatasetsThreads =
+                  tnt < 1 || tnt == Integer.MAX_VALUE ? EDStatic.DEFAULT_nLoadDatasetsThreads : tnt;
+              String2.log("nLoadDatasetsThreads=" + EDStatic.nLoadDatasetsThreads);
+
+              break;
+            }
+          case "<erddapDatasets></loadDatasetTimeoutMinutes>":
+            {
+              int tnt = String2.parseInt(xmlReader.content());
+              EDStatic.loadDatasetTimeoutMinutes =
+                  tnt < 1 || tnt == Integer.MAX_VALUE
+                      ? EDStatic.DEFAULT_loadDatasetTimeoutMinutes
+                      : tnt;
+              String2.log("loadDatasetTimeoutMinutes=" + EDStatic.loadDatasetTimeoutMinutes);
+
               break;
             }
           case "<erddapDatasets></nTableThreads>":
@@ -1423,10 +1498,22 @@ public class LoadDatasets extends Thread {
             break;
         }
       }
-      nTryAndDatasets[0] = nTry;
-      nTryAndDatasets[1] = nDatasets;
       xmlReader.close();
       xmlReader = null;
+
+      // wait for the worker threads to finish the remaining datasets
+      if (scheduler != null) {
+        if (!publishSchedulerResults(
+            scheduler,
+            true,
+            changedDatasetIDs,
+            datasetsThatFailedToLoadSB,
+            failedDatasetsWithErrorsSB)) return;
+        EDStatic.cldStartMillis = 0;
+        EDStatic.cldDatasetID = null;
+      }
+      nTryAndDatasets[0] = nTry;
+      nTryAndDatasets[1] = nDatasets;
     } catch (Throwable t) {
       if (!isInterrupted()) {
         String subject =
@@ -1447,9 +1534,168 @@ public class LoadDatasets extends Thread {
           xmlReader.close();
         } catch (Exception e) {
         }
+      if (scheduler != null) scheduler.shutdownNow();
     }
   }
 
+  /**
+   * This puts a newly constructed dataset in place in erddap.gridDatasetHashMap or
+   * tableDatasetHashMap. (hashMap.put atomically replaces old version with new.)
+   *
+   * @param tId the datasetID
+   * @param oldDataset the dataset currently in erddap with that datasetID (or null if none)
+   * @param dataset the new dataset
+   */
+  private void putInPlace(String tId, EDD oldDataset, EDD dataset) {
+    if ((oldDataset == null || oldDataset instanceof EDDGrid)
+        && dataset instanceof EDDGrid eddGrid) {
+      erddap.gridDatasetHashMap.put(tId, eddGrid); // was/is grid
+
+    } else if ((oldDataset == null || oldDataset instanceof EDDTable)
+        && dataset instanceof EDDTable eddTable) {
+      erddap.tableDatasetHashMap.put(tId, eddTable); // was/is table
+
+    } else if (dataset instanceof EDDGrid eddGrid) {
+      if (oldDataset != null) erddap.tableDatasetHashMap.remove(tId); // was table
+      erddap.gridDatasetHashMap.put(tId, eddGrid); // now grid
+
+    } else if (dataset instanceof EDDTable eddTable) {
+      if (oldDataset != null) erddap.gridDatasetHashMap.remove(tId); // was grid
+      erddap.tableDatasetHashMap.put(tId, eddTable); // now table
+    }
+  }
+
+  /**
+   * When nLoadDatasetsThreads &gt; 1, this gets the datasets that the worker threads have finished
+   * constructing (or failed to construct) and publishes them in erddap, just like the serial loop
+   * in parseUsingSimpleXmlReader does.
+   *
+   * @param scheduler the scheduler
+   * @param waitForAll if true, this waits until all submitted datasets have been published. If
+   *     false, this just publishes the datasets which are already finished.
+   * @return false if this thread was interrupted (and the scheduler was shut down)
+   */
+  private boolean publishSchedulerResults(
+      DatasetLoadScheduler scheduler,
+      boolean waitForAll,
+      StringArray changedDatasetIDs,
+      StringBuilder datasetsThatFailedToLoadSB,
+      StringBuilder failedDatasetsWithErrorsSB) {
+    while (true) {
+      if (isInterrupted()) {
+        String tError =
+            "*** The LoadDatasets thread was interrupted at "
+                + Calendar2.getCurrentISODateTimeStringLocalTZ();
+        String2.log(tError);
+        warningsFromLoadDatasets.append(tError + "\n\n");
+        scheduler.shutdownNow();
+        erddap.updateLucene(changedDatasetIDs);
+        lastLuceneUpdate = System.currentTimeMillis();
+        return false;
+      }
+      if (waitForAll && scheduler.isIdle()) return true;
+
+      DatasetLoadScheduler.Result result;
+      try {
+        result = scheduler.next(waitForAll ? 1000 : 0);
+      } catch (InterruptedException e) {
+        interrupt(); // so isInterrupted() (above) sees it
+        continue;
+      }
+      if (result == null) {
+        if (waitForAll) continue;
+        return true;
+      }
+      publishSchedulerResult(
+          result, changedDatasetIDs, datasetsThatFailedToLoadSB, failedDatasetsWithErrorsSB);
+      scheduler.published(result.job().datasetID());
+    }
+  }
+
+  /**
+   * This publishes one dataset that was constructed by a worker thread (or removes the old version
+   * of the dataset if the new one failed to load).
+   */
+  private void publishSchedulerResult(
+      DatasetLoadScheduler.Result result,
+      StringArray changedDatasetIDs,
+      StringBuilder datasetsThatFailedToLoadSB,
+      StringBuilder failedDatasetsWithErrorsSB) {
+    String tId = result.job().datasetID();
+    String startError = "datasets.xml error on line #" + result.job().lineNumber();
+    String change = "";
+    EDD dataset = result.dataset();
+    Throwable t = result.throwable();
+    boolean oldCatInfoRemoved = false;
+
+    // was there a dataset with the same datasetID?
+    EDD oldDataset = erddap.gridDatasetHashMap.get(tId);
+    if (oldDataset == null) oldDataset = erddap.tableDatasetHashMap.get(tId);
+
+    if (t == null) {
+      try {
+        // if oldDataset existed, remove its info from categoryInfo
+        if (oldDataset != null) {
+          erddap.addRemoveDatasetInfo(REMOVE, erddap.categoryInfo, oldDataset);
+          oldCatInfoRemoved = true;
+        }
+        putInPlace(tId, oldDataset, dataset);
+        erddap.addRemoveDatasetInfo(ADD, erddap.categoryInfo, dataset);
+
+        // clear the dataset's cache
+        // since axis values may have changed and "last" may have changed
+        File2.deleteAllFiles(dataset.cacheDirectory());
+
+        change = dataset.changed(oldDataset);
+        if (change.isEmpty() && dataset instanceof EDDTable) change = "The dataset was reloaded.";
+      } catch (Throwable t2) {
+        t = t2;
+      }
+    }
+
+    if (t != null) {
+      dataset = null;
+
+      // actually remove old dataset (if any existed)
+      EDD tDataset = erddap.gridDatasetHashMap.remove(tId); // always ensure it was removed
+      if (tDataset == null) tDataset = erddap.tableDatasetHashMap.remove(tId);
+      if (oldDataset == null) oldDataset = tDataset;
+
+      // if oldDataset existed, remove it from categoryInfo
+      if (oldDataset != null && !oldCatInfoRemoved)
+        erddap.addRemoveDatasetInfo(REMOVE, erddap.categoryInfo, oldDataset);
+
+      String tError =
+          startError
+              + "\n"
+              + "While trying to load datasetID="
+              + tId
+              + " (after "
+              + result.elapsedMillis()
+              + " ms)\n"
+              + MustBe.throwableToString(t);
+      String2.log(tError);
+      warningsFromLoadDatasets.append(tError + "\n\n");
+      datasetsThatFailedToLoadSB.append(tId + ", ");
+      failedDatasetsWithErrorsSB.append(tId).append(": ").append(tError).append("\n");
+
+      // change      (if oldDataset=null and new one failed to load, no change)
+      if (oldDataset != null) change = tError;
+    }
+    if (verbose) String2.log("change=" + change);
+
+    // whether succeeded (new or swapped in) or failed (removed), it was changed
+    changedDatasetIDs.add(tId);
+    if (System.currentTimeMillis() - lastLuceneUpdate > MAX_MILLIS_BEFORE_LUCENE_UPDATE) {
+      erddap.updateLucene(changedDatasetIDs);
+      lastLuceneUpdate = System.currentTimeMillis();
+    }
+
+    // trigger subscription and dataset.onChange actions (after new dataset is in place)
+    EDD cooDataset = dataset == null ? oldDataset : dataset; // currentOrOld, may be null
+    Erddap.tryToDoActions(tId, cooDataset, startError + " with Subscriptions", change);
+  }
+
   private void emailOrphanDatasetsRemoved(
       Set<String> orphanIDSet,
       StringArray changedDatasetIDs,
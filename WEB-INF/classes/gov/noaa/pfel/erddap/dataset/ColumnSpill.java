@@ -0,0 +1,540 @@
+/*
+ * ColumnSpill Copyright 2026, NOAA.
+ * See the LICENSE.txt file in this file's directory.
+ */
+package gov.noaa.pfel.erddap.dataset;
+
+import com.cohort.array.ByteArray;
+import com.cohort.array.CharArray;
+import com.cohort.array.DoubleArray;
+import com.cohort.array.FloatArray;
+import com.cohort.array.IntArray;
+import com.cohort.array.LongArray;
+import com.cohort.array.PAType;
+import com.cohort.array.PrimitiveArray;
+import com.cohort.array.ShortArray;
+import com.cohort.array.StringArray;
+import com.cohort.array.UByteArray;
+import com.cohort.array.UIntArray;
+import com.cohort.array.ULongArray;
+import com.cohort.array.UShortArray;
+import com.cohort.util.String2;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.foreign.Arena;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+/**
+ * ColumnSpill writes the data for one column of a TableWriterAll to a temporary file and reads it
+ * back. This replaces PrimitiveArray.writeDos and readDis (which write and read one element at a
+ * time) with bulk transfers.
+ *
+ * <p>The file is a series of pages (each up to about PAGE_BYTES). Fixed-width types (everything
+ * except String) are stored as raw values in the native byte order. Strings are stored as an int
+ * with the number of UTF-8 bytes, then the UTF-8 bytes. If lz4=true, each page is compressed with
+ * LZ4. The page index (the offset, number of values, and raw and stored size of each page) is kept
+ * in memory, since the file only lives as long as the TableWriterAll. The page buffer is allocated
+ * when the first values are written (starting at MIN_PAGE_BYTES) and grows (up to PAGE_BYTES) as
+ * needed, so a table with lots of columns but few rows doesn't tie up PAGE_BYTES per column. See
+ * bufferBytes().
+ *
+ * <p>The file is read back by memory-mapping it (FileChannel.map) in windows of up to MAP_BYTES, so
+ * uncompressed values are copied straight from the page cache into the PrimitiveArray's backing
+ * array. Each window is mapped in its own Arena, so it is unmapped as soon as the Reader moves to
+ * the next window or is closed (rather than whenever the garbage collector gets to it). That
+ * matters on Windows, where a file can't be deleted while part of it is mapped.
+ *
+ * <p>A ColumnSpill is written by one thread. After finishWriting(), any number of Readers (in any
+ * threads) can read it.
+ */
+public class ColumnSpill implements AutoCloseable {
+
+  /** The target (uncompressed) size of a page, in bytes. */
+  public static final int PAGE_BYTES = 1 << 20;
+
+  /** The initial size of the page buffer, in bytes. */
+  public static final int MIN_PAGE_BYTES = 8 << 10;
+
+  /** The maximum size of a memory-mapped window (unless a single page is bigger). */
+  public static final int MAP_BYTES = 64 << 20;
+
+  private static final ByteOrder NATIVE = ByteOrder.nativeOrder();
+  private static final LZ4Factory lz4Factory = LZ4Factory.fastestInstance();
+
+  private final String fileName;
+  private final PAType paType;
+  private final int elementSize; // 0 for String
+  private final boolean lz4;
+
+  // the page index
+  private long[] pageOffset = new long[8];
+  private int[] pageNValues = new int[8];
+  private int[] pageRawBytes = new int[8];
+  private int[] pageStoredBytes = new int[8];
+  private int nPages = 0;
+  private long nValues = 0;
+  private long nStoredBytes = 0;
+
+  // used while writing
+  private FileChannel writeChannel;
+  private ByteBuffer page; // the page being assembled (null until the first value is written)
+  private int pageN; // the number of values in page
+  private ByteBuffer compressed; // if lz4
+
+  /**
+   * The constructor. This creates (or truncates) the file.
+   *
+   * @param tFileName the full name of the temporary file
+   * @param tPAType the type of data in this column
+   * @param tLz4 if true, the pages are compressed with LZ4
+   * @throws IOException if trouble
+   */
+  public ColumnSpill(String tFileName, PAType tPAType, boolean tLz4) throws IOException {
+    fileName = tFileName;
+    paType = tPAType;
+    elementSize = paType == PAType.STRING ? 0 : PAType.elementSize(paType);
+    lz4 = tLz4;
+    writeChannel =
+        FileChannel.open(
+            Paths.get(fileName),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE);
+  }
+
+  /** This returns the name of the file. */
+  public String fileName() {
+    return fileName;
+  }
+
+  /** This returns the PAType of the data in this column. */
+  public PAType paType() {
+    return paType;
+  }
+
+  /** This returns the number of values written so far. */
+  public long nValues() {
+    return nValues + pageN;
+  }
+
+  /** This returns the number of bytes in the file (so far). */
+  public long nStoredBytes() {
+    return nStoredBytes;
+  }
+
+  /**
+   * This returns the number of bytes of heap memory currently used by this ColumnSpill's write
+   * buffers.
+   */
+  public long bufferBytes() {
+    return (page == null ? 0 : page.capacity()) + (compressed == null ? 0 : compressed.capacity());
+  }
+
+  /**
+   * This estimates the number of bytes of heap memory that this ColumnSpill's write buffers will
+   * use after nMoreValues more values are written. For Strings, this assumes 16 bytes per value.
+   *
+   * @param nMoreValues the number of values about to be written
+   * @return the estimated number of bytes (at most a little more than 2*PAGE_BYTES if lz4, else
+   *     PAGE_BYTES, unless there is a very long String)
+   */
+  public long bufferBytesNeeded(long nMoreValues) {
+    if (writeChannel == null) return 0;
+    long pageBytes =
+        Math.min(PAGE_BYTES, (pageN + nMoreValues) * (elementSize == 0 ? 16 : elementSize));
+    pageBytes = Math.max(pageBytes, page == null ? MIN_PAGE_BYTES : page.capacity());
+    if (lz4) pageBytes += lz4Factory.fastCompressor().maxCompressedLength((int) pageBytes);
+    return Math.max(pageBytes, bufferBytes());
+  }
+
+  /**
+   * This appends all of the values in pa to the file.
+   *
+   * @param pa a PrimitiveArray with paType values
+   * @throws IOException if trouble (e.g., finishWriting() was already called)
+   */
+  public void write(PrimitiveArray pa) throws IOException {
+    if (writeChannel == null)
+      throw new IOException(String2.ERROR + ": ColumnSpill " + fileName + " is closed.");
+    if (pa.elementType() != paType)
+      throw new IllegalArgumentException(
+          String2.ERROR
+              + " in ColumnSpill.write: elementType="
+              + pa.elementType()
+              + " != "
+              + paType
+              + ".");
+    int n = pa.size();
+    if (paType == PAType.STRING) {
+      StringArray sa = (StringArray) pa;
+      for (int i = 0; i < n; i++) {
+        byte[] bar = String2.stringToUtf8Bytes(sa.get(i));
+        int need = 4 + bar.length;
+        ensureRoom(need);
+        if (page.remaining() < need) {
+          flushPage();
+          ensureRoom(need);
+          if (page.remaining() < need) page = ByteBuffer.allocate(need).order(NATIVE); // rare
+        }
+        page.putInt(bar.length);
+        page.put(bar);
+        pageN++;
+      }
+      return;
+    }
+
+    int po = 0;
+    while (po < n) {
+      ensureRoom((long) (n - po) * elementSize);
+      int m = Math.min(n - po, page.remaining() / elementSize);
+      if (m == 0) {
+        flushPage();
+        continue;
+      }
+      putValues(pa, po, m);
+      page.position(page.position() + m * elementSize);
+      pageN += m;
+      po += m;
+    }
+  }
+
+  /**
+   * This makes sure there is a page buffer and, if it has room for fewer than nBytes more bytes,
+   * grows it (up to PAGE_BYTES). So there may still be less room than nBytes.
+   */
+  private void ensureRoom(long nBytes) {
+    if (page != null && (page.remaining() >= nBytes || page.capacity() >= PAGE_BYTES)) return;
+    int position = page == null ? 0 : page.position();
+    long capacity = page == null ? MIN_PAGE_BYTES : 2L * page.capacity();
+    capacity = Math.min(PAGE_BYTES, Math.max(capacity, position + nBytes));
+    ByteBuffer newPage = ByteBuffer.allocate((int) capacity).order(NATIVE);
+    if (page != null) newPage.put(page.flip());
+    page = newPage;
+  }
+
+  /** This puts m values from pa (starting at po) at page.position() (without moving it). */
+  private void putValues(PrimitiveArray pa, int po, int m) {
+    switch (paType) {
+      case BYTE -> page.put(page.position(), ((ByteArray) pa).array, po, m);
+      case UBYTE -> page.put(page.position(), ((UByteArray) pa).array, po, m);
+      case SHORT -> page.asShortBuffer().put(((ShortArray) pa).array, po, m);
+      case USHORT -> page.asShortBuffer().put(((UShortArray) pa).array, po, m);
+      case CHAR -> page.asCharBuffer().put(((CharArray) pa).array, po, m);
+      case INT -> page.asIntBuffer().put(((IntArray) pa).array, po, m);
+      case UINT -> page.asIntBuffer().put(((UIntArray) pa).array, po, m);
+      case LONG -> page.asLongBuffer().put(((LongArray) pa).array, po, m);
+      case ULONG -> page.asLongBuffer().put(((ULongArray) pa).array, po, m);
+      case FLOAT -> page.asFloatBuffer().put(((FloatArray) pa).array, po, m);
+      case DOUBLE -> page.asDoubleBuffer().put(((DoubleArray) pa).array, po, m);
+      default -> throw new IllegalArgumentException("Unexpected paType=" + paType);
+    }
+  }
+
+  /** This writes the page being assembled (if any) to the file. */
+  private void flushPage() throws IOException {
+    if (pageN == 0) return;
+    page.flip();
+    int rawBytes = page.remaining();
+    ByteBuffer toWrite = page;
+    if (lz4) {
+      LZ4Compressor compressor = lz4Factory.fastCompressor();
+      int maxBytes = compressor.maxCompressedLength(rawBytes);
+      if (compressed == null || compressed.capacity() < maxBytes)
+        compressed = ByteBuffer.allocate(maxBytes);
+      compressed.clear();
+      int nBytes = compressor.compress(page, 0, rawBytes, compressed, 0, maxBytes);
+      compressed.limit(nBytes);
+      toWrite = compressed;
+    }
+    int storedBytes = toWrite.remaining();
+    while (toWrite.hasRemaining()) writeChannel.write(toWrite);
+
+    // add to the page index
+    if (nPages == pageOffset.length) {
+      int newLength = nPages * 2;
+      pageOffset = Arrays.copyOf(pageOffset, newLength);
+      pageNValues = Arrays.copyOf(pageNValues, newLength);
+      pageRawBytes = Arrays.copyOf(pageRawBytes, newLength);
+      pageStoredBytes = Arrays.copyOf(pageStoredBytes, newLength);
+    }
+    pageOffset[nPages] = nStoredBytes;
+    pageNValues[nPages] = pageN;
+    pageRawBytes[nPages] = rawBytes;
+    pageStoredBytes[nPages] = storedBytes;
+    nPages++;
+    nValues += pageN;
+    nStoredBytes += storedBytes;
+
+    if (page.capacity() > PAGE_BYTES) page = null; // after a very long String
+    else page.clear();
+    pageN = 0;
+  }
+
+  /**
+   * This writes the last page and closes the file for writing. Call this before making any Readers.
+   * Calling this again does nothing.
+   *
+   * @throws IOException if trouble
+   */
+  public void finishWriting() throws IOException {
+    if (writeChannel == null) return;
+    try {
+      flushPage();
+    } finally {
+      writeChannel.close();
+      writeChannel = null;
+      page = null;
+      compressed = null;
+    }
+  }
+
+  /**
+   * This returns a new Reader positioned at the first value.
+   *
+   * @return a new Reader. IT IS UP TO THE CALLER TO CLOSE IT.
+   * @throws IOException if trouble (e.g., finishWriting() hasn't been called)
+   */
+  public Reader reader() throws IOException {
+    if (writeChannel != null)
+      throw new IOException(
+          String2.ERROR + ": ColumnSpill " + fileName + " is still being written.");
+    return new Reader();
+  }
+
+  /**
+   * This closes the file if it is still being written. This doesn't delete the file. This won't
+   * throw an exception.
+   */
+  @Override
+  public void close() {
+    try {
+      if (writeChannel != null) writeChannel.close();
+    } catch (Exception e) {
+    }
+    writeChannel = null;
+    page = null;
+    compressed = null;
+  }
+
+  /** A Reader reads the values sequentially. It isn't thread-safe. */
+  public class Reader implements AutoCloseable {
+    private final FileChannel channel;
+    private Arena windowArena; // the window is unmapped when this is closed
+    private ByteBuffer window;
+    private long windowOffset;
+    private int windowEndPage; // exclusive
+    private int nextPage = 0;
+    private ByteBuffer pageBuffer; // the current page, positioned at the next value
+    private int pageRemaining = 0; // the number of values left in pageBuffer
+    private ByteBuffer decompressed; // if lz4
+    private long nRemaining = nValues;
+
+    private Reader() throws IOException {
+      channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+    }
+
+    /** This returns the number of values which haven't been read yet. */
+    public long nRemaining() {
+      return nRemaining;
+    }
+
+    /**
+     * This reads the next n values.
+     *
+     * @param n the number of values to be read
+     * @return a new PrimitiveArray (of paType) with size=capacity=n and maxIsMV=false (the caller
+     *     keeps track of maxIsMV)
+     * @throws IOException if trouble (e.g., the Reader is closed or there are fewer than n values
+     *     left)
+     */
+    public PrimitiveArray read(int n) throws IOException {
+      if (!channel.isOpen())
+        throw new IOException(String2.ERROR + ": ColumnSpill " + fileName + " Reader is closed.");
+      if (n > nRemaining)
+        throw new IOException(
+            String2.ERROR
+                + ": ColumnSpill "
+                + fileName
+                + " has "
+                + nRemaining
+                + " values left, not "
+                + n
+                + ".");
+      PrimitiveArray pa;
+      if (paType == PAType.STRING) {
+        StringArray sa = new StringArray(n, false);
+        byte[] bar = new byte[64];
+        for (int i = 0; i < n; i++) {
+          if (pageRemaining == 0) nextPage();
+          int nBytes = pageBuffer.getInt();
+          if (nBytes > bar.length) bar = new byte[Math.max(nBytes, 2 * bar.length)];
+          pageBuffer.get(bar, 0, nBytes);
+          sa.add(new String(bar, 0, nBytes, StandardCharsets.UTF_8));
+          pageRemaining--;
+        }
+        pa = sa;
+      } else {
+        pa = PrimitiveArray.factory(paType, n, true); // size=capacity=n
+        int po = 0;
+        while (po < n) {
+          if (pageRemaining == 0) nextPage();
+          int m = Math.min(n - po, pageRemaining);
+          getValues(pa, po, m);
+          pageBuffer.position(pageBuffer.position() + m * elementSize);
+          pageRemaining -= m;
+          po += m;
+        }
+      }
+      nRemaining -= n;
+      return pa;
+    }
+
+    /**
+     * This gets m values into pa (starting at po) from pageBuffer.position() (without moving it).
+     */
+    private void getValues(PrimitiveArray pa, int po, int m) {
+      ByteBuffer bb = pageBuffer;
+      switch (paType) {
+        case BYTE -> bb.get(bb.position(), ((ByteArray) pa).array, po, m);
+        case UBYTE -> bb.get(bb.position(), ((UByteArray) pa).array, po, m);
+        case SHORT -> bb.asShortBuffer().get(((ShortArray) pa).array, po, m);
+        case USHORT -> bb.asShortBuffer().get(((UShortArray) pa).array, po, m);
+        case CHAR -> bb.asCharBuffer().get(((CharArray) pa).array, po, m);
+        case INT -> bb.asIntBuffer().get(((IntArray) pa).array, po, m);
+        case UINT -> bb.asIntBuffer().get(((UIntArray) pa).array, po, m);
+        case LONG -> bb.asLongBuffer().get(((LongArray) pa).array, po, m);
+        case ULONG -> bb.asLongBuffer().get(((ULongArray) pa).array, po, m);
+        case FLOAT -> bb.asFloatBuffer().get(((FloatArray) pa).array, po, m);
+        case DOUBLE -> bb.asDoubleBuffer().get(((DoubleArray) pa).array, po, m);
+        default -> throw new IllegalArgumentException("Unexpected paType=" + paType);
+      }
+    }
+
+    /** This makes pageBuffer the next page, mapping a new window if needed. */
+    private void nextPage() throws IOException {
+      int p = nextPage++;
+      if (window == null || p >= windowEndPage) {
+        // map as many pages as fit in MAP_BYTES (at least 1)
+        windowOffset = pageOffset[p];
+        int endPage = p + 1;
+        while (endPage < nPages
+            && pageOffset[endPage] + pageStoredBytes[endPage] - windowOffset <= MAP_BYTES)
+          endPage++;
+        windowEndPage = endPage;
+        long windowBytes = pageOffset[endPage - 1] + pageStoredBytes[endPage - 1] - windowOffset;
+        unmap();
+        windowArena = Arena.ofShared();
+        window =
+            channel
+                .map(FileChannel.MapMode.READ_ONLY, windowOffset, windowBytes, windowArena)
+                .asByteBuffer();
+      }
+      ByteBuffer stored =
+          window.slice((int) (pageOffset[p] - windowOffset), pageStoredBytes[p]).order(NATIVE);
+      if (lz4) {
+        int rawBytes = pageRawBytes[p];
+        if (decompressed == null || decompressed.capacity() < rawBytes)
+          decompressed = ByteBuffer.allocate(rawBytes);
+        decompressed.clear();
+        LZ4FastDecompressor decompressor = lz4Factory.fastDecompressor();
+        decompressor.decompress(stored, 0, decompressed, 0, rawBytes);
+        decompressed.clear().limit(rawBytes);
+        pageBuffer = decompressed.order(NATIVE);
+      } else {
+        pageBuffer = stored;
+      }
+      pageRemaining = pageNValues[p];
+    }
+
+    /**
+     * This returns a DataInputStream with the remaining values in the format written by
+     * PrimitiveArray.writeDos (so they can be read with PrimitiveArray.readDis). This is slower
+     * than read(), and just for compatibility.
+     *
+     * @return a DataInputStream. Closing it closes this Reader.
+     */
+    public DataInputStream dataInputStream() {
+      return new DataInputStream(
+          new InputStream() {
+            private byte[] buffer = new byte[0];
+            private int po = 0;
+
+            private boolean fill() throws IOException {
+              while (po >= buffer.length) {
+                if (nRemaining == 0) return false;
+                PrimitiveArray pa = Reader.this.read((int) Math.min(nRemaining, 8192));
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                try (DataOutputStream dos = new DataOutputStream(baos)) {
+                  pa.writeDos(dos);
+                } catch (IOException e) {
+                  throw e;
+                } catch (Exception e) {
+                  throw new IOException(e);
+                }
+                buffer = baos.toByteArray();
+                po = 0;
+              }
+              return true;
+            }
+
+            @Override
+            public int read() throws IOException {
+              return fill() ? buffer[po++] & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] bar, int off, int len) throws IOException {
+              if (len == 0) return 0;
+              if (!fill()) return -1;
+              int m = Math.min(len, buffer.length - po);
+              System.arraycopy(buffer, po, bar, off, m);
+              po += m;
+              return m;
+            }
+
+            @Override
+            public void close() {
+              Reader.this.close();
+            }
+          });
+    }
+
+    /** This unmaps the current window (if any). */
+    private void unmap() {
+      window = null;
+      pageBuffer = null;
+      if (windowArena != null) {
+        Arena arena = windowArena;
+        windowArena = null;
+        arena.close();
+      }
+    }
+
+    /** This unmaps the current window and closes the file. This won't throw an exception. */
+    @Override
+    public void close() {
+      try {
+        unmap();
+      } catch (Exception e) {
+      }
+      try {
+        channel.close();
+      } catch (Exception e) {
+      }
+      pageBuffer = null;
+      decompressed = null;
+    }
+  }
+}
@@ -44,6 +44,7 @@ import gov.noaa.pfel.erddap.handlers.SaxHandler;
 import gov.noaa.pfel.erddap.handlers.SaxHandlerClass;
 import gov.noaa.pfel.erddap.handlers.State;
 import gov.noaa.pfel.erddap.util.CfToFromGcmd;
+import gov.noaa.pfel.erddap.util.DatasetCatalogIndex;
 import gov.noaa.pfel.erddap.util.EDMessages;
 import gov.noaa.pfel.erddap.util.EDMessages.Message;
 import gov.noaa.pfel.erddap.util.EDStatic;
@@ -423,6 +424,14 @@ public abstract class EDD {
   protected ReentrantLock updateLock = null; // setUpdateEveryNMillis creates this if needed
   protected long cumulativeUpdateTime = 0, updateCount = 0;
 
+  /**
+   * For EDDGridFromFiles and EDDTableFromFiles: true if the fileTable journal (see
+   * FileTableJournal) should be compacted, i.e., the next save should write a new snapshot (e.g.,
+   * because the journal was replayed when the dataset was loaded, or it ended with an incomplete
+   * record).
+   */
+  protected volatile boolean fileTableJournalNeedsCompaction = false;
+
   /* The source of data is files in an S3 bucket. */
   protected boolean filesInS3Bucket = false;
   /* This source of data is files in a private S3 bucket.
@@ -1026,6 +1035,14 @@ public abstract class EDD {
                   "<erddapDatasets><nTableThreads>",
                   "<erddapDatasets></nGridThreads>",
                   "<erddapDatasets><nGridThreads>",
+                  "<erddapDatasets></gridReadAheadChunks>",
+                  "<erddapDatasets><gridReadAheadChunks>",
+                  "<erddapDatasets></ncFileCacheMaxOpen>",
+                  "<erddapDatasets><ncFileCacheMaxOpen>",
+                  "<erddapDatasets></nLoadDatasetsThreads>",
+                  "<erddapDatasets><nLoadDatasetsThreads>",
+                  "<erddapDatasets></loadDatasetTimeoutMinutes>",
+                  "<erddapDatasets><loadDatasetTimeoutMinutes>",
                   "<erddapDatasets></logLevel>",
                   "<erddapDatasets><logLevel>",
                   "<erddapDatasets></loadDatasetsMaxMinutes>",
@@ -2964,6 +2981,27 @@ public abstract class EDD {
     return combinedGlobalAttributes;
   }
 
+  /**
+   * For EDDGridFromErddap and EDDTableFromErddap: This returns true if this dataset overrides the
+   * source ERDDAP's metadata, i.e., there are global or variable addAttributes (including e.g.,
+   * defaultDataQuery and a guessed ioos_category) or renamed variables. If not, the source ERDDAP's
+   * response to a request is the response that this ERDDAP would make.
+   *
+   * @param variableLists the axisVariables (for EDDGrid) and the dataVariables
+   * @return true if this dataset overrides some of the source's metadata
+   */
+  protected boolean hasMetadataOverrides(EDV[]... variableLists) {
+    int language = EDMessages.DEFAULT_LANGUAGE;
+    if (addGlobalAttributes.toAttributes(language).size() > 0) return true;
+    for (EDV[] edvs : variableLists) {
+      for (EDV edv : edvs) {
+        if (!edv.sourceName().equals(edv.destinationName())
+            || edv.addAttributes().toAttributes(language).size() > 0) return true;
+      }
+    }
+    return false;
+  }
+
   /**
    * This returns the data variable which has the specified source name.
    *
@@ -3165,11 +3203,14 @@ public abstract class EDD {
                 + "ms for another thread to do the update.");
       return false;
     } // else: this thread got the lock. Do the update!
+    boolean changed = true; // if lowUpdate throws an exception, it may have changed something
     try {
-      return lowUpdate(language, msg, startUpdateMillis);
+      changed = lowUpdate(language, msg, startUpdateMillis);
+      return changed;
 
     } finally {
       lastUpdate = startUpdateMillis; // say dataset is now up-to-date (or at least tried)
+      if (changed) DatasetCatalogIndex.rangesChanged(datasetID);
       updateLock.unlock(); // then ensure updateLock is always unlocked
     }
   }
@@ -3242,8 +3283,27 @@ public abstract class EDD {
    */
   public int searchRank(int language, boolean isNegative[], byte words[][], int jump[][]) {
     if (words.length == 0) return Integer.MAX_VALUE;
+    return searchRank(
+        searchBytes(language), // hold on, since it may be recreated each time
+        title(language),
+        isNegative,
+        words,
+        jump);
+  }
+
+  /**
+   * This is like searchRank(language, isNegative, words, jump), but works with a dataset's
+   * (possibly cached, see OriginalSearchIndex) searchBytes and title.
+   *
+   * @param tSearchBytes the dataset's searchBytes(language)
+   * @param tTitle the dataset's title(language)
+   * @return a rating value for the dataset (lower numbers are better), or Integer.MAX_VALUE if
+   *     words.length == 0 or one of the words wasn't found or a negative search word was found.
+   */
+  public static int searchRank(
+      byte tSearchBytes[], String tTitle, boolean isNegative[], byte words[][], int jump[][]) {
+    if (words.length == 0) return Integer.MAX_VALUE;
     int rank = 0;
-    byte tSearchBytes[] = searchBytes(language); // hold on, since it may be recreated each time
     for (int w = 0; w < words.length; w++) {
       if (words[w].length == 0) // search word was removed
       continue;
@@ -3263,7 +3323,7 @@ public abstract class EDD {
       // rank += po < 0? penalty : po;
     }
     // special case of deprecated datasets
-    if (title(language).indexOf("DEPRECATED") >= 0) rank += 10000;
+    if (tTitle.indexOf("DEPRECATED") >= 0) rank += 10000;
     return rank;
 
     // standardize to 0..1000
@@ -12192,6 +12252,39 @@ public abstract class EDD {
     }
   }
 
+  /**
+   * This is used by EDDGridFromFiles and EDDTableFromFiles (for WatchUpdateHandler.knownFiles) to
+   * get the files in a directory which are in the fileTable.
+   *
+   * @param dir a directory (with a trailing slash)
+   * @return fileName -&gt; lastMod (millis). It is empty if the dir isn't in the dirTable.
+   */
+  public static Map<String, Long> filesInDir(String dir, Table tDirTable, Table tFileTable) {
+    Map<String, Long> files = new HashMap<>();
+    int dirIndex = ((StringArray) tDirTable.getColumn(0)).indexOf(dir);
+    if (dirIndex < 0) return files;
+    ShortArray ftDirIndex = (ShortArray) tFileTable.getColumn(0);
+    StringArray ftFileList = (StringArray) tFileTable.getColumn(1);
+    PrimitiveArray ftLastMod = tFileTable.getColumn(2);
+    int nRows = tFileTable.nRows();
+    for (int row = 0; row < nRows; row++) {
+      if (ftDirIndex.get(row) == dirIndex) files.put(ftFileList.get(row), ftLastMod.getLong(row));
+    }
+    return files;
+  }
+
+  /**
+   * This is used by EDDGridFromFiles and EDDTableFromFiles lowUpdate to note (for
+   * saveDirTableFileTableChanges) that a file was removed from the fileTable.
+   *
+   * @param key the file's dirIndex/fileName
+   */
+  protected static void noteRemoved(
+      String key, Set<String> changedFiles, Set<String> removedFiles) {
+    changedFiles.remove(key);
+    removedFiles.add(key);
+  }
+
   /**
    * This is used by EDDGridFromFiles and EDDTableFromFiles to save all the file information to
    * disk.
@@ -12214,31 +12307,7 @@ public abstract class EDD {
     int random = Math2.random(Integer.MAX_VALUE);
 
     try {
-      if (this instanceof EDDTableFromFiles) {
-        // if fileTable has superlong min or max strings, shorten them so nc file isn't crazy huge
-        // (because strings are stored as fixed length char arrays)
-        int nCol = fileTable.nColumns();
-        int nRow = fileTable.nRows();
-        for (int col = EDDTableFromFiles.dv0; col < nCol; col++) {
-          PrimitiveArray pa = fileTable.getColumn(col);
-          boolean isMin = fileTable.getColumnName(col).endsWith(MIN_SUFFIX);
-          boolean isMax = fileTable.getColumnName(col).endsWith(MAX_SUFFIX);
-          if (pa instanceof StringArray && (isMin || isMax)) {
-            for (int row = 0; row < nRow; row++) {
-              String s = pa.getString(row);
-              if (s.length() > 80) // arbitrary
-                // min string now ends with tab  (which sorts before whatever the true string is)
-                // max string now ends with FFFE (which sorts after  whatever the true string is)
-                // The big downside is: now a file with just 1 long value doesn't have min=max in
-                // the fileTable.
-                //  I don't know if this causes trouble (e.g., when trying to do a quick search for
-                // matching file),
-                //  but it will only affect queries for columns with a string longer than 80 char.
-                pa.setString(row, s.substring(0, 80) + (isMin ? "\t" : "\uFFFE"));
-            }
-          }
-        }
-      }
+      if (this instanceof EDDTableFromFiles) shortenLongMinMaxStrings(fileTable);
 
       // *** It is important that the 3 files are swapped into place as atomically as possible
       // So save all first, then rename all.
@@ -12254,6 +12323,10 @@ public abstract class EDD {
       fileTable.globalAttributes().set("erddapVersion", EDStatic.erddapVersion);
       dirTable.globalAttributes().set(_dirFileTableVersion_, DIR_FILE_TABLE_VERSION);
       fileTable.globalAttributes().set(_dirFileTableVersion_, DIR_FILE_TABLE_VERSION);
+      // a new snapshot, so any fileTable journal (for the old snapshot) is obsolete
+      String journalId = FileTableJournal.newId();
+      dirTable.globalAttributes().set(FileTableJournal.JOURNAL_ID, journalId);
+      fileTable.globalAttributes().set(FileTableJournal.JOURNAL_ID, journalId);
       dirTable.saveAsEnhancedFlatNc(dirTableFileName + random); // throws exceptions
       fileTable.saveAsEnhancedFlatNc(fileTableFileName + random); // throws exceptions
       if (badFileMap != null
@@ -12264,13 +12337,21 @@ public abstract class EDD {
       // //so things below go quickly
 
       // Integrity of these files is important. Rename is less likely to have error.
-      if (badFileMap == null) {
-      } // do nothing
-      else if (badFileMap.isEmpty()) File2.delete(badFilesFileName);
-      else File2.rename(badFilesFileName + random, badFilesFileName);
-      File2.rename(dirTableFileName + random, dirTableFileName);
-      // do fileTable last: more changes, more important
-      File2.rename(fileTableFileName + random, fileTableFileName);
+      // Hold the journal lock so no one replays the old journal onto the new snapshot.
+      ReentrantLock lock = FileTableJournal.lock(datasetDir());
+      try {
+        if (badFileMap == null) {
+        } // do nothing
+        else if (badFileMap.isEmpty()) File2.delete(badFilesFileName);
+        else File2.rename(badFilesFileName + random, badFilesFileName);
+        File2.rename(dirTableFileName + random, dirTableFileName);
+        // do fileTable last: more changes, more important
+        File2.rename(fileTableFileName + random, fileTableFileName);
+        FileTableJournal.delete(datasetDir());
+        fileTableJournalNeedsCompaction = false;
+      } finally {
+        lock.unlock();
+      }
       if (reallyVerbose) String2.log("save fileTable(first 5 rows)=\n" + fileTable.dataToString(5));
     } catch (Throwable t) {
       String subject =
@@ -12287,6 +12368,98 @@ public abstract class EDD {
     }
   }
 
+  /**
+   * This is used by EDDGridFromFiles and EDDTableFromFiles (after lowUpdate) to save the changes to
+   * the file information to disk. If possible, the changes are appended to the fileTable journal
+   * (see FileTableJournal), which is much faster than rewriting the dirTable and fileTable for
+   * datasets with lots of files. Otherwise (or when it is time to compact the journal), this calls
+   * saveDirTableFileTableBadFiles.
+   *
+   * @param tStandardizeWhat see saveDirTableFileTableBadFiles
+   * @param dirTable the new dirTable
+   * @param nOldDirs the number of dirs in the dirTable before the changes (the new dirs are at the
+   *     end)
+   * @param fileTable the new fileTable
+   * @param changedFiles the dirIndex/fileName keys of the files that were added or changed
+   * @param removedFiles the dirIndex/fileName keys of the files that were removed
+   * @param badFileMap if null, it is just skipped
+   * @throws Throwable if trouble
+   */
+  public void saveDirTableFileTableChanges(
+      int tStandardizeWhat,
+      Table dirTable,
+      int nOldDirs,
+      Table fileTable,
+      Set<String> changedFiles,
+      Set<String> removedFiles,
+      ConcurrentHashMap<String, Object[]> badFileMap)
+      throws Throwable {
+
+    if (EDStatic.config.fileTableJournal && !fileTableJournalNeedsCompaction) {
+      try {
+        if (this instanceof EDDTableFromFiles) shortenLongMinMaxStrings(fileTable);
+        boolean appended;
+        ReentrantLock lock = FileTableJournal.lock(datasetDir());
+        try {
+          appended =
+              FileTableJournal.append(
+                  datasetDir(), dirTable, nOldDirs, fileTable, changedFiles, removedFiles);
+        } finally {
+          lock.unlock();
+        }
+        if (appended) {
+          if (badFileMap != null) {
+            String badFilesFileName = badFileMapFileName();
+            if (badFileMap.isEmpty()) {
+              File2.delete(badFilesFileName);
+            } else {
+              int random = Math2.random(Integer.MAX_VALUE);
+              writeBadFileMap(badFilesFileName + random, badFileMap);
+              File2.rename(badFilesFileName + random, badFilesFileName);
+            }
+          }
+          return;
+        }
+      } catch (Throwable t) {
+        String2.log(
+            String2.ERROR
+                + " while appending to the fileTable journal for "
+                + datasetID
+                + " (so the fileTable will be rewritten):\n"
+                + MustBe.throwableToString(t));
+      }
+    }
+    saveDirTableFileTableBadFiles(tStandardizeWhat, dirTable, fileTable, badFileMap);
+  }
+
+  /**
+   * If an EDDTableFromFiles fileTable has superlong min or max strings, this shortens them so the
+   * nc file isn't crazy huge (because strings are stored as fixed length char arrays).
+   */
+  private static void shortenLongMinMaxStrings(Table fileTable) {
+    int nCol = fileTable.nColumns();
+    int nRow = fileTable.nRows();
+    for (int col = EDDTableFromFiles.dv0; col < nCol; col++) {
+      PrimitiveArray pa = fileTable.getColumn(col);
+      boolean isMin = fileTable.getColumnName(col).endsWith(MIN_SUFFIX);
+      boolean isMax = fileTable.getColumnName(col).endsWith(MAX_SUFFIX);
+      if (pa instanceof StringArray && (isMin || isMax)) {
+        for (int row = 0; row < nRow; row++) {
+          String s = pa.getString(row);
+          if (s.length() > 80) // arbitrary
+            // min string now ends with tab  (which sorts before whatever the true string is)
+            // max string now ends with FFFE (which sorts after  whatever the true string is)
+            // The big downside is: now a file with just 1 long value doesn't have min=max in
+            // the fileTable.
+            //  I don't know if this causes trouble (e.g., when trying to do a quick search for
+            // matching file),
+            //  but it will only affect queries for columns with a string longer than 80 char.
+            pa.setString(row, s.substring(0, 80) + (isMin ? "\t" : "\uFFFE"));
+        }
+      }
+    }
+  }
+
   /**
    * This returns a HashMap with the variable=value entries from a userQuery. If any names are the
    * same, the last name=value will be in the hashmap.
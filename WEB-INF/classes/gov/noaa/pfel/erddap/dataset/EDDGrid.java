@@ -165,6 +165,8 @@ public abstract class EDDGrid extends EDD {
   protected String allDimString = null;
 
   protected int nThreads = -1; // interpret invalid values (like -1) as EDStatic.nGridThreads
+  // interpret invalid values (like -1) as EDStatic.gridReadAheadChunks
+  protected int readAheadChunks = -1;
   protected boolean dimensionValuesInMemory = true;
 
   /**
@@ -543,6 +545,29 @@ public abstract class EDDGrid extends EDD {
     return accessibleViaWCS;
   }
 
+  /**
+   * This returns the number of chunks that a GridDataAccessor for this dataset may get from the
+   * source (in other threads) before they are needed, so that getting data from the source overlaps
+   * with writing the response. GridDataAccessor further limits this based on the memory available.
+   *
+   * @return the read-ahead depth (0 = off)
+   */
+  public int readAheadChunks() {
+    return readAheadChunks >= 0 && readAheadChunks < Integer.MAX_VALUE
+        ? readAheadChunks
+        : EDStatic.gridReadAheadChunks;
+  }
+
+  /**
+   * This sets readAheadChunks for this dataset (from &lt;readAheadChunks&gt; in datasets.xml).
+   *
+   * @param tReadAheadChunks the read-ahead depth (0 = off). Invalid values (like -1) are
+   *     interpreted as EDStatic.gridReadAheadChunks.
+   */
+  public void setReadAheadChunks(int tReadAheadChunks) {
+    readAheadChunks = tReadAheadChunks;
+  }
+
   /**
    * This indicates why the dataset is accessible via WMS (or "" if it is). There used to be a lon
    * +/-180 restriction, but no more.
@@ -6342,24 +6367,74 @@ public abstract class EDDGrid extends EDD {
 
     // write the data
     int tRows = 0;
-    while (gridDataAccessor.increment()) {
-      // add a row of data to the table
-      for (int av = 0; av < nAv; av++)
-        gridDataAccessor.getAxisValueAsPAOne(av, avPAOne[av]).addTo(avPa[av]);
-
-      for (int dv = 0; dv < nDv; dv++)
-        gridDataAccessor.getDataValueAsPAOne(dv, dvPAOne[dv]).addTo(dvPa[dv]);
-
-      tRows++;
+    if (gridDataAccessor.rowMajor()) {
+      // fast path: expand each chunk of data (partialDataValues) into the table's columns in
+      // blocks. Within a chunk (row-major), the value of axis av changes every inner[av] rows.
+      int partialShape[] = gridDataAccessor.partialIndex().shape();
+      int chunkSize = (int) gridDataAccessor.partialIndex().size();
+      long inner[] = new long[nAv];
+      long tInner = 1;
+      for (int av = nAv - 1; av >= 0; av--) {
+        inner[av] = tInner;
+        tInner *= partialShape[av];
+      }
+      CHUNK_LOOP:
+      while (gridDataAccessor.incrementChunk()) {
+        // the chunk's first value's position in the total request
+        int chunkStart[] = gridDataAccessor.totalIndex().getCurrent();
+        PrimitiveArray partialDataValues[] = gridDataAccessor.getPartialDataValues();
+        int row = 0;
+        while (row < chunkSize) {
+          int nRows = Math.min(chunkSize - row, nBufferRows - tRows);
+          for (int av = 0; av < nAv; av++)
+            addChunkAxisValues(
+                avPa[av],
+                gridDataAccessor.axisValues(av),
+                chunkStart[av],
+                partialShape[av],
+                inner[av],
+                row,
+                nRows,
+                avPAOne[av]);
+          for (int dv = 0; dv < nDv; dv++)
+            addChunkDataValues(dvPa[dv], partialDataValues[dv], row, nRows, dvPAOne[dv]);
+          row += nRows;
+          tRows += nRows;
+
+          // write the table
+          if (tRows >= nBufferRows) {
+            tw.writeSome(table);
+            table.removeAllRows();
+            tRows = 0;
+            if (tw.noMoreDataPlease) {
+              tw.logCaughtNoMoreDataPlease(datasetID);
+              break CHUNK_LOOP;
+            }
+          }
+        }
+      }
 
-      // write the table
-      if (tRows >= nBufferRows) {
-        tw.writeSome(table);
-        table.removeAllRows();
-        tRows = 0;
-        if (tw.noMoreDataPlease) {
-          tw.logCaughtNoMoreDataPlease(datasetID);
-          break;
+    } else {
+      // column-major: one row at a time
+      while (gridDataAccessor.increment()) {
+        // add a row of data to the table
+        for (int av = 0; av < nAv; av++)
+          gridDataAccessor.getAxisValueAsPAOne(av, avPAOne[av]).addTo(avPa[av]);
+
+        for (int dv = 0; dv < nDv; dv++)
+          gridDataAccessor.getDataValueAsPAOne(dv, dvPAOne[dv]).addTo(dvPa[dv]);
+
+        tRows++;
+
+        // write the table
+        if (tRows >= nBufferRows) {
+          tw.writeSome(table);
+          table.removeAllRows();
+          tRows = 0;
+          if (tw.noMoreDataPlease) {
+            tw.logCaughtNoMoreDataPlease(datasetID);
+            break;
+          }
         }
       }
     }
@@ -6367,6 +6442,79 @@ public abstract class EDDGrid extends EDD {
     tw.finish();
   }
 
+  /**
+   * This is used by saveAsTableWriter to add an axis's values for rows row to row+nRows-1 of a
+   * row-major chunk of data to a table column. Each run of identical values is added with one value
+   * and then copies (via System.arraycopy) of the values already added.
+   *
+   * @param pa the table column
+   * @param axisValues the axis values for the entire request
+   * @param start the index in axisValues of the chunk's first value for this axis
+   * @param n the number of values of this axis in a chunk
+   * @param inner the number of rows in a chunk for each value of this axis
+   * @param row the first row (in the chunk) to be added
+   * @param nRows the number of rows to be added
+   * @param paOne a PAOne of pa's type, used if axisValues is a different type
+   */
+  static void addChunkAxisValues(
+      PrimitiveArray pa,
+      PrimitiveArray axisValues,
+      int start,
+      int n,
+      long inner,
+      int row,
+      int nRows,
+      PAOne paOne) {
+    boolean sameType = pa.elementType() == axisValues.elementType();
+    int end = row + nRows;
+    while (row < end) {
+      int which = start + (int) ((row / inner) % n);
+      if (inner == 1 && sameType) {
+        // consecutive rows have consecutive axis values
+        int run = Math.min(end - row, start + n - which);
+        pa.addFromPA(axisValues, which, run);
+        row += run;
+        continue;
+      }
+      int run = (int) Math.min(end - row, inner - row % inner);
+      int po = pa.size();
+      if (sameType) pa.addFromPA(axisValues, which, 1);
+      else paOne.readFrom(axisValues, which).addTo(pa);
+      int have = 1;
+      while (have < run) {
+        int nCopy = Math.min(have, run - have);
+        pa.addFromPA(pa, po, nCopy);
+        have += nCopy;
+      }
+      row += run;
+    }
+  }
+
+  /**
+   * This is used by saveAsTableWriter to add a dataVariable's values for rows row to row+nRows-1 of
+   * a chunk of data to a table column. If the chunk has fewer values than expected, the missing
+   * rows get the chunk's missingValue (as with GridDataAccessor.getDataValueAsPAOne).
+   *
+   * @param pa the table column
+   * @param partialDataValues the chunk's values for this dataVariable
+   * @param row the first row (in the chunk) to be added
+   * @param nRows the number of rows to be added
+   * @param paOne a PAOne of pa's type, used if partialDataValues is a different type
+   */
+  static void addChunkDataValues(
+      PrimitiveArray pa, PrimitiveArray partialDataValues, int row, int nRows, PAOne paOne) {
+    int nAvailable = Math.max(0, Math.min(nRows, partialDataValues.size() - row));
+    if (pa.elementType() == partialDataValues.elementType()) {
+      pa.addFromPA(partialDataValues, row, nAvailable);
+    } else {
+      for (int i = 0; i < nAvailable; i++) paOne.readFrom(partialDataValues, row + i).addTo(pa);
+    }
+    if (nAvailable < nRows) {
+      paOne.readFrom(partialDataValues.missingValue());
+      for (int i = nAvailable; i < nRows; i++) paOne.addTo(pa);
+    }
+  }
+
   /**
    * This writes an HTML form requesting info from this dataset (like the OPeNDAP Data Access
    * forms).
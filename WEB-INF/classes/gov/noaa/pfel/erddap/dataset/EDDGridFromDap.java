@@ -71,6 +71,12 @@ public class EDDGridFromDap extends EDDGrid {
    */
   public static final boolean acceptDeflate = true;
 
+  /** The maximum size of the chunk cache (from &lt;chunkCacheSizeGB&gt;), or 0 if not used. */
+  protected int chunkCacheSizeGB = 0;
+
+  /** The on-disk cache of chunks of data from the source (or null if not used). */
+  protected GridChunkCache chunkCache = null;
+
   /**
    * This constructs an EDDGridFromDap based on the information in an .xml file.
    *
@@ -102,6 +108,8 @@ public class EDDGridFromDap extends EDDGrid {
     String tDefaultDataQuery = null;
     String tDefaultGraphQuery = null;
     int tnThreads = -1; // interpret invalid values (like -1) as EDStatic.nGridThreads
+    int tReadAheadChunks = -1; // interpret invalid values (like -1) as EDStatic.gridReadAheadChunks
+    int tChunkCacheSizeGB = 0;
     boolean tDimensionValuesInMemory = true;
 
     // process the tags
@@ -128,6 +136,8 @@ public class EDDGridFromDap extends EDDGrid {
         case "<accessibleTo>",
             "<dimensionValuesInMemory>",
             "<nThreads>",
+            "<readAheadChunks>",
+            "<chunkCacheSizeGB>",
             "<defaultGraphQuery>",
             "<defaultDataQuery>",
             "<iso19115File>",
@@ -150,30 +160,36 @@ public class EDDGridFromDap extends EDDGrid {
         case "</defaultDataQuery>" -> tDefaultDataQuery = content;
         case "</defaultGraphQuery>" -> tDefaultGraphQuery = content;
         case "</nThreads>" -> tnThreads = String2.parseInt(content);
+        case "</readAheadChunks>" -> tReadAheadChunks = String2.parseInt(content);
+        case "</chunkCacheSizeGB>" -> tChunkCacheSizeGB = String2.parseInt(content);
         case "</dimensionValuesInMemory>" ->
             tDimensionValuesInMemory = String2.parseBoolean(content);
         default -> xmlReader.unexpectedTagException();
       }
     }
 
-    return new EDDGridFromDap(
-        tDatasetID,
-        tAccessibleTo,
-        tGraphsAccessibleTo,
-        tAccessibleViaWMS,
-        tOnChange,
-        tFgdcFile,
-        tIso19115File,
-        tDefaultDataQuery,
-        tDefaultGraphQuery,
-        tGlobalAttributes,
-        tAxisVariables,
-        tDataVariables,
-        tReloadEveryNMinutes,
-        tUpdateEveryNMillis,
-        tLocalSourceUrl,
-        tnThreads,
-        tDimensionValuesInMemory);
+    EDDGridFromDap tDataset =
+        new EDDGridFromDap(
+            tDatasetID,
+            tAccessibleTo,
+            tGraphsAccessibleTo,
+            tAccessibleViaWMS,
+            tOnChange,
+            tFgdcFile,
+            tIso19115File,
+            tDefaultDataQuery,
+            tDefaultGraphQuery,
+            tGlobalAttributes,
+            tAxisVariables,
+            tDataVariables,
+            tReloadEveryNMinutes,
+            tUpdateEveryNMillis,
+            tLocalSourceUrl,
+            tnThreads,
+            tDimensionValuesInMemory);
+    tDataset.setReadAheadChunks(tReadAheadChunks);
+    tDataset.setChunkCacheSizeGB(tChunkCacheSizeGB);
+    return tDataset;
   }
 
   /**
@@ -804,6 +820,11 @@ public class EDDGridFromDap extends EDDGrid {
     // worse).
     oldValues.append(
         newValues); // should be fast, and new size set at end to minimize concurrency problems
+    if (chunkCache != null) {
+      // the source's last values are often revised, so don't reuse them
+      int nRemoved = chunkCache.removeTail(oldSize);
+      if (reallyVerbose) String2.log(msg + "removed " + nRemoved + " chunks from the chunkCache");
+    }
     edvga.setDestinationMinMax(newMin, newMax);
     edvga.setIsEvenlySpaced(newIsEvenlySpaced);
     edvga.initializeAverageSpacingAndCoarseMinMax();
@@ -913,6 +934,8 @@ public class EDDGridFromDap extends EDDGrid {
             tLocalSourceUrl,
             nThreads,
             dimensionValuesInMemory);
+    newEDDGrid.setReadAheadChunks(readAheadChunks);
+    newEDDGrid.setChunkCacheSizeGB(chunkCacheSizeGB);
 
     // if shareInfo, point to same internal data
     if (shareInfo) {
@@ -943,6 +966,32 @@ public class EDDGridFromDap extends EDDGrid {
     return newEDDGrid;
   }
 
+  /**
+   * This sets the maximum size of this dataset's on-disk cache of chunks of data from the source
+   * (from &lt;chunkCacheSizeGB&gt; in datasets.xml). See GridChunkCache. This must be called after
+   * the constructor. If the source revises data in place (with the same axis values), set a hard
+   * flag for the dataset so the cache doesn't keep serving the old chunks.
+   *
+   * @param tChunkCacheSizeGB the maximum size (in GB), or 0 (or less) to not use a chunk cache
+   */
+  public void setChunkCacheSizeGB(int tChunkCacheSizeGB) {
+    if (tChunkCacheSizeGB <= 0 || tChunkCacheSizeGB == Integer.MAX_VALUE) {
+      chunkCacheSizeGB = 0;
+      chunkCache = null;
+      return;
+    }
+    chunkCacheSizeGB = tChunkCacheSizeGB;
+    int axisSizes[] = new int[axisVariables.length];
+    for (int av = 0; av < axisVariables.length; av++)
+      axisSizes[av] = axisVariables[av].sourceValues().size();
+    chunkCache =
+        new GridChunkCache(
+            EDStatic.config.fullGridChunkCacheDirectory + datasetID + "/",
+            chunkCacheSizeGB * Math2.BytesPerGB,
+            datasetDir() + GridChunkCache.GENERATION_FILE_NAME,
+            axisSizes);
+  }
+
   /**
    * This gets source data (not yet converted to destination data) from the data source for this
    * EDDGrid. Because this is called by GridDataAccessor, the request won't be the full user's
@@ -978,9 +1027,26 @@ public class EDDGridFromDap extends EDDGrid {
       // get the data
       PrimitiveArray pa[] = null;
       try {
+        String sourceName = tDataVariables[dv].sourceName();
+        PrimitiveArray cached = null;
+        if (chunkCache != null) {
+          PrimitiveArray axisValues[] = new PrimitiveArray[axisVariables.length];
+          for (int av = 0; av < axisVariables.length; av++)
+            axisValues[av] = axisVariables[av].sourceValues();
+          cached =
+              chunkCache.get(
+                  localSourceUrl,
+                  sourceName,
+                  axisValues,
+                  tConstraints,
+                  chunkConstraint ->
+                      OpendapHelper.getPrimitiveArrays(
+                          dConnect, "?" + sourceName + chunkConstraint)[0]);
+        }
         pa =
-            OpendapHelper.getPrimitiveArrays(
-                dConnect, "?" + tDataVariables[dv].sourceName() + constraint);
+            cached == null
+                ? OpendapHelper.getPrimitiveArrays(dConnect, "?" + sourceName + constraint)
+                : new PrimitiveArray[] {cached}; // like a DArray
       } catch (Throwable t) {
         EDStatic.rethrowClientAbortException(t); // first thing in catch{}
 
@@ -29,7 +29,6 @@ import gov.noaa.pfel.erddap.util.EDMessages.Message;
 import gov.noaa.pfel.erddap.util.EDStatic;
 import gov.noaa.pfel.erddap.variable.*;
 import jakarta.servlet.http.HttpServletRequest;
-import java.io.DataInputStream;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -722,25 +721,27 @@ public class EDDGridFromEDDTable extends EDDGrid {
     twa.finish();
 
     // go through the tabular results in TableWriterAll
+    // read the columns in chunks of twaChunk rows
+    int twaChunk = 8192;
     PrimitiveArray twaPA[] = new PrimitiveArray[nCols];
-    DataInputStream twaDIS[] = new DataInputStream[nCols];
+    ColumnSpill.Reader twaReader[] = new ColumnSpill.Reader[nCols];
     int nMatches = 0;
     long nRows = twa.nRows();
     try {
-      for (int col = 0; col < nCols; col++) {
-        twaPA[col] = twa.columnEmptyPA(col);
-        twaDIS[col] = twa.dataInputStream(col);
-      }
+      for (int col = 0; col < nCols; col++) twaReader[col] = twa.columnReader(col);
 
       int oAxisIndex[] = new int[nav]; // all 0's
       int axisIndex[] = new int[nav]; // all 0's
       int dataIndex = 0; // index for the data results[] PAs
       rowLoop:
       for (long row = 0; row < nRows; row++) {
-        // read all of the twa values for this row
-        for (int col = 0; col < nCols; col++) {
-          twaPA[col].clear();
-          twaPA[col].readDis(twaDIS[col], 1); // read 1 value
+        // get the next chunk of twa values (if needed)
+        int twaRow = (int) (row % twaChunk);
+        if (twaRow == 0) {
+          for (int col = 0; col < nCols; col++) {
+            twaPA[col] = twaReader[col].read((int) Math.min(twaChunk, nRows - row));
+            twaPA[col].setMaxIsMV(twa.columnMaxIsMV(col));
+          }
         }
 
         // see if this row matches a desired combo of axis values
@@ -748,7 +749,7 @@ public class EDDGridFromEDDTable extends EDDGrid {
         System.arraycopy(axisIndex, 0, oAxisIndex, 0, nav);
         for (int av = 0; av < nav; av++) {
 
-          PAOne twaPAOne = new PAOne(twaPA[av], 0);
+          PAOne twaPAOne = new PAOne(twaPA[av], twaRow);
           if (debugMode) String2.log("row=" + row + " av=" + av + " value=" + twaPAOne);
           int navPA = results[av].size();
           int insertAt;
@@ -783,16 +784,12 @@ public class EDDGridFromEDDTable extends EDDGrid {
           String2.log("  axisIndex=" + String2.toCSSVString(axisIndex) + " dataIndex=" + dataIndex);
         for (int dv = 0; dv < ndv; dv++) {
           int col = nav + dv;
-          results[col].setFromPA(dataIndex, twaPA[col], 0);
+          results[col].setFromPA(dataIndex, twaPA[col], twaRow);
         }
       }
     } finally {
       // release twa resources
-      for (int col = 0; col < nCols; col++)
-        try {
-          twaDIS[col].close();
-        } catch (Exception e) {
-        }
+      for (int col = 0; col < nCols; col++) if (twaReader[col] != null) twaReader[col].close();
       try {
         twa.releaseResources();
       } catch (Exception e) {
@@ -79,6 +79,9 @@ public class EDDGridFromErddap extends EDDGrid implements FromErddap {
   protected boolean subscribeToRemoteErddapDataset;
   private boolean redirect = true;
 
+  /** True if this dataset doesn't override the source's metadata (see canPassThrough). */
+  private boolean canPassThrough = false;
+
   /**
    * This constructs an EDDGridFromErddap based on the information in an .xml file.
    *
@@ -461,6 +464,7 @@ public class EDDGridFromErddap extends EDDGrid implements FromErddap {
 
     // ensure the setup is valid
     ensureValid(); // this ensures many things are set, e.g., sourceUrl
+    canPassThrough = !hasMetadataOverrides(axisVariables, dataVariables);
 
     // finalize accessibleViaFiles
     sourceErddapVersion = getRemoteErddapVersion(localSourceUrl);
@@ -816,6 +820,15 @@ public class EDDGridFromErddap extends EDDGrid implements FromErddap {
     return redirect;
   }
 
+  /**
+   * This indicates whether the source ERDDAP's responses can be passed through to the user as is,
+   * i.e., this dataset doesn't change the source's metadata.
+   */
+  @Override
+  public boolean canPassThrough() {
+    return canPassThrough;
+  }
+
   /**
    * This makes a sibling dataset, based on the new sourceUrl.
    *
@@ -901,7 +914,9 @@ public class EDDGridFromErddap extends EDDGrid implements FromErddap {
   /**
    * This gets data (not yet standardized) from the data source for this EDDGrid. Because this is
    * called by GridDataAccessor, the request won't be the full user's request, but will be a partial
-   * request (for less than EDStatic.config.partialRequestMaxBytes).
+   * request (for less than EDStatic.config.partialRequestMaxBytes). The data is gotten via DAP
+   * (DConnect), so each partial request's response is in memory (unlike EDDTableFromErddap, this
+   * doesn't stream the response, so EDStatic.config.fromErddapStreaming doesn't apply).
    *
    * @param language the index of the selected language
    * @param tDirTable If EDDGridFromFiles, this MAY be the dirTable, else null.
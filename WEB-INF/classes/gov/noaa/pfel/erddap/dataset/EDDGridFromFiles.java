@@ -57,6 +57,7 @@ import java.util.BitSet;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
@@ -155,6 +156,13 @@ public abstract class EDDGridFromFiles extends EDDGrid implements WatchUpdateHan
   protected Table dirTable; // one column with dir names
   protected Table fileTable;
 
+  // the dirTable and fileTable with the fileTable journal replayed (if there is a journal)
+  private final JournaledDirFileTables journaledDirFileTables =
+      new JournaledDirFileTables(
+          this::readDirFileTableSnapshot,
+          this::fileTableReplayed,
+          () -> fileTableJournalNeedsCompaction = true);
+
   protected String cacheFromUrl = null; // null if inactive
   protected long cacheMaxSizeB = -1; // cache threshold size in B, <=0 = copy the entire dataset
   protected String cachePartialPathRegex = null; // null if inactive
@@ -207,6 +215,7 @@ public abstract class EDDGridFromFiles extends EDDGrid implements WatchUpdateHan
     String tDefaultDataQuery = null;
     String tDefaultGraphQuery = null;
     int tnThreads = -1; // interpret invalid values (like -1) as EDStatic.nGridThreads
+    int tReadAheadChunks = -1; // interpret invalid values (like -1) as EDStatic.gridReadAheadChunks
     boolean tDimensionValuesInMemory = true;
     String tCacheFromUrl = null;
     int tCacheSizeGB = -1;
@@ -237,6 +246,7 @@ public abstract class EDDGridFromFiles extends EDDGrid implements WatchUpdateHan
             "<cacheFromUrl>",
             "<dimensionValuesInMemory>",
             "<nThreads>",
+            "<readAheadChunks>",
             "<defaultGraphQuery>",
             "<defaultDataQuery>",
             "<iso19115File>",
@@ -277,6 +287,7 @@ public abstract class EDDGridFromFiles extends EDDGrid implements WatchUpdateHan
         case "</defaultDataQuery>" -> tDefaultDataQuery = content;
         case "</defaultGraphQuery>" -> tDefaultGraphQuery = content;
         case "</nThreads>" -> tnThreads = String2.parseInt(content);
+        case "</readAheadChunks>" -> tReadAheadChunks = String2.parseInt(content);
         case "</dimensionValuesInMemory>" ->
             tDimensionValuesInMemory = String2.parseBoolean(content);
         case "</cacheFromUrl>" -> tCacheFromUrl = content;
@@ -287,127 +298,130 @@ public abstract class EDDGridFromFiles extends EDDGrid implements WatchUpdateHan
     }
 
     if (tType == null) tType = "";
-    return switch (tType) {
-      case "EDDGridFromAudioFiles" ->
-          new EDDGridFromAudioFiles(
-              tDatasetID,
-              tAccessibleTo,
-              tGraphsAccessibleTo,
-              tAccessibleViaWMS,
-              tOnChange,
-              tFgdcFile,
-              tIso19115File,
-              tDefaultDataQuery,
-              tDefaultGraphQuery,
-              tGlobalAttributes,
-              tAxisVariables,
-              tDataVariables,
-              tReloadEveryNMinutes,
-              tUpdateEveryNMillis,
-              tFileDir,
-              tFileNameRegex,
-              tRecursive,
-              tPathRegex,
-              tMetadataFrom,
-              tMatchAxisNDigits,
-              tFileTableInMemory,
-              tAccessibleViaFiles,
-              tnThreads,
-              tDimensionValuesInMemory,
-              tCacheFromUrl,
-              tCacheSizeGB,
-              tCachePartialPathRegex);
-      case "EDDGridFromNcFiles" ->
-          new EDDGridFromNcFiles(
-              tDatasetID,
-              tAccessibleTo,
-              tGraphsAccessibleTo,
-              tAccessibleViaWMS,
-              tOnChange,
-              tFgdcFile,
-              tIso19115File,
-              tDefaultDataQuery,
-              tDefaultGraphQuery,
-              tGlobalAttributes,
-              tAxisVariables,
-              tDataVariables,
-              tReloadEveryNMinutes,
-              tUpdateEveryNMillis,
-              tFileDir,
-              tFileNameRegex,
-              tRecursive,
-              tPathRegex,
-              tMetadataFrom,
-              tMatchAxisNDigits,
-              tFileTableInMemory,
-              tAccessibleViaFiles,
-              tnThreads,
-              tDimensionValuesInMemory,
-              tCacheFromUrl,
-              tCacheSizeGB,
-              tCachePartialPathRegex);
-      case "EDDGridFromNcFilesUnpacked" ->
-          new EDDGridFromNcFilesUnpacked(
-              tDatasetID,
-              tAccessibleTo,
-              tGraphsAccessibleTo,
-              tAccessibleViaWMS,
-              tOnChange,
-              tFgdcFile,
-              tIso19115File,
-              tDefaultDataQuery,
-              tDefaultGraphQuery,
-              tGlobalAttributes,
-              tAxisVariables,
-              tDataVariables,
-              tReloadEveryNMinutes,
-              tUpdateEveryNMillis,
-              tFileDir,
-              tFileNameRegex,
-              tRecursive,
-              tPathRegex,
-              tMetadataFrom,
-              tMatchAxisNDigits,
-              tFileTableInMemory,
-              tAccessibleViaFiles,
-              tnThreads,
-              tDimensionValuesInMemory,
-              tCacheFromUrl,
-              tCacheSizeGB,
-              tCachePartialPathRegex);
-      case "EDDGridFromMergeIRFiles" ->
-          new EDDGridFromMergeIRFiles(
-              tDatasetID,
-              tAccessibleTo,
-              tGraphsAccessibleTo,
-              tAccessibleViaWMS,
-              tOnChange,
-              tFgdcFile,
-              tIso19115File,
-              tDefaultDataQuery,
-              tDefaultGraphQuery,
-              tGlobalAttributes,
-              tAxisVariables,
-              tDataVariables,
-              tReloadEveryNMinutes,
-              tUpdateEveryNMillis,
-              tFileDir,
-              tFileNameRegex,
-              tRecursive,
-              tPathRegex,
-              tMetadataFrom,
-              tMatchAxisNDigits,
-              tFileTableInMemory,
-              tAccessibleViaFiles,
-              tnThreads,
-              tDimensionValuesInMemory,
-              tCacheFromUrl,
-              tCacheSizeGB,
-              tCachePartialPathRegex);
-      default ->
-          throw new Exception(
-              "type=\"" + tType + "\" needs to be added to EDDGridFromFiles.fromXml at end.");
-    };
+    EDDGridFromFiles tDataset =
+        switch (tType) {
+          case "EDDGridFromAudioFiles" ->
+              new EDDGridFromAudioFiles(
+                  tDatasetID,
+                  tAccessibleTo,
+                  tGraphsAccessibleTo,
+                  tAccessibleViaWMS,
+                  tOnChange,
+                  tFgdcFile,
+                  tIso19115File,
+                  tDefaultDataQuery,
+                  tDefaultGraphQuery,
+                  tGlobalAttributes,
+                  tAxisVariables,
+                  tDataVariables,
+                  tReloadEveryNMinutes,
+                  tUpdateEveryNMillis,
+                  tFileDir,
+                  tFileNameRegex,
+                  tRecursive,
+                  tPathRegex,
+                  tMetadataFrom,
+                  tMatchAxisNDigits,
+                  tFileTableInMemory,
+                  tAccessibleViaFiles,
+                  tnThreads,
+                  tDimensionValuesInMemory,
+                  tCacheFromUrl,
+                  tCacheSizeGB,
+                  tCachePartialPathRegex);
+          case "EDDGridFromNcFiles" ->
+              new EDDGridFromNcFiles(
+                  tDatasetID,
+                  tAccessibleTo,
+                  tGraphsAccessibleTo,
+                  tAccessibleViaWMS,
+                  tOnChange,
+                  tFgdcFile,
+                  tIso19115File,
+                  tDefaultDataQuery,
+                  tDefaultGraphQuery,
+                  tGlobalAttributes,
+                  tAxisVariables,
+                  tDataVariables,
+                  tReloadEveryNMinutes,
+                  tUpdateEveryNMillis,
+                  tFileDir,
+                  tFileNameRegex,
+                  tRecursive,
+                  tPathRegex,
+                  tMetadataFrom,
+                  tMatchAxisNDigits,
+                  tFileTableInMemory,
+                  tAccessibleViaFiles,
+                  tnThreads,
+                  tDimensionValuesInMemory,
+                  tCacheFromUrl,
+                  tCacheSizeGB,
+                  tCachePartialPathRegex);
+          case "EDDGridFromNcFilesUnpacked" ->
+              new EDDGridFromNcFilesUnpacked(
+                  tDatasetID,
+                  tAccessibleTo,
+                  tGraphsAccessibleTo,
+                  tAccessibleViaWMS,
+                  tOnChange,
+                  tFgdcFile,
+                  tIso19115File,
+                  tDefaultDataQuery,
+                  tDefaultGraphQuery,
+                  tGlobalAttributes,
+                  tAxisVariables,
+                  tDataVariables,
+                  tReloadEveryNMinutes,
+                  tUpdateEveryNMillis,
+                  tFileDir,
+                  tFileNameRegex,
+                  tRecursive,
+                  tPathRegex,
+                  tMetadataFrom,
+                  tMatchAxisNDigits,
+                  tFileTableInMemory,
+                  tAccessibleViaFiles,
+                  tnThreads,
+                  tDimensionValuesInMemory,
+                  tCacheFromUrl,
+                  tCacheSizeGB,
+                  tCachePartialPathRegex);
+          case "EDDGridFromMergeIRFiles" ->
+              new EDDGridFromMergeIRFiles(
+                  tDatasetID,
+                  tAccessibleTo,
+                  tGraphsAccessibleTo,
+                  tAccessibleViaWMS,
+                  tOnChange,
+                  tFgdcFile,
+                  tIso19115File,
+                  tDefaultDataQuery,
+                  tDefaultGraphQuery,
+                  tGlobalAttributes,
+                  tAxisVariables,
+                  tDataVariables,
+                  tReloadEveryNMinutes,
+                  tUpdateEveryNMillis,
+                  tFileDir,
+                  tFileNameRegex,
+                  tRecursive,
+                  tPathRegex,
+                  tMetadataFrom,
+                  tMatchAxisNDigits,
+                  tFileTableInMemory,
+                  tAccessibleViaFiles,
+                  tnThreads,
+                  tDimensionValuesInMemory,
+                  tCacheFromUrl,
+                  tCacheSizeGB,
+                  tCachePartialPathRegex);
+          default ->
+              throw new Exception(
+                  "type=\"" + tType + "\" needs to be added to EDDGridFromFiles.fromXml at end.");
+        };
+    tDataset.setReadAheadChunks(tReadAheadChunks);
+    return tDataset;
   }
 
   /**
@@ -689,6 +703,10 @@ public abstract class EDDGridFromFiles extends EDDGrid implements WatchUpdateHan
               + "\nsourceDataTypes="
               + String2.toCSSVString(sourceDataTypes));
 
+    // if there is a fileTable journal, it is replayed once here, then compacted (see below)
+    if (File2.isFile(datasetDir() + FileTableJournal.FILENAME))
+      fileTableJournalNeedsCompaction = true;
+
     // load cached dirTable->dirList
     dirTable = tryToLoadDirFileTable(dirTableFileName); // may be null
     if (dirTable != null) {
@@ -1428,7 +1446,8 @@ public abstract class EDDGridFromFiles extends EDDGrid implements WatchUpdateHan
         ftCsvValues,
         sourceAxisValues0);
     sourceAxisValues[0] = sourceAxisValues0;
-    if (!doQuickRestart)
+    // if !quickRestart (or the fileTable journal needs to be compacted), save the tables
+    if (!doQuickRestart || fileTableJournalNeedsCompaction)
       saveDirTableFileTableBadFiles(-1, dirTable, fileTable, badFileMap); // throws Throwable
 
     // set creationTimeMillis to fileTable lastModified
@@ -1776,6 +1795,11 @@ public abstract class EDDGridFromFiles extends EDDGrid implements WatchUpdateHan
     handleEventContexts(contexts, "update(" + datasetID + "): ");
   }
 
+  @Override
+  public Map<String, Long> knownFiles(String dir) throws Throwable {
+    return filesInDir(dir, getDirTable(), getFileTable());
+  }
+
   private boolean handleEventContexts(StringArray contexts, String msg) throws Throwable {
     // Don't try to sort out multiple events or event order, just note which files
     // changed.
@@ -1847,6 +1871,10 @@ public abstract class EDDGridFromFiles extends EDDGrid implements WatchUpdateHan
     DoubleArray ftMax = (DoubleArray) tFileTable.getColumn(FT_MAX_COL);
     StringArray ftCsvValues = (StringArray) tFileTable.getColumn(FT_CSV_VALUES_COL);
     IntArray ftStartIndex = (IntArray) tFileTable.getColumn(FT_START_INDEX_COL);
+    int nOldDirs = dirList.size();
+    // the dirIndex/fileName of the files added/changed or removed (for the fileTable journal)
+    Set<String> changedFiles = new HashSet<>();
+    Set<String> removedFiles = new HashSet<>();
 
     // for each changed file
     int nChanges = 0; // BadFiles or FileTable
@@ -1950,6 +1978,9 @@ public abstract class EDDGridFromFiles extends EDDGrid implements WatchUpdateHan
           ftMax.set(fileListPo, tSourceAxisValues[0].getNiceDouble(tnValues - 1));
           ftCsvValues.set(fileListPo, tSourceAxisValues[0].toString());
           // ftStartIndex is updated when file is saved
+          String key = FileTableJournal.key(dirIndex, fileName);
+          changedFiles.add(key);
+          removedFiles.remove(key);
 
         } else {
           // File exists and is bad.
@@ -1958,6 +1989,7 @@ public abstract class EDDGridFromFiles extends EDDGrid implements WatchUpdateHan
           if (dirIndex >= 0) { // it might be in tFileTable
             if (removeFromFileTable(dirIndex, fileName, tFileTable, ftDirIndex, ftFileList)) {
               nChanges++;
+              noteRemoved(FileTableJournal.key(dirIndex, fileName), changedFiles, removedFiles);
               if (verbose)
                 String2.log(
                     msg
@@ -1996,6 +2028,7 @@ public abstract class EDDGridFromFiles extends EDDGrid implements WatchUpdateHan
           // It is possible file had wrong name/wrong value before.
           if (removeFromFileTable(dirIndex, fileName, tFileTable, ftDirIndex, ftFileList)) {
             nChanges++;
+            noteRemoved(FileTableJournal.key(dirIndex, fileName), changedFiles, removedFiles);
             if (verbose)
               String2.log(
                   msg + "removed from fileTable a file that now doesn't exist:\n  " + fullName);
@@ -2055,7 +2088,14 @@ public abstract class EDDGridFromFiles extends EDDGrid implements WatchUpdateHan
 
       // finally: make the important instance changes that use the changes above
       // (eg fileTable leads to seeing changed axisVariables[0])
-      saveDirTableFileTableBadFiles(-1, tDirTable, tFileTable, badFileMap); // throws Throwable
+      saveDirTableFileTableChanges(
+          -1,
+          tDirTable,
+          nOldDirs,
+          tFileTable,
+          changedFiles,
+          removedFiles,
+          badFileMap); // throws Throwable
       if (fileTableInMemory) {
         // quickly swap into place
         dirTable = tDirTable;
@@ -2230,23 +2270,11 @@ public abstract class EDDGridFromFiles extends EDDGrid implements WatchUpdateHan
    */
   protected Table tryToLoadDirFileTable(String fileName) throws Throwable {
     try {
-      if (File2.isFile(fileName)) {
-        Table table = new Table();
-        //  table.readFlatNc(fileName, null, 0); //standardizeWhat=0
-        Test.ensureEqual(
-            table.readEnhancedFlatNc(fileName, null), // it logs fileName and nRows=
-            Table.ENHANCED_VERSION,
-            "old/unsupported enhancedVersion");
-        Test.ensureEqual(
-            table.globalAttributes().getInt(_dirFileTableVersion_),
-            DIR_FILE_TABLE_VERSION,
-            "old/unsupported " + _dirFileTableVersion_);
-        return table;
+      // if there is a fileTable journal, use the cached tables with the journal replayed
+      if (File2.isFile(datasetDir() + FileTableJournal.FILENAME))
+        return journaledDirFileTables.get(datasetDir(), fileName.endsWith(FILE_TABLE_FILENAME));
+      return readDirFileTableSnapshot(fileName);
 
-      } else {
-        if (verbose) String2.log("dir/file table doesn't exist: " + fileName);
-        return null;
-      }
     } catch (Throwable t) {
       String msg = MustBe.throwableToString(t);
       String2.log(String2.ERROR + " reading dir/file table " + fileName + "\n" + msg);
@@ -2260,10 +2288,52 @@ public abstract class EDDGridFromFiles extends EDDGrid implements WatchUpdateHan
       // if minor problem
       File2.delete(datasetDir() + DIR_TABLE_FILENAME);
       File2.delete(datasetDir() + FILE_TABLE_FILENAME);
+      FileTableJournal.delete(datasetDir());
       return null;
     }
   }
 
+  /**
+   * This reads and checks the dirTable or fileTable snapshot (without the fileTable journal).
+   *
+   * @param fileName datasetDir() + DIR_TABLE_FILENAME or FILE_TABLE_FILENAME
+   * @return the dirTable or fileTable (null if no such file)
+   * @throws Throwable if trouble
+   */
+  private Table readDirFileTableSnapshot(String fileName) throws Throwable {
+    if (!File2.isFile(fileName)) {
+      if (verbose) String2.log("dir/file table doesn't exist: " + fileName);
+      return null;
+    }
+    Table table = new Table();
+    //  table.readFlatNc(fileName, null, 0); //standardizeWhat=0
+    Test.ensureEqual(
+        table.readEnhancedFlatNc(fileName, null), // it logs fileName and nRows=
+        Table.ENHANCED_VERSION,
+        "old/unsupported enhancedVersion");
+    Test.ensureEqual(
+        table.globalAttributes().getInt(_dirFileTableVersion_),
+        DIR_FILE_TABLE_VERSION,
+        "old/unsupported " + _dirFileTableVersion_);
+    return table;
+  }
+
+  /**
+   * The fileTable journal adds new rows at the end, so this sorts the fileTable by min and
+   * recalculates the startIndexes.
+   */
+  private void fileTableReplayed(Table fileTable) {
+    if (fileTable.nRows() == 0) return;
+    fileTable.sort(new int[] {FT_MIN_COL}, new boolean[] {true});
+    IntArray ftStartIndex = (IntArray) fileTable.getColumn(FT_START_INDEX_COL);
+    IntArray ftNValues = (IntArray) fileTable.getColumn(FT_N_VALUES_COL);
+    int tStart = 0;
+    for (int f = 0; f < ftNValues.size(); f++) {
+      ftStartIndex.set(f, tStart);
+      tStart += ftNValues.get(f);
+    }
+  }
+
   /**
    * This returns a fileTable with valid files (or null if unavailable or any trouble). This is a
    * copy of any internal data, so client can modify the contents.
@@ -2746,11 +2816,16 @@ public abstract class EDDGridFromFiles extends EDDGrid implements WatchUpdateHan
                   tConstraints.get(avi * 3 + 0),
                   tConstraints.get(avi * 3 + 1),
                   tConstraints.get(avi * 3 + 2));
+    // the number of values for each dataVariable is known, so make the arrays that big
+    // (so they don't grow repeatedly as the results from each file are merged)
+    long nValues = 1;
+    for (int avi = 0; avi < nav; avi++) nValues *= results[avi].size();
+    Math2.ensureArraySizeOkay(nValues, "EDDGridFromFiles.getSourceData");
     for (int dvi = 0; dvi < ndv; dvi++) {
       // String2.log("!dvi#" + dvi + " " + tDataVariables[dvi].destinationName() + " " +
       // tDataVariables[dvi].sourceDataPAType().toString());
       results[nav + dvi] =
-          PrimitiveArray.factory(tDataVariables[dvi].sourceDataPAType(), 64, false);
+          PrimitiveArray.factory(tDataVariables[dvi].sourceDataPAType(), (int) nValues, false);
     }
     IntArray ttConstraints = (IntArray) tConstraints.clone();
     int nFiles = ftStartIndex.size();
@@ -2764,9 +2839,14 @@ public abstract class EDDGridFromFiles extends EDDGrid implements WatchUpdateHan
     // reduce tnThreads based on memory available
     tnThreads = adjustNThreads(tnThreads);
     ThreadedWorkManager<PrimitiveArray[]> workManager =
-        new ThreadedWorkManager<>(
+        ThreadedWorkManager.forRequest(
             tnThreads,
             result -> {
+              // the results are merged in order, as each file's task finishes
+              if (Thread.currentThread().isInterrupted())
+                throw new SimpleException(
+                    "EDDGridFromFiles.getDataForDapQuery"
+                        + EDStatic.messages.get(Message.CAUGHT_INTERRUPTED, 0));
               // merge dataVariables   (converting to sourceDataPAType if needed)
               for (int dv = 0; dv < ndv; dv++) {
                 results[nav + dv].append(result[dv]);
@@ -2775,66 +2855,73 @@ public abstract class EDDGridFromFiles extends EDDGrid implements WatchUpdateHan
               // String2.log("!merged tResults[1stDV]=" + results[nav].toString());
             });
 
-    while (axis0Start <= axis0Stop) {
-      if (Thread.currentThread().isInterrupted()) {
-        if (workManager != null) workManager.forceShutdown();
-        throw new SimpleException(
-            "EDDGridFromFiles.getDataForDapQuery"
-                + EDStatic.messages.get(Message.CAUGHT_INTERRUPTED, 0));
+    try {
+      while (axis0Start <= axis0Stop) {
+        if (Thread.currentThread().isInterrupted()) {
+          throw new SimpleException(
+              "EDDGridFromFiles.getDataForDapQuery"
+                  + EDStatic.messages.get(Message.CAUGHT_INTERRUPTED, 0));
+        }
+
+        // find next relevant file
+        ftRow = ftStartIndex.binaryFindLastLE(ftRow, nFiles - 1, PAOne.fromInt(axis0Start));
+        int tNValues = ftNValues.get(ftRow);
+        int tStart = axis0Start - ftStartIndex.get(ftRow);
+        int tStop = tStart;
+        // get as many axis0 values as possible from this file
+        //                    (in this file, if this file had all the remaining values)
+        int lookMax = Math.min(tNValues - 1, axis0Stop - ftStartIndex.get(ftRow));
+        while (tStop + axis0Stride <= lookMax) tStop += axis0Stride;
+        // String2.log("!tStart=" + tStart + " stride=" + axis0Stride + " tStop=" + tStop + "
+        // tNValues=" + tNValues);
+
+        // set ttConstraints
+        ttConstraints.set(0, tStart);
+        ttConstraints.set(2, tStop);
+        String tFileDir = dirList.get(ftDirIndex.get(ftRow));
+        String tFileName = ftFileList.get(ftRow);
+        if (reallyVerbose)
+          String2.log(
+              "ftRow="
+                  + ftRow
+                  + " axis0Start="
+                  + axis0Start
+                  + " local="
+                  + tStart
+                  + ":"
+                  + axis0Stride
+                  + ":"
+                  + tStop
+                  + " "
+                  + tFileDir
+                  + tFileName);
+
+        workManager.addTask(
+            new GetGridFromFileCallable(
+                this,
+                tFileDir,
+                tFileName, // it calls ensureInCache()
+                ImmutableList.copyOf(tDataVariables),
+                // each task needs its own copy, since ttConstraints changes for the next file
+                (IntArray) ttConstraints.clone(),
+                ftDirIndex.get(ftRow),
+                ftLastMod.get(ftRow)));
+
+        // set up for next while-iteration
+        axis0Start += (tStop - tStart) + axis0Stride;
+        ftRow++; // first possible file is next file
       }
 
-      // find next relevant file
-      ftRow = ftStartIndex.binaryFindLastLE(ftRow, nFiles - 1, PAOne.fromInt(axis0Start));
-      int tNValues = ftNValues.get(ftRow);
-      int tStart = axis0Start - ftStartIndex.get(ftRow);
-      int tStop = tStart;
-      // get as many axis0 values as possible from this file
-      //                    (in this file, if this file had all the remaining values)
-      int lookMax = Math.min(tNValues - 1, axis0Stop - ftStartIndex.get(ftRow));
-      while (tStop + axis0Stride <= lookMax) tStop += axis0Stride;
-      // String2.log("!tStart=" + tStart + " stride=" + axis0Stride + " tStop=" + tStop + "
-      // tNValues=" + tNValues);
-
-      // set ttConstraints
-      ttConstraints.set(0, tStart);
-      ttConstraints.set(2, tStop);
-      String tFileDir = dirList.get(ftDirIndex.get(ftRow));
-      String tFileName = ftFileList.get(ftRow);
-      if (reallyVerbose)
-        String2.log(
-            "ftRow="
-                + ftRow
-                + " axis0Start="
-                + axis0Start
-                + " local="
-                + tStart
-                + ":"
-                + axis0Stride
-                + ":"
-                + tStop
-                + " "
-                + tFileDir
-                + tFileName);
-
-      workManager.addTask(
-          new GetGridFromFileCallable(
-              this,
-              tFileDir,
-              tFileName, // it calls ensureInCache()
-              ImmutableList.copyOf(tDataVariables),
-              ttConstraints,
-              ftDirIndex.get(ftRow),
-              ftLastMod.get(ftRow)));
-
-      // set up for next while-iteration
-      axis0Start += (tStop - tStart) + axis0Stride;
-      ftRow++; // first possible file is next file
+      workManager.finishedEnqueing();
+      // Make sure all of the work has been processed.
+      workManager.processResults();
+    } finally {
+      // If trouble (e.g., a file couldn't be read, or the request was interrupted because the
+      // client disconnected), cancel the reads that are still pending or in progress.
+      // If all is well, there is nothing left to cancel.
+      workManager.forceShutdown();
     }
 
-    workManager.finishedEnqueing();
-    // Make sure all of the work has been processed.
-    workManager.processResults();
-
     return results;
   }
 
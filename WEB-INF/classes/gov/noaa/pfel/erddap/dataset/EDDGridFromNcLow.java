@@ -19,6 +19,7 @@ import com.cohort.util.String2;
 import com.cohort.util.Units2;
 import com.cohort.util.XML;
 import com.google.common.collect.ImmutableList;
+import gov.noaa.pfel.coastwatch.griddata.NcFileCache;
 import gov.noaa.pfel.coastwatch.griddata.NcHelper;
 import gov.noaa.pfel.coastwatch.griddata.OpendapHelper;
 import gov.noaa.pfel.coastwatch.pointdata.Table;
@@ -386,7 +387,8 @@ public abstract class EDDGridFromNcLow extends EDDGridFromFiles {
     PrimitiveArray[] paa = new PrimitiveArray[ndv];
     int nValues = -1; // not yet calculated
     EDV edv = null;
-    try (NetcdfFile ncFile = NcHelper.openFile(tFullName)) {
+    try (NcFileCache.Handle ncHandle = NcHelper.openCachedFile(tFullName)) {
+      NetcdfFile ncFile = ncHandle.netcdfFile();
       List<Variable> vars = ncFile.getVariables();
       for (int dvi = 0; dvi < ndv; dvi++) {
         edv = tDataVariables.get(dvi);
@@ -38,6 +38,7 @@ import gov.noaa.pfel.erddap.dataset.metadata.LocalizedAttributes;
 import gov.noaa.pfel.erddap.dataset.metadata.MetadataBuilder;
 import gov.noaa.pfel.erddap.filetypes.DapRequestInfo;
 import gov.noaa.pfel.erddap.filetypes.FileTypeInterface;
+import gov.noaa.pfel.erddap.util.DatasetCatalogIndex;
 import gov.noaa.pfel.erddap.util.EDMessages;
 import gov.noaa.pfel.erddap.util.EDMessages.Message;
 import gov.noaa.pfel.erddap.util.EDStatic;
@@ -53,7 +54,6 @@ import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import jakarta.xml.bind.JAXBException;
 import java.awt.Color;
-import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Writer;
@@ -593,6 +593,7 @@ public abstract class EDDTable extends EDD {
       edv.setDestinationMinMax(new PAOne(pa, nMinMax[1]), new PAOne(pa, nMinMax[2]));
       edv.setActualRangeFromDestinationMinMax(EDMessages.DEFAULT_LANGUAGE);
     }
+    DatasetCatalogIndex.rangesChanged(datasetID);
   }
 
   /**
@@ -3703,22 +3704,15 @@ public abstract class EDDTable extends EDD {
         int nToGo = nRows;
         int ncOffset = 0;
         int bufferSize = EDStatic.config.partialRequestMaxCells;
-        PrimitiveArray pa = null;
-        try (DataInputStream dis = twawm.dataInputStream(col)) {
+        try (ColumnSpill.Reader reader = twawm.columnReader(col)) {
           PAType colType = twawm.columnType(col);
           Array array;
 
           while (nToGo > 0) {
             bufferSize = Math.min(nToGo, bufferSize); // actual number to be transferred
-            // use of != below (not <) lets toObjectArray below return internal array since
-            // size=capacity
-            if (pa == null || pa.elementType() != twawm.columnType(col)) {
-              pa = twawm.columnEmptyPA(col);
-              pa.ensureCapacity(bufferSize);
-            }
-            pa.clear();
-            pa.setMaxIsMV(twawm.columnMaxIsMV(col)); // reset it after clear()
-            pa.readDis(dis, bufferSize);
+            // size=capacity lets toObjectArray below return the internal array
+            PrimitiveArray pa = reader.read(bufferSize);
+            pa.setMaxIsMV(twawm.columnMaxIsMV(col));
             if (debugMode)
               String2.log(
                   ">> col="
@@ -434,7 +434,7 @@ public class EDDTableCopy extends EDDTable {
             taskOA[3] = fileDir.toString(); // string, not StringBuilder
             taskOA[4] = fileName;
             taskOA[5] = ".nc";
-            int tTaskNumber = EDStatic.addTask(taskOA);
+            int tTaskNumber = EDStatic.addTask(datasetID, taskOA);
             if (tTaskNumber >= 0) {
               taskNumber = tTaskNumber;
               if (reallyVerbose)
@@ -455,7 +455,7 @@ public class EDDTableCopy extends EDDTable {
             Object taskOA[] = new Object[2];
             taskOA[0] = TaskThread.TASK_SET_FLAG;
             taskOA[1] = datasetID;
-            taskNumber = EDStatic.addTask(taskOA); // TASK_SET_FLAG will always be added
+            taskNumber = EDStatic.addTask(datasetID, taskOA); // TASK_SET_FLAG will always be added
             if (reallyVerbose) String2.log("  task#" + taskNumber + " TASK_SET_FLAG " + datasetID);
           }
         }
@@ -14,11 +14,13 @@ import com.cohort.util.Math2;
 import com.cohort.util.String2;
 import gov.noaa.pfel.coastwatch.pointdata.Table;
 import gov.noaa.pfel.erddap.dataset.metadata.LocalizedAttributes;
+import gov.noaa.pfel.erddap.util.DatasetCatalogIndex;
 import gov.noaa.pfel.erddap.util.EDConfig;
 import gov.noaa.pfel.erddap.util.EDMessages.Message;
 import gov.noaa.pfel.erddap.util.EDStatic;
 import gov.noaa.pfel.erddap.util.Subscriptions;
 import gov.noaa.pfel.erddap.variable.*;
+import java.util.BitSet;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -34,16 +36,20 @@ public class EDDTableFromAllDatasets extends EDDTable {
   private final ConcurrentHashMap<String, EDDGrid> gridDatasetHashMap;
 
   private final ConcurrentHashMap<String, EDDTable> tableDatasetHashMap;
+  private final DatasetCatalogIndex catalogIndex;
 
   /**
    * The constructor. This is a built-in class with no options. It is not specified in datasets.xml.
    * LoadDatasets always insures it is in tableDatasetHashMap.
    *
+   * @param tCatalogIndex the index of the datasets in the hashMaps (used if
+   *     EDStatic.config.catalogIndex), or null if none
    * @throws Throwable if trouble
    */
   public EDDTableFromAllDatasets(
       ConcurrentHashMap<String, EDDGrid> tGridDatasetHashMap,
-      ConcurrentHashMap<String, EDDTable> tTableDatasetHashMap)
+      ConcurrentHashMap<String, EDDTable> tTableDatasetHashMap,
+      DatasetCatalogIndex tCatalogIndex)
       throws Throwable {
 
     if (verbose) String2.log("\n*** constructing EDDTableFromAllDatasets");
@@ -53,6 +59,7 @@ public class EDDTableFromAllDatasets extends EDDTable {
     // save some of the parameters
     gridDatasetHashMap = tGridDatasetHashMap;
     tableDatasetHashMap = tTableDatasetHashMap;
+    catalogIndex = tCatalogIndex;
 
     // set superclass variables
     className = "EDDTableFromAllDatasets";
@@ -198,9 +205,27 @@ public class EDDTableFromAllDatasets extends EDDTable {
    * @return table a table with plain text information about the datasets
    */
   public Table makeDatasetTable(int language, String loggedInAs) {
+    return makeDatasetTable(language, loggedInAs, null);
+  }
 
-    StringArray datasetIDs = new StringArray(gridDatasetHashMap.keys());
-    datasetIDs.append(new StringArray(tableDatasetHashMap.keys()));
+  /**
+   * This makes a sorted table of some datasets' info.
+   *
+   * <p>time columns are epochSeconds.
+   *
+   * @param language the index of the selected language
+   * @param loggedInAs the name of the logged in user (or null if not logged in). This is used to
+   *     ensure that the user sees only datasets they have a right to know exist.
+   * @param tDatasetIDs the datasetIDs of the datasets to be included (or null for all datasets)
+   * @return table a table with plain text information about the datasets
+   */
+  public Table makeDatasetTable(int language, String loggedInAs, StringArray tDatasetIDs) {
+
+    StringArray datasetIDs = tDatasetIDs;
+    if (datasetIDs == null) {
+      datasetIDs = new StringArray(gridDatasetHashMap.keys());
+      datasetIDs.append(new StringArray(tableDatasetHashMap.keys()));
+    }
 
     String tErddapUrl = EDStatic.erddapUrl(null, loggedInAs, language);
     String roles[] = EDStatic.getRoles(loggedInAs);
@@ -703,8 +728,61 @@ public class EDDTableFromAllDatasets extends EDDTable {
       TableWriter tableWriter)
       throws Throwable {
 
-    Table table = makeDatasetTable(language, loggedInAs);
+    Table table = makeDatasetTable(language, loggedInAs, indexedDatasetIDs(language, userDapQuery));
     standardizeResultsTable(language, requestUrl, userDapQuery, table);
     tableWriter.writeAllAndFinish(table);
   }
+
+  /**
+   * If the query has numeric constraints on the columns in catalogIndex (e.g.,
+   * maxTime&gt;=now-1day), this uses catalogIndex to find the datasets which may match those
+   * constraints, so that makeDatasetTable doesn't have to make rows for all of the datasets.
+   * standardizeResultsTable still applies all of the constraints to the resulting table.
+   *
+   * @param language the index of the selected language
+   * @param userDapQuery the part of the user's request after the '?', still percentEncoded, may be
+   *     null.
+   * @return the datasetIDs of the datasets which may match, or null if all datasets may match
+   *     (e.g., no constraints on indexed columns, or !EDStatic.config.catalogIndex).
+   */
+  private StringArray indexedDatasetIDs(int language, String userDapQuery) {
+    if (catalogIndex == null || !EDStatic.config.catalogIndex) return null;
+    StringArray resultsVariables = new StringArray();
+    StringArray constraintVariables = new StringArray();
+    StringArray constraintOps = new StringArray();
+    StringArray constraintValues = new StringArray();
+    try {
+      parseUserDapQuery(
+          language,
+          userDapQuery == null ? "" : userDapQuery,
+          resultsVariables,
+          constraintVariables,
+          constraintOps,
+          constraintValues,
+          false);
+    } catch (Throwable t) {
+      return null; // standardizeResultsTable will throw the appropriate exception
+    }
+
+    BitSet matching = null;
+    for (int c = 0; c < constraintVariables.size(); c++) {
+      int bound = DatasetCatalogIndex.boundIndex(constraintVariables.get(c));
+      if (bound < 0) continue;
+      BitSet bits =
+          catalogIndex.constraint(
+              bound, constraintOps.get(c), String2.parseDouble(constraintValues.get(c)));
+      if (bits == null) continue;
+      if (matching == null) matching = bits;
+      else matching.and(bits);
+    }
+    if (matching == null) return null;
+    if (reallyVerbose)
+      String2.log(
+          "EDDTableFromAllDatasets catalogIndex found "
+              + matching.cardinality()
+              + " of "
+              + catalogIndex.size()
+              + " datasets.");
+    return catalogIndex.datasetIDs(matching);
+  }
 }
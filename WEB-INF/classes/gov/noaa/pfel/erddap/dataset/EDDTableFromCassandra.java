@@ -238,12 +238,14 @@ import gov.noaa.pfel.erddap.variable.*;
 import java.io.BufferedReader;
 import java.io.StringReader;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 
 // See notes ErddapReleaseChecklist.txt about cassandra Java driver and dependencies.
 //
@@ -274,6 +276,9 @@ public class EDDTableFromCassandra extends EDDTable {
       new ConcurrentHashMap<>();
   public static final String LIST = "!!!LIST!!!";
 
+  /** The largest allowed &lt;maxConcurrentPartitions&gt;. */
+  public static final int MAX_CONCURRENT_PARTITIONS = 100;
+
   /** set by the constructor */
   private Session session;
 
@@ -292,6 +297,7 @@ public class EDDTableFromCassandra extends EDDTable {
   protected HashSet<String> clusterColumnSourceNames;
   protected HashSet<String> indexColumnSourceNames;
   protected double maxRequestFraction = 1; // >0..1; 1 until subsetVarTable has been made
+  protected int maxConcurrentPartitions = 1; // 1=one partition query at a time
   protected String partitionKeyRelatedVariables; // CSSV for error message
   protected EDV rvToResultsEDV[]; // needed in expandPartitionKeyCSV
   protected final String partitionKeyCSV; // null or csv before expansion
@@ -346,6 +352,7 @@ public class EDDTableFromCassandra extends EDDTable {
     String tClusterColumnSourceNames = null;
     String tIndexColumnSourceNames = null;
     double tMaxRequestFraction = 1;
+    int tMaxConcurrentPartitions = 1;
     String tColumnNameQuotes = ""; // default
     StringArray tConnectionProperties = new StringArray();
     boolean tSourceNeedsExpandedFP_EQ = true;
@@ -382,6 +389,7 @@ public class EDDTableFromCassandra extends EDDTable {
             "<partitionKeyCSV>",
             "<columnNameQuotes>",
             "<maxRequestFraction>",
+            "<maxConcurrentPartitions>",
             "<indexColumnSourceNames>",
             "<clusterColumnSourceNames>",
             "<partitionKeySourceNames>",
@@ -402,6 +410,7 @@ public class EDDTableFromCassandra extends EDDTable {
         case "</clusterColumnSourceNames>" -> tClusterColumnSourceNames = content;
         case "</indexColumnSourceNames>" -> tIndexColumnSourceNames = content;
         case "</maxRequestFraction>" -> tMaxRequestFraction = String2.parseDouble(content);
+        case "</maxConcurrentPartitions>" -> tMaxConcurrentPartitions = String2.parseInt(content);
         case "</columnNameQuotes>" -> tColumnNameQuotes = content;
         case "</partitionKeyCSV>" -> tPartitionKeyCSV = content;
         case "</sourceNeedsExpandedFP_EQ>" ->
@@ -440,6 +449,7 @@ public class EDDTableFromCassandra extends EDDTable {
         tIndexColumnSourceNames,
         tPartitionKeyCSV,
         tMaxRequestFraction,
+        tMaxConcurrentPartitions,
         tColumnNameQuotes,
         tSourceNeedsExpandedFP_EQ);
   }
@@ -473,6 +483,7 @@ public class EDDTableFromCassandra extends EDDTable {
       String tIndexColumnSourceNames,
       String tPartitionKeyCSV,
       double tMaxRequestFraction,
+      int tMaxConcurrentPartitions,
       String tColumnNameQuotes,
       boolean tSourceNeedsExpandedFP_EQ)
       throws Throwable {
@@ -564,6 +575,12 @@ public class EDDTableFromCassandra extends EDDTable {
     // don't set maxRequestFraction until after subsetVariableTable has been made
     Test.ensureBetween(tMaxRequestFraction, 1e-10, 1, "Invalid maxRequestFraction");
 
+    // invalid (e.g., missing) -> 1
+    maxConcurrentPartitions =
+        tMaxConcurrentPartitions >= 1 && tMaxConcurrentPartitions < Integer.MAX_VALUE
+            ? Math.min(tMaxConcurrentPartitions, MAX_CONCURRENT_PARTITIONS)
+            : 1;
+
     columnNameQuotes = tColumnNameQuotes;
     Test.ensureTrue(
         "\"".equals(columnNameQuotes) || "".equals(columnNameQuotes),
@@ -1384,10 +1401,14 @@ public class EDDTableFromCassandra extends EDDTable {
     // queryString includes the keyspace.tablename.
     // Session unique for a given localSourceUrl.
     String tKey = localSourceUrl + "\n" + queryString;
+    // Prepare outside of the map: session.prepare waits for the cluster, and doing that in
+    //  computeIfAbsent would block other threads' lookups of keys in the same bin.
+    //  If 2 threads prepare the same query at once, the first one put in the map is used.
     PreparedStatement preparedStatement = statementMap.get(tKey);
     if (preparedStatement == null) {
-      preparedStatement = session.prepare(queryString);
-      statementMap.put(tKey, preparedStatement);
+      PreparedStatement tPreparedStatement = session.prepare(queryString);
+      preparedStatement = statementMap.putIfAbsent(tKey, tPreparedStatement);
+      if (preparedStatement == null) preparedStatement = tPreparedStatement;
     }
     // preparedStatement.toString() is useless
 
@@ -1405,98 +1426,37 @@ public class EDDTableFromCassandra extends EDDTable {
 
     // make a call to Cassandra for each row in pkdTable
     // (each relevant distinct combination of partitionKey values)
+    // chunks will be in sorted order, yea!
     int stats[] = new int[4]; // all 0's
-    for (int pkdRow = 0; pkdRow < pkdTableNRows; pkdRow++) { // chunks will be in sorted order, yea!
-
-      if (Thread.currentThread().isInterrupted())
-        throw new SimpleException(
-            "EDDTableFromCassandra.getDataForDapQuery"
-                + EDStatic.messages.get(Message.CAUGHT_INTERRUPTED, 0));
-
-      // Make the BoundStatement
-      // ***!!! This method avoids CQL/SQL Injection Vulnerability !!!***
-      // (see https://en.wikipedia.org/wiki/SQL_injection) by using
-      // preparedStatements (so String values are properly escaped and
-      // numbers are assured to be numbers).
-      // *** Plus, the statement is reused many times (so Prepared is recommended).
-      BoundStatement boundStatement = new BoundStatement(preparedStatement);
-
-      // assign values to nPartitionKeys constraints then nCon constraints
-      StringBuilder requestSB =
-          reallyVerbose ? new StringBuilder(">> statement: pkdRow=" + pkdRow + ", ") : null;
-      for (int i = 0; i < nPartitionKeys + nCon; i++) {
-        boolean usePK = i < nPartitionKeys;
-        int coni = i - nPartitionKeys; // which con to use: only used if not !usePK
-
-        EDV edv = usePK ? partitionKeyEDV[i] : conEDV[coni];
-        PrimitiveArray pa = usePK ? pkdPA[i] : null;
-        PAType tPAType = edv.sourceDataPAType();
-        String conVal = usePK ? null : constraintValues.get(coni);
-        if (requestSB != null)
-          requestSB.append(
-              edv.sourceName() + " is " + (usePK ? pa.getDouble(pkdRow) : conVal) + ", ");
-
-        // handle special cases first
-        if (edv instanceof EDVTimeStamp) {
-          boundStatement.setTimestamp(
-              i, // partition key value won't be nan/null
-              new Date(
-                  Math.round(
-                      (usePK ? pa.getDouble(pkdRow) : String2.parseDouble(conVal))
-                          * 1000))); // round to nearest milli
-
-        } else if (edv.isBoolean()) {
-          boundStatement.setBool(
-              i, (usePK ? pa.getInt(pkdRow) == 1 : String2.parseBoolean(conVal)));
-        } else if (tPAType == PAType.DOUBLE
-            || tPAType == PAType.ULONG) { // trouble: loss of precision
-          boundStatement.setDouble(i, (usePK ? pa.getDouble(pkdRow) : String2.parseDouble(conVal)));
-        } else if (tPAType == PAType.FLOAT) {
-          boundStatement.setFloat(i, (usePK ? pa.getFloat(pkdRow) : String2.parseFloat(conVal)));
-        } else if (tPAType == PAType.LONG || tPAType == PAType.UINT) { // ???
-          boundStatement.setLong(i, (usePK ? pa.getLong(pkdRow) : String2.parseLong(conVal)));
-        } else if (tPAType == PAType.INT
-            || tPAType == PAType.SHORT
-            || tPAType == PAType.USHORT
-            || // ???
-            tPAType == PAType.BYTE
-            || tPAType == PAType.UBYTE) { // ???
-          boundStatement.setInt(i, (usePK ? pa.getInt(pkdRow) : String2.parseInt(conVal)));
-        } else {
-          String val = usePK ? pa.getString(pkdRow) : conVal;
-          if (tPAType == PAType.STRING) boundStatement.setString(i, val);
-          else if (tPAType == PAType.CHAR)
-            boundStatement.setString(
-                i, val.length() == 0 ? "\u0000" : val.substring(0, 1)); // FFFF???
-          else
-            throw new RuntimeException(
-                "Unexpected dataType="
-                    + edv.sourceDataType()
-                    + "for var="
-                    + edv.destinationName()
-                    + ".");
-        }
-      }
-      // boundStatement.toString() is useless
-      if (requestSB != null) String2.log(requestSB.toString());
-
-      // get the data
-      // FUTURE: I think this could be parallelized. See EDDTableFromFiles.
-      table =
-          getDataForCassandraQuery(
-              language,
-              loggedInAs,
-              requestUrl,
-              userDapQuery,
-              resultsDVI,
-              rvToResultsEDV,
-              session,
-              boundStatement,
-              table,
-              tableWriter,
-              stats);
-      if (tableWriter.noMoreDataPlease) break;
-    }
+    Table[] tableHolder = {table};
+    executeInPartitionOrder(
+        session,
+        pkdTableNRows,
+        maxConcurrentPartitions,
+        pkdRow -> {
+          if (Thread.currentThread().isInterrupted())
+            throw new SimpleException(
+                "EDDTableFromCassandra.getDataForDapQuery"
+                    + EDStatic.messages.get(Message.CAUGHT_INTERRUPTED, 0));
+          return makeBoundStatement(preparedStatement, pkdRow, pkdPA, conEDV, constraintValues);
+        },
+        (pkdRow, rs) -> {
+          // get the data
+          tableHolder[0] =
+              getDataForCassandraQuery(
+                  language,
+                  loggedInAs,
+                  requestUrl,
+                  userDapQuery,
+                  resultsDVI,
+                  rvToResultsEDV,
+                  rs,
+                  tableHolder[0],
+                  tableWriter,
+                  stats);
+          return !tableWriter.noMoreDataPlease;
+        });
+    table = tableHolder[0];
 
     // write any data remaining in table
     // C* doesn't seem to have resultSet.close, statement.close(), ...
@@ -1529,6 +1489,166 @@ public class EDDTableFromCassandra extends EDDTable {
     tableWriter.finish();
   }
 
+  /** This makes the query statement for one partition (one row of the pkdTable). */
+  @FunctionalInterface
+  interface PartitionStatementMaker {
+    Statement make(int pkdRow) throws Throwable;
+  }
+
+  /** This processes the resultSet for one partition (one row of the pkdTable). */
+  @FunctionalInterface
+  interface PartitionResultHandler {
+    /**
+     * @return true to continue, or false if no more data is wanted
+     */
+    boolean handle(int pkdRow, ResultSet rs) throws Throwable;
+  }
+
+  /**
+   * This executes the queries for nPartitions partitions and hands the resultSets to the handler in
+   * partition order. If maxConcurrent is 1, each query is executed (session.execute) when its
+   * results are needed. Otherwise, up to maxConcurrent queries are in flight at once (via
+   * session.executeAsync), so the round trips overlap, but the results are still handled in order.
+   *
+   * <p>Backpressure: each in-flight query holds its first page of results in memory, so if memory
+   * use is high (&gt;= Math2.halfMemory, where EDStatic.shedThisRequest starts to shed requests),
+   * no more queries are started until the earlier ones have been handled.
+   *
+   * <p>If the handler returns false or throws an exception, or this thread is interrupted, the
+   * queries that are still in flight are cancelled.
+   *
+   * @param session the session
+   * @param nPartitions the number of partitions (pkdTable rows)
+   * @param maxConcurrent the maximum number of queries in flight (1 or more)
+   * @param maker makes the statement for a partition
+   * @param handler handles the resultSet for a partition
+   * @throws Throwable if trouble
+   */
+  static void executeInPartitionOrder(
+      Session session,
+      int nPartitions,
+      int maxConcurrent,
+      PartitionStatementMaker maker,
+      PartitionResultHandler handler)
+      throws Throwable {
+
+    if (maxConcurrent <= 1) {
+      for (int pkdRow = 0; pkdRow < nPartitions; pkdRow++) {
+        if (!handler.handle(pkdRow, session.execute(maker.make(pkdRow)))) return;
+      }
+      return;
+    }
+
+    // inFlight has the futures for pkdRow, pkdRow+1, ... nextPkdRow-1
+    ArrayDeque<ResultSetFuture> inFlight = new ArrayDeque<>();
+    int nextPkdRow = 0;
+    try {
+      for (int pkdRow = 0; pkdRow < nPartitions; pkdRow++) {
+        int window = Math2.getMemoryInUse() >= Math2.halfMemory ? 1 : maxConcurrent;
+        while (nextPkdRow < nPartitions && (inFlight.isEmpty() || inFlight.size() < window))
+          inFlight.add(session.executeAsync(maker.make(nextPkdRow++)));
+
+        ResultSet rs;
+        try {
+          rs = inFlight.removeFirst().get();
+        } catch (ExecutionException e) {
+          throw e.getCause() == null ? e : e.getCause();
+        }
+        if (!handler.handle(pkdRow, rs)) return;
+      }
+    } finally {
+      // e.g., after an exception or if no more data is wanted
+      for (ResultSetFuture future : inFlight) future.cancel(true);
+    }
+  }
+
+  /**
+   * This makes the BoundStatement for one row of the pkdTable (one distinct combination of
+   * partitionKey values) and the other constraints.
+   *
+   * @param preparedStatement the prepared query
+   * @param pkdRow the row in the pkdTable
+   * @param pkdPA the pkdTable's columns (one per partitionKey)
+   * @param conEDV the edv of each constraint
+   * @param constraintValues the constraint values
+   * @return the BoundStatement
+   */
+  @SuppressWarnings("JavaUtilDate") // Date is needed for Cassandra
+  private BoundStatement makeBoundStatement(
+      PreparedStatement preparedStatement,
+      int pkdRow,
+      PrimitiveArray pkdPA[],
+      EDV conEDV[],
+      StringArray constraintValues) {
+    int nCon = conEDV.length;
+    // Make the BoundStatement
+    // ***!!! This method avoids CQL/SQL Injection Vulnerability !!!***
+    // (see https://en.wikipedia.org/wiki/SQL_injection) by using
+    // preparedStatements (so String values are properly escaped and
+    // numbers are assured to be numbers).
+    // *** Plus, the statement is reused many times (so Prepared is recommended).
+    BoundStatement boundStatement = new BoundStatement(preparedStatement);
+
+    // assign values to nPartitionKeys constraints then nCon constraints
+    StringBuilder requestSB =
+        reallyVerbose ? new StringBuilder(">> statement: pkdRow=" + pkdRow + ", ") : null;
+    for (int i = 0; i < nPartitionKeys + nCon; i++) {
+      boolean usePK = i < nPartitionKeys;
+      int coni = i - nPartitionKeys; // which con to use: only used if not !usePK
+
+      EDV edv = usePK ? partitionKeyEDV[i] : conEDV[coni];
+      PrimitiveArray pa = usePK ? pkdPA[i] : null;
+      PAType tPAType = edv.sourceDataPAType();
+      String conVal = usePK ? null : constraintValues.get(coni);
+      if (requestSB != null)
+        requestSB.append(
+            edv.sourceName() + " is " + (usePK ? pa.getDouble(pkdRow) : conVal) + ", ");
+
+      // handle special cases first
+      if (edv instanceof EDVTimeStamp) {
+        boundStatement.setTimestamp(
+            i, // partition key value won't be nan/null
+            new Date(
+                Math.round(
+                    (usePK ? pa.getDouble(pkdRow) : String2.parseDouble(conVal))
+                        * 1000))); // round to nearest milli
+
+      } else if (edv.isBoolean()) {
+        boundStatement.setBool(i, (usePK ? pa.getInt(pkdRow) == 1 : String2.parseBoolean(conVal)));
+      } else if (tPAType == PAType.DOUBLE
+          || tPAType == PAType.ULONG) { // trouble: loss of precision
+        boundStatement.setDouble(i, (usePK ? pa.getDouble(pkdRow) : String2.parseDouble(conVal)));
+      } else if (tPAType == PAType.FLOAT) {
+        boundStatement.setFloat(i, (usePK ? pa.getFloat(pkdRow) : String2.parseFloat(conVal)));
+      } else if (tPAType == PAType.LONG || tPAType == PAType.UINT) { // ???
+        boundStatement.setLong(i, (usePK ? pa.getLong(pkdRow) : String2.parseLong(conVal)));
+      } else if (tPAType == PAType.INT
+          || tPAType == PAType.SHORT
+          || tPAType == PAType.USHORT
+          || // ???
+          tPAType == PAType.BYTE
+          || tPAType == PAType.UBYTE) { // ???
+        boundStatement.setInt(i, (usePK ? pa.getInt(pkdRow) : String2.parseInt(conVal)));
+      } else {
+        String val = usePK ? pa.getString(pkdRow) : conVal;
+        if (tPAType == PAType.STRING) boundStatement.setString(i, val);
+        else if (tPAType == PAType.CHAR)
+          boundStatement.setString(
+              i, val.length() == 0 ? "\u0000" : val.substring(0, 1)); // FFFF???
+        else
+          throw new RuntimeException(
+              "Unexpected dataType="
+                  + edv.sourceDataType()
+                  + "for var="
+                  + edv.destinationName()
+                  + ".");
+      }
+    }
+    // boundStatement.toString() is useless
+    if (requestSB != null) String2.log(requestSB.toString());
+    return boundStatement;
+  }
+
   /**
    * This executes the query statement and may write some data to the tablewriter. This doesn't call
    * tableWriter.finish();
@@ -1541,7 +1661,6 @@ public class EDDTableFromCassandra extends EDDTable {
    *     stats[3]+=nRowsAfterStandardize
    * @return the same or a different table (usually with some results rows)
    */
-  @SuppressWarnings("JavaUtilDate") // Date is needed for Cassandra
   public Table getDataForCassandraQuery(
       int language,
       String loggedInAs,
@@ -1559,7 +1678,46 @@ public class EDDTableFromCassandra extends EDDTable {
     // statement.toString() is useless
 
     // execute the statement
-    ResultSet rs = session.execute(statement);
+    return getDataForCassandraQuery(
+        language,
+        loggedInAs,
+        requestUrl,
+        userDapQuery,
+        resultsDVI,
+        rvToResultsEDV,
+        session.execute(statement),
+        table,
+        tableWriter,
+        stats);
+  }
+
+  /**
+   * This processes the resultSet from a query and may write some data to the tablewriter. This
+   * doesn't call tableWriter.finish();
+   *
+   * @param language the index of the selected language
+   * @param resultsDVI dataVariables[i] (DVI) for each resultsVariable
+   * @param rs the resultSet from executing (or executeAsync) a query statement
+   * @param table May have some not-yet-tableWritten data when coming in. May have some
+   *     not-yet-tableWritten data when returning.
+   * @param stats is int[4]. stats[0]++; stats[1]+=nRows; stats[2]+=nExpandedRows;
+   *     stats[3]+=nRowsAfterStandardize
+   * @return the same or a different table (usually with some results rows)
+   */
+  @SuppressWarnings("JavaUtilDate") // Date is needed for Cassandra
+  public Table getDataForCassandraQuery(
+      int language,
+      String loggedInAs,
+      String requestUrl,
+      String userDapQuery,
+      int resultsDVI[],
+      EDV rvToResultsEDV[],
+      ResultSet rs,
+      Table table,
+      TableWriter tableWriter,
+      int[] stats)
+      throws Throwable {
+
     ColumnDefinitions columnDef = rs.getColumnDefinitions();
     int nColumnDef = columnDef.size();
     stats[0]++;
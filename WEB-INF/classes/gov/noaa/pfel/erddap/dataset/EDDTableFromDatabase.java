@@ -5,6 +5,7 @@
 package gov.noaa.pfel.erddap.dataset;
 
 import com.cohort.array.Attributes;
+import com.cohort.array.DoubleArray;
 import com.cohort.array.PAOne;
 import com.cohort.array.PAType;
 import com.cohort.array.PrimitiveArray;
@@ -34,6 +35,7 @@ import java.sql.DatabaseMetaData;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.sql.Types;
 import java.text.MessageFormat;
@@ -45,6 +47,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.naming.Context;
 import javax.naming.InitialContext;
 import javax.sql.DataSource;
@@ -69,6 +79,66 @@ public class EDDTableFromDatabase extends EDDTable {
   protected final String tableName;
   protected String columnNameQuotes = "\""; // may also be ' or empty string
   protected final String[] orderBy;
+
+  /**
+   * The number of rows the JDBC driver should get from the database at a time (or 0 to leave it to
+   * the driver and its connectionProperties). If &gt;0, autocommit is turned off for the query's
+   * connection, because some drivers (e.g., PostgreSQL) only stream results through a server-side
+   * cursor when autocommit is off.
+   */
+  protected final int fetchSize;
+
+  /**
+   * The sourceName of a numeric or timestamp column which can be used to split a query into
+   * nThreads range scans which are run in parallel (or null if not used).
+   */
+  protected final String partitionColumn;
+
+  /**
+   * The number of parallel range scans (if partitionColumn != null). See EDStatic.nTableThreads.
+   */
+  protected final int nThreads;
+
+  /** The default maxConcurrentScans. */
+  public static final int DEFAULT_MAX_CONCURRENT_SCANS = 4;
+
+  /**
+   * The maximum number of a request's range scans (if partitionColumn != null) which are run at
+   * once. The remaining range scans are started one after another as the earlier ones finish. See
+   * readRangeScans.
+   */
+  protected final int maxConcurrentScans;
+
+  private static final AtomicInteger rangeScanThreadNumber = new AtomicInteger();
+
+  /**
+   * The threads (shared by all requests to all EDDTableFromDatabase datasets) which run range
+   * scans. The number of threads is fixed, so this limits the number of range scans (and so the
+   * number of database connections used by range scans) at once; additional scans wait in the
+   * queue. Idle threads time out.
+   */
+  private static final ThreadPoolExecutor rangeScanExecutor;
+
+  static {
+    int n = Math.max(DEFAULT_MAX_CONCURRENT_SCANS, Runtime.getRuntime().availableProcessors());
+    rangeScanExecutor =
+        new ThreadPoolExecutor(
+            n,
+            n,
+            60,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            runnable -> {
+              Thread thread =
+                  new Thread(
+                      runnable,
+                      "EDDTableFromDatabase-rangeScan" + rangeScanThreadNumber.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+    rangeScanExecutor.allowCoreThreadTimeOut(true);
+  }
+
   protected final Map<String, Set<String>> scriptNeedsColumns =
       new HashMap<>(); // <sourceName, otherSourceColumnNames>
 
@@ -129,6 +199,10 @@ public class EDDTableFromDatabase extends EDDTable {
     String tTableName = null;
     String tColumnNameQuotes = "\""; // to be consistent with previous versions
     String tOrderBy[] = new String[0];
+    int tFetchSize = 0;
+    String tPartitionColumn = null;
+    int tNThreads = -1; // unspecified
+    int tMaxConcurrentScans = DEFAULT_MAX_CONCURRENT_SCANS;
     StringArray tConnectionProperties = new StringArray();
     boolean tSourceNeedsExpandedFP_EQ = true;
     String tSourceCanOrderBy = "no";
@@ -167,6 +241,10 @@ public class EDDTableFromDatabase extends EDDTable {
             "<sourceCanOrderBy>",
             "<sourceNeedsExpandedFP_EQ>",
             "<orderBy>",
+            "<fetchSize>",
+            "<partitionColumn>",
+            "<nThreads>",
+            "<maxConcurrentScans>",
             "<columnNameQuotes>",
             "<tableName>",
             "<schemaName>",
@@ -191,6 +269,10 @@ public class EDDTableFromDatabase extends EDDTable {
         case "</orderBy>" -> {
           if (content != null && content.length() > 0) tOrderBy = String2.split(content, ',');
         }
+        case "</fetchSize>" -> tFetchSize = String2.parseInt(content);
+        case "</partitionColumn>" -> tPartitionColumn = content;
+        case "</nThreads>" -> tNThreads = String2.parseInt(content);
+        case "</maxConcurrentScans>" -> tMaxConcurrentScans = String2.parseInt(content);
         case "</sourceNeedsExpandedFP_EQ>" ->
             tSourceNeedsExpandedFP_EQ = String2.parseBoolean(content);
         case "</sourceCanOrderBy>" -> tSourceCanOrderBy = content;
@@ -242,6 +324,10 @@ public class EDDTableFromDatabase extends EDDTable {
         tTableName,
         tColumnNameQuotes,
         tOrderBy,
+        tFetchSize,
+        tPartitionColumn,
+        tNThreads,
+        tMaxConcurrentScans,
         tSourceNeedsExpandedFP_EQ,
         tSourceCanOrderBy,
         tSourceCanDoDistinct);
@@ -381,6 +467,14 @@ public class EDDTableFromDatabase extends EDDTable {
    *     construct an ORDER BY clause for a query. Only sourceNames which are relevant to a given
    *     query are used in the ORDER BY clause. The leftmost sourceName is most important;
    *     subsequent sourceNames are only used to break ties.
+   * @param tFetchSize the number of rows the JDBC driver should get from the database at a time, or
+   *     0 (or less) to leave it to the driver. If &gt;0, autocommit is turned off for queries.
+   * @param tPartitionColumn the sourceName of a numeric or timestamp column which can be used to
+   *     split queries into parallel range scans, or null or "" if not used.
+   * @param tNThreads the number of parallel range scans if tPartitionColumn is used, or -1 to use
+   *     EDStatic.nTableThreads.
+   * @param tMaxConcurrentScans the maximum number of a request's range scans which are run at once
+   *     (or a value &lt;1 to use DEFAULT_MAX_CONCURRENT_SCANS).
    * @param tSourceNeedsExpandedFP_EQ
    * @throws Throwable if trouble
    */
@@ -410,6 +504,10 @@ public class EDDTableFromDatabase extends EDDTable {
       String tTableName,
       String tColumnNameQuotes,
       String tOrderBy[],
+      int tFetchSize,
+      String tPartitionColumn,
+      int tNThreads,
+      int tMaxConcurrentScans,
       boolean tSourceNeedsExpandedFP_EQ,
       String tSourceCanOrderBy,
       String tSourceCanDoDistinct)
@@ -459,6 +557,13 @@ public class EDDTableFromDatabase extends EDDTable {
             || "".equals(columnNameQuotes),
         "<columnNameQuotes> must be \", ', or an empty string.");
     orderBy = tOrderBy == null ? new String[0] : tOrderBy;
+    fetchSize = tFetchSize > 0 && tFetchSize < Integer.MAX_VALUE ? tFetchSize : 0;
+    partitionColumn = String2.isSomething(tPartitionColumn) ? tPartitionColumn.trim() : null;
+    nThreads = tNThreads;
+    maxConcurrentScans =
+        tMaxConcurrentScans > 0 && tMaxConcurrentScans < Integer.MAX_VALUE
+            ? tMaxConcurrentScans
+            : DEFAULT_MAX_CONCURRENT_SCANS;
     // database will never be able to deal with all ERDDAP-supported orderBy and distinct() options,
     // so convert Yes to Partial
     sourceCanOrderBy =
@@ -605,6 +710,20 @@ public class EDDTableFromDatabase extends EDDTable {
       }
     }
 
+    // ensure partitionColumn is a numeric or timestamp source column
+    if (partitionColumn != null) {
+      EDV edv = findDataVariableBySourceName(partitionColumn); // throws exception if not found
+      PAType tPAType = edv.sourceDataPAType();
+      if (partitionColumn.startsWith("=")
+          || edv.isBoolean()
+          || (!(edv instanceof EDVTimeStamp)
+              && (tPAType == PAType.STRING || tPAType == PAType.CHAR)))
+        throw new SimpleException(
+            "<partitionColumn>"
+                + partitionColumn
+                + "</partitionColumn> must be the sourceName of a numeric or timestamp column.");
+    }
+
     // get the connection
     // This is also an important test of ability to make a connection.
     // Failure causes dataset to fail to load!
@@ -938,6 +1057,33 @@ public class EDDTableFromDatabase extends EDDTable {
       }
     }
 
+    // this processes each chunk of source data
+    final StringArray tScriptNames = scriptNames;
+    final StringArray tScriptTypes = scriptTypes;
+    SourceTableConsumer consumer =
+        table -> {
+          // convert script columns into data columns
+          if (tScriptNames != null)
+            convertScriptColumnsToDataColumns(
+                "", table, tScriptNames, tScriptTypes, scriptNeedsColumns);
+
+          // String2.log(table.toString("rows",5));
+          preStandardizeResultsTable(loggedInAs, table);
+          if (table.nRows() > 0) {
+            standardizeResultsTable(
+                language,
+                requestUrl,
+                userDapQuery,
+                table); // changes sourceNames to destinationNames
+            tableWriter.writeSome(table); // okay if 0 rows
+          }
+          if (tableWriter.noMoreDataPlease) {
+            tableWriter.logCaughtNoMoreDataPlease(datasetID);
+            return false;
+          }
+          return true;
+        };
+
     // try/catch to ensure connection and statement are closed at the end
     PreparedStatement statement = null;
     try {
@@ -959,19 +1105,22 @@ public class EDDTableFromDatabase extends EDDTable {
                 + columnNameQuotes);
       // Lack of quotes around table names means they can't be SQL reserved words.
       // (If do quote in future, quote individual parts.)
-      query.append(
-          " FROM "
-              + (catalogName.isEmpty() ? "" : catalogName + catalogSeparator)
-              + (schemaName.isEmpty() ? "" : schemaName + ".")
-              + tableName);
+      StringBuilder where =
+          new StringBuilder(
+              " FROM "
+                  + (catalogName.isEmpty() ? "" : catalogName + catalogSeparator)
+                  + (schemaName.isEmpty() ? "" : schemaName + ".")
+                  + tableName);
 
       // create orderBySB
       StringBuilder orderBySB = new StringBuilder();
+      String firstOrderBy = null;
       if (queryOrderBy != null) {
         // append queryOrderBy variables
         for (int ob = 0; ob < queryOrderBy.size(); ob++) {
           if (resultsVariables.indexOf(queryOrderBy.get(ob)) >= 0) { // should be
             if (orderBySB.length() > 0) orderBySB.append(", ");
+            else firstOrderBy = queryOrderBy.get(ob);
             // Quotes around colNames avoid trouble when colName is a SQL reserved word.
             orderBySB.append(columnNameQuotes + queryOrderBy.get(ob) + columnNameQuotes);
           }
@@ -981,6 +1130,7 @@ public class EDDTableFromDatabase extends EDDTable {
         for (String s : orderBy) {
           if (resultsVariables.indexOf(s) >= 0) {
             if (orderBySB.length() > 0) orderBySB.append(", ");
+            else firstOrderBy = s;
             // Quotes around colNames avoid trouble when colName is a SQL reserved word.
             orderBySB.append(columnNameQuotes + s + columnNameQuotes);
           }
@@ -990,13 +1140,15 @@ public class EDDTableFromDatabase extends EDDTable {
 
       // add constraints to query
       int nCv = constraintVariables.size();
-      StringBuilder humanQuery = new StringBuilder(query);
+      StringBuilder humanWhere = new StringBuilder(where);
       int nActiveCV = 0;
+      boolean partitionColumnIsConstrained = false;
       for (int cv = 0; cv < nCv; cv++) {
         String constraintVariable = constraintVariables.get(cv);
         // if it's a fixedValue or script variable, don't ask database to constrain it
         if (constraintVariable.startsWith("=")) continue;
         nActiveCV++;
+        if (constraintVariable.equals(partitionColumn)) partitionColumnIsConstrained = true;
 
         // sql uses "<>", not "!=";  other sql operators are the same as tableDap
         String tOp = constraintOps.get(cv);
@@ -1015,170 +1167,89 @@ public class EDDTableFromDatabase extends EDDTable {
                 + columnNameQuotes
                 + " "
                 + tOp;
-        query.append(ts + " ?"); // ? is the place holder for a value
-        humanQuery.append(ts + " '" + constraintValues.get(cv) + "'");
-      }
-      if (orderBySB.length() > 0) {
-        String ts = " ORDER BY " + orderBySB;
-        query.append(ts);
-        humanQuery.append(ts);
-      }
-
-      // fill in the '?' in the preparedStatement
-      // ***!!! This method avoids SQL Injection Vulnerability !!!***
-      // (see https://en.wikipedia.org/wiki/SQL_injection) by using
-      // preparedStatements (so String values are properly escaped and
-      // numbers are assured to be numbers).
-      statement = connection.prepareStatement(query.toString());
-      nActiveCV = 0;
-      for (int cv = 0; cv < nCv; cv++) {
-        if (constraintVariables.get(cv).startsWith("=")) continue;
-        nActiveCV++; // +1 since sql uses 1..
-        EDV edv = findDataVariableBySourceName(constraintVariables.get(cv));
-        PAType tPAType = edv.sourceDataPAType();
-        String val = constraintValues.get(cv);
-        // String2.log("cv=" + cv + " tPAType=" + tPAType);
-        // ???Do I need to parse numeric val's to check for NaN (which is not allowed(?))
-        if (edv instanceof EDVTimeStamp && !constraintOps.get(cv).equals(PrimitiveArray.REGEX_OP))
-          statement.setTimestamp(
-              nActiveCV,
-              // round to nearest milli
-              new Timestamp(Math.round(String2.parseDouble(val) * 1000)));
-        else if (edv.isBoolean())
-          statement.setBoolean(nActiveCV, String2.parseBoolean(val)); // special case
-        else if (tPAType == PAType.STRING) statement.setString(nActiveCV, val);
-        // for Unsigned types, go to next bigger data type.
-        else if (tPAType == PAType.DOUBLE) statement.setDouble(nActiveCV, String2.parseDouble(val));
-        else if (tPAType == PAType.FLOAT) statement.setFloat(nActiveCV, String2.parseFloat(val));
-        else if (tPAType == PAType.LONG) statement.setLong(nActiveCV, String2.parseLong(val));
-        else if (tPAType == PAType.ULONG)
-          statement.setBigDecimal(nActiveCV, String2.parseBigDecimalObject(val));
-        else if (tPAType == PAType.INT) statement.setInt(nActiveCV, String2.parseInt(val));
-        else if (tPAType == PAType.UINT) statement.setLong(nActiveCV, String2.parseLong(val));
-        else if (tPAType == PAType.SHORT)
-          statement.setShort(nActiveCV, Math2.narrowToShort(String2.parseInt(val)));
-        else if (tPAType == PAType.USHORT) statement.setInt(nActiveCV, String2.parseInt(val));
-        else if (tPAType == PAType.BYTE)
-          statement.setByte(nActiveCV, Math2.narrowToByte(String2.parseInt(val)));
-        else if (tPAType == PAType.UBYTE)
-          statement.setShort(nActiveCV, Math2.narrowToShort(String2.parseInt(val))); // ???
-        else if (tPAType == PAType.CHAR)
-          statement.setString(
-              nActiveCV, val.length() == 0 ? "\u0000" : val.substring(0, 1)); // FFFF???
-        else
-          throw new RuntimeException(
-              "Prepared statements don't support class type=" + edv.sourceDataType() + ".");
-      }
-      if (verbose)
-        String2.log("  statement=" + statement.toString() + "\n" + " statement~=" + humanQuery);
-
-      // execute the query
-      ResultSet rs = statement.executeQuery();
-
-      // make empty table with a column for each resultsVariable
-      int tableColToRsCol[] = new int[nRv]; // stored as 1..
-      EDV resultsEDVs[] = new EDV[nRv];
-      for (int rv = 0; rv < nRv; rv++) {
-        String tName = resultsVariables.get(rv); // a sourceName
-        resultsEDVs[rv] = findDataVariableBySourceName(tName);
-
-        // find corresponding resultSet column (should be 1:1) and other info
-        tableColToRsCol[rv] =
-            rs.findColumn(tName); // stored as 1..    throws Throwable if not found
+        where.append(ts + " ?"); // ? is the place holder for a value
+        humanWhere.append(ts + " '" + constraintValues.get(cv) + "'");
       }
-      int triggerNRows = EDStatic.config.partialRequestMaxCells / resultsEDVs.length;
-      Table table = makeEmptySourceTable(resultsEDVs, triggerNRows);
-      PrimitiveArray paArray[] = new PrimitiveArray[nRv];
-      for (int rv = 0; rv < nRv; rv++) paArray[rv] = table.getColumn(rv);
-
-      // process the resultSet rows of data
-      while (true) {
-        boolean hasNext = rs.next();
-
-        if (hasNext) {
-          for (int rv = 0; rv < nRv; rv++) {
-            int rsCol = tableColToRsCol[rv];
-            EDV edv = resultsEDVs[rv];
-            PAType tPAType = edv.sourceDataPAType();
-            if (debugMode) String2.log(rv + " " + rs.getString(rsCol));
-            if (edv.isBoolean()) { // special case
-              boolean tb = rs.getBoolean(rsCol);
-              paArray[rv].addInt(rs.wasNull() ? Integer.MAX_VALUE : tb ? 1 : 0);
-            } else if (edv instanceof EDVTimeStamp) {
-              Timestamp tts = rs.getTimestamp(rsCol); // zulu millis -> epoch seconds
-              paArray[rv].addDouble(tts == null ? Double.NaN : tts.getTime() / 1000.0);
-            } else if (tPAType == PAType.STRING) {
-              String ts = rs.getString(rsCol); // it may return null
-              paArray[rv].addString(ts == null ? "" : ts);
-            } else if (tPAType == PAType.DOUBLE) {
-              double d = rs.getDouble(rsCol);
-              paArray[rv].addDouble(rs.wasNull() ? Double.NaN : d);
-            } else if (tPAType == PAType.FLOAT) {
-              float f = rs.getFloat(rsCol);
-              paArray[rv].addFloat(rs.wasNull() ? Float.NaN : f);
-            } else if (tPAType == PAType.ULONG) {
-              BigDecimal bd = rs.getBigDecimal(rsCol);
-              ((ULongArray) paArray[rv]).add(rs.wasNull() ? null : Math2.roundToULongOrNull(bd));
-            } else if (tPAType == PAType.LONG || tPAType == PAType.UINT) {
-              long tl = rs.getLong(rsCol);
-              if (rs.wasNull()) {
-                paArray[rv].setMaxIsMV(true);
-                tl = Long.MAX_VALUE;
-              }
-              paArray[rv].addLong(tl);
-            } else {
-              int ti = rs.getInt(rsCol);
-              if (rs.wasNull()) {
-                paArray[rv].setMaxIsMV(true);
-                ti = Integer.MAX_VALUE;
-              }
-              paArray[rv].addInt(ti);
-            }
-          }
+      String orderByString = orderBySB.length() > 0 ? " ORDER BY " + orderBySB : "";
+
+      // Split the query into parallel range scans of partitionColumn?
+      // Not if DISTINCT (the database must see all the rows) or if the results must be
+      // sorted by some other column first (results are returned one range after another).
+      double cuts[] = null;
+      if (partitionColumn != null
+          && !distinct
+          && (firstOrderBy == null || firstOrderBy.equals(partitionColumn))) {
+        int tnThreads =
+            adjustNThreads(
+                nThreads >= 1 && nThreads < Integer.MAX_VALUE ? nThreads : EDStatic.nTableThreads);
+        if (tnThreads > 1) {
+          cuts =
+              getPartitionCuts(
+                  connection,
+                  where.toString(),
+                  constraintVariables,
+                  constraintOps,
+                  constraintValues,
+                  tnThreads);
+          if (cuts.length == 0) cuts = null;
         }
+      }
 
-        if ((paArray[0].size() > 0 && !hasNext) || paArray[0].size() >= triggerNRows) {
-          if (Thread.currentThread().isInterrupted())
-            throw new SimpleException(
-                "EDDTableFromDatabase.getDataForDapQuery"
-                    + EDStatic.messages.get(Message.CAUGHT_INTERRUPTED, 0));
-
-          // convert script columns into data columns
-          if (scriptNames != null)
-            convertScriptColumnsToDataColumns(
-                "", table, scriptNames, scriptTypes, scriptNeedsColumns);
-
-          // String2.log(table.toString("rows",5));
-          preStandardizeResultsTable(loggedInAs, table);
-          if (table.nRows() > 0) {
-            standardizeResultsTable(
-                language,
-                requestUrl,
-                userDapQuery,
-                table); // changes sourceNames to destinationNames
-            tableWriter.writeSome(table); // okay if 0 rows
-          }
+      if (cuts == null) {
+        // fill in the '?' in the preparedStatement
+        statement =
+            prepareQueryStatement(connection, query + where.toString() + orderByString, fetchSize);
+        setConstraintValues(statement, constraintVariables, constraintOps, constraintValues);
+        if (verbose)
+          String2.log(
+              "  statement="
+                  + statement.toString()
+                  + "\n"
+                  + " statement~="
+                  + query
+                  + humanWhere
+                  + orderByString);
+
+        // execute the query and process the resultSet rows of data
+        ResultSet rs = statement.executeQuery();
+        readResultSet(rs, resultsVariables, consumer);
+        tableWriter.finish();
+        statement.close();
+
+        // last thing
+        closeConnection(connection, fetchSize, true);
 
-          if (hasNext) {
-            table = makeEmptySourceTable(resultsEDVs, triggerNRows);
-            for (int rv = 0; rv < nRv; rv++) paArray[rv] = table.getColumn(rv);
-          }
-          if (tableWriter.noMoreDataPlease) {
-            tableWriter.logCaughtNoMoreDataPlease(datasetID);
-            break;
-          }
-        }
-        if (!hasNext) break;
+      } else {
+        // the range scans use their own connections
+        closeConnection(connection, fetchSize, true);
+        if (verbose)
+          String2.log(
+              "  partitionColumn="
+                  + partitionColumn
+                  + " cuts="
+                  + String2.toCSSVString(cuts)
+                  + "\n statement~="
+                  + query
+                  + humanWhere
+                  + orderByString);
+        readPartitions(
+            query.toString(),
+            where.toString(),
+            nActiveCV == 0,
+            orderByString,
+            cuts,
+            !partitionColumnIsConstrained,
+            resultsVariables,
+            constraintVariables,
+            constraintOps,
+            constraintValues,
+            consumer);
+        tableWriter.finish();
       }
-      tableWriter.finish();
-      statement.close();
-
-      // last thing
-      connection.close();
 
     } catch (Throwable t) {
       try {
-        connection.close();
+        if (connection != null) closeConnection(connection, fetchSize, false);
       } catch (Exception e) {
       }
       try {
@@ -1201,6 +1272,532 @@ public class EDDTableFromDatabase extends EDDTable {
     }
   }
 
+  /**
+   * This receives the chunks of source data (with source names and source values) read from a
+   * ResultSet.
+   */
+  @FunctionalInterface
+  interface SourceTableConsumer {
+    /**
+     * @param table a chunk of source data. The consumer may keep it.
+     * @return true if more data is wanted
+     */
+    boolean accept(Table table) throws Throwable;
+  }
+
+  /**
+   * A ColumnBinder gets the value of one column from the current row of a ResultSet and adds it to
+   * a PrimitiveArray. The binders are made once per query (see makeColumnBinder), so the per-cell
+   * work is just the JDBC call.
+   */
+  @FunctionalInterface
+  interface ColumnBinder {
+    void addTo(ResultSet rs, PrimitiveArray pa) throws SQLException;
+  }
+
+  /**
+   * This makes the ColumnBinder for a column.
+   *
+   * @param edv the variable
+   * @param rsCol the ResultSet's column number (1..)
+   * @return the ColumnBinder
+   */
+  static ColumnBinder makeColumnBinder(EDV edv, int rsCol) {
+    PAType tPAType = edv.sourceDataPAType();
+    if (edv.isBoolean()) { // special case
+      return (rs, pa) -> {
+        boolean tb = rs.getBoolean(rsCol);
+        pa.addInt(rs.wasNull() ? Integer.MAX_VALUE : tb ? 1 : 0);
+      };
+    } else if (edv instanceof EDVTimeStamp) {
+      return (rs, pa) -> {
+        Timestamp tts = rs.getTimestamp(rsCol); // zulu millis -> epoch seconds
+        pa.addDouble(tts == null ? Double.NaN : tts.getTime() / 1000.0);
+      };
+    } else if (tPAType == PAType.STRING) {
+      return (rs, pa) -> {
+        String ts = rs.getString(rsCol); // it may return null
+        pa.addString(ts == null ? "" : ts);
+      };
+    } else if (tPAType == PAType.DOUBLE) {
+      return (rs, pa) -> {
+        double d = rs.getDouble(rsCol);
+        pa.addDouble(rs.wasNull() ? Double.NaN : d);
+      };
+    } else if (tPAType == PAType.FLOAT) {
+      return (rs, pa) -> {
+        float f = rs.getFloat(rsCol);
+        pa.addFloat(rs.wasNull() ? Float.NaN : f);
+      };
+    } else if (tPAType == PAType.ULONG) {
+      return (rs, pa) -> {
+        BigDecimal bd = rs.getBigDecimal(rsCol);
+        ((ULongArray) pa).add(rs.wasNull() ? null : Math2.roundToULongOrNull(bd));
+      };
+    } else if (tPAType == PAType.LONG || tPAType == PAType.UINT) {
+      return (rs, pa) -> {
+        long tl = rs.getLong(rsCol);
+        if (rs.wasNull()) {
+          pa.setMaxIsMV(true);
+          tl = Long.MAX_VALUE;
+        }
+        pa.addLong(tl);
+      };
+    } else {
+      return (rs, pa) -> {
+        int ti = rs.getInt(rsCol);
+        if (rs.wasNull()) {
+          pa.setMaxIsMV(true);
+          ti = Integer.MAX_VALUE;
+        }
+        pa.addInt(ti);
+      };
+    }
+  }
+
+  /**
+   * This reads all of the rows of a ResultSet and passes them to the consumer in chunks of up to
+   * partialRequestMaxCells.
+   *
+   * @param rs the ResultSet
+   * @param resultsVariables the sourceNames of the columns to be read
+   * @param consumer which receives the chunks of source data
+   * @return true if all of the rows were read, or false if the consumer didn't want more data
+   * @throws Throwable if trouble (e.g., the thread was interrupted)
+   */
+  private boolean readResultSet(
+      ResultSet rs, StringArray resultsVariables, SourceTableConsumer consumer) throws Throwable {
+
+    // make empty table with a column for each resultsVariable
+    int nRv = resultsVariables.size();
+    int tableColToRsCol[] = new int[nRv]; // stored as 1..
+    EDV resultsEDVs[] = new EDV[nRv];
+    ColumnBinder binders[] = new ColumnBinder[nRv];
+    for (int rv = 0; rv < nRv; rv++) {
+      String tName = resultsVariables.get(rv); // a sourceName
+      resultsEDVs[rv] = findDataVariableBySourceName(tName);
+
+      // find corresponding resultSet column (should be 1:1) and other info
+      tableColToRsCol[rv] = rs.findColumn(tName); // stored as 1..    throws Throwable if not found
+      binders[rv] = makeColumnBinder(resultsEDVs[rv], tableColToRsCol[rv]);
+    }
+    int triggerNRows = EDStatic.config.partialRequestMaxCells / resultsEDVs.length;
+    Table table = makeEmptySourceTable(resultsEDVs, triggerNRows);
+    PrimitiveArray paArray[] = new PrimitiveArray[nRv];
+    for (int rv = 0; rv < nRv; rv++) paArray[rv] = table.getColumn(rv);
+
+    // process the resultSet rows of data
+    while (true) {
+      boolean hasNext = rs.next();
+
+      if (hasNext) {
+        for (int rv = 0; rv < nRv; rv++) {
+          if (debugMode) String2.log(rv + " " + rs.getString(tableColToRsCol[rv]));
+          binders[rv].addTo(rs, paArray[rv]);
+        }
+      }
+
+      if ((paArray[0].size() > 0 && !hasNext) || paArray[0].size() >= triggerNRows) {
+        if (Thread.currentThread().isInterrupted())
+          throw new SimpleException(
+              "EDDTableFromDatabase.getDataForDapQuery"
+                  + EDStatic.messages.get(Message.CAUGHT_INTERRUPTED, 0));
+
+        if (!consumer.accept(table)) return false;
+
+        if (hasNext) {
+          table = makeEmptySourceTable(resultsEDVs, triggerNRows);
+          for (int rv = 0; rv < nRv; rv++) paArray[rv] = table.getColumn(rv);
+        }
+      }
+      if (!hasNext) return true;
+    }
+  }
+
+  /**
+   * This prepares a statement for a query. If fetchSize &gt; 0, this turns off the connection's
+   * autocommit (some drivers, e.g., PostgreSQL, only use a server-side cursor when autocommit is
+   * off) and sets the statement's fetchSize, so the results stream from the database instead of all
+   * being loaded into memory by the driver. See closeConnection.
+   *
+   * @param connection the connection
+   * @param query the query, with '?' as placeholders for the values
+   * @param fetchSize the dataset's fetchSize (0 to use the driver's default)
+   * @return the statement
+   * @throws SQLException if trouble
+   */
+  static PreparedStatement prepareQueryStatement(Connection connection, String query, int fetchSize)
+      throws SQLException {
+    if (fetchSize > 0) connection.setAutoCommit(false);
+    PreparedStatement statement =
+        connection.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+    if (fetchSize > 0) statement.setFetchSize(fetchSize);
+    return statement;
+  }
+
+  /**
+   * This ends the (read-only) transaction if prepareQueryStatement turned off autocommit (with a
+   * commit if the query succeeded, or a rollback if there was trouble or the query was abandoned),
+   * turns autocommit back on (even if the commit or rollback failed), then closes the connection,
+   * so a pooled connection goes back to the pool as it came out.
+   *
+   * @param connection the connection
+   * @param fetchSize the dataset's fetchSize
+   * @param commit true if the query succeeded, false if there was trouble or the query was
+   *     abandoned
+   * @throws SQLException if trouble
+   */
+  static void closeConnection(Connection connection, int fetchSize, boolean commit)
+      throws SQLException {
+    try {
+      if (fetchSize > 0 && !connection.isClosed() && !connection.getAutoCommit()) {
+        try {
+          if (commit) connection.commit();
+          else connection.rollback();
+        } finally {
+          connection.setAutoCommit(true);
+        }
+      }
+    } finally {
+      connection.close();
+    }
+  }
+
+  /**
+   * This fills in the '?' for the constraints in the preparedStatement.
+   *
+   * <p>***!!! This method avoids SQL Injection Vulnerability !!!*** (see
+   * https://en.wikipedia.org/wiki/SQL_injection) by using preparedStatements (so String values are
+   * properly escaped and numbers are assured to be numbers).
+   *
+   * @param statement the statement
+   * @param constraintVariables the constraint sourceNames
+   * @param constraintOps the constraint operators
+   * @param constraintValues the constraint values (timeStamp constraints other than regex are
+   *     epochSeconds)
+   * @return the number of '?' which were filled in
+   * @throws Throwable if trouble
+   */
+  private int setConstraintValues(
+      PreparedStatement statement,
+      StringArray constraintVariables,
+      StringArray constraintOps,
+      StringArray constraintValues)
+      throws Throwable {
+    int nCv = constraintVariables.size();
+    int nActiveCV = 0;
+    for (int cv = 0; cv < nCv; cv++) {
+      if (constraintVariables.get(cv).startsWith("=")) continue;
+      nActiveCV++; // +1 since sql uses 1..
+      EDV edv = findDataVariableBySourceName(constraintVariables.get(cv));
+      PAType tPAType = edv.sourceDataPAType();
+      String val = constraintValues.get(cv);
+      // String2.log("cv=" + cv + " tPAType=" + tPAType);
+      // ???Do I need to parse numeric val's to check for NaN (which is not allowed(?))
+      if (edv instanceof EDVTimeStamp && !constraintOps.get(cv).equals(PrimitiveArray.REGEX_OP))
+        statement.setTimestamp(
+            nActiveCV,
+            // round to nearest milli
+            new Timestamp(Math.round(String2.parseDouble(val) * 1000)));
+      else if (edv.isBoolean())
+        statement.setBoolean(nActiveCV, String2.parseBoolean(val)); // special case
+      else if (tPAType == PAType.STRING) statement.setString(nActiveCV, val);
+      // for Unsigned types, go to next bigger data type.
+      else if (tPAType == PAType.DOUBLE) statement.setDouble(nActiveCV, String2.parseDouble(val));
+      else if (tPAType == PAType.FLOAT) statement.setFloat(nActiveCV, String2.parseFloat(val));
+      else if (tPAType == PAType.LONG) statement.setLong(nActiveCV, String2.parseLong(val));
+      else if (tPAType == PAType.ULONG)
+        statement.setBigDecimal(nActiveCV, String2.parseBigDecimalObject(val));
+      else if (tPAType == PAType.INT) statement.setInt(nActiveCV, String2.parseInt(val));
+      else if (tPAType == PAType.UINT) statement.setLong(nActiveCV, String2.parseLong(val));
+      else if (tPAType == PAType.SHORT)
+        statement.setShort(nActiveCV, Math2.narrowToShort(String2.parseInt(val)));
+      else if (tPAType == PAType.USHORT) statement.setInt(nActiveCV, String2.parseInt(val));
+      else if (tPAType == PAType.BYTE)
+        statement.setByte(nActiveCV, Math2.narrowToByte(String2.parseInt(val)));
+      else if (tPAType == PAType.UBYTE)
+        statement.setShort(nActiveCV, Math2.narrowToShort(String2.parseInt(val))); // ???
+      else if (tPAType == PAType.CHAR)
+        statement.setString(
+            nActiveCV, val.length() == 0 ? "\u0000" : val.substring(0, 1)); // FFFF???
+      else
+        throw new RuntimeException(
+            "Prepared statements don't support class type=" + edv.sourceDataType() + ".");
+    }
+    return nActiveCV;
+  }
+
+  /**
+   * This fills in the '?' for a partitionColumn range limit.
+   *
+   * @param statement the statement
+   * @param index the number of the '?' (1..)
+   * @param value the limit (epochMillis for EDVTimeStamp partitionColumns), from getPartitionCuts
+   * @throws Throwable if trouble
+   */
+  private void setPartitionValue(PreparedStatement statement, int index, double value)
+      throws Throwable {
+    EDV edv = findDataVariableBySourceName(partitionColumn);
+    if (edv instanceof EDVTimeStamp) statement.setTimestamp(index, new Timestamp((long) value));
+    else if (PAType.isIntegerType(edv.sourceDataPAType())) statement.setLong(index, (long) value);
+    else statement.setDouble(index, value);
+  }
+
+  /**
+   * This asks the database for the min and max values of the partitionColumn for the rows which
+   * match the constraints, and splits that range into nPartitions ranges.
+   *
+   * @param connection the connection
+   * @param where the FROM and WHERE clauses of the query, with '?' for the constraint values
+   * @param constraintVariables the constraint sourceNames
+   * @param constraintOps the constraint operators
+   * @param constraintValues the constraint values
+   * @param nPartitions the desired number of ranges (2+)
+   * @return the cut points between the ranges (see partitionCuts). This has length=0 if there are
+   *     no matching rows or if the range can't be split.
+   * @throws Throwable if trouble
+   */
+  private double[] getPartitionCuts(
+      Connection connection,
+      String where,
+      StringArray constraintVariables,
+      StringArray constraintOps,
+      StringArray constraintValues,
+      int nPartitions)
+      throws Throwable {
+    EDV edv = findDataVariableBySourceName(partitionColumn);
+    String col = columnNameQuotes + partitionColumn + columnNameQuotes;
+    try (PreparedStatement statement =
+        connection.prepareStatement("SELECT MIN(" + col + "), MAX(" + col + ")" + where)) {
+      setConstraintValues(statement, constraintVariables, constraintOps, constraintValues);
+      try (ResultSet rs = statement.executeQuery()) {
+        if (!rs.next()) return new double[0];
+        if (edv instanceof EDVTimeStamp) {
+          Timestamp min = rs.getTimestamp(1);
+          Timestamp max = rs.getTimestamp(2);
+          return min == null || max == null
+              ? new double[0]
+              : partitionCuts(min.getTime(), max.getTime(), nPartitions, true);
+        }
+        double min = rs.getDouble(1);
+        if (rs.wasNull()) return new double[0];
+        double max = rs.getDouble(2);
+        if (rs.wasNull()) return new double[0];
+        return partitionCuts(min, max, nPartitions, PAType.isIntegerType(edv.sourceDataPAType()));
+      }
+    }
+  }
+
+  /**
+   * This splits [min, max] into up to nPartitions ranges of about equal width. Range 0 is values
+   * &lt; cuts[0], range i is cuts[i-1] &lt;= value &lt; cuts[i], and the last range is values &gt;=
+   * cuts[cuts.length - 1]. Since the first and last ranges are open-ended and each cut is used for
+   * the ranges on both sides of it, the ranges cover every value exactly once (even if min and max
+   * are inexact).
+   *
+   * @param min the min value
+   * @param max the max value
+   * @param nPartitions the desired number of ranges
+   * @param integer true if the values are integers (so the cuts are rounded to integers)
+   * @return the sorted, distinct cut points (length=0 if the range can't be split)
+   */
+  static double[] partitionCuts(double min, double max, int nPartitions, boolean integer) {
+    DoubleArray cuts = new DoubleArray();
+    if (!Double.isFinite(min) || !Double.isFinite(max) || max <= min) return cuts.toArray();
+    for (int i = 1; i < nPartitions; i++) {
+      double cut = min + (max - min) * i / nPartitions;
+      if (integer) cut = Math.round(cut);
+      if (cut > min && cut <= max && (cuts.size() == 0 || cut > cuts.get(cuts.size() - 1)))
+        cuts.add(cut);
+    }
+    return cuts.toArray();
+  }
+
+  /** The marker at the end of each partition's queue of source tables. */
+  private static final Object END_OF_PARTITION = new Object();
+
+  /**
+   * One of the range scans of readPartitions. It passes its chunks of source data to the sink and
+   * should stop (and free its resources) as soon as the sink returns false.
+   */
+  @FunctionalInterface
+  interface RangeScan {
+    void run(SourceTableConsumer sink) throws Throwable;
+  }
+
+  /**
+   * This reads the data for a query as range scans of the partitionColumn (plus, if includeNulls,
+   * the rows where the partitionColumn is NULL), which are run in parallel (up to
+   * maxConcurrentScans at once, each in its own thread with its own connection). See
+   * readRangeScans.
+   *
+   * @param select the SELECT clause of the query
+   * @param where the FROM and WHERE clauses of the query, with '?' for the constraint values
+   * @param whereIsEmpty true if there is no WHERE clause yet
+   * @param orderByString the ORDER BY clause (or "")
+   * @param cuts the cut points between the ranges (see partitionCuts)
+   * @param includeNulls true if there may be rows where partitionColumn is NULL (i.e., there are no
+   *     constraints on partitionColumn)
+   * @param resultsVariables the sourceNames of the columns to be read
+   * @param constraintVariables the constraint sourceNames
+   * @param constraintOps the constraint operators
+   * @param constraintValues the constraint values
+   * @param consumer which receives the chunks of source data
+   * @throws Throwable if trouble
+   */
+  private void readPartitions(
+      String select,
+      String where,
+      boolean whereIsEmpty,
+      String orderByString,
+      double cuts[],
+      boolean includeNulls,
+      StringArray resultsVariables,
+      StringArray constraintVariables,
+      StringArray constraintOps,
+      StringArray constraintValues,
+      SourceTableConsumer consumer)
+      throws Throwable {
+
+    String col = columnNameQuotes + partitionColumn + columnNameQuotes;
+    String and = whereIsEmpty ? " WHERE " : " AND ";
+    int nRanges = cuts.length + 1 + (includeNulls ? 1 : 0);
+    List<RangeScan> scans = new ArrayList<>();
+    for (int r = 0; r < nRanges; r++) {
+      String range;
+      double limits[];
+      if (r == cuts.length + 1) {
+        range = and + col + " IS NULL";
+        limits = new double[0];
+      } else if (r == 0) {
+        range = and + col + " < ?";
+        limits = new double[] {cuts[0]};
+      } else if (r == cuts.length) {
+        range = and + col + " >= ?";
+        limits = new double[] {cuts[r - 1]};
+      } else {
+        range = and + col + " >= ? AND " + col + " < ?";
+        limits = new double[] {cuts[r - 1], cuts[r]};
+      }
+      String query = select + where + range + orderByString;
+      scans.add(
+          sink -> {
+            Connection tConnection = null;
+            PreparedStatement tStatement = null;
+            boolean completed = false;
+            try {
+              tConnection =
+                  makeConnection(
+                      dataSourceName, dataSource, localSourceUrl, driverName, connectionProperties);
+              tStatement = prepareQueryStatement(tConnection, query, fetchSize);
+              int index =
+                  setConstraintValues(
+                      tStatement, constraintVariables, constraintOps, constraintValues);
+              for (double limit : limits) setPartitionValue(tStatement, ++index, limit);
+              completed = readResultSet(tStatement.executeQuery(), resultsVariables, sink);
+            } finally {
+              try {
+                if (tStatement != null) tStatement.close();
+              } catch (Exception e) {
+              }
+              try {
+                if (tConnection != null) closeConnection(tConnection, fetchSize, completed);
+              } catch (Exception e) {
+              }
+            }
+          });
+    }
+    readRangeScans(scans, maxConcurrentScans, consumer);
+  }
+
+  /**
+   * This runs the range scans in parallel (in rangeScanExecutor's threads) and passes their chunks
+   * of source data to the consumer in scan order, so if the query's ORDER BY starts with the
+   * partitionColumn, the rows are in the same order as the unpartitioned query. At most
+   * maxConcurrentScans scans are started ahead of the consumer: each time the consumer moves on to
+   * the next scan, the next scan after the window is started. Each range scan can get at most 2
+   * chunks ahead of the consumer, so memory use is limited. Since scans are submitted in order (by
+   * all requests) and the executor runs them in that order, the scan the consumer is waiting for is
+   * always running or will be run before any later scan.
+   *
+   * <p>If the consumer stops early (it returns false or throws an exception), the scans which
+   * haven't started are cancelled and the running scans' sinks return false from then on (even if
+   * the scan's thread was interrupted while it waited for room in its queue), so every scan
+   * finishes and frees its connection.
+   *
+   * @param scans the range scans, in order
+   * @param maxConcurrentScans the maximum number of scans which are run at once (if &lt;1, 1 is
+   *     used)
+   * @param consumer which receives the chunks of source data
+   * @throws Throwable if trouble (e.g., the first exception thrown by a scan)
+   */
+  static void readRangeScans(
+      List<RangeScan> scans, int maxConcurrentScans, SourceTableConsumer consumer)
+      throws Throwable {
+
+    int nScans = scans.size();
+    int window = Math.max(1, maxConcurrentScans);
+    AtomicBoolean consumerIsDone = new AtomicBoolean(false);
+    List<BlockingQueue<Object>> queues = new ArrayList<>();
+    List<Future<?>> futures = new ArrayList<>();
+    try {
+      for (int s = 0; s < nScans; s++) {
+        // submit the scans (in order) up to the end of the window
+        while (futures.size() < Math.min(nScans, s + window)) {
+          RangeScan scan = scans.get(futures.size());
+          BlockingQueue<Object> queue = new ArrayBlockingQueue<>(2);
+          queues.add(queue);
+          futures.add(
+              rangeScanExecutor.submit(
+                  () -> {
+                    if (consumerIsDone.get()) return null;
+                    try {
+                      scan.run(table -> offerToConsumer(queue, table, consumerIsDone));
+                      offerToConsumer(queue, END_OF_PARTITION, consumerIsDone);
+                    } catch (Throwable t) {
+                      // if the consumer is gone, no one needs the exception
+                      if (!(t instanceof InterruptedException) && !consumerIsDone.get())
+                        offerToConsumer(queue, t, consumerIsDone);
+                    }
+                    return null;
+                  }));
+        }
+
+        // pass scan s's chunks to the consumer
+        BlockingQueue<Object> queue = queues.get(s);
+        while (true) {
+          Object o = queue.take();
+          if (o == END_OF_PARTITION) break;
+          if (o instanceof Throwable t) throw t;
+          if (!consumer.accept((Table) o)) return;
+        }
+      }
+    } finally {
+      // stop any range scans which are still running or haven't started
+      consumerIsDone.set(true);
+      for (Future<?> future : futures) future.cancel(true);
+    }
+  }
+
+  /**
+   * This puts an object in a range scan's queue, waiting for room if necessary, until the consumer
+   * is done. This doesn't rely on the thread's interrupt flag (which JDBC drivers and queue.put may
+   * clear), so a scan can't wait forever for a consumer that is gone.
+   *
+   * @return true if the object was added, or false if the consumer is done
+   */
+  private static boolean offerToConsumer(
+      BlockingQueue<Object> queue, Object o, AtomicBoolean consumerIsDone) {
+    while (!consumerIsDone.get()) {
+      try {
+        if (queue.offer(o, 100, TimeUnit.MILLISECONDS)) return true;
+      } catch (InterruptedException e) {
+        // check consumerIsDone
+      }
+    }
+    return false;
+  }
+
   /**
    * getDataForDapQuery always calls this right before standardizeResultsTable.
    * EDDTableFromPostDatabase uses this to remove data not accessible to this user.
@@ -70,6 +70,9 @@ public class EDDTableFromErddap extends EDDTable implements FromErddap {
   protected boolean subscribeToRemoteErddapDataset;
   private boolean redirect = true;
 
+  /** True if this dataset doesn't override the source's metadata (see canPassThrough). */
+  private boolean canPassThrough = false;
+
   /**
    * This constructs an EDDTableFromErddap based on the information in an .xml file.
    *
@@ -388,8 +391,9 @@ public class EDDTableFromErddap extends EDDTable implements FromErddap {
                 false, // tryToAddStandardName since just getting ioos_category
                 false,
                 false); // tryToAddColorBarMinMax, tryToFindLLAT
-        // if put it in tSourceAtt, it will be available for quick restart
-        tSourceAtt.add("ioos_category", tAtts.getString("ioos_category"));
+        // put it in tAddAtt (not tSourceAtt), so it is clear that it isn't the source's
+        // metadata (see canPassThrough)
+        tAddAtt.set(language, "ioos_category", tAtts.getString("ioos_category"));
       }
 
       // make the variable
@@ -507,6 +511,7 @@ public class EDDTableFromErddap extends EDDTable implements FromErddap {
 
     // ensure the setup is valid
     ensureValid(); // this ensures many things are set, e.g., sourceUrl
+    canPassThrough = !hasMetadataOverrides(dataVariables);
 
     // save quickRestart info
     if (!qrMode) { // i.e., there is new info
@@ -568,6 +573,15 @@ public class EDDTableFromErddap extends EDDTable implements FromErddap {
     return redirect;
   }
 
+  /**
+   * This indicates whether the source ERDDAP's responses can be passed through to the user as is,
+   * i.e., this dataset doesn't change the source's metadata.
+   */
+  @Override
+  public boolean canPassThrough() {
+    return canPassThrough;
+  }
+
   /**
    * This gets the data (chunk by chunk) from this EDDTable for the OPeNDAP DAP-style query and
    * writes it to the TableWriter. See the EDDTable method documentation.
@@ -593,10 +607,35 @@ public class EDDTableFromErddap extends EDDTable implements FromErddap {
     // in order to bypass removal of numeric regex.
     // ERDDAP can handle anything (by definition).
 
-    // Read all data, then write to tableWriter.
-    Table table = new Table();
     String udq = String2.isSomething(userDapQuery) ? "?" + userDapQuery : "";
 
+    if (useNccsv && EDStatic.config.fromErddapStreaming) {
+      // read part, write part, so the whole response is never in memory
+      String url = localSourceUrl + ".nccsv" + udq;
+      int chunkNRows =
+          Math.max(1000, EDStatic.config.partialRequestMaxCells / dataVariables.length);
+      try (BufferedReader reader = SSR.getBufferedUrlReader(url)) {
+        new Table()
+            .readNccsvInChunks(
+                url,
+                reader,
+                chunkNRows,
+                chunk -> {
+                  standardizeResultsTable(language, requestUrl, userDapQuery, chunk);
+                  tableWriter.writeSome(chunk); // okay if 0 rows
+                  if (tableWriter.noMoreDataPlease) {
+                    tableWriter.logCaughtNoMoreDataPlease(datasetID);
+                    return false;
+                  }
+                  return true;
+                });
+      }
+      tableWriter.finish();
+      return;
+    }
+
+    // Read all data, then write to tableWriter.
+    Table table = new Table();
     if (useNccsv) {
       // FUTURE: could repeatedly: read part/ write part
       table.readNccsv(localSourceUrl + ".nccsv" + udq, true); // readData?
@@ -36,6 +36,7 @@ import gov.noaa.pfel.erddap.Erddap;
 import gov.noaa.pfel.erddap.dataset.metadata.LocalizedAttributes;
 import gov.noaa.pfel.erddap.handlers.EDDTableFromFilesHandler;
 import gov.noaa.pfel.erddap.handlers.SaxHandlerClass;
+import gov.noaa.pfel.erddap.util.DatasetCatalogIndex;
 import gov.noaa.pfel.erddap.util.EDMessages;
 import gov.noaa.pfel.erddap.util.EDMessages.Message;
 import gov.noaa.pfel.erddap.util.EDStatic;
@@ -65,6 +66,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -179,6 +181,18 @@ public abstract class EDDTableFromFiles extends EDDTable implements WatchUpdateH
   protected Table dirTable; // one column with dir names
   protected Table fileTable;
 
+  // the dirTable and fileTable with the fileTable journal replayed (if there is a journal)
+  private final JournaledDirFileTables journaledDirFileTables =
+      new JournaledDirFileTables(
+          this::readDirFileTableSnapshot,
+          this::fileTableReplayed,
+          () -> fileTableJournalNeedsCompaction = true);
+
+  // fileTableVersion is incremented before and after each change to the fileTable
+  // (so it is odd while a change is in progress). fileTableIndex is for one version.
+  protected final AtomicLong fileTableVersion = new AtomicLong();
+  private volatile FileTableIndex fileTableIndex;
+
   // things just for EDDTableFromHttpGet
   public static final String HTTP_GET_REQUIRED_VARIABLES = "httpGetRequiredVariables";
   public static final String HTTP_GET_DIRECTORY_STRUCTURE = "httpGetDirectoryStructure";
@@ -1569,6 +1583,10 @@ public abstract class EDDTableFromFiles extends EDDTable implements WatchUpdateH
     sourceCanConstrainStringData = CONSTRAIN_PARTIAL; // all partially handled
     sourceCanConstrainStringRegex = PrimitiveArray.REGEX_OP; // partially
 
+    // if there is a fileTable journal, it is replayed once here, then compacted (see below)
+    if (File2.isFile(datasetDir() + FileTableJournal.FILENAME))
+      fileTableJournalNeedsCompaction = true;
+
     // load cached dirTable->dirList
     dirTable = tryToLoadDirFileTable(dirTableFileName); // may be null
     if (dirTable != null) {
@@ -2174,8 +2192,9 @@ public abstract class EDDTableFromFiles extends EDDTable implements WatchUpdateH
     // Calendar2.getCurrentISODateTimeStringLocalTZ() + " finished
     // makeMinMaxTable");
 
-    // if !quickRestart, save dirTable, fileTable, badFileMap
-    if (!doQuickRestart)
+    // if !quickRestart (or the fileTable journal needs to be compacted),
+    // save dirTable, fileTable, badFileMap
+    if (!doQuickRestart || fileTableJournalNeedsCompaction)
       saveDirTableFileTableBadFiles(
           standardizeWhat, dirTable, fileTable, badFileMap); // throws Throwable
     // then make related changes as quickly/atomically as possible
@@ -3329,6 +3348,11 @@ public abstract class EDDTableFromFiles extends EDDTable implements WatchUpdateH
     handleEventContexts(contexts, "update(" + datasetID + "): ");
   }
 
+  @Override
+  public Map<String, Long> knownFiles(String dir) throws Throwable {
+    return filesInDir(dir, getDirTable(), getFileTable());
+  }
+
   private boolean handleEventContexts(StringArray contexts, String msg) throws Throwable {
     // Don't try to sort out multiple events or event order, just note which files
     // changed.
@@ -3392,6 +3416,10 @@ public abstract class EDDTableFromFiles extends EDDTable implements WatchUpdateH
     StringArray dirList = (StringArray) tDirTable.getColumn(0);
     ShortArray ftDirIndex = (ShortArray) tFileTable.getColumn(FT_DIR_INDEX_COL); // 0
     StringArray ftFileList = (StringArray) tFileTable.getColumn(FT_FILE_LIST_COL); // 1
+    int nOldDirs = dirList.size();
+    // the dirIndex/fileName of the files added/changed or removed (for the fileTable journal)
+    Set<String> changedFiles = new HashSet<>();
+    Set<String> removedFiles = new HashSet<>();
 
     // for each changed file
     int nChanges = 0; // BadFiles or FileTable
@@ -3489,6 +3517,9 @@ public abstract class EDDTableFromFiles extends EDDTable implements WatchUpdateH
               File2.length(fullName),
               fileMetadata,
               debugMode ? evi : -1);
+          String key = FileTableJournal.key(dirIndex, fileName);
+          changedFiles.add(key);
+          removedFiles.remove(key);
 
         } else {
 
@@ -3499,6 +3530,7 @@ public abstract class EDDTableFromFiles extends EDDTable implements WatchUpdateH
           if (dirIndex >= 0) { // it might be in tFileTable
             if (removeFromFileTable(dirIndex, fileName, tFileTable, ftDirIndex, ftFileList)) {
               nChanges++;
+              noteRemoved(FileTableJournal.key(dirIndex, fileName), changedFiles, removedFiles);
               if (verbose)
                 String2.log(
                     msg
@@ -3537,6 +3569,7 @@ public abstract class EDDTableFromFiles extends EDDTable implements WatchUpdateH
           // It is possible file had wrong name/wrong value before.
           if (removeFromFileTable(dirIndex, fileName, tFileTable, ftDirIndex, ftFileList)) {
             nChanges++;
+            noteRemoved(FileTableJournal.key(dirIndex, fileName), changedFiles, removedFiles);
             if (verbose)
               String2.log(
                   msg + "removed from fileTable a file that now doesn't exist:\n  " + fullName);
@@ -3575,8 +3608,14 @@ public abstract class EDDTableFromFiles extends EDDTable implements WatchUpdateH
 
       // finally: make the important instance changes that use the changes above
       // as quickly/atomically as possible
-      saveDirTableFileTableBadFiles(
-          standardizeWhat, tDirTable, tFileTable, badFileMap); // throws Throwable
+      saveDirTableFileTableChanges(
+          standardizeWhat,
+          tDirTable,
+          nOldDirs,
+          tFileTable,
+          changedFiles,
+          removedFiles,
+          badFileMap); // throws Throwable
       minMaxTable = tMinMaxTable;
       if (fileTableInMemory) {
         // quickly swap into place
@@ -3674,6 +3713,7 @@ public abstract class EDDTableFromFiles extends EDDTable implements WatchUpdateH
         combinedGlobalAttributes().set(language, "time_coverage_end", edv.destinationMaxString());
       }
     }
+    DatasetCatalogIndex.rangesChanged(datasetID);
   }
 
   /**
@@ -3738,6 +3778,80 @@ public abstract class EDDTableFromFiles extends EDDTable implements WatchUpdateH
     return tFileTable;
   }
 
+  /**
+   * This gets the FileTableIndex for a fileTable from getFileTable(), making it if needed.
+   *
+   * @param tFileTable the fileTable from getFileTable()
+   * @param tVersion fileTableVersion.get() from before the call to getFileTable()
+   * @return the index
+   */
+  FileTableIndex getFileTableIndex(Table tFileTable, long tVersion) {
+    Table key = fileTableInMemory ? tFileTable : null;
+    int nFiles = tFileTable.nRows();
+    FileTableIndex index = fileTableIndex;
+    if (index != null && index.isFor(key, tVersion, nFiles)) return index;
+    index = new FileTableIndex(key, tVersion, nFiles, dataVariables);
+    // only reuse it if the fileTable wasn't being changed while it was gotten
+    if (tVersion % 2 == 0 && fileTableVersion.get() == tVersion) fileTableIndex = index;
+    return index;
+  }
+
+  /**
+   * This is called before and after each change to the fileTable (so a FileTableIndex for the old
+   * fileTable won't be used).
+   */
+  protected void fileTableChanging() {
+    fileTableVersion.incrementAndGet();
+  }
+
+  /**
+   * This saves the dirTable, fileTable, and badFileMap (see EDD.saveDirTableFileTableBadFiles) and
+   * notes that the fileTable has changed.
+   */
+  @Override
+  public void saveDirTableFileTableBadFiles(
+      int tStandardizeWhat,
+      Table tDirTable,
+      Table tFileTable,
+      ConcurrentHashMap<String, Object[]> badFileMap)
+      throws Throwable {
+    fileTableChanging();
+    try {
+      super.saveDirTableFileTableBadFiles(tStandardizeWhat, tDirTable, tFileTable, badFileMap);
+    } finally {
+      fileTableChanging();
+    }
+  }
+
+  /**
+   * This saves the changes to the dirTable, fileTable, and badFileMap (see
+   * EDD.saveDirTableFileTableChanges) and notes that the fileTable has changed.
+   */
+  @Override
+  public void saveDirTableFileTableChanges(
+      int tStandardizeWhat,
+      Table tDirTable,
+      int nOldDirs,
+      Table tFileTable,
+      Set<String> changedFiles,
+      Set<String> removedFiles,
+      ConcurrentHashMap<String, Object[]> badFileMap)
+      throws Throwable {
+    fileTableChanging();
+    try {
+      super.saveDirTableFileTableChanges(
+          tStandardizeWhat,
+          tDirTable,
+          nOldDirs,
+          tFileTable,
+          changedFiles,
+          removedFiles,
+          badFileMap);
+    } finally {
+      fileTableChanging();
+    }
+  }
+
   /**
    * Try to load the dirTable or fileTable. fileTable PrimitiveArrays: 0=ftDirIndex 1=ftFileList
    * 2=ftLastMod 3=ftSize 4=ftSortedSpacing, then sourceMin, sourceMax, hasNaN columns for each dv.
@@ -3748,36 +3862,11 @@ public abstract class EDDTableFromFiles extends EDDTable implements WatchUpdateH
    */
   protected Table tryToLoadDirFileTable(String fileName) throws Throwable {
     try {
-      if (File2.isFile(fileName)) {
-        Table table = new Table();
-        // table.readFlatNc(fileName, null, 0); //standardizeWhat=0
-        Test.ensureEqual(
-            table.readEnhancedFlatNc(fileName, null), // it logs fileName and nRows=
-            Table.ENHANCED_VERSION,
-            "old/unsupported enhancedVersion");
-        int oldVersion = table.globalAttributes().getInt(_dirFileTableVersion_);
-        Test.ensureEqual(
-            oldVersion, DIR_FILE_TABLE_VERSION, "old/unsupported " + _dirFileTableVersion_);
-        int fileStandardizeWhat = table.globalAttributes().getInt(STANDARDIZEWHAT);
-        if (fileStandardizeWhat == Integer.MAX_VALUE)
-          fileStandardizeWhat =
-              defaultStandardizeWhat(); // e.g., unspecified is same as (usually) 0
-        Test.ensureEqual(
-            fileStandardizeWhat, standardizeWhat, "Different value for 'standardizeWhat'.");
-
-        // FUTURE: you can also test erddapVersion vs specific standardizeWhat features.
-        // e.g., If standardizeWhat & 4096 == 4096 and the standardize units system
-        // changed in 1.88,
-        // And erddapVersion<1.88, then throw error to force re-read all files.
-        String tErddapVersion = table.globalAttributes().getString("erddapVersion");
-        if (tErddapVersion == null) tErddapVersion = "1.82";
-
-        return table;
+      // if there is a fileTable journal, use the cached tables with the journal replayed
+      if (File2.isFile(datasetDir() + FileTableJournal.FILENAME))
+        return journaledDirFileTables.get(datasetDir(), fileName.endsWith(FILE_TABLE_FILENAME));
+      return readDirFileTableSnapshot(fileName);
 
-      } else {
-        if (verbose) String2.log("dir/file table doesn't exist: " + fileName);
-        return null;
-      }
     } catch (Throwable t) {
       String msg = MustBe.throwableToString(t);
       String2.log(String2.ERROR + " reading dir/file table " + fileName + "\n" + msg);
@@ -3791,10 +3880,52 @@ public abstract class EDDTableFromFiles extends EDDTable implements WatchUpdateH
       // if minor problem
       File2.delete(datasetDir() + DIR_TABLE_FILENAME);
       File2.delete(datasetDir() + FILE_TABLE_FILENAME);
+      FileTableJournal.delete(datasetDir());
       return null;
     }
   }
 
+  /**
+   * This reads and checks the dirTable or fileTable snapshot (without the fileTable journal).
+   *
+   * @param fileName dirTableFileName or fileTableFileName
+   * @return the dirTable or fileTable (null if no such file)
+   * @throws Throwable if trouble
+   */
+  private Table readDirFileTableSnapshot(String fileName) throws Throwable {
+    if (!File2.isFile(fileName)) {
+      if (verbose) String2.log("dir/file table doesn't exist: " + fileName);
+      return null;
+    }
+    Table table = new Table();
+    // table.readFlatNc(fileName, null, 0); //standardizeWhat=0
+    Test.ensureEqual(
+        table.readEnhancedFlatNc(fileName, null), // it logs fileName and nRows=
+        Table.ENHANCED_VERSION,
+        "old/unsupported enhancedVersion");
+    int oldVersion = table.globalAttributes().getInt(_dirFileTableVersion_);
+    Test.ensureEqual(
+        oldVersion, DIR_FILE_TABLE_VERSION, "old/unsupported " + _dirFileTableVersion_);
+    int fileStandardizeWhat = table.globalAttributes().getInt(STANDARDIZEWHAT);
+    if (fileStandardizeWhat == Integer.MAX_VALUE)
+      fileStandardizeWhat = defaultStandardizeWhat(); // e.g., unspecified is same as (usually) 0
+    Test.ensureEqual(
+        fileStandardizeWhat, standardizeWhat, "Different value for 'standardizeWhat'.");
+
+    // FUTURE: you can also test erddapVersion vs specific standardizeWhat features.
+    // e.g., If standardizeWhat & 4096 == 4096 and the standardize units system
+    // changed in 1.88,
+    // And erddapVersion<1.88, then throw error to force re-read all files.
+    String tErddapVersion = table.globalAttributes().getString("erddapVersion");
+    if (tErddapVersion == null) tErddapVersion = "1.82";
+    return table;
+  }
+
+  /** The fileTable journal adds new rows at the end, so this re-sorts the fileTable. */
+  private void fileTableReplayed(Table fileTable) {
+    if (fileTableSortColumns != null) fileTable.sort(fileTableSortColumns, fileTableSortAscending);
+  }
+
   /**
    * This gets a table with the DNLS info all the files. lastMod is type=LongArray epochMillis. size
    * is type=LongArray.
@@ -4479,6 +4610,7 @@ public abstract class EDDTableFromFiles extends EDDTable implements WatchUpdateH
 
     // get a local reference to dirTable and fileTable
     Table tDirTable = getDirTable();
+    long tFileTableVersion = fileTableVersion.get();
     Table tFileTable = getFileTable();
     StringArray dirList = (StringArray) tDirTable.getColumn(0);
     ShortArray ftDirIndex = (ShortArray) tFileTable.getColumn(0);
@@ -4770,7 +4902,7 @@ public abstract class EDDTableFromFiles extends EDDTable implements WatchUpdateH
     // reduce tnThreads based on memory available
     tnThreads = adjustNThreads(tnThreads);
     ThreadedWorkManager<Table> workManager =
-        new ThreadedWorkManager<>(
+        ThreadedWorkManager.forRequest(
             tnThreads,
             result -> {
               if (result == null) {
@@ -4791,9 +4923,32 @@ public abstract class EDDTableFromFiles extends EDDTable implements WatchUpdateH
               }
             });
 
+    // use the fileTableIndex to find the files which may have matching data
+    // (the candidates are still tested below)
+    FileTableIndex index = getFileTableIndex(tFileTable, tFileTableVersion);
+    BitSet candidates = new BitSet(nFiles);
+    candidates.set(0, nFiles);
+    double[][] conEpochMin = new double[nCon][];
+    double[][] conEpochMax = new double[nCon][];
+    for (int con = 0; con < nCon; con++) {
+      int dv = cdvi[con];
+      String op = conOps.get(con);
+      if (op.equals(PrimitiveArray.REGEX_OP) || !index.canIndex(dv)) continue;
+      if (dataVariables[dv] instanceof EDVTimeStamp) {
+        conEpochMin[con] = index.epochMin(dv, tFileTable);
+        conEpochMax[con] = index.epochMax(dv, tFileTable);
+      }
+      BitSet conCandidates = index.candidates(dv, tFileTable, op, conValuesD[con]);
+      if (conCandidates != null) candidates.and(conCandidates);
+    }
+    nNotRead += nFiles - candidates.cardinality();
+    if (reallyVerbose)
+      String2.log(
+          "  fileTableIndex: " + candidates.cardinality() + " of " + nFiles + " files may match.");
+
     try {
       FILE_LOOP:
-      for (int f = 0; f < nFiles; f++) {
+      for (int f = candidates.nextSetBit(0); f >= 0; f = candidates.nextSetBit(f + 1)) {
         if (Thread.interrupted()) {
           if (workManager != null) workManager.forceShutdown();
           throw new InterruptedException(); // consume the interrupted status
@@ -4848,14 +5003,11 @@ public abstract class EDDTableFromFiles extends EDDTable implements WatchUpdateH
 
             } else {
               // numeric timestamp, or yyyy... String timestamp
-              double fMin =
-                  tdv.sourceTimeToEpochSeconds(tFileTable.getStringData(dv0 + dv * 3 + 0, f));
-              double fMax =
-                  tdv.sourceTimeToEpochSeconds(tFileTable.getStringData(dv0 + dv * 3 + 1, f));
+              // (the fileTableIndex has the min/max already converted to epochSeconds,
+              // with invalid min/max String times as far in past/future)
+              double fMin = conEpochMin[con][f];
+              double fMax = conEpochMax[con][f];
               int fNaN = tFileTable.getIntData(dv0 + dv * 3 + 2, f);
-              // if min/max String times are invalid, act as if far in past/future
-              if (Double.isNaN(fMin)) fMin = -1e100;
-              if (Double.isNaN(fMax)) fMax = 1e100;
 
               // 2018-07-05 removed: now, given updateEveryNMillis, assume that info about
               // files is perfectly up-to-data
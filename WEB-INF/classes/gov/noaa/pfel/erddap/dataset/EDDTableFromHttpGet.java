@@ -886,24 +886,31 @@ public class EDDTableFromHttpGet extends EDDTableFromFiles {
       throw new SimpleException("dirTable and/or fileTable are null!");
     }
 
-    String response =
-        insertOrDelete(
-            language,
-            fileDir,
-            httpGetDirectoryStructureColumnNames,
-            httpGetDirectoryStructureNs,
-            httpGetDirectoryStructureCalendars,
-            httpGetKeys,
-            combinedGlobalAttributes,
-            columnNames,
-            columnUnits,
-            columnPATypes,
-            columnMvFv,
-            httpGetRequiredVariableNames,
-            command,
-            userDapQuery,
-            tDirTable,
-            tFileTable);
+    // insertOrDelete changes tFileTable (which may be the fileTable) in place
+    String response;
+    fileTableChanging();
+    try {
+      response =
+          insertOrDelete(
+              language,
+              fileDir,
+              httpGetDirectoryStructureColumnNames,
+              httpGetDirectoryStructureNs,
+              httpGetDirectoryStructureCalendars,
+              httpGetKeys,
+              combinedGlobalAttributes,
+              columnNames,
+              columnUnits,
+              columnPATypes,
+              columnMvFv,
+              httpGetRequiredVariableNames,
+              command,
+              userDapQuery,
+              tDirTable,
+              tFileTable);
+    } finally {
+      fileTableChanging();
+    }
 
     // do more with badFileMap?
 
@@ -348,7 +348,7 @@ public class EDDTableFromHyraxFiles extends EDDTableFromFiles {
         taskOA[1] = sourceName;
         taskOA[2] = localFile;
         taskOA[3] = Math2.roundToLong(sourceFileLastMod.get(f) * 1000);
-        int tTaskNumber = EDStatic.addTask(taskOA);
+        int tTaskNumber = EDStatic.addTask(tDatasetID, taskOA);
         if (tTaskNumber >= 0) {
           nTasksCreated++;
           taskNumber = tTaskNumber;
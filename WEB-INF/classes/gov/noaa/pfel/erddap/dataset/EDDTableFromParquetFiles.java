@@ -161,9 +161,18 @@ public class EDDTableFromParquetFiles extends EDDTableFromFiles {
       // Just return a table with columns but no rows. There is never any metadata.
       return Table.makeEmptyTable(sourceDataNames.toArray(), sourceDataTypes);
 
-    // read the file
+    // read the file: just the requested columns and just the row groups which may have matching
+    // rows. The constraints are for the unpacked values, so they can only be used if
+    // standardizeWhat=0.
     Table table = new Table();
-    table.readParquet(tFileDir + tFileName, sourceDataNames, sourceDataTypes, true); // simplify
+    boolean useConstraints = standardizeWhat == 0;
+    table.readParquet(
+        tFileDir + tFileName,
+        sourceDataNames,
+        sourceDataTypes,
+        useConstraints ? sourceConVars : null,
+        useConstraints ? sourceConOps : null,
+        useConstraints ? sourceConValues : null);
 
     // unpack
     table.standardize(standardizeWhat);
@@ -420,7 +420,7 @@ public class EDDTableFromThreddsFiles extends EDDTableFromFiles {
         taskOA[1] = sourceDir + sourceName;
         taskOA[2] = localFile;
         taskOA[3] = sourceFileLastMod.get(f);
-        int tTaskNumber = EDStatic.addTask(taskOA);
+        int tTaskNumber = EDStatic.addTask(tDatasetID, taskOA);
         if (tTaskNumber >= 0) {
           nTasksCreated++;
           taskNumber = tTaskNumber;
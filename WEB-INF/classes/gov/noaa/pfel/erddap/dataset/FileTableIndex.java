@@ -0,0 +1,250 @@
+package gov.noaa.pfel.erddap.dataset;
+
+import com.cohort.array.DoubleArray;
+import com.cohort.array.PAType;
+import com.cohort.array.PrimitiveArray;
+import gov.noaa.pfel.coastwatch.pointdata.Table;
+import gov.noaa.pfel.erddap.variable.EDV;
+import gov.noaa.pfel.erddap.variable.EDVTimeStamp;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * This is an in-memory index of the per-file min and max values in an EDDTableFromFiles fileTable.
+ * It lets getDataForDapQuery find the files which may have data matching a constraint with a binary
+ * search (instead of testing every file), and it holds EDVTimeStamp variables' per-file min and max
+ * already converted to epochSeconds (so they aren't parsed again for every request).
+ *
+ * <p>For each data variable that is used in a constraint, this makes (the first time it is needed)
+ * sorted lists of the files' min values and max values. The candidates for a constraint are the
+ * files with min &lt;= value (for &lt; and &lt;=), max &gt;= value (for &gt; and &gt;=), or both
+ * (for =), plus the files with NaN min or max. The lookups are a little generous (see tolerance),
+ * so the candidates are a superset of the files that pass EDDTableFromFiles.isOK, which is still
+ * applied to each candidate.
+ *
+ * <p>An index is for one version of the fileTable. See EDDTableFromFiles.getFileTableIndex(), which
+ * makes a new index when the fileTable changes (e.g., in lowUpdate or because of a file system
+ * event).
+ *
+ * <p>This is thread-safe.
+ */
+class FileTableIndex {
+
+  /** The sorted min and max values of one variable. */
+  private static class VariableIndex {
+    /** For EDVTimeStamp variables, each file's min and max in epochSeconds, else null. */
+    double[] epochMin, epochMax;
+
+    /** The files with non-NaN min (or max) values, sorted by min (or max). */
+    int[] byMin, byMax;
+
+    /** The min (or max) values, in byMin (or byMax) order. */
+    double[] sortedMin, sortedMax;
+
+    /** The files with NaN min or max. They are always candidates. */
+    int[] nanFiles;
+  }
+
+  /** The fileTable (only if fileTableInMemory, else null). */
+  final Table fileTable;
+
+  /** The fileTableVersion when this was made. */
+  final long version;
+
+  final int nFiles;
+  private final EDV[] dataVariables;
+  private final VariableIndex[] variables;
+
+  /**
+   * The constructor. This doesn't index any variables yet.
+   *
+   * @param fileTable the fileTable (only if fileTableInMemory, else null)
+   * @param version the fileTableVersion of the fileTable
+   * @param nFiles the number of rows in the fileTable
+   * @param dataVariables the dataset's dataVariables
+   */
+  FileTableIndex(Table fileTable, long version, int nFiles, EDV[] dataVariables) {
+    this.fileTable = fileTable;
+    this.version = version;
+    this.nFiles = nFiles;
+    this.dataVariables = dataVariables;
+    variables = new VariableIndex[dataVariables.length];
+  }
+
+  /**
+   * This indicates if this index is for the specified fileTable.
+   *
+   * @param tFileTable the fileTable (only if fileTableInMemory, else null)
+   * @param tVersion the fileTableVersion of tFileTable
+   * @param tNFiles the number of rows in tFileTable
+   */
+  boolean isFor(Table tFileTable, long tVersion, int tNFiles) {
+    return fileTable == tFileTable && version == tVersion && nFiles == tNFiles;
+  }
+
+  /**
+   * This indicates if a variable can be indexed: numeric variables and numeric or yyyy... String
+   * EDVTimeStamp variables (for which min/max tests are valid).
+   *
+   * @param dv the index of the dataVariable
+   */
+  boolean canIndex(int dv) {
+    EDV edv = dataVariables[dv];
+    PAType paType = edv.sourceDataPAType();
+    if (edv instanceof EDVTimeStamp tdv)
+      return paType != PAType.STRING || tdv.sourceTimeFormat().toLowerCase().startsWith("yyyy");
+    return paType != PAType.STRING && paType != PAType.CHAR;
+  }
+
+  /**
+   * This gets the index for a variable, making it if needed.
+   *
+   * @param dv the index of the dataVariable (canIndex(dv) must be true)
+   * @param tFileTable the fileTable this index is for (isFor must be true)
+   */
+  private synchronized VariableIndex variable(int dv, Table tFileTable) {
+    VariableIndex vi = variables[dv];
+    if (vi != null) return vi;
+
+    vi = new VariableIndex();
+    PrimitiveArray minPA = tFileTable.getColumn(EDDTableFromFiles.dv0 + dv * 3 + 0);
+    PrimitiveArray maxPA = tFileTable.getColumn(EDDTableFromFiles.dv0 + dv * 3 + 1);
+    double[] mins = new double[nFiles];
+    double[] maxs = new double[nFiles];
+    if (dataVariables[dv] instanceof EDVTimeStamp tdv) {
+      // as in getDataForDapQuery: if min/max String times are invalid, act as if far in
+      // past/future
+      for (int f = 0; f < nFiles; f++) {
+        mins[f] = tdv.sourceTimeToEpochSeconds(minPA.getString(f));
+        maxs[f] = tdv.sourceTimeToEpochSeconds(maxPA.getString(f));
+        if (Double.isNaN(mins[f])) mins[f] = -1e100;
+        if (Double.isNaN(maxs[f])) maxs[f] = 1e100;
+      }
+      vi.epochMin = mins;
+      vi.epochMax = maxs;
+    } else {
+      for (int f = 0; f < nFiles; f++) {
+        mins[f] = minPA.getDouble(f);
+        maxs[f] = maxPA.getDouble(f);
+      }
+    }
+
+    int nNaN = 0;
+    for (int f = 0; f < nFiles; f++) if (Double.isNaN(mins[f]) || Double.isNaN(maxs[f])) nNaN++;
+    vi.nanFiles = new int[nNaN];
+    int[] files = new int[nFiles - nNaN];
+    nNaN = 0;
+    int n = 0;
+    for (int f = 0; f < nFiles; f++) {
+      if (Double.isNaN(mins[f]) || Double.isNaN(maxs[f])) vi.nanFiles[nNaN++] = f;
+      else files[n++] = f;
+    }
+    vi.byMin = sortFiles(files, mins);
+    vi.byMax = sortFiles(files, maxs);
+    vi.sortedMin = new double[n];
+    vi.sortedMax = new double[n];
+    for (int i = 0; i < n; i++) {
+      vi.sortedMin[i] = mins[vi.byMin[i]];
+      vi.sortedMax[i] = maxs[vi.byMax[i]];
+    }
+    variables[dv] = vi;
+    return vi;
+  }
+
+  /** This returns the files sorted by their values. */
+  private static int[] sortFiles(int[] files, double[] values) {
+    double[] fileValues = new double[files.length];
+    for (int i = 0; i < files.length; i++) fileValues[i] = values[files[i]];
+    int[] rank = new DoubleArray(fileValues).rank(true);
+    int[] sorted = new int[files.length];
+    for (int i = 0; i < files.length; i++) sorted[i] = files[rank[i]];
+    return sorted;
+  }
+
+  /**
+   * For an EDVTimeStamp variable, this returns each file's min time (in epochSeconds, with invalid
+   * times as -1e100).
+   *
+   * @param dv the index of the dataVariable (an EDVTimeStamp for which canIndex(dv) is true)
+   * @param tFileTable the fileTable this index is for (isFor must be true)
+   */
+  double[] epochMin(int dv, Table tFileTable) {
+    return variable(dv, tFileTable).epochMin;
+  }
+
+  /**
+   * For an EDVTimeStamp variable, this returns each file's max time (in epochSeconds, with invalid
+   * times as 1e100).
+   *
+   * @param dv the index of the dataVariable (an EDVTimeStamp for which canIndex(dv) is true)
+   * @param tFileTable the fileTable this index is for (isFor must be true)
+   */
+  double[] epochMax(int dv, Table tFileTable) {
+    return variable(dv, tFileTable).epochMax;
+  }
+
+  /**
+   * This returns the (generous) tolerance for the lookups. It is bigger than the differences
+   * allowed by isOK's almostEqual tests (at least 5 significant digits) and isOK's rounding of LONG
+   * min and max to integers.
+   */
+  private double tolerance(int dv, double value) {
+    return Math.abs(value) * 1e-4
+        + (dataVariables[dv].sourceDataPAType() == PAType.LONG ? 1 : 1e-4);
+  }
+
+  /**
+   * This finds the files which may have data matching a constraint.
+   *
+   * @param dv the index of the dataVariable (canIndex(dv) must be true)
+   * @param tFileTable the fileTable this index is for (isFor must be true)
+   * @param op the constraint's operator
+   * @param value the constraint's value (a source value, but epochSeconds for EDVTimeStamp)
+   * @return the candidate files, or null if this constraint can't be used to reject files (e.g., op
+   *     is != or value is NaN)
+   */
+  BitSet candidates(int dv, Table tFileTable, String op, double value) {
+    if (Double.isNaN(value)) return null;
+    boolean lt = op.equals("<") || op.equals("<=");
+    boolean gt = op.equals(">") || op.equals(">=");
+    boolean eq = op.equals("=");
+    if (!lt && !gt && !eq) return null;
+
+    VariableIndex vi = variable(dv, tFileTable);
+    double tol = tolerance(dv, value);
+    BitSet minOK = null;
+    BitSet maxOK = null;
+    if (lt || eq) {
+      // files with min <= value + tol
+      int n = upperBound(vi.sortedMin, value + tol);
+      minOK = new BitSet(nFiles);
+      for (int i = 0; i < n; i++) minOK.set(vi.byMin[i]);
+    }
+    if (gt || eq) {
+      // files with max >= value - tol
+      int n = vi.sortedMax.length;
+      maxOK = new BitSet(nFiles);
+      for (int i = lowerBound(vi.sortedMax, value - tol); i < n; i++) maxOK.set(vi.byMax[i]);
+    }
+    BitSet candidates = minOK == null ? maxOK : minOK;
+    if (minOK != null && maxOK != null) candidates.and(maxOK);
+    for (int f : vi.nanFiles) candidates.set(f);
+    return candidates;
+  }
+
+  /** This returns the index of the first value &gt; d (or values.length). */
+  private static int upperBound(double[] values, double d) {
+    int po = Arrays.binarySearch(values, d);
+    if (po < 0) return -po - 1;
+    while (po < values.length && values[po] <= d) po++;
+    return po;
+  }
+
+  /** This returns the index of the first value &gt;= d (or values.length). */
+  private static int lowerBound(double[] values, double d) {
+    int po = Arrays.binarySearch(values, d);
+    if (po < 0) return -po - 1;
+    while (po > 0 && values[po - 1] >= d) po--;
+    return po;
+  }
+}
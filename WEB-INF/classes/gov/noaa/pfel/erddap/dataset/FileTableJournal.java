@@ -0,0 +1,421 @@
+package gov.noaa.pfel.erddap.dataset;
+
+import com.cohort.array.PAType;
+import com.cohort.array.PrimitiveArray;
+import com.cohort.array.ShortArray;
+import com.cohort.array.StringArray;
+import com.cohort.util.File2;
+import com.cohort.util.Math2;
+import com.cohort.util.String2;
+import gov.noaa.pfel.coastwatch.pointdata.Table;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * This is an append-only journal of the changes to an EDDGridFromFiles or EDDTableFromFiles
+ * dataset's dirTable and fileTable. lowUpdate appends a record with its changes (new dirs, removed
+ * files, and the new or changed fileTable rows) to the journal instead of rewriting the whole
+ * dirTable.nc and fileTable.nc (the snapshot), which is slow for datasets with lots of files.
+ * JournaledDirFileTables replays the journal onto the snapshot (once after each change; the result
+ * is cached). The journal is compacted (i.e., a new snapshot is written and the journal is deleted)
+ * by EDD.saveDirTableFileTableBadFiles, which is called when the dataset is (re)loaded and when the
+ * journal gets too big. The per-dataset lock (see lock()) is held while the journal is appended to,
+ * replayed, or compacted.
+ *
+ * <p>Crash safety: Each record has a length and a CRC32, and is synced to disk before lowUpdate
+ * continues. When replaying, a record that is incomplete or has the wrong CRC (e.g., from a crash
+ * while it was being written) ends the replay, so the result is the snapshot plus all of the
+ * complete records before it, and replay indicates that the journal should be compacted. Each
+ * snapshot has a new random journalId (a global attribute of the dirTable and fileTable), which is
+ * also in the journal's header, so a journal is never applied to a different snapshot (e.g., if
+ * there is a crash after a new snapshot was written but before the old journal was deleted).
+ *
+ * <p>Record format: int RECORD_MAGIC, int payloadLength, byte[payloadLength] payload, long CRC32 of
+ * the payload. The payload is: int nDirsBefore, int nNewDirs, nNewDirs UTF dir names, int
+ * nFilesAfter, int nRemoved, nRemoved (int dirIndex, UTF fileName), int nColumns, nColumns (UTF
+ * columnName, UTF elementType), int nRows, then each column's values (PrimitiveArray.writeDos).
+ */
+class FileTableJournal {
+
+  /** The name of the journal file in the datasetDir. */
+  static final String FILENAME = "fileTable.journal";
+
+  /** The name of the dirTable and fileTable global attribute with the snapshot's journalId. */
+  static final String JOURNAL_ID = "_journalId_";
+
+  private static final int HEADER_MAGIC = 0x4654_4a31; // "FTJ1"
+  private static final int RECORD_MAGIC = 0x5245_4331; // "REC1"
+
+  /**
+   * The journal is compacted when it is bigger than this and more than 1/4 of the size of the
+   * fileTable.nc snapshot.
+   */
+  static final long MIN_COMPACT_BYTES = 1L << 20; // 1MB
+
+  /** This returns a new, random journalId for a new snapshot. */
+  static String newId() {
+    return Long.toHexString(Math2.random(Integer.MAX_VALUE)) + Long.toHexString(System.nanoTime());
+  }
+
+  /** The key for a file: dirIndex/fileName (as in badFileMap). */
+  static String key(int dirIndex, String fileName) {
+    return dirIndex + "/" + fileName;
+  }
+
+  /**
+   * This appends a record with the changes made by lowUpdate to the journal (creating the journal
+   * if needed). This doesn't change the tables.
+   *
+   * @param dir the datasetDir
+   * @param dirTable the new dirTable (the new dirs are at the end)
+   * @param nOldDirs the number of rows in the dirTable before the changes
+   * @param fileTable the new fileTable
+   * @param changedFiles the keys (see key()) of the files that were added or changed
+   * @param removedFiles the keys (see key()) of the files that were removed
+   * @return true if the record was appended, or false if the journal can't be used (e.g., the
+   *     tables don't have the journal's journalId) or it is time to compact the journal, so the
+   *     caller should save the tables with EDD.saveDirTableFileTableBadFiles instead
+   * @throws Exception if trouble (a partially written record will be ignored by replay)
+   */
+  static boolean append(
+      String dir,
+      Table dirTable,
+      int nOldDirs,
+      Table fileTable,
+      Set<String> changedFiles,
+      Set<String> removedFiles)
+      throws Exception {
+    String id = fileTable.globalAttributes().getString(JOURNAL_ID);
+    if (id == null || !id.equals(dirTable.globalAttributes().getString(JOURNAL_ID))) return false;
+
+    String fileName = dir + FILENAME;
+    long length = File2.length(fileName); // -1 if it doesn't exist
+    if (length >= 0) {
+      if (length > Math.max(MIN_COMPACT_BYTES, File2.length(dir + EDD.FILE_TABLE_FILENAME) / 4))
+        return false;
+      if (!id.equals(readHeaderId(fileName))) return false;
+    }
+
+    // the payload
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    DataOutputStream dos = new DataOutputStream(baos);
+    StringArray dirList = (StringArray) dirTable.getColumn(0);
+    int nDirs = dirList.size();
+    dos.writeInt(nOldDirs);
+    dos.writeInt(nDirs - nOldDirs);
+    for (int i = nOldDirs; i < nDirs; i++) dos.writeUTF(dirList.get(i));
+
+    dos.writeInt(fileTable.nRows());
+    dos.writeInt(removedFiles.size());
+    for (String removed : removedFiles) {
+      int po = removed.indexOf('/');
+      dos.writeInt(String2.parseInt(removed.substring(0, po)));
+      dos.writeUTF(removed.substring(po + 1));
+    }
+
+    // the rows of the changed files
+    ShortArray ftDirIndex = (ShortArray) fileTable.getColumn(0);
+    StringArray ftFileList = (StringArray) fileTable.getColumn(1);
+    Set<String> changedNames = new HashSet<>();
+    for (String changed : changedFiles)
+      changedNames.add(changed.substring(changed.indexOf('/') + 1));
+    BitSet rows = new BitSet();
+    int nRows = fileTable.nRows();
+    for (int row = 0; row < nRows; row++) {
+      String name = ftFileList.get(row);
+      if (changedNames.contains(name) && changedFiles.contains(key(ftDirIndex.get(row), name)))
+        rows.set(row);
+    }
+    int nColumns = fileTable.nColumns();
+    dos.writeInt(nColumns);
+    for (int col = 0; col < nColumns; col++) {
+      dos.writeUTF(fileTable.getColumnName(col));
+      dos.writeUTF(fileTable.getColumn(col).elementTypeString());
+    }
+    dos.writeInt(rows.cardinality());
+    for (int col = 0; col < nColumns; col++) {
+      PrimitiveArray pa = fileTable.getColumn(col);
+      for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1))
+        pa.writeDos(dos, row);
+    }
+    dos.flush();
+    byte[] payload = baos.toByteArray();
+
+    // the record
+    CRC32 crc = new CRC32();
+    crc.update(payload);
+    baos = new ByteArrayOutputStream(payload.length + 16);
+    dos = new DataOutputStream(baos);
+    if (length < 0) {
+      dos.writeInt(HEADER_MAGIC);
+      dos.writeUTF(id);
+    }
+    dos.writeInt(RECORD_MAGIC);
+    dos.writeInt(payload.length);
+    dos.write(payload);
+    dos.writeLong(crc.getValue());
+    dos.flush();
+    try (FileOutputStream fos = new FileOutputStream(fileName, true)) { // true=append
+      fos.write(baos.toByteArray());
+      fos.getFD().sync(); // so the record is really on disk before the change is visible
+    }
+    return true;
+  }
+
+  /**
+   * This locks a dataset's journal. The lock is held while the journal is appended to, replayed, or
+   * compacted, so a replay never sees a partially written record or a journal for a different
+   * snapshot. The caller must unlock it.
+   *
+   * @param dir the datasetDir
+   * @return the locked lock
+   * @throws Exception if timeout
+   */
+  static ReentrantLock lock(String dir) throws Exception {
+    ReentrantLock lock = String2.canonicalLock(String2.canonical(dir + FILENAME));
+    if (!lock.tryLock(String2.longTimeoutSeconds, TimeUnit.SECONDS))
+      throw new TimeoutException("Timeout waiting for lock on the fileTable journal.");
+    return lock;
+  }
+
+  /**
+   * This returns the journalId in a dataset's journal's header.
+   *
+   * @param dir the datasetDir
+   * @return the journalId, or null if there is no journal or the header is incomplete
+   */
+  static String headerId(String dir) throws Exception {
+    String fileName = dir + FILENAME;
+    return File2.isFile(fileName) ? readHeaderId(fileName) : null;
+  }
+
+  /**
+   * This returns the journalId in a journal's header.
+   *
+   * @return the journalId, or null if the header is incomplete
+   */
+  private static String readHeaderId(String fileName) throws Exception {
+    try (DataInputStream dis =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)))) {
+      return dis.readInt() == HEADER_MAGIC ? dis.readUTF() : null;
+    } catch (EOFException e) {
+      return null;
+    }
+  }
+
+  /**
+   * This replays the journal's records onto the dirTable or fileTable (from the snapshot). For the
+   * fileTable, the new rows are added at the end, so the caller needs to sort the table if the rows
+   * are supposed to be in a particular order.
+   *
+   * @param dir the datasetDir
+   * @param table the dirTable or fileTable from the snapshot, which will be modified
+   * @param isFileTable true if table is the fileTable
+   * @return true if the journal ended with an incomplete or invalid record, or has no complete
+   *     records (so the journal should be compacted soon). The caller must hold the journal's lock
+   *     (see lock()), so a record that is being appended isn't seen.
+   * @throws Exception if the journal doesn't fit the table (so the snapshot and journal should be
+   *     deleted and the dataset reloaded from the source files)
+   */
+  static boolean replay(String dir, Table table, boolean isFileTable) throws Exception {
+    String fileName = dir + FILENAME;
+    if (!File2.isFile(fileName)) return false;
+    String id = table.globalAttributes().getString(JOURNAL_ID);
+    if (id == null) return false; // a snapshot from before journals, so the journal is stale
+    long time = System.currentTimeMillis();
+    long fileLength = File2.length(fileName);
+    long po = 0;
+    int nRecords = 0;
+    boolean torn = false;
+    FileTableState state = isFileTable ? new FileTableState(table) : null;
+    try (DataInputStream dis =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)))) {
+      try {
+        if (dis.readInt() != HEADER_MAGIC) return true;
+        String journalId = dis.readUTF();
+        if (!id.equals(journalId)) return false; // a journal for a different snapshot
+      } catch (EOFException e) {
+        return true;
+      }
+      po = 4 + 2 + id.length(); // the header (the journalId is ASCII)
+
+      while (po < fileLength) {
+        int magic = dis.readInt();
+        int payloadLength = magic == RECORD_MAGIC ? dis.readInt() : -1;
+        if (payloadLength <= 0 || po + 16 + payloadLength > fileLength) {
+          torn = true;
+          break;
+        }
+        byte[] payload = new byte[payloadLength];
+        dis.readFully(payload);
+        long expectedCrc = dis.readLong();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if (crc.getValue() != expectedCrc) {
+          torn = true;
+          break;
+        }
+        if (isFileTable) state.apply(payload);
+        else applyToDirTable(table, payload);
+        po += 16 + payloadLength;
+        nRecords++;
+      }
+    } catch (EOFException e) {
+      torn = true; // the last record is incomplete
+    }
+    // the header is only written with the first record
+    if (nRecords == 0) torn = true;
+    if (isFileTable) state.finish();
+    if (EDD.verbose && (nRecords > 0 || torn))
+      String2.log(
+          "FileTableJournal replayed "
+              + nRecords
+              + " records onto the "
+              + (isFileTable ? "fileTable" : "dirTable")
+              + (torn ? " (and found an incomplete record at byte " + po + ")" : "")
+              + " time="
+              + (System.currentTimeMillis() - time)
+              + "ms");
+    return torn;
+  }
+
+  /** This applies a record's new dirs to the dirTable. */
+  private static void applyToDirTable(Table dirTable, byte[] payload) throws Exception {
+    DataInputStream dis = new DataInputStream(new ByteArrayInputStream(payload));
+    StringArray dirList = (StringArray) dirTable.getColumn(0);
+    int nDirsBefore = dis.readInt();
+    int nNewDirs = dis.readInt();
+    for (int i = 0; i < nNewDirs; i++) {
+      String dirName = dis.readUTF();
+      int index = nDirsBefore + i;
+      if (index == dirList.size()) dirList.add(dirName);
+      else if (index > dirList.size() || !dirList.get(index).equals(dirName))
+        throw new RuntimeException(
+            "The fileTable journal doesn't match the dirTable (dir #" + index + ").");
+    }
+  }
+
+  /** The fileTable while records are being applied. */
+  private static class FileTableState {
+    final Table table;
+    final ShortArray ftDirIndex;
+    final StringArray ftFileList;
+    final Map<String, Integer> rowOfKey = new HashMap<>();
+    final BitSet removed = new BitSet();
+
+    FileTableState(Table table) {
+      this.table = table;
+      ftDirIndex = (ShortArray) table.getColumn(0);
+      ftFileList = (StringArray) table.getColumn(1);
+      int nRows = table.nRows();
+      for (int row = 0; row < nRows; row++)
+        rowOfKey.put(key(ftDirIndex.get(row), ftFileList.get(row)), row);
+    }
+
+    /** This applies a record's removed files and changed rows to the fileTable. */
+    void apply(byte[] payload) throws Exception {
+      DataInputStream dis = new DataInputStream(new ByteArrayInputStream(payload));
+      dis.readInt(); // nDirsBefore
+      int nNewDirs = dis.readInt();
+      for (int i = 0; i < nNewDirs; i++) dis.readUTF();
+      int nFilesAfter = dis.readInt();
+
+      int nRemoved = dis.readInt();
+      for (int i = 0; i < nRemoved; i++) {
+        Integer row = rowOfKey.remove(key(dis.readInt(), dis.readUTF()));
+        if (row != null) removed.set(row);
+      }
+
+      int nColumns = dis.readInt();
+      if (nColumns != table.nColumns())
+        throw new RuntimeException(
+            "The fileTable journal has nColumns="
+                + nColumns
+                + ", but the fileTable has "
+                + table.nColumns()
+                + ".");
+      int tableCol[] = new int[nColumns];
+      PAType paTypes[] = new PAType[nColumns];
+      for (int col = 0; col < nColumns; col++) {
+        String name = dis.readUTF();
+        paTypes[col] = PAType.fromCohortString(dis.readUTF());
+        tableCol[col] = table.findColumnNumber(name);
+        if (tableCol[col] < 0 || table.getColumn(tableCol[col]).elementType() != paTypes[col])
+          throw new RuntimeException(
+              "The fileTable journal's column "
+                  + name
+                  + " ("
+                  + paTypes[col]
+                  + ") isn't in the fileTable.");
+      }
+      int nRows = dis.readInt();
+      PrimitiveArray pas[] = new PrimitiveArray[nColumns];
+      for (int col = 0; col < nColumns; col++) {
+        pas[col] = PrimitiveArray.factory(paTypes[col], nRows, false);
+        pas[col].readDis(dis, nRows);
+      }
+
+      // the key columns of the changed rows
+      int keyDirIndex = -1;
+      int keyFileName = -1;
+      for (int col = 0; col < nColumns; col++) {
+        if (tableCol[col] == 0) keyDirIndex = col;
+        else if (tableCol[col] == 1) keyFileName = col;
+      }
+      for (int i = 0; i < nRows; i++) {
+        String key = key(pas[keyDirIndex].getInt(i), pas[keyFileName].getString(i));
+        Integer row = rowOfKey.get(key);
+        if (row == null) {
+          row = table.nRows();
+          for (int col = 0; col < nColumns; col++)
+            table.getColumn(tableCol[col]).addFromPA(pas[col], i);
+          rowOfKey.put(key, row);
+        } else {
+          for (int col = 0; col < nColumns; col++)
+            table.getColumn(tableCol[col]).setFromPA(row, pas[col], i);
+        }
+      }
+
+      if (rowOfKey.size() != nFilesAfter)
+        throw new RuntimeException(
+            "The fileTable journal expected nFiles="
+                + nFilesAfter
+                + ", but the replayed fileTable has "
+                + rowOfKey.size()
+                + ".");
+    }
+
+    /** This removes the rows of the removed files. */
+    void finish() {
+      if (removed.isEmpty()) return;
+      BitSet keep = new BitSet();
+      keep.set(0, table.nRows());
+      keep.andNot(removed);
+      table.justKeep(keep);
+    }
+  }
+
+  /**
+   * This deletes a dataset's journal.
+   *
+   * @param dir the datasetDir
+   */
+  static void delete(String dir) {
+    File2.delete(dir + FILENAME); // no error if it doesn't exist
+  }
+}
@@ -28,4 +28,10 @@ public interface FromErddap {
 
   /** This indicates whether user requests should be redirected. */
   public boolean redirect();
+
+  /**
+   * This indicates whether the source ERDDAP's responses can be passed through to the user as is,
+   * i.e., this dataset doesn't override the source's metadata (see EDD.hasMetadataOverrides).
+   */
+  public boolean canPassThrough();
 }
@@ -0,0 +1,378 @@
+package gov.noaa.pfel.erddap.dataset;
+
+import com.cohort.array.IntArray;
+import com.cohort.array.PAType;
+import com.cohort.array.PrimitiveArray;
+import com.cohort.util.File2;
+import com.cohort.util.MustBe;
+import com.cohort.util.String2;
+import gov.noaa.pfel.coastwatch.util.FileVisitorDNLS;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+
+/**
+ * This is a persistent on-disk cache of chunks of a grid dataset's data variables, for datasets
+ * (e.g., EDDGridFromDap) where getting data from the source is slow. Each axis is divided into
+ * fixed-length chunks (in the index space of the request's stride), so overlapping requests (e.g.,
+ * map tiles for the latest time) need the same chunks and reuse the stored files. A chunk's file
+ * name is a hash of the cache's generation, the source url, the variable's sourceName, the chunk's
+ * [start:stride:stop] constraint, and the axis values at the ends of the chunk. So a change to the
+ * axis values makes new chunks, but the cache can't tell if the source revised data values in place
+ * (with the same axis values): those chunks are stale until the dataset is hard flagged. The
+ * generation is stored in a file in the dataset's cache info directory, which a hard flag deletes
+ * (see EDD.deleteCachedDatasetInfo), so the reloaded dataset gets a new generation and never uses
+ * the old chunks (which pruneCache removes eventually).
+ *
+ * <p>The total size of the files is limited to maxSizeB by FileVisitorDNLS.pruneCache, which
+ * removes the least recently used files (each use of a file touches it). When the dataset's
+ * leftmost axis gets new values (see EDDGridFromDap.lowUpdate), removeTail removes the chunks at
+ * the end of the leftmost axis, since the source's last values are often revised.
+ *
+ * <p>This is thread-safe: chunk files are written to a temporary file, then renamed, and a file
+ * which can't be read (e.g., because it was just pruned) is just read from the source again.
+ */
+class GridChunkCache {
+
+  /** The maximum number of values in a chunk. */
+  static final int MAX_CHUNK_VALUES = 1 << 16;
+
+  /** The maximum length of a chunk along an axis, so chunks of 2D slices are roughly square. */
+  static final int MAX_CHUNK_LENGTH = 256;
+
+  /**
+   * The cache isn't used for requests that are less than 1/this of the chunks that cover them
+   * (e.g., a single row of a grid), since reading whole chunks would be too inefficient.
+   */
+  static final int MAX_OVERREAD = 4;
+
+  /** This reads one chunk from the source. */
+  @FunctionalInterface
+  interface ChunkReader {
+    /**
+     * @param constraint the chunk's constraint, e.g., [0:1:0][100:1:355][0:1:255]
+     * @return the data values (in row-major order)
+     */
+    PrimitiveArray read(String constraint) throws Throwable;
+  }
+
+  /** The name of the file (in the dataset's cache info directory) with the cache's generation. */
+  static final String GENERATION_FILE_NAME = "gridChunkCacheGeneration.txt";
+
+  final String dir;
+  final long maxSizeB;
+  final String generation;
+  private final int chunkLength[];
+
+  /**
+   * The constructor.
+   *
+   * @param dir the cache directory (with slash at end). It will be created if needed.
+   * @param maxSizeB the maximum total size of the cached files
+   * @param generationFullName the full name of the file with the cache's generation (usually
+   *     EDD.datasetDir() + GENERATION_FILE_NAME). If it doesn't exist (e.g., the dataset was hard
+   *     flagged), it is created with a new generation, so the old chunks aren't used.
+   * @param axisSizes the current number of source values of each axis
+   */
+  GridChunkCache(String dir, long maxSizeB, String generationFullName, int axisSizes[]) {
+    this.dir = File2.addSlash(dir);
+    this.maxSizeB = maxSizeB;
+    chunkLength = chunkLengths(axisSizes);
+    File2.makeDirectory(this.dir);
+    generation = generation(generationFullName);
+  }
+
+  /**
+   * This reads the generation from the file or, if the file doesn't exist, writes a new generation
+   * (the current time) to the file.
+   *
+   * @param generationFullName the full name of the generation file
+   * @return the generation
+   */
+  static String generation(String generationFullName) {
+    if (File2.isFile(generationFullName)) {
+      String results[] = File2.readFromFile88591(generationFullName);
+      String tGeneration = results[1].trim();
+      if (results[0].length() == 0 && tGeneration.length() > 0) return tGeneration;
+    }
+    String tGeneration = "" + System.currentTimeMillis();
+    File2.makeDirectory(File2.getDirectory(generationFullName));
+    String error = File2.writeToFile88591(generationFullName, tGeneration);
+    if (error.length() > 0)
+      // the new generation is still okay for this instance, so it won't use stale chunks
+      String2.log("GridChunkCache couldn't write " + generationFullName + ": " + error);
+    return tGeneration;
+  }
+
+  /**
+   * This chooses the chunk length for each axis: up to MAX_CHUNK_LENGTH for the rightmost axes (but
+   * not longer than the axis) and 1 for the leftmost axes, so a chunk has at most MAX_CHUNK_VALUES.
+   * The leftmost axis's size isn't used since it may grow.
+   *
+   * @param axisSizes the current number of source values of each axis
+   * @return the chunk length for each axis
+   */
+  static int[] chunkLengths(int axisSizes[]) {
+    int nAxes = axisSizes.length;
+    int tChunkLength[] = new int[nAxes];
+    long nValues = 1;
+    for (int av = nAxes - 1; av >= 0; av--) {
+      long length = Math.min(MAX_CHUNK_LENGTH, Math.max(1, MAX_CHUNK_VALUES / nValues));
+      if (av > 0) length = Math.min(length, Math.max(1, axisSizes[av]));
+      tChunkLength[av] = (int) length;
+      nValues *= length;
+    }
+    return tChunkLength;
+  }
+
+  /**
+   * This gets the data for a request, from cached chunks and (for chunks that aren't cached) from
+   * the reader.
+   *
+   * @param sourceUrl the dataset's sourceUrl
+   * @param sourceName the data variable's sourceName
+   * @param axisValues the source values of each axis
+   * @param constraints the request: av*3+0=startIndex, av*3+1=stride, av*3+2=stopIndex
+   * @param reader which reads a chunk from the source
+   * @return the requested data values (in row-major order), or null if this request shouldn't use
+   *     the cache (see MAX_OVERREAD)
+   * @throws Throwable if trouble
+   */
+  PrimitiveArray get(
+      String sourceUrl,
+      String sourceName,
+      PrimitiveArray axisValues[],
+      IntArray constraints,
+      ChunkReader reader)
+      throws Throwable {
+
+    // for each axis: the request's phase, k (strided index) range, and chunk range
+    int nAxes = axisValues.length;
+    int last = nAxes - 1;
+    int stride[] = new int[nAxes];
+    int phase[] = new int[nAxes];
+    int kStart[] = new int[nAxes];
+    int kMax[] = new int[nAxes]; // the last valid k
+    int nK[] = new int[nAxes]; // the number of requested values
+    int cStart[] = new int[nAxes];
+    int nC[] = new int[nAxes]; // the number of chunks
+    long nRequested = 1;
+    long nCovered = 1;
+    for (int av = 0; av < nAxes; av++) {
+      int start = constraints.get(av * 3);
+      stride[av] = constraints.get(av * 3 + 1);
+      int stop = constraints.get(av * 3 + 2);
+      phase[av] = start % stride[av];
+      kStart[av] = (start - phase[av]) / stride[av];
+      nK[av] = (stop - phase[av]) / stride[av] - kStart[av] + 1;
+      kMax[av] = (axisValues[av].size() - 1 - phase[av]) / stride[av];
+      cStart[av] = kStart[av] / chunkLength[av];
+      int cStop = (kStart[av] + nK[av] - 1) / chunkLength[av];
+      nC[av] = cStop - cStart[av] + 1;
+      nRequested *= nK[av];
+      nCovered *=
+          Math.min(kMax[av], (cStop + 1L) * chunkLength[av] - 1)
+              - (long) cStart[av] * chunkLength[av]
+              + 1;
+    }
+    if (nCovered > MAX_OVERREAD * nRequested) return null;
+
+    // get the chunks (in row-major order)
+    int nChunks = 1;
+    for (int av = 0; av < nAxes; av++) nChunks *= nC[av];
+    PrimitiveArray chunks[] = new PrimitiveArray[nChunks];
+    int c[] = new int[nAxes]; // the current chunk on each axis (relative to cStart)
+    for (int ci = 0; ci < nChunks; ci++) {
+      chunks[ci] =
+          getChunk(sourceUrl, sourceName, axisValues, stride, phase, kMax, c, cStart, reader);
+      for (int av = last; av >= 0; av--) {
+        if (++c[av] < nC[av]) break;
+        c[av] = 0;
+      }
+    }
+
+    // assemble the results in row-major order, one run along the rightmost axis at a time
+    PrimitiveArray results =
+        PrimitiveArray.factory(chunks[0].elementType(), Math.toIntExact(nRequested), false);
+    int k[] = new int[nAxes]; // the current k on each axis (relative to kStart)
+    long nRuns = nRequested / nK[last];
+    for (long run = 0; run < nRuns; run++) {
+      k[last] = 0;
+      while (k[last] < nK[last]) {
+        // find the chunk with k[] and k[]'s offset in that chunk
+        int ci = 0;
+        int offset = 0;
+        for (int av = 0; av < nAxes; av++) {
+          int kk = kStart[av] + k[av];
+          int tc = kk / chunkLength[av];
+          int k0 = tc * chunkLength[av];
+          ci = ci * nC[av] + (tc - cStart[av]);
+          offset = offset * (Math.min(kMax[av], k0 + chunkLength[av] - 1) - k0 + 1) + (kk - k0);
+        }
+        // the run continues to the end of the chunk (or the request)
+        int kk = kStart[last] + k[last];
+        int chunkEnd = Math.min(kMax[last], (kk / chunkLength[last] + 1) * chunkLength[last] - 1);
+        int n = Math.min(nK[last] - k[last], chunkEnd - kk + 1);
+        results.addFromPA(chunks[ci], offset, n);
+        k[last] += n;
+      }
+
+      // next run
+      for (int av = last - 1; av >= 0; av--) {
+        if (++k[av] < nK[av]) break;
+        k[av] = 0;
+      }
+    }
+    return results;
+  }
+
+  /**
+   * This gets one chunk, from the cache or (if it isn't cached) from the reader (and caches it).
+   *
+   * @param stride the request's stride on each axis
+   * @param phase the request's start % stride on each axis
+   * @param kMax the last valid strided index on each axis
+   * @param c the chunk's number on each axis, relative to cStart
+   * @param cStart the request's first chunk number on each axis
+   * @param reader which reads a chunk from the source
+   * @return the chunk's data values (in row-major order)
+   */
+  private PrimitiveArray getChunk(
+      String sourceUrl,
+      String sourceName,
+      PrimitiveArray axisValues[],
+      int stride[],
+      int phase[],
+      int kMax[],
+      int c[],
+      int cStart[],
+      ChunkReader reader)
+      throws Throwable {
+
+    int nAxes = axisValues.length;
+    StringBuilder constraint = new StringBuilder();
+    StringBuilder key = new StringBuilder(generation + "\n" + sourceUrl + "\n" + sourceName + "\n");
+    long nValues = 1;
+    int start0 = 0;
+    int stop0 = 0;
+    for (int av = 0; av < nAxes; av++) {
+      int k0 = (cStart[av] + c[av]) * chunkLength[av];
+      int k1 = Math.min(kMax[av], k0 + chunkLength[av] - 1);
+      int start = phase[av] + k0 * stride[av];
+      int stop = phase[av] + k1 * stride[av];
+      if (av == 0) {
+        start0 = start;
+        stop0 = stop;
+      }
+      nValues *= k1 - k0 + 1;
+      constraint.append("[" + start + ":" + stride[av] + ":" + stop + "]");
+      key.append(axisValues[av].getString(start) + "," + axisValues[av].getString(stop) + "\n");
+    }
+    key.append(constraint);
+
+    // The file name starts with the leftmost axis's start, stride, and stop, for removeTail.
+    String fileName =
+        start0 + "_" + stride[0] + "_" + stop0 + "_" + String2.md5Hex(key.toString()) + ".chunk";
+    String fullName = dir + fileName;
+
+    // in the cache?
+    if (File2.isFile(fullName)) {
+      try {
+        PrimitiveArray pa = readChunk(fullName);
+        if (pa.size() == nValues) {
+          File2.touch(fullName); // mark it as recently used
+          return pa;
+        }
+      } catch (Throwable t) {
+        // e.g., it was just pruned. Get it from the source.
+        String2.log("GridChunkCache couldn't read " + fullName + ": " + t);
+      }
+    }
+
+    // get it from the source
+    PrimitiveArray pa = reader.read(constraint.toString());
+    if (pa.size() != nValues)
+      throw new RuntimeException(
+          "The source returned "
+              + pa.size()
+              + " values for "
+              + sourceName
+              + constraint
+              + " (expected "
+              + nValues
+              + ").");
+
+    // store it (prune first, so as not to prune the new file)
+    try {
+      FileVisitorDNLS.pruneCache(dir, maxSizeB, FileVisitorDNLS.PRUNE_CACHE_DEFAULT_FRACTION);
+      String tempName = fullName + Thread.currentThread().threadId() + ".temp";
+      writeChunk(tempName, pa);
+      File2.rename(tempName, fullName);
+      FileVisitorDNLS.incrementPruneCacheDirSize(dir, File2.length(fullName));
+    } catch (Throwable t) {
+      // the data is still okay
+      String2.log(
+          "GridChunkCache couldn't store " + fullName + ":\n" + MustBe.throwableToString(t));
+    }
+    return pa;
+  }
+
+  /** This writes a chunk file. */
+  private static void writeChunk(String fullName, PrimitiveArray pa) throws Exception {
+    try (DataOutputStream dos =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fullName)))) {
+      dos.writeUTF(pa.elementTypeString());
+      dos.writeBoolean(pa.getMaxIsMV());
+      dos.writeInt(pa.size());
+      pa.writeDos(dos);
+    }
+  }
+
+  /** This reads a chunk file. */
+  private static PrimitiveArray readChunk(String fullName) throws Exception {
+    try (DataInputStream dis =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(fullName)))) {
+      PAType paType = PAType.fromCohortString(dis.readUTF());
+      boolean maxIsMV = dis.readBoolean();
+      int n = dis.readInt();
+      PrimitiveArray pa = PrimitiveArray.factory(paType, n, false);
+      pa.readDis(dis, n);
+      pa.setMaxIsMV(maxIsMV);
+      return pa;
+    }
+  }
+
+  /**
+   * This removes the cached chunks which include the last oldSize values of the leftmost axis (the
+   * chunks whose next strided index was beyond the end of the axis). Call this when the leftmost
+   * axis gets new values.
+   *
+   * @param oldSize the previous size of the leftmost axis
+   * @return the number of files removed
+   */
+  int removeTail(int oldSize) {
+    String names[] = new File(dir).list();
+    if (names == null) return 0;
+    int nRemoved = 0;
+    for (String name : names) {
+      if (!name.endsWith(".chunk")) continue;
+      String parts[] = String2.split(name, '_');
+      if (parts.length < 4) continue;
+      int stride = String2.parseInt(parts[1]);
+      int stop = String2.parseInt(parts[2]);
+      if (stride == Integer.MAX_VALUE || stop == Integer.MAX_VALUE) continue;
+      if ((long) stop + stride >= oldSize) {
+        long length = File2.length(dir + name);
+        if (File2.simpleDelete(dir + name)) {
+          FileVisitorDNLS.incrementPruneCacheDirSize(dir, -Math.max(0, length));
+          nRemoved++;
+        }
+      }
+    }
+    return nRemoved;
+  }
+}
@@ -27,8 +27,14 @@ import gov.noaa.pfel.erddap.variable.EDV;
 import gov.noaa.pfel.erddap.variable.EDVGridAxis;
 import java.io.RandomAccessFile;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class provides sequential access to the grid data requested by a grid data query to an
@@ -44,6 +50,11 @@ import java.util.concurrent.ExecutionException;
  * <p>The constructor does not get any data from the source. The first call to increment() causes
  * the first partial response to be obtained from the source.
  *
+ * <p>If eddGrid.readAheadChunks() &gt; 0 (and there is enough memory), the next few chunks are
+ * obtained from the source in other threads while the caller is working with the current chunk, so
+ * that reading from the source overlaps with writing the response. The chunks are still made
+ * available in the same order.
+ *
  * @author Bob Simons (was bob.simons@noaa.gov, now BobSimons2.00@gmail.com) 2007-07-06
  */
 public class GridDataAccessor implements AutoCloseable {
@@ -66,6 +77,37 @@ public class GridDataAccessor implements AutoCloseable {
    */
   public static final boolean debugMode = false;
 
+  private static final AtomicInteger readAheadThreadNumber = new AtomicInteger();
+
+  /**
+   * The threads (shared by all GridDataAccessors) which get chunks before they are needed. Each
+   * GridDataAccessor has at most readAheadChunks + 1 chunks in the queue or in progress, and the
+   * number of threads is fixed (the larger of 2 and the number of processors), so the total number
+   * of chunks being read ahead is limited no matter how many requests are in progress; additional
+   * chunks wait in the queue (in the order they were requested). Idle threads time out.
+   */
+  private static final ThreadPoolExecutor readAheadExecutor;
+
+  static {
+    int n = Math.max(2, Runtime.getRuntime().availableProcessors());
+    readAheadExecutor =
+        new ThreadPoolExecutor(
+            n,
+            n,
+            60,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            runnable -> {
+              Thread thread =
+                  new Thread(
+                      runnable,
+                      "GridDataAccessor-readAhead" + readAheadThreadNumber.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+    readAheadExecutor.allowCoreThreadTimeOut(true);
+  }
+
   // things passed into the constructor
   protected final int language;
   protected final EDDGrid eddGrid;
@@ -89,6 +131,11 @@ public class GridDataAccessor implements AutoCloseable {
   protected PrimitiveArray partialDataValues[]; // [dv in the query]
   protected long totalNBytes;
   protected int chunk = 0; // the next chunk to be gotten by getChunk
+  protected int readAheadChunks = 0; // 0=off. max number of chunks gotten before they are needed
+  // readAheadIndex runs ahead of driverIndex. null if readAheadChunks=0
+  protected NDimensionalIndex readAheadIndex;
+  // the chunks being gotten in other threads, in driverIndex order
+  protected final ArrayDeque<Future<PrimitiveArray[]>> readAheadQueue = new ArrayDeque<>();
 
   protected Table tDirTable, tFileTable; // null, unless eddGrid is EDDGridFromFiles
 
@@ -356,9 +403,22 @@ public class GridDataAccessor implements AutoCloseable {
     tFileTable = eddGrid.getFileTable();
 
     // finish up
-    Math2.ensureMemoryAvailable(nBytesPerPartialRequest, "GridDataAccessor");
     driverIndex = new NDimensionalIndex(driverShape);
     partialIndex = new NDimensionalIndex(partialShape);
+
+    // read ahead? Limit it by the number of chunks and by the memory available
+    // (leave at least half of what is available for other requests)
+    readAheadChunks =
+        (int) Math.max(0, Math.min(eddGrid.readAheadChunks(), driverIndex.size() - 1));
+    if (readAheadChunks > 0 && nBytesPerPartialRequest >= Math2.alwaysOkayMemoryRequest) {
+      long available = Math2.maxSafeMemory - Math2.getMemoryInUse() - nBytesPerPartialRequest;
+      readAheadChunks =
+          (int) Math.max(0, Math.min(readAheadChunks, available / 2 / nBytesPerPartialRequest));
+    }
+    // the current chunk + the chunks being read ahead
+    Math2.ensureMemoryAvailable(
+        (readAheadChunks + 1) * nBytesPerPartialRequest, "GridDataAccessor");
+    if (readAheadChunks > 0) readAheadIndex = new NDimensionalIndex(driverShape);
     Math2.ensureArraySizeOkay(
         driverIndex.size(),
         "GridDataAccessor"); // ensure not >Integer.MAX_VALUE chunks (will never finish!)
@@ -380,7 +440,9 @@ public class GridDataAccessor implements AutoCloseable {
               + "\n      nBytesPerPartialRequest="
               + nBytesPerPartialRequest
               + " totalNBytes="
-              + totalNBytes);
+              + totalNBytes
+              + " readAheadChunks="
+              + readAheadChunks);
   }
 
   /**
@@ -588,16 +650,20 @@ public class GridDataAccessor implements AutoCloseable {
     }
 
     try {
-      System.arraycopy(
-          getChunk(this, driverIndex.getCurrent()),
-          0,
-          partialDataValues,
-          0,
-          partialDataValues.length);
+      PrimitiveArray[] chunkDataValues;
+      if (readAheadIndex == null) {
+        chunkDataValues = getChunk(this, driverIndex.getCurrent());
+      } else {
+        // the first future in the queue is for this chunk (driverIndex)
+        fillReadAheadQueue();
+        chunkDataValues = readAheadQueue.removeFirst().get();
+      }
+      System.arraycopy(chunkDataValues, 0, partialDataValues, 0, partialDataValues.length);
 
     } catch (Throwable t) {
       // throwable while getting a chunk
       // shut everything down
+      cancelReadAhead();
 
       while (t instanceof ExecutionException) // may be doubly wrapped
       t = t.getCause();
@@ -632,6 +698,27 @@ public class GridDataAccessor implements AutoCloseable {
     // String2.pressEnterToContinue("chunk=" + chunk + " task=" + task + " at end of getChunk.");
   }
 
+  /**
+   * This starts getting chunks (in other threads) until the queue has the current chunk and the
+   * readAheadChunks chunks after it (or there are no more chunks). So at most readAheadChunks + 1
+   * chunks are in memory at once (as checked by the constructor). This increments the
+   * readAheadIndex.
+   */
+  private void fillReadAheadQueue() {
+    while (readAheadQueue.size() <= readAheadChunks) {
+      boolean incremented = rowMajor ? readAheadIndex.increment() : readAheadIndex.incrementCM();
+      if (!incremented) return;
+      int[] driverCurrent = readAheadIndex.getCurrent().clone(); // getCurrent is reused
+      readAheadQueue.add(readAheadExecutor.submit(() -> getChunk(this, driverCurrent)));
+    }
+  }
+
+  /** This cancels (and interrupts) the chunks which are being gotten in other threads. */
+  private void cancelReadAhead() {
+    Future<PrimitiveArray[]> future;
+    while ((future = readAheadQueue.pollFirst()) != null) future.cancel(true);
+  }
+
   private PrimitiveArray[] getChunk(GridDataAccessor gda, int[] driverCurrent) throws Exception {
     try {
       long time = System.currentTimeMillis();
@@ -868,6 +955,7 @@ public class GridDataAccessor implements AutoCloseable {
    */
   @Override
   public void close() {
+    cancelReadAhead();
     tDirTable = null;
     tFileTable = null;
   }
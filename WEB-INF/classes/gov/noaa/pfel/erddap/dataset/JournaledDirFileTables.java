@@ -0,0 +1,104 @@
+package gov.noaa.pfel.erddap.dataset;
+
+import com.cohort.util.File2;
+import gov.noaa.pfel.coastwatch.pointdata.Table;
+import java.lang.ref.SoftReference;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * This is used by EDDGridFromFiles and EDDTableFromFiles (each has one) to get the dirTable and
+ * fileTable with the fileTable journal (see FileTableJournal) replayed onto the snapshot. Both
+ * tables are made from one replay, done while the journal is locked, and are cached, so the journal
+ * is replayed once after each change, not for every request. The cache is keyed by the journal's
+ * journalId and length and the snapshot's lastModified time, so it is never used after the journal
+ * is appended to or compacted. The cache is a SoftReference, so it doesn't keep the tables in
+ * memory if memory is needed (notably if !fileTableInMemory).
+ */
+class JournaledDirFileTables {
+
+  /** This reads and checks a dirTable or fileTable snapshot (without the fileTable journal). */
+  @FunctionalInterface
+  interface SnapshotReader {
+    /**
+     * @param fileName datasetDir + EDD.DIR_TABLE_FILENAME or EDD.FILE_TABLE_FILENAME
+     * @return the table (or null if the file doesn't exist)
+     * @throws Throwable if trouble
+     */
+    Table read(String fileName) throws Throwable;
+  }
+
+  /**
+   * The dirTable and fileTable from one replay of the fileTable journal.
+   *
+   * @param journalId the journalId in the journal's header
+   * @param journalLength the length of the journal that was replayed
+   * @param snapshotLastMod the lastModified time of the fileTable.nc that it was replayed onto
+   */
+  private record Tables(
+      String journalId,
+      long journalLength,
+      long snapshotLastMod,
+      Table dirTable,
+      Table fileTable) {}
+
+  private final SnapshotReader snapshotReader;
+  private final Consumer<Table> sortFileTable;
+  private final Runnable needsCompaction;
+  private volatile SoftReference<Tables> tables = null;
+
+  /**
+   * The constructor.
+   *
+   * @param snapshotReader which reads a dirTable or fileTable snapshot
+   * @param sortFileTable which puts the replayed fileTable's rows back in order (the journal adds
+   *     new rows at the end)
+   * @param needsCompaction which is called if the journal ended with an incomplete record (so it
+   *     should be compacted)
+   */
+  JournaledDirFileTables(
+      SnapshotReader snapshotReader, Consumer<Table> sortFileTable, Runnable needsCompaction) {
+    this.snapshotReader = snapshotReader;
+    this.sortFileTable = sortFileTable;
+    this.needsCompaction = needsCompaction;
+  }
+
+  /**
+   * This returns a copy of the dirTable or fileTable with the fileTable journal replayed onto it.
+   *
+   * @param dir the datasetDir
+   * @param isFileTable true for the fileTable, false for the dirTable
+   * @return a copy of the table (or null if the snapshot doesn't exist)
+   * @throws Throwable if trouble (e.g., the journal doesn't fit the snapshot)
+   */
+  Table get(String dir, boolean isFileTable) throws Throwable {
+    ReentrantLock lock = FileTableJournal.lock(dir);
+    try {
+      String journalId = FileTableJournal.headerId(dir); // null if none
+      long journalLength = File2.length(dir + FileTableJournal.FILENAME); // -1 if none
+      long snapshotLastMod = File2.getLastModified(dir + EDD.FILE_TABLE_FILENAME);
+      SoftReference<Tables> ref = tables;
+      Tables tTables = ref == null ? null : ref.get();
+      if (tTables == null
+          || !Objects.equals(tTables.journalId(), journalId)
+          || tTables.journalLength() != journalLength
+          || tTables.snapshotLastMod() != snapshotLastMod) {
+        Table tDirTable = snapshotReader.read(dir + EDD.DIR_TABLE_FILENAME);
+        Table tFileTable = snapshotReader.read(dir + EDD.FILE_TABLE_FILENAME);
+        if (tDirTable == null || tFileTable == null) return null;
+        // if the journal was compacted after the caller looked, the snapshot is current
+        if (journalLength < 0) return isFileTable ? tFileTable : tDirTable;
+        boolean torn = FileTableJournal.replay(dir, tDirTable, false);
+        torn |= FileTableJournal.replay(dir, tFileTable, true);
+        if (torn) needsCompaction.run();
+        sortFileTable.accept(tFileTable);
+        tTables = new Tables(journalId, journalLength, snapshotLastMod, tDirTable, tFileTable);
+        tables = new SoftReference<>(tTables);
+      }
+      return (Table) (isFileTable ? tTables.fileTable() : tTables.dirTable()).clone();
+    } finally {
+      lock.unlock();
+    }
+  }
+}
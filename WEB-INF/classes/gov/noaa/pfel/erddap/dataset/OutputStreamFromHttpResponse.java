@@ -6,15 +6,16 @@ package gov.noaa.pfel.erddap.dataset;
 
 import com.cohort.util.String2;
 import gov.noaa.pfel.erddap.dataset.EDD.EDDFileTypeInfo;
+import gov.noaa.pfel.erddap.util.EDStatic;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.zip.DeflaterOutputStream;
-import java.util.zip.GZIPOutputStream;
 
 /**
  * OutputStreamFromHttpResponse provides an OutputStream upon request.
@@ -780,6 +781,10 @@ public class OutputStreamFromHttpResponse implements OutputStreamSource {
     acceptEncoding = acceptEncoding == null ? "" : acceptEncoding.toLowerCase();
     String tContentType = response.getContentType(); // as set above, or null
     if (tContentType == null) tContentType = "";
+    // the best encoding that the client accepts (see setup.xml <compressionEncodings>) or null
+    String encoding = ResponseEncoding.choose(acceptEncoding, EDStatic.config.compressionEncodings);
+    int level = compressionLevel(fileType, extension);
+    int minBytes = EDStatic.config.compressionMinBytes;
 
     // responses that I won't compress
     if (hasRangeRequest
@@ -814,18 +819,14 @@ public class OutputStreamFromHttpResponse implements OutputStreamSource {
       // BufferedOutputStream(response.getOutputStream()));
       //    ((ZipOutputStream)outputStream).putNextEntry(new ZipEntry(fileName + extension));
 
-    } else if (acceptEncoding.indexOf("gzip") >= 0) {
-      usingCompression = "gzip";
+    } else if (encoding != null && level > 0 && (tLength < 0 || tLength >= minBytes)) {
+      // The encoding is tentative: if the response is smaller than minBytes, it will be sent
+      // uncompressed (see EncodingOutputStream).
+      usingCompression = encoding;
       response.setHeader("Content-Encoding", usingCompression);
-      outputStream = new GZIPOutputStream(new BufferedOutputStream(response.getOutputStream()));
-
-      // "deflate" is troublesome. Don't support it? Apache just supports gzip. But it hasn't been
-      // trouble.
-      // see https://en.wikipedia.org/wiki/HTTP_compression
-    } else if (acceptEncoding.indexOf("deflate") >= 0) {
-      usingCompression = "deflate";
-      response.setHeader("Content-Encoding", usingCompression);
-      outputStream = new DeflaterOutputStream(new BufferedOutputStream(response.getOutputStream()));
+      outputStream =
+          new EncodingOutputStream(
+              encoding, level, minBytes, Math.max(1, EDStatic.config.compressionThreads));
 
     } else /**/ {
       // no compression  (see DODSServlet comments above (for .gif))
@@ -866,9 +867,26 @@ public class OutputStreamFromHttpResponse implements OutputStreamSource {
     return outputStream;
   }
 
+  /**
+   * This returns the compression level for a fileType (from setup.xml's &lt;compressionLevels&gt;,
+   * else &lt;compressionLevel&gt;).
+   *
+   * @param fileType the ERDDAP fileType, e.g., .csvp
+   * @param extension the actual extension, e.g., .csv
+   * @return the compression level (0 = don't compress)
+   */
+  static int compressionLevel(String fileType, String extension) {
+    Map<String, Integer> levels = EDStatic.config.compressionLevels;
+    Integer level = levels.get(fileType);
+    if (level == null) level = levels.get(extension);
+    return level == null ? EDStatic.config.compressionLevel : level;
+  }
+
   /**
    * After ouputStream() has been called, this indicates the encoding (compression) being used for
-   * an OutputStreamFromHttpResponse (gzip, deflate) or "identity" if no compression.
+   * an OutputStreamFromHttpResponse (e.g., zstd, gzip, deflate) or "identity" if no compression. If
+   * the response turns out to be smaller than &lt;compressionMinBytes&gt;, this changes to
+   * "identity" when the outputStream is closed.
    */
   @Override
   public String usingCompression() {
@@ -880,4 +898,125 @@ public class OutputStreamFromHttpResponse implements OutputStreamSource {
   public OutputStream existingOutputStream() {
     return outputStream;
   }
+
+  /**
+   * This compresses a response with a ResponseEncoding.Encoder, but it holds the first minBytes
+   * bytes before committing to that: if the stream is closed first, the response is sent
+   * uncompressed (with Content-Encoding=identity), since compressing a small response just adds
+   * latency. A flush() before then doesn't send the held bytes. This records the bytes in and out
+   * and the time spent writing in the Metrics.
+   */
+  private class EncodingOutputStream extends OutputStream {
+    private final String encoding;
+    private final int level;
+    private final int nThreads;
+    private byte[] pending;
+    private int nPending = 0;
+    private OutputStream out = null; // null until it is decided if the response is compressed
+    private CountingOutputStream counter = null; // null if not compressed
+    private long nBytesIn = 0;
+    private long writeNanos = 0;
+    private boolean closed = false;
+
+    EncodingOutputStream(String encoding, int level, int minBytes, int nThreads) {
+      this.encoding = encoding;
+      this.level = level;
+      this.nThreads = nThreads;
+      pending = new byte[minBytes];
+    }
+
+    /**
+     * This creates the outputStream and writes the pending bytes to it.
+     *
+     * @param compress if true, the response is compressed with the encoding
+     */
+    private void start(boolean compress) throws IOException {
+      long time = System.nanoTime();
+      OutputStream base = new BufferedOutputStream(response.getOutputStream());
+      if (compress) {
+        counter = new CountingOutputStream(base);
+        out = ResponseEncoding.get(encoding).encode(counter, level, nThreads);
+      } else {
+        usingCompression = "identity";
+        response.setHeader("Content-Encoding", usingCompression);
+        out = base;
+      }
+      out.write(pending, 0, nPending);
+      nBytesIn += nPending;
+      pending = null;
+      writeNanos += System.nanoTime() - time;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (closed) throw new IOException("Stream closed");
+      if (out == null) {
+        if (nPending + len <= pending.length) {
+          System.arraycopy(b, off, pending, nPending, len);
+          nPending += len;
+          return;
+        }
+        start(true);
+      }
+      long time = System.nanoTime();
+      out.write(b, off, len);
+      nBytesIn += len;
+      writeNanos += System.nanoTime() - time;
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (out == null || closed) return;
+      long time = System.nanoTime();
+      out.flush();
+      writeNanos += System.nanoTime() - time;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) return;
+      closed = true;
+      if (out == null) start(false);
+      long time = System.nanoTime();
+      try {
+        out.close();
+      } finally {
+        writeNanos += System.nanoTime() - time;
+        if (counter != null && EDStatic.metrics != null) {
+          EDStatic.metrics
+              .responseCompressionDuration
+              .labelValues(encoding)
+              .observe(writeNanos / 1e9);
+          EDStatic.metrics.responseCompressionBytesIn.labelValues(encoding).inc(nBytesIn);
+          EDStatic.metrics.responseCompressionBytesOut.labelValues(encoding).inc(counter.nBytes);
+        }
+      }
+    }
+  }
+
+  /** This counts the bytes written to an OutputStream. */
+  private static class CountingOutputStream extends FilterOutputStream {
+    long nBytes = 0;
+
+    CountingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      nBytes++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      nBytes += len;
+    }
+  }
 }
@@ -0,0 +1,193 @@
+package gov.noaa.pfel.erddap.dataset;
+
+import com.cohort.util.Math2;
+import com.cohort.util.String2;
+import com.github.luben.zstd.ZstdOutputStream;
+import com.github.luben.zstd.util.Native;
+import gov.noaa.pfel.erddap.util.ParallelGZIPOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * This holds the encoders (compression methods) that OutputStreamFromHttpResponse can use for a
+ * response's Content-Encoding, and the methods to pick one based on the request's Accept-Encoding
+ * header and the server's preferences (setup.xml's &lt;compressionEncodings&gt;).
+ *
+ * <p>gzip and deflate are always available. zstd is available if the zstd-jni native library can be
+ * loaded on this platform. Other encoders can be added with register().
+ */
+public class ResponseEncoding {
+
+  /** An Encoder wraps a response's outputStream in a stream which compresses the data. */
+  @FunctionalInterface
+  public interface Encoder {
+    /**
+     * This returns a stream which compresses the data and writes it to out.
+     *
+     * @param out the destination. Closing the returned stream must close out.
+     * @param level the compression level (1 (fastest) to 9 (smallest); some encoders accept more)
+     * @param nThreads the number of threads this stream may use (1 = just the caller's thread)
+     * @return the compressing stream
+     * @throws IOException if trouble
+     */
+    OutputStream encode(OutputStream out, int level, int nThreads) throws IOException;
+  }
+
+  /** The registered encoders: Content-Encoding name (lowercase) -&gt; Encoder. */
+  private static final Map<String, Encoder> encoders = new ConcurrentHashMap<>();
+
+  private static final AtomicInteger compressionThreadNumber = new AtomicInteger();
+
+  /**
+   * The threads (shared by all responses) which compress blocks for ParallelGZIPOutputStreams.
+   * There is one thread per processor, so the total number of compressing threads is limited no
+   * matter how many responses are being compressed; additional blocks wait in the queue. Idle
+   * threads time out. See compressionExecutorIsBusy.
+   */
+  static final ThreadPoolExecutor compressionExecutor;
+
+  static {
+    int n = Math.max(1, Runtime.getRuntime().availableProcessors());
+    compressionExecutor =
+        new ThreadPoolExecutor(
+            n,
+            n,
+            60,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            runnable -> {
+              Thread thread =
+                  new Thread(
+                      runnable,
+                      "ResponseEncoding-compression" + compressionThreadNumber.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+    compressionExecutor.allowCoreThreadTimeOut(true);
+
+    // if all of the compression threads are busy, a ParallelGZIPOutputStream's blocks would just
+    // wait in the queue, so compress in the response's thread instead
+    register(
+        "gzip",
+        (out, level, nThreads) ->
+            nThreads > 1 && !compressionExecutorIsBusy()
+                ? new ParallelGZIPOutputStream(out, level, compressionExecutor, nThreads)
+                : new GZIPOutputStream(out) {
+                  {
+                    def.setLevel(Math2.minMax(1, 9, level));
+                  }
+                });
+
+    // "deflate" is troublesome. Don't support it? Apache just supports gzip. But it hasn't been
+    // trouble.
+    // see https://en.wikipedia.org/wiki/HTTP_compression
+    register(
+        "deflate",
+        (out, level, nThreads) ->
+            new DeflaterOutputStream(out, new Deflater(Math2.minMax(1, 9, level))) {
+              @Override
+              public void close() throws IOException {
+                try {
+                  super.close();
+                } finally {
+                  def.end(); // a Deflater passed to the constructor isn't ended by close()
+                }
+              }
+            });
+
+    try {
+      Native.load(); // throws UnsatisfiedLinkError if there is no library for this platform
+      register(
+          "zstd",
+          (out, level, nThreads) -> {
+            ZstdOutputStream zos = new ZstdOutputStream(out, Math2.minMax(1, 19, level));
+            if (nThreads > 1) zos.setWorkers(nThreads);
+            return zos;
+          });
+    } catch (Throwable t) {
+      String2.log("ResponseEncoding: zstd isn't available on this platform: " + t.getMessage());
+    }
+  }
+
+  /**
+   * This indicates if all of compressionExecutor's threads are busy (or blocks are already waiting
+   * in its queue).
+   *
+   * @return true if compressionExecutor is saturated
+   */
+  static boolean compressionExecutorIsBusy() {
+    return compressionExecutor.getActiveCount() >= compressionExecutor.getMaximumPoolSize()
+        || !compressionExecutor.getQueue().isEmpty();
+  }
+
+  /**
+   * This registers an encoder, replacing any encoder with the same name.
+   *
+   * @param name the Content-Encoding name, e.g., "br"
+   * @param encoder the encoder
+   */
+  public static void register(String name, Encoder encoder) {
+    encoders.put(name.toLowerCase(), encoder);
+  }
+
+  /**
+   * This returns the encoder for a Content-Encoding name.
+   *
+   * @param name e.g., "gzip"
+   * @return the encoder, or null if there is no encoder with that name
+   */
+  public static Encoder get(String name) {
+    return name == null ? null : encoders.get(name.toLowerCase());
+  }
+
+  /**
+   * This indicates if an Accept-Encoding header accepts an encoding, i.e., if the encoding is in
+   * the list without ";q=0". x-gzip is treated as gzip.
+   *
+   * @param acceptEncoding the Accept-Encoding header value, e.g., "gzip, deflate, br, zstd" or
+   *     "gzip;q=1.0, identity; q=0.5, *;q=0" (or null)
+   * @param name the encoding's name, e.g., "gzip"
+   * @return true if the encoding is acceptable
+   */
+  public static boolean accepts(String acceptEncoding, String name) {
+    if (acceptEncoding == null) return false;
+    for (String part : String2.split(acceptEncoding.toLowerCase(), ',')) {
+      int po = part.indexOf(';');
+      String coding = (po < 0 ? part : part.substring(0, po)).trim();
+      if (coding.startsWith("x-")) coding = coding.substring(2);
+      if (!coding.equals(name)) continue;
+      if (po < 0) return true;
+      // e.g., ";q=0" or "; q=0.000" means not acceptable
+      String param = part.substring(po + 1).trim();
+      if (!param.startsWith("q=")) return true;
+      double q = String2.parseDouble(param.substring(2).trim());
+      return Double.isNaN(q) || q > 0;
+    }
+    return false;
+  }
+
+  /**
+   * This chooses the encoding for a response: the first of the server's preferred encodings which
+   * is registered and which the client accepts.
+   *
+   * @param acceptEncoding the request's Accept-Encoding header value (or null)
+   * @param preferences the server's encodings in order of preference, e.g., {"zstd", "gzip",
+   *     "deflate"}
+   * @return the encoding's name, or null if none are acceptable
+   */
+  public static String choose(String acceptEncoding, String[] preferences) {
+    for (String name : preferences) {
+      if (get(name) != null && accepts(acceptEncoding, name)) return name;
+    }
+    return null;
+  }
+}
@@ -13,16 +13,12 @@ import com.cohort.util.String2;
 import com.cohort.util.Test;
 import gov.noaa.pfel.coastwatch.pointdata.Table;
 import gov.noaa.pfel.erddap.util.EDStatic;
-import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 
 /**
- * TableWriterAll provides a way to write a table to a series of DataOutputStreams (one per column)
- * in chunks so that the whole table is available but doesn't have to be in memory at one time. This
- * is used by EDDTable.
+ * TableWriterAll provides a way to write a table to a series of temporary files (one per column,
+ * see ColumnSpill) in chunks so that the whole table is available but doesn't have to be in memory
+ * at one time. This is used by EDDTable.
  *
  * <p>This is different from most TableWriters in that finish() doesn't write the data anywhere (to
  * an outputStream or to another tableWriter), it just makes all of the data available.
@@ -41,7 +37,7 @@ public class TableWriterAll extends TableWriter {
   // set firstTime
   // POLICY: because this class may be used in more than one thread,
   // each instance makes unique temp files names by adding randomInt to name.
-  protected volatile DataOutputStream[] columnStreams;
+  protected volatile ColumnSpill[] columnSpills;
   protected volatile long totalNRows = 0;
 
   protected Table cumulativeTable; // set by writeAllAndFinish, if used
@@ -72,7 +68,7 @@ public class TableWriterAll extends TableWriter {
 
   private static final class CleanupTableWriterAction implements Runnable {
 
-    private DataOutputStream[] columnStreams;
+    private ColumnSpill[] columnSpills;
     private String[] columnNames;
     private final String dir;
     private final String fileNameNoExt;
@@ -84,25 +80,21 @@ public class TableWriterAll extends TableWriter {
       this.randomInt = randomInt;
     }
 
-    private void setColumnStreams(DataOutputStream[] columnStreams) {
-      this.columnStreams = columnStreams;
+    private void setColumnSpills(ColumnSpill[] columnSpills) {
+      this.columnSpills = columnSpills;
     }
 
     @Override
     public void run() {
       try {
-        // delete columnStreams (if it was still saving data)
-        if (columnStreams != null) {
-          for (int col = 0; col < columnStreams.length; col++) {
-            // close the stream
-            try {
-              if (columnStreams[col] != null) columnStreams[col].close();
-            } catch (Exception e) {
-            }
+        // close columnSpills (if it was still saving data)
+        if (columnSpills != null) {
+          for (int col = 0; col < columnSpills.length; col++) {
+            if (columnSpills[col] != null) columnSpills[col].close();
             // an attempt to solve File2.delete problem on these files: it couldn't hurt
-            columnStreams[col] = null;
+            columnSpills[col] = null;
           }
-          columnStreams = null;
+          columnSpills = null;
         }
 
         // delete the files
@@ -130,9 +122,9 @@ public class TableWriterAll extends TableWriter {
   }
 
   /**
-   * This adds the current contents of table (a chunk of data) to the columnStreams. This calls
+   * This adds the current contents of table (a chunk of data) to the columnSpills. This calls
    * ensureCompatible each time it is called. If this is the first time this is called, this does
-   * first time things (e.g., open the columnStreams). The number of columns, the column names, and
+   * first time things (e.g., open the columnSpills). The number of columns, the column names, and
    * the types of columns must be the same each time this is called.
    *
    * @param table with destinationValues. The table should have missing values stored as
@@ -150,14 +142,13 @@ public class TableWriterAll extends TableWriter {
     // do firstTime stuff
     int nColumns = table.nColumns();
     if (firstTime) {
-      columnStreams = new DataOutputStream[nColumns];
-      cleanupAction.setColumnStreams(columnStreams);
+      columnSpills = new ColumnSpill[nColumns];
+      cleanupAction.setColumnSpills(columnSpills);
       cleanupAction.setColumnNames(columnNames);
       for (int col = 0; col < nColumns; col++) {
         String tFileName = columnFileName(col);
-        columnStreams[col] =
-            new DataOutputStream(
-                new BufferedOutputStream(Files.newOutputStream(Paths.get(tFileName))));
+        columnSpills[col] =
+            new ColumnSpill(tFileName, columnType(col), EDStatic.config.tableWriterAllLz4);
         if (col == 0 && reallyVerbose)
           String2.log(
               "TableWriterAll nColumns="
@@ -165,7 +156,9 @@ public class TableWriterAll extends TableWriter {
                   + " colNames="
                   + table.getColumnNamesCSVString()
                   + " col0 file="
-                  + tFileName);
+                  + tFileName
+                  + " lz4="
+                  + EDStatic.config.tableWriterAllLz4);
       }
     }
 
@@ -173,23 +166,26 @@ public class TableWriterAll extends TableWriter {
     // (although in some cases, perhaps more could be handled)
     long newTotalNRows = totalNRows + table.nRows();
     Math2.ensureArraySizeOkay(newTotalNRows, attributeTo);
-    Math2.ensureMemoryAvailable(newTotalNRows * 8, attributeTo);
+    // and include the columnSpills' write buffers (up to ~1MB per column, or ~2MB if lz4)
+    long spillBufferBytes = 0;
+    for (ColumnSpill columnSpill : columnSpills)
+      spillBufferBytes += columnSpill.bufferBytesNeeded(table.nRows());
+    Math2.ensureMemoryAvailable(newTotalNRows * 8 + spillBufferBytes, attributeTo);
     Math2.ensureDiskAvailable(newTotalNRows * 8, EDStatic.config.fullCacheDirectory, attributeTo);
 
     // do everyTime stuff
     // write the data
     for (int col = 0; col < nColumns; col++) {
       Test.ensureNotNull(
-          columnStreams[col], "columnStreams[" + col + "] is null! nColumns=" + nColumns);
-      PrimitiveArray pa = table.getColumn(col);
-      pa.writeDos(columnStreams[col]);
+          columnSpills[col], "columnSpills[" + col + "] is null! nColumns=" + nColumns);
+      columnSpills[col].write(table.getColumn(col));
     }
     totalNRows = newTotalNRows;
   }
 
   /**
-   * This writes any end-of-file info to the stream and flushes the stream. If ignoreFinish=true,
-   * nothing will be done.
+   * This writes the last page of each column file and closes the files for writing. The
+   * columnSpills are kept so the data can be read back. If ignoreFinish=true, nothing will be done.
    *
    * @throws Throwable if trouble (e.g., MustBe.THERE_IS_NO_DATA if there is no data)
    */
@@ -198,18 +194,9 @@ public class TableWriterAll extends TableWriter {
     if (ignoreFinish) return;
 
     // check for MustBe.THERE_IS_NO_DATA
-    if (columnStreams == null) throw new SimpleException(MustBe.THERE_IS_NO_DATA + " (nRows = 0)");
-    // String2.log("TableWriterAll.finish  n columnStreams=" + columnStreams.length);
-    for (int col = 0; col < columnStreams.length; col++) {
-      // close the stream
-      try {
-        if (columnStreams[col] != null) columnStreams[col].close();
-      } catch (Exception e) {
-      }
-      // an attempt to solve File2.delete problem on these files: it couldn't hurt
-      columnStreams[col] = null;
-    }
-    columnStreams = null;
+    if (columnSpills == null) throw new SimpleException(MustBe.THERE_IS_NO_DATA + " (nRows = 0)");
+    // String2.log("TableWriterAll.finish  n columnSpills=" + columnSpills.length);
+    for (ColumnSpill columnSpill : columnSpills) columnSpill.finishWriting();
 
     // diagnostic
     if (verbose)
@@ -232,15 +219,13 @@ public class TableWriterAll extends TableWriter {
     // get it from cumulativeTable
     if (cumulativeTable != null) return cumulativeTable.getColumn(col);
 
-    // get it from DOSFile
+    // get it from the columnSpill
     Math2.ensureArraySizeOkay(totalNRows, "TableWriterAll");
-    PrimitiveArray pa =
-        PrimitiveArray.factory(
-            columnType(col), (int) totalNRows, false); // safe since checked above
-    pa.setMaxIsMV(columnMaxIsMV[col]);
-    try (DataInputStream dis = dataInputStream(col)) {
-      pa.readDis(dis, (int) totalNRows); // safe since checked above
+    PrimitiveArray pa;
+    try (ColumnSpill.Reader reader = columnReader(col)) {
+      pa = reader.read((int) totalNRows); // safe since checked above
     }
+    pa.setMaxIsMV(columnMaxIsMV[col]);
     return pa;
   }
 
@@ -254,9 +239,28 @@ public class TableWriterAll extends TableWriter {
         .setMaxIsMV(columnMaxIsMV[col]); // safe since checked above
   }
 
+  /**
+   * Call this after finish() to get a reader for all of the data for one of the columns. Use
+   * reader.read(n) to get the next n values as a PrimitiveArray (with maxIsMV=false; use
+   * columnMaxIsMV(col) to set it). IT IS UP TO THE CALLER TO CLOSE THE READER. THIS USES ALMOST NO
+   * MEMORY.
+   *
+   * <p>Missing values are still represented as destinationMissingValue or destinationFillValue. Use
+   * pa.table.convertToStandardMissingValues() if NaNs are needed.
+   *
+   * @param col 0.. the column number in the request (not the dataset)
+   * @return a ColumnSpill.Reader ready to have the first element read
+   * @throws Throwable if trouble (e.g., finish() hasn't been called)
+   */
+  public ColumnSpill.Reader columnReader(int col) throws Throwable {
+    if (columnSpills == null) throw new SimpleException(MustBe.THERE_IS_NO_DATA + " (nRows = 0)");
+    return columnSpills[col].reader();
+  }
+
   /**
    * Call this after finish() to get the data from a DataInputStream with all of the data for one of
-   * the columns. IT IS UP TO THE CALLER TO CLOSE THE DataInputStream. THIS USES ALMOST NO MEMORY.
+   * the columns, in the format written by PrimitiveArray.writeDos. IT IS UP TO THE CALLER TO CLOSE
+   * THE DataInputStream. THIS USES ALMOST NO MEMORY. columnReader(col) is faster.
    *
    * <p>Missing values are still represented as destinationMissingValue or destinationFillValue. Use
    * pa.table.convertToStandardMissingValues() if NaNs are needed.
@@ -266,7 +270,7 @@ public class TableWriterAll extends TableWriter {
    * @throws Throwable if trouble (e.g., totalNRows > Integer.MAX_VALUE)
    */
   public DataInputStream dataInputStream(int col) throws Throwable {
-    return new DataInputStream(File2.getDecompressedBufferedInputStream(columnFileName(col)));
+    return columnReader(col).dataInputStream();
   }
 
   public String columnFileName(int col) {
@@ -322,7 +326,7 @@ public class TableWriterAll extends TableWriter {
   }
 
   /**
-   * This deletes the columnStreams files and cumulativeTable (if any). This won't throw an
+   * This deletes the columnSpills files and cumulativeTable (if any). This won't throw an
    * exception.
    *
    * <p>It isn't essential that the user call this. It will be called automatically then java
@@ -333,18 +337,14 @@ public class TableWriterAll extends TableWriter {
     try {
       cumulativeTable = null;
 
-      // delete columnStreams (if it was still saving data)
-      if (columnStreams != null) {
-        for (int col = 0; col < columnStreams.length; col++) {
-          // close the stream
-          try {
-            if (columnStreams[col] != null) columnStreams[col].close();
-          } catch (Exception e) {
-          }
+      // close columnSpills (if it was still saving data)
+      if (columnSpills != null) {
+        for (int col = 0; col < columnSpills.length; col++) {
+          if (columnSpills[col] != null) columnSpills[col].close();
           // an attempt to solve File2.delete problem on these files: it couldn't hurt
-          columnStreams[col] = null;
+          columnSpills[col] = null;
         }
-        columnStreams = null;
+        columnSpills = null;
       }
 
       // delete the files
@@ -51,9 +51,9 @@ public class TableWriterAllReduceDnlsTableNLevels extends TableWriterAll {
   }
 
   /**
-   * This adds the current contents of table (a chunk of data) to the columnStreams. This calls
+   * This adds the current contents of table (a chunk of data) to the columnSpills. This calls
    * ensureCompatible each time it is called. If this is the first time this is called, this does
-   * first time things (e.g., open the columnStreams). The number of columns, the column names, and
+   * first time things (e.g., open the columnSpills). The number of columns, the column names, and
    * the types of columns must be the same each time this is called.
    *
    * @param table a DNLS table with destinationValues. The table should have missing values stored
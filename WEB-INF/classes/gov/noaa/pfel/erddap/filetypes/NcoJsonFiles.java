@@ -12,6 +12,7 @@ import com.cohort.util.SimpleException;
 import com.cohort.util.String2;
 import gov.noaa.pfel.coastwatch.griddata.NcHelper;
 import gov.noaa.pfel.erddap.dataset.AxisDataAccessor;
+import gov.noaa.pfel.erddap.dataset.ColumnSpill;
 import gov.noaa.pfel.erddap.dataset.EDDGrid;
 import gov.noaa.pfel.erddap.dataset.EDDTable;
 import gov.noaa.pfel.erddap.dataset.GridDataAccessor;
@@ -204,19 +205,12 @@ public class NcoJsonFiles extends TableWriterFileType {
                 + "\",\n");
         writer.write(atts.toNcoJsonString("      "));
         writer.write("      \"data\": [");
-        try (DataInputStream dis = twawm.dataInputStream(col)) {
-          // create the bufferPA
-          PrimitiveArray pa = null;
+        try (ColumnSpill.Reader reader = twawm.columnReader(col)) {
           long nRowsRead = 0;
           while (nRowsRead < nRows) {
             int nToRead = (int) Math.min(bufferSize, nRows - nRowsRead);
-            if (pa == null) {
-              pa = twawm.columnEmptyPA(col);
-              pa.ensureCapacity(nToRead);
-            }
-            pa.clear();
-            pa.setMaxIsMV(twawm.columnMaxIsMV(col)); // reset after clear()
-            pa.readDis(dis, nToRead);
+            PrimitiveArray pa = reader.read(nToRead);
+            pa.setMaxIsMV(twawm.columnMaxIsMV(col));
             if (isChar) {
               // write it as one string with chars concatenated
               // see "md5_abc" in in http://dust.ess.uci.edu/tmp/in.json.fmt2
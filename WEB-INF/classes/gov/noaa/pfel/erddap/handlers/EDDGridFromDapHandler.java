@@ -14,6 +14,8 @@ public class EDDGridFromDapHandler extends BaseGridHandler {
 
   private int tUpdateEveryNMillis = 0;
   private String tLocalSourceUrl = null;
+  private int tReadAheadChunks = -1;
+  private int tChunkCacheSizeGB = 0;
 
   @Override
   public void startElement(String uri, String localName, String qName, Attributes attributes) {
@@ -33,6 +35,8 @@ public class EDDGridFromDapHandler extends BaseGridHandler {
     switch (localName) {
       case "updateEveryNMillis" -> tUpdateEveryNMillis = String2.parseInt(contentStr);
       case "sourceUrl" -> tLocalSourceUrl = contentStr;
+      case "readAheadChunks" -> tReadAheadChunks = String2.parseInt(contentStr);
+      case "chunkCacheSizeGB" -> tChunkCacheSizeGB = String2.parseInt(contentStr);
       default -> {
         return false;
       }
@@ -42,23 +46,27 @@ public class EDDGridFromDapHandler extends BaseGridHandler {
 
   @Override
   protected EDD buildDataset() throws Throwable {
-    return new EDDGridFromDap(
-        datasetID,
-        tAccessibleTo,
-        tGraphsAccessibleTo,
-        tAccessibleViaWMS,
-        tOnChange,
-        tFgdcFile,
-        tIso19115File,
-        tDefaultDataQuery,
-        tDefaultGraphQuery,
-        tGlobalAttributes,
-        tAxisVariables,
-        tDataVariables,
-        tReloadEveryNMinutes,
-        tUpdateEveryNMillis,
-        tLocalSourceUrl,
-        tnThreads,
-        tDimensionValuesInMemory);
+    EDDGridFromDap dataset =
+        new EDDGridFromDap(
+            datasetID,
+            tAccessibleTo,
+            tGraphsAccessibleTo,
+            tAccessibleViaWMS,
+            tOnChange,
+            tFgdcFile,
+            tIso19115File,
+            tDefaultDataQuery,
+            tDefaultGraphQuery,
+            tGlobalAttributes,
+            tAxisVariables,
+            tDataVariables,
+            tReloadEveryNMinutes,
+            tUpdateEveryNMillis,
+            tLocalSourceUrl,
+            tnThreads,
+            tDimensionValuesInMemory);
+    dataset.setReadAheadChunks(tReadAheadChunks);
+    dataset.setChunkCacheSizeGB(tChunkCacheSizeGB);
+    return dataset;
   }
 }
@@ -32,6 +32,7 @@ public class EDDGridFromFilesHandler extends BaseGridHandler {
   private String tCacheFromUrl = null;
   private int tCacheSizeGB = -1;
   private String tCachePartialPathRegex = null;
+  private int tReadAheadChunks = -1;
 
   @Override
   public void startElement(String uri, String localName, String qName, Attributes attributes)
@@ -65,6 +66,7 @@ public class EDDGridFromFilesHandler extends BaseGridHandler {
       case "cacheFromUrl" -> tCacheFromUrl = contentStr;
       case "cacheSizeGB" -> tCacheSizeGB = String2.parseInt(contentStr);
       case "cachePartialPathRegex" -> tCachePartialPathRegex = contentStr;
+      case "readAheadChunks" -> tReadAheadChunks = String2.parseInt(contentStr);
       default -> {
         return false;
       }
@@ -72,7 +74,7 @@ public class EDDGridFromFilesHandler extends BaseGridHandler {
     return true;
   }
 
-  private EDD getDataset() throws Throwable {
+  private EDDGridFromFiles getDataset() throws Throwable {
 
     return switch (datasetType) {
       case "EDDGridFromAudioFiles" ->
@@ -199,6 +201,8 @@ public class EDDGridFromFilesHandler extends BaseGridHandler {
 
   @Override
   protected EDD buildDataset() throws Throwable {
-    return getDataset();
+    EDDGridFromFiles dataset = getDataset();
+    dataset.setReadAheadChunks(tReadAheadChunks);
+    return dataset;
   }
 }
@@ -20,6 +20,7 @@ public class EDDTableFromCassandraHandler extends BaseTableHandler {
   private String tClusterColumnSourceNames = null;
   private String tIndexColumnSourceNames = null;
   private double tMaxRequestFraction = 1;
+  private int tMaxConcurrentPartitions = 1;
   private String tColumnNameQuotes = "";
   private final StringArray tConnectionProperties = new StringArray();
   private boolean tSourceNeedsExpandedFP_EQ = true;
@@ -46,6 +47,7 @@ public class EDDTableFromCassandraHandler extends BaseTableHandler {
       case "clusterColumnSourceNames" -> tClusterColumnSourceNames = contentStr;
       case "indexColumnSourceNames" -> tIndexColumnSourceNames = contentStr;
       case "maxRequestFraction" -> tMaxRequestFraction = String2.parseDouble(contentStr);
+      case "maxConcurrentPartitions" -> tMaxConcurrentPartitions = String2.parseInt(contentStr);
       case "columnNameQuotes" -> tColumnNameQuotes = contentStr;
       case "partitionKeyCSV" -> tPartitionKeyCSV = contentStr;
       case "sourceNeedsExpandedFP_EQ" ->
@@ -82,6 +84,7 @@ public class EDDTableFromCassandraHandler extends BaseTableHandler {
         tIndexColumnSourceNames,
         tPartitionKeyCSV,
         tMaxRequestFraction,
+        tMaxConcurrentPartitions,
         tColumnNameQuotes,
         tSourceNeedsExpandedFP_EQ);
   }
@@ -23,6 +23,10 @@ public class EDDTableFromDatabaseHandler extends BaseTableHandler {
   private String tTableName = null;
   private String tColumnNameQuotes = "\"";
   private String[] tOrderBy = new String[0];
+  private int tFetchSize = 0;
+  private String tPartitionColumn = null;
+  private int tNThreads = -1;
+  private int tMaxConcurrentScans = EDDTableFromDatabase.DEFAULT_MAX_CONCURRENT_SCANS;
   private final StringArray tConnectionProperties = new StringArray();
   private boolean tSourceNeedsExpandedFP_EQ = true;
   private String tSourceCanOrderBy = "no";
@@ -57,6 +61,10 @@ public class EDDTableFromDatabaseHandler extends BaseTableHandler {
       case "orderBy" -> {
         if (!contentStr.isEmpty()) tOrderBy = String2.split(contentStr, ',');
       }
+      case "fetchSize" -> tFetchSize = String2.parseInt(contentStr);
+      case "partitionColumn" -> tPartitionColumn = contentStr;
+      case "nThreads" -> tNThreads = String2.parseInt(contentStr);
+      case "maxConcurrentScans" -> tMaxConcurrentScans = String2.parseInt(contentStr);
       case "sourceNeedsExpandedFP_EQ" ->
           tSourceNeedsExpandedFP_EQ = String2.parseBoolean(contentStr);
       case "sourceCanOrderBy" -> tSourceCanOrderBy = contentStr;
@@ -93,6 +101,10 @@ public class EDDTableFromDatabaseHandler extends BaseTableHandler {
         tTableName,
         tColumnNameQuotes,
         tOrderBy,
+        tFetchSize,
+        tPartitionColumn,
+        tNThreads,
+        tMaxConcurrentScans,
         tSourceNeedsExpandedFP_EQ,
         tSourceCanOrderBy,
         tSourceCanDoDistinct);
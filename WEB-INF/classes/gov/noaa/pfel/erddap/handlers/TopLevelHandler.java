@@ -4,6 +4,7 @@ import com.cohort.array.StringArray;
 import com.cohort.util.Calendar2;
 import com.cohort.util.String2;
 import com.cohort.util.XML;
+import gov.noaa.pfel.coastwatch.griddata.NcFileCache;
 import gov.noaa.pfel.coastwatch.sgt.SgtMap;
 import gov.noaa.pfel.coastwatch.util.SSR;
 import gov.noaa.pfel.erddap.dataset.EDD;
@@ -301,7 +302,7 @@ public class TopLevelHandler extends State {
             StringArray.fromCSVNoBlanks(ts + EDStatic.DEFAULT_ipAddressUnlimited).toArray();
         EDStatic.ipAddressUnlimited = new HashSet<>(String2.toArrayList(sar));
         for (String s : sar) {
-          EDStatic.ipAddressQueue.remove(s);
+          EDStatic.requestScheduler.forget(s);
         }
 
         if (reallyVerbose) {
@@ -342,6 +343,43 @@ public class TopLevelHandler extends State {
           String2.log("nGridThreads=" + EDStatic.nGridThreads);
         }
       }
+      case "gridReadAheadChunks" -> {
+        int tnc = String2.parseInt(data.toString());
+        EDStatic.gridReadAheadChunks =
+            tnc < 0 || tnc == Integer.MAX_VALUE ? EDStatic.DEFAULT_gridReadAheadChunks : tnc;
+
+        if (reallyVerbose) {
+          String2.log("gridReadAheadChunks=" + EDStatic.gridReadAheadChunks);
+        }
+      }
+      case "ncFileCacheMaxOpen" -> {
+        int tnc = String2.parseInt(data.toString());
+        EDStatic.ncFileCacheMaxOpen =
+            tnc < 0 || tnc == Integer.MAX_VALUE ? EDStatic.DEFAULT_ncFileCacheMaxOpen : tnc;
+        NcFileCache.setMaxOpen(EDStatic.ncFileCacheMaxOpen);
+
+        if (reallyVerbose) {
+          String2.log("ncFileCacheMaxOpen=" + EDStatic.ncFileCacheMaxOpen);
+        }
+      }
+      case "nLoadDatasetsThreads" -> {
+        int tnt = String2.parseInt(data.toString());
+        EDStatic.nLoadDatasetsThreads =
+            tnt < 1 || tnt == Integer.MAX_VALUE ? EDStatic.DEFAULT_nLoadDatasetsThreads : tnt;
+
+        if (reallyVerbose) {
+          String2.log("nLoadDatasetsThreads=" + EDStatic.nLoadDatasetsThreads);
+        }
+      }
+      case "loadDatasetTimeoutMinutes" -> {
+        int tnt = String2.parseInt(data.toString());
+        EDStatic.loadDatasetTimeoutMinutes =
+            tnt < 1 || tnt == Integer.MAX_VALUE ? EDStatic.DEFAULT_loadDatasetTimeoutMinutes : tnt;
+
+        if (reallyVerbose) {
+          String2.log("loadDatasetTimeoutMinutes=" + EDStatic.loadDatasetTimeoutMinutes);
+        }
+      }
       case "nTableThreads" -> {
         int tnt = String2.parseInt(data.toString());
         EDStatic.nTableThreads =
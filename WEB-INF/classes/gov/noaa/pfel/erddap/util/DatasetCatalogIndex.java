@@ -0,0 +1,438 @@
+package gov.noaa.pfel.erddap.util;
+
+import com.cohort.array.StringArray;
+import gov.noaa.pfel.erddap.dataset.EDD;
+import gov.noaa.pfel.erddap.dataset.EDDGrid;
+import gov.noaa.pfel.erddap.dataset.EDDTable;
+import gov.noaa.pfel.erddap.variable.EDV;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This is an in-memory index of the datasets' spatial and temporal coverage (the destinationMin and
+ * destinationMax of their longitude, latitude, and time variables) and of their categoryInfo facets
+ * (e.g., institution=NOAA NDBC). Advanced search and the allDatasets dataset use it to find the
+ * matching datasets without looking at every dataset.
+ *
+ * <p>Each dataset gets an ordinal (which it keeps, even if it is reloaded or unloaded and loaded
+ * again) and the query results are BitSets of ordinals, so the results for different facets and
+ * bounds can be quickly combined. Each facet value has a BitSet of the datasets with that value.
+ * Each bound (e.g., maxLongitude) has a column of the datasets' (non-NaN) values, sorted so that
+ * the datasets with e.g., maxLongitude &gt;= some value can be found with a binary search. (A
+ * bounding box or time range test is just a combination of those one-sided tests.)
+ *
+ * <p>The index is updated incrementally: a dataset is (re)indexed by update() when it is loaded and
+ * is removed by remove() when it is unloaded. The sorted columns aren't re-sorted after each
+ * change. Instead, the datasets that changed since the columns were sorted are tested one by one
+ * until there are enough of them to make it worthwhile to re-sort the columns. The columns are
+ * re-sorted from a snapshot, without holding the lock, so other queries (and updates) aren't held
+ * up by the sort. Datasets that change their ranges without being reloaded (e.g., with
+ * &lt;updateEveryNMillis&gt;) call rangesChanged(datasetID) and the next query then gets just that
+ * dataset's current ranges.
+ */
+public class DatasetCatalogIndex {
+
+  /**
+   * The bounds which are indexed. These are the names of the corresponding columns in the
+   * allDatasets dataset.
+   */
+  public static final String BOUND_NAMES[] = {
+    "minLongitude", "maxLongitude", "minLatitude", "maxLatitude", "minTime", "maxTime"
+  };
+
+  public static final int LON_MIN = 0,
+      LON_MAX = 1,
+      LAT_MIN = 2,
+      LAT_MAX = 3,
+      TIME_MIN = 4,
+      TIME_MAX = 5;
+  private static final int N_BOUNDS = BOUND_NAMES.length;
+  private static final int LON = 0, LAT = 1, TIME = 2; // the dimensions
+
+  /** All of the DatasetCatalogIndex instances (so rangesChanged() can tell them). */
+  private static final Set<DatasetCatalogIndex> instances =
+      Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+  /**
+   * The information about one indexed dataset.
+   *
+   * @param bounds the values of the BOUND_NAMES (NaN if the dataset doesn't have the variable)
+   * @param has indicates if the dataset has a longitude, latitude, and time variable
+   * @param facets the dataset's categoryInfo: attribute -&gt; values
+   */
+  private record Entry(
+      EDD edd, int ordinal, double[] bounds, boolean[] has, Map<String, Set<String>> facets) {}
+
+  // all of these are guarded by synchronized(this)
+  private final HashMap<String, Integer> ordinals = new HashMap<>(); // datasetID -> ordinal
+  private final ArrayList<String> datasetIDs = new ArrayList<>(); // ordinal -> datasetID
+  private final ArrayList<Entry> entries = new ArrayList<>(); // ordinal -> Entry (or null)
+  private final BitSet live = new BitSet(); // the ordinals of the indexed datasets
+  private final BitSet hasBits[] = {new BitSet(), new BitSet(), new BitSet()}; // LON, LAT, TIME
+  private final BitSet nanBits[] = new BitSet[N_BOUNDS]; // has the variable, but the bound is NaN
+  private final HashMap<String, HashMap<String, BitSet>> facetBits = new HashMap<>();
+  private final double sortedValues[][] = new double[N_BOUNDS][0]; // the non-NaN bounds, sorted
+  private final int sortedOrdinals[][] = new int[N_BOUNDS][0]; // parallel to sortedValues
+  private final BitSet stale = new BitSet(); // changed since the columns were sorted
+  private boolean resorting = false; // true while a thread is re-sorting the columns
+  private final BitSet changedWhileResorting = new BitSet();
+
+  // not guarded: the datasetIDs whose ranges changed without a reload
+  private final Set<String> rangeChanges = ConcurrentHashMap.newKeySet();
+
+  /** The constructor. */
+  public DatasetCatalogIndex() {
+    for (int b = 0; b < N_BOUNDS; b++) nanBits[b] = new BitSet();
+    instances.add(this);
+  }
+
+  /**
+   * Datasets call this after they change the destinationMin or destinationMax of their variables
+   * without being reloaded (e.g., in lowUpdate()), so that the next query rechecks that dataset's
+   * ranges. This doesn't wait for any index's lock.
+   *
+   * @param datasetID the datasetID
+   */
+  public static void rangesChanged(String datasetID) {
+    synchronized (instances) {
+      for (DatasetCatalogIndex index : instances) index.rangeChanges.add(datasetID);
+    }
+  }
+
+  /**
+   * This returns the index of the bound with the allDatasets column name.
+   *
+   * @param name a column name, e.g., maxTime
+   * @return the index of the bound (e.g., TIME_MAX), or -1 if the column isn't indexed
+   */
+  public static int boundIndex(String name) {
+    for (int b = 0; b < N_BOUNDS; b++) if (BOUND_NAMES[b].equals(name)) return b;
+    return -1;
+  }
+
+  /**
+   * This gets the dataset's longitude, latitude, and time variables the same way that advanced
+   * search and the allDatasets dataset do.
+   *
+   * @return the variables (with null if the dataset doesn't have that variable)
+   */
+  private static EDV[] variables(EDD edd) {
+    EDV edvs[] = new EDV[3];
+    if (edd instanceof EDDGrid eddGrid) {
+      if (eddGrid.lonIndex() >= 0) edvs[LON] = eddGrid.axisVariables()[eddGrid.lonIndex()];
+      if (eddGrid.latIndex() >= 0) edvs[LAT] = eddGrid.axisVariables()[eddGrid.latIndex()];
+      if (eddGrid.timeIndex() >= 0) edvs[TIME] = eddGrid.axisVariables()[eddGrid.timeIndex()];
+    } else if (edd instanceof EDDTable eddTable) {
+      if (eddTable.lonIndex() >= 0) edvs[LON] = eddTable.dataVariables()[eddTable.lonIndex()];
+      if (eddTable.latIndex() >= 0) edvs[LAT] = eddTable.dataVariables()[eddTable.latIndex()];
+      if (eddTable.timeIndex() >= 0) edvs[TIME] = eddTable.dataVariables()[eddTable.timeIndex()];
+    }
+    return edvs;
+  }
+
+  /** This makes an entry with the dataset's current ranges. */
+  private static Entry makeEntry(EDD edd, int ordinal, Map<String, Set<String>> facets) {
+    EDV edvs[] = variables(edd);
+    double bounds[] = new double[N_BOUNDS];
+    boolean has[] = new boolean[3];
+    for (int d = 0; d < 3; d++) {
+      has[d] = edvs[d] != null;
+      bounds[2 * d] = has[d] ? edvs[d].destinationMinDouble() : Double.NaN;
+      bounds[2 * d + 1] = has[d] ? edvs[d].destinationMaxDouble() : Double.NaN;
+    }
+    return new Entry(edd, ordinal, bounds, has, facets);
+  }
+
+  /** This returns the number of indexed datasets. */
+  public synchronized int size() {
+    return live.cardinality();
+  }
+
+  /**
+   * This (re)indexes a dataset. Call this after the dataset has been loaded.
+   *
+   * @param datasetID the datasetID
+   * @param edd the dataset
+   * @param facets the dataset's categoryInfo: attribute (e.g., institution) -&gt; the dataset's
+   *     values (e.g., noaa ndbc)
+   */
+  public synchronized void update(String datasetID, EDD edd, Map<String, Set<String>> facets) {
+    Integer ordinal = ordinals.get(datasetID);
+    if (ordinal == null) {
+      ordinal = datasetIDs.size();
+      ordinals.put(datasetID, ordinal);
+      datasetIDs.add(datasetID);
+      entries.add(null);
+    }
+    setEntry(ordinal, makeEntry(edd, ordinal, facets));
+  }
+
+  /**
+   * This removes a dataset from the index. Call this when the dataset is unloaded.
+   *
+   * @param datasetID the datasetID
+   * @param edd the dataset which is being removed. If a different version of the dataset is
+   *     indexed, this does nothing.
+   */
+  public synchronized void remove(String datasetID, EDD edd) {
+    Integer ordinal = ordinals.get(datasetID);
+    if (ordinal == null) return;
+    Entry entry = entries.get(ordinal);
+    if (entry == null || entry.edd != edd) return;
+    setEntry(ordinal, null);
+  }
+
+  /** This replaces the entry (which may be null) and updates the BitSets. */
+  private void setEntry(int ordinal, Entry entry) {
+    Entry oldEntry = entries.get(ordinal);
+    if (oldEntry != null) {
+      for (Map.Entry<String, Set<String>> facet : oldEntry.facets.entrySet()) {
+        HashMap<String, BitSet> valueBits = facetBits.get(facet.getKey());
+        for (String value : facet.getValue()) {
+          BitSet bits = valueBits.get(value);
+          bits.clear(ordinal);
+          if (bits.isEmpty()) valueBits.remove(value);
+        }
+        if (valueBits.isEmpty()) facetBits.remove(facet.getKey());
+      }
+    }
+    entries.set(ordinal, entry);
+    live.set(ordinal, entry != null);
+    for (int d = 0; d < 3; d++) hasBits[d].set(ordinal, entry != null && entry.has[d]);
+    for (int b = 0; b < N_BOUNDS; b++)
+      nanBits[b].set(ordinal, entry != null && entry.has[b / 2] && Double.isNaN(entry.bounds[b]));
+    if (entry != null) {
+      for (Map.Entry<String, Set<String>> facet : entry.facets.entrySet()) {
+        HashMap<String, BitSet> valueBits =
+            facetBits.computeIfAbsent(facet.getKey(), k -> new HashMap<>());
+        for (String value : facet.getValue())
+          valueBits.computeIfAbsent(value, k -> new BitSet()).set(ordinal);
+      }
+    }
+    stale.set(ordinal);
+    if (resorting) changedWhileResorting.set(ordinal);
+  }
+
+  /**
+   * This updates the entries of the datasets which called rangesChanged(). The caller must be
+   * synchronized on this.
+   */
+  private void refreshRanges() {
+    for (Iterator<String> it = rangeChanges.iterator(); it.hasNext(); ) {
+      String datasetID = it.next();
+      it.remove(); // before makeEntry, so a change after this is seen next time
+      Integer ordinal = ordinals.get(datasetID);
+      Entry entry = ordinal == null ? null : entries.get(ordinal);
+      if (entry == null) continue;
+      Entry newEntry = makeEntry(entry.edd, ordinal, entry.facets);
+      if (!Arrays.equals(entry.bounds, newEntry.bounds) || !Arrays.equals(entry.has, newEntry.has))
+        setEntry(ordinal, newEntry);
+    }
+  }
+
+  /**
+   * This ensures the entries have the datasets' current ranges and that the sorted columns aren't
+   * too out-of-date. If the columns need to be re-sorted, this sorts a snapshot of the bounds
+   * without holding the lock (the stale datasets are still tested one by one in the meantime). The
+   * caller must NOT be synchronized on this.
+   */
+  private void sync() {
+    final double values[][] = new double[N_BOUNDS][];
+    final int tOrdinals[][] = new int[N_BOUNDS][];
+    synchronized (this) {
+      refreshRanges();
+      if (resorting || stale.cardinality() <= 64 + live.cardinality() / 16) return;
+      resorting = true;
+      changedWhileResorting.clear();
+      for (int b = 0; b < N_BOUNDS; b++) {
+        int n = 0;
+        for (int ordinal = live.nextSetBit(0); ordinal >= 0; ordinal = live.nextSetBit(ordinal + 1))
+          if (!Double.isNaN(entries.get(ordinal).bounds[b])) n++;
+        values[b] = new double[n];
+        tOrdinals[b] = new int[n];
+        n = 0;
+        for (int ordinal = live.nextSetBit(0);
+            ordinal >= 0;
+            ordinal = live.nextSetBit(ordinal + 1)) {
+          double d = entries.get(ordinal).bounds[b];
+          if (Double.isNaN(d)) continue;
+          values[b][n] = d;
+          tOrdinals[b][n++] = ordinal;
+        }
+      }
+    }
+
+    boolean sorted = false;
+    try {
+      for (int b = 0; b < N_BOUNDS; b++) {
+        final double bValues[] = values[b];
+        int n = bValues.length;
+        Integer order[] = new Integer[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        Arrays.sort(order, (i1, i2) -> Double.compare(bValues[i1], bValues[i2]));
+        double sValues[] = new double[n];
+        int sOrdinals[] = new int[n];
+        for (int i = 0; i < n; i++) {
+          sValues[i] = bValues[order[i]];
+          sOrdinals[i] = tOrdinals[b][order[i]];
+        }
+        values[b] = sValues;
+        tOrdinals[b] = sOrdinals;
+      }
+      sorted = true;
+    } finally {
+      synchronized (this) {
+        if (sorted) {
+          for (int b = 0; b < N_BOUNDS; b++) {
+            sortedValues[b] = values[b];
+            sortedOrdinals[b] = tOrdinals[b];
+          }
+          // the snapshot is current except for the datasets which changed since it was made
+          stale.clear();
+          stale.or(changedWhileResorting);
+        }
+        resorting = false;
+      }
+    }
+  }
+
+  /**
+   * This finds the datasets whose (non-NaN) bound is &gt;= (or &gt;) value (if atLeast) or &lt;=
+   * (or &lt;) value (if !atLeast). The caller must be synchronized on this and should have called
+   * sync().
+   */
+  private BitSet boundBits(int bound, boolean atLeast, boolean inclusive, double value) {
+    BitSet bits = new BitSet();
+    double values[] = sortedValues[bound];
+    int n = values.length;
+    // find the first sorted value which is >= (if atLeast == inclusive) or > value
+    boolean findGE = atLeast == inclusive;
+    int lo = 0, hi = n;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (findGE ? values[mid] < value : values[mid] <= value) lo = mid + 1;
+      else hi = mid;
+    }
+    int from = atLeast ? lo : 0;
+    int to = atLeast ? n : lo;
+    for (int i = from; i < to; i++) bits.set(sortedOrdinals[bound][i]);
+
+    // the stale ordinals are tested one by one
+    bits.andNot(stale);
+    for (int ordinal = stale.nextSetBit(0); ordinal >= 0; ordinal = stale.nextSetBit(ordinal + 1)) {
+      Entry entry = entries.get(ordinal);
+      if (entry == null) continue;
+      double d = entry.bounds[bound];
+      if (atLeast ? (inclusive ? d >= value : d > value) : (inclusive ? d <= value : d < value))
+        bits.set(ordinal);
+    }
+    return bits;
+  }
+
+  /**
+   * This finds the datasets which are in the bounding box and time range, with the same tests as
+   * advanced search: if a dimension is tested (i.e., its min or max isn't NaN), datasets without
+   * that variable don't match. For a given min (or max), datasets with a NaN destinationMax (or
+   * destinationMin) don't match, except for time, where a NaN destinationMax may mean "now" so it
+   * matches.
+   *
+   * @return the ordinals of the matching datasets
+   */
+  public BitSet boundingBox(
+      double minLon, double maxLon, double minLat, double maxLat, double minTime, double maxTime) {
+    sync();
+    synchronized (this) {
+      return boundingBoxBits(minLon, maxLon, minLat, maxLat, minTime, maxTime);
+    }
+  }
+
+  /** This does the work for boundingBox(). The caller must be synchronized on this. */
+  private BitSet boundingBoxBits(
+      double minLon, double maxLon, double minLat, double maxLat, double minTime, double maxTime) {
+    BitSet result = (BitSet) live.clone();
+    double mins[] = {minLon, minLat, minTime};
+    double maxs[] = {maxLon, maxLat, maxTime};
+    for (int d = 0; d < 3; d++) {
+      if (Double.isNaN(mins[d]) && Double.isNaN(maxs[d])) continue;
+      result.and(hasBits[d]);
+      if (!Double.isNaN(mins[d])) {
+        BitSet bits = boundBits(2 * d + 1, true, true, mins[d]);
+        if (d == TIME) bits.or(nanBits[TIME_MAX]);
+        result.and(bits);
+      }
+      if (!Double.isNaN(maxs[d])) result.and(boundBits(2 * d, false, true, maxs[d]));
+    }
+    return result;
+  }
+
+  /**
+   * This finds the datasets which may match a constraint on one of the bounds, e.g., maxTime &gt;=
+   * 1.7e9. The numeric tests are a little lenient (so that this finds at least the datasets that
+   * PrimitiveArray.testValueOpValue() would accept, which tests = &lt;= and &gt;= with
+   * Math2.almostEqual).
+   *
+   * @param bound e.g., TIME_MAX
+   * @param op one of EDDTable.OPERATORS
+   * @param value the constraint value
+   * @return the ordinals of the datasets which may match, or null if the index can't narrow the
+   *     search (e.g., for != and regex constraints and NaN values).
+   */
+  public BitSet constraint(int bound, String op, double value) {
+    if (Double.isNaN(value) || Double.isInfinite(value)) return null;
+    if (!op.equals(">=")
+        && !op.equals(">")
+        && !op.equals("<=")
+        && !op.equals("<")
+        && !op.equals("=")) return null;
+    sync();
+    double fudge = Math.abs(value) * 1e-6 + 1e-6;
+    synchronized (this) {
+      return switch (op) {
+        case ">=", ">" -> boundBits(bound, true, true, value - fudge);
+        case "<=", "<" -> boundBits(bound, false, true, value + fudge);
+        default -> { // "="
+          BitSet bits = boundBits(bound, true, true, value - fudge);
+          bits.and(boundBits(bound, false, true, value + fudge));
+          yield bits;
+        }
+      };
+    }
+  }
+
+  /**
+   * This finds the datasets which have a categoryInfo value.
+   *
+   * @param attribute e.g., institution
+   * @param value e.g., noaa ndbc
+   * @return the ordinals of the datasets with that value (an empty BitSet if none)
+   */
+  public synchronized BitSet facet(String attribute, String value) {
+    HashMap<String, BitSet> valueBits = facetBits.get(attribute);
+    BitSet bits = valueBits == null ? null : valueBits.get(value);
+    return bits == null ? new BitSet() : (BitSet) bits.clone();
+  }
+
+  /**
+   * This returns the datasetIDs of the ordinals.
+   *
+   * @param tOrdinals the ordinals (e.g., from boundingBox())
+   * @return the datasetIDs (in ordinal order) of the ordinals that are indexed datasets
+   */
+  public synchronized StringArray datasetIDs(BitSet tOrdinals) {
+    StringArray sa = new StringArray();
+    for (int ordinal = tOrdinals.nextSetBit(0);
+        ordinal >= 0;
+        ordinal = tOrdinals.nextSetBit(ordinal + 1)) {
+      if (live.get(ordinal)) sa.add(datasetIDs.get(ordinal));
+    }
+    return sa;
+  }
+}
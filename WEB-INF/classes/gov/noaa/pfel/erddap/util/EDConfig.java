@@ -18,6 +18,7 @@ import gov.noaa.pfel.erddap.util.Metrics.FeatureFlag;
 import java.awt.Color;
 import java.awt.Image;
 import java.nio.file.Path;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
 import software.amazon.awssdk.transfer.s3.S3TransferManager;
@@ -59,6 +60,7 @@ public class EDConfig {
   public final String fullCacheDirectory;
   public final String fullDecompressedDirectory;
   public final String fullDecompressedGenerateDatasetsXmlDirectory;
+  public final String fullGridChunkCacheDirectory;
   public final String fullLogsDirectory;
   public final String fullCopyDirectory;
   public final String fullLuceneDirectory;
@@ -175,9 +177,31 @@ public class EDConfig {
   public static final int DEFAULT_slowDownTroubleMillis = 1000;
   public static final int DEFAULT_unusualActivity = 10000;
   public static final int DEFAULT_updateMaxEvents = 10;
+  // file events for a dataset are coalesced until there are no new events for watchDebounceMillis
+  // (or the first event was watchMaxDelayMillis ago). See SharedWatchService.processEvents.
+  public static final int DEFAULT_watchDebounceMillis = 1000;
+  public static final int DEFAULT_watchMaxDelayMillis = 30000;
   public static final int DEFAULT_unusualActivityFailPercent = 25;
   public static final boolean DEFAULT_showLoadErrorsOnStatusPage = true;
   public static final int DEFAULT_lowMemCacheGbLimit = 4;
+  // the number of RequestScheduler slots for each RequestClass (in RequestClass order)
+  public static final int DEFAULT_requestSlotsMetadata = 100;
+  public static final int DEFAULT_requestSlotsSmallData = 50;
+  public static final int DEFAULT_requestSlotsLargeDownload = 20;
+  public static final int DEFAULT_requestSlotsImage = 30;
+  public static final int DEFAULT_requestQueueMaxSeconds = 120;
+  // response compression (see OutputStreamFromHttpResponse and ResponseEncoding)
+  public static final String DEFAULT_compressionEncodings = "zstd,gzip,deflate";
+  public static final int DEFAULT_compressionLevel = 6; // like gzip's default
+  public static final int DEFAULT_compressionMinBytes = 1024;
+  public static final int DEFAULT_compressionThreads =
+      Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+  // 1 = crawl directories and catalogs serially. Parallel crawling is opt-in, since it multiplies
+  // the load on the file system or remote server (and with parallel dataset loads).
+  public static final int DEFAULT_fileVisitorThreads = 1;
+  // tasks are mostly downloads, so a few taskThreads (but 1 task per dataset) is plenty
+  public static final int DEFAULT_taskThreads = 4;
+  public static final int DEFAULT_taskThreadsPerDataset = 1;
 
   // Mqtt default configs
   public static final String DEFAULT_MQTT_HOST = "localhost";
@@ -204,7 +228,26 @@ public class EDConfig {
   public int slowDownTroubleMillis = DEFAULT_slowDownTroubleMillis;
   public int unusualActivity = DEFAULT_unusualActivity;
   public int updateMaxEvents = DEFAULT_updateMaxEvents;
+  public int watchDebounceMillis = DEFAULT_watchDebounceMillis;
+  public int watchMaxDelayMillis = DEFAULT_watchMaxDelayMillis;
   public int unusualActivityFailPercent = DEFAULT_unusualActivityFailPercent;
+  public int[] requestSlots = {
+    DEFAULT_requestSlotsMetadata,
+    DEFAULT_requestSlotsSmallData,
+    DEFAULT_requestSlotsLargeDownload,
+    DEFAULT_requestSlotsImage
+  };
+  public long requestQueueMaxMillis = DEFAULT_requestQueueMaxSeconds * 1000L;
+  // the encodings ERDDAP may use for responses, in order of preference
+  public String[] compressionEncodings = String2.split(DEFAULT_compressionEncodings, ',');
+  public int compressionLevel = DEFAULT_compressionLevel;
+  // fileType (e.g., .nc) -> compressionLevel for that fileType (0 = don't compress)
+  public Map<String, Integer> compressionLevels = new HashMap<>();
+  public int compressionMinBytes = DEFAULT_compressionMinBytes;
+  public int compressionThreads = DEFAULT_compressionThreads;
+  public int fileVisitorThreads = DEFAULT_fileVisitorThreads;
+  public int taskThreads = DEFAULT_taskThreads;
+  public int taskThreadsPerDataset = DEFAULT_taskThreadsPerDataset;
 
   public final String[] categoryAttributes; // as it appears in metadata (and used for hashmap)
   public final String[] categoryAttributesInURLs; // fileNameSafe (as used in URLs)
@@ -282,7 +325,21 @@ public class EDConfig {
   @FeatureFlag public boolean touchThreadOnlyWhenItems = true;
   @FeatureFlag public boolean taskCacheClear = true;
   @FeatureFlag public boolean useNcMetadataForFileTable = true;
+  @FeatureFlag public boolean fileTableJournal = true;
+  @FeatureFlag public boolean virtualThreadWork = true;
+  @FeatureFlag public boolean originalSearchIndex = true;
+  @FeatureFlag public boolean catalogIndex = true;
+  // fromErddapStreaming is for EDDTableFromErddap only. EDDGridFromErddap still gets data via DAP,
+  // one partial request (see partialRequestMaxBytes) at a time.
+  @FeatureFlag public boolean fromErddapStreaming = true;
+  // fromErddapPassThrough is off by default because it changes what users of existing
+  // redirect=false EDDTableFromErddap datasets get: a passed-through response is the source
+  // ERDDAP's response as is, so its history attribute is the source's and doesn't have this
+  // ERDDAP's request line, and this ERDDAP doesn't make the file (e.g., in its cache) itself.
+  // Admins can turn it on in setup.xml with <fromErddapPassThrough>true</fromErddapPassThrough>.
+  @FeatureFlag public boolean fromErddapPassThrough = false;
   @FeatureFlag public boolean backgroundCreateSubsetTables = true;
+  @FeatureFlag public boolean tableWriterAllLz4 = false;
 
   public EDConfig(String webInfParentDirectory) throws Exception {
     fullPaletteDirectory = webInfParentDirectory + "WEB-INF/cptfiles/";
@@ -386,6 +443,8 @@ public class EDConfig {
     fullDecompressedDirectory = bigParentDirectory + "decompressed/";
     fullDecompressedGenerateDatasetsXmlDirectory =
         bigParentDirectory + "decompressed/GenerateDatasetsXml/";
+    // not in cache/, since that is cleared periodically and when a dataset is reloaded
+    fullGridChunkCacheDirectory = bigParentDirectory + "gridChunkCache/";
     fullResetFlagDirectory = bigParentDirectory + "flag/";
     fullBadFilesFlagDirectory = bigParentDirectory + "badFilesFlag/";
     fullHardFlagDirectory = bigParentDirectory + "hardFlag/";
@@ -403,6 +462,7 @@ public class EDConfig {
     File2.makeDirectory(fullCacheDirectory);
     File2.makeDirectory(fullDecompressedDirectory);
     File2.makeDirectory(fullDecompressedGenerateDatasetsXmlDirectory);
+    File2.makeDirectory(fullGridChunkCacheDirectory);
     File2.makeDirectory(fullResetFlagDirectory);
     File2.makeDirectory(fullBadFilesFlagDirectory);
     File2.makeDirectory(fullHardFlagDirectory);
@@ -632,8 +692,15 @@ public class EDConfig {
     touchThreadOnlyWhenItems = getSetupEVBoolean(setup, ev, "touchThreadOnlyWhenItems", true);
     taskCacheClear = getSetupEVBoolean(setup, ev, "taskCacheClear", true);
     useNcMetadataForFileTable = getSetupEVBoolean(setup, ev, "useNcMetadataForFileTable", true);
+    fileTableJournal = getSetupEVBoolean(setup, ev, "fileTableJournal", true);
+    virtualThreadWork = getSetupEVBoolean(setup, ev, "virtualThreadWork", true);
+    originalSearchIndex = getSetupEVBoolean(setup, ev, "originalSearchIndex", true);
+    catalogIndex = getSetupEVBoolean(setup, ev, "catalogIndex", true);
+    fromErddapStreaming = getSetupEVBoolean(setup, ev, "fromErddapStreaming", true);
+    fromErddapPassThrough = getSetupEVBoolean(setup, ev, "fromErddapPassThrough", false);
     backgroundCreateSubsetTables =
         getSetupEVBoolean(setup, ev, "backgroundCreateSubsetTables", true);
+    tableWriterAllLz4 = getSetupEVBoolean(setup, ev, "tableWriterAllLz4", false);
     lowMemCacheGbLimit = getSetupEVInt(setup, ev, "lowMemCacheGbLimit", DEFAULT_lowMemCacheGbLimit);
     loadDatasetsMinMillis =
         Math.max(
@@ -648,6 +715,54 @@ public class EDConfig {
     partialRequestMaxCells =
         getSetupEVInt(setup, ev, "partialRequestMaxCells", DEFAULT_partialRequestMaxCells);
     unusualActivity = getSetupEVInt(setup, ev, "unusualActivity", DEFAULT_unusualActivity);
+    requestSlots =
+        new int[] {
+          Math.max(
+              1, getSetupEVInt(setup, ev, "requestSlotsMetadata", DEFAULT_requestSlotsMetadata)),
+          Math.max(
+              1, getSetupEVInt(setup, ev, "requestSlotsSmallData", DEFAULT_requestSlotsSmallData)),
+          Math.max(
+              1,
+              getSetupEVInt(
+                  setup, ev, "requestSlotsLargeDownload", DEFAULT_requestSlotsLargeDownload)),
+          Math.max(1, getSetupEVInt(setup, ev, "requestSlotsImage", DEFAULT_requestSlotsImage))
+        };
+    requestQueueMaxMillis =
+        Math.max(
+                1,
+                getSetupEVInt(setup, ev, "requestQueueMaxSeconds", DEFAULT_requestQueueMaxSeconds))
+            * 1000L;
+    compressionEncodings =
+        String2.split(
+            getSetupEVString(setup, ev, "compressionEncodings", DEFAULT_compressionEncodings)
+                .toLowerCase(),
+            ',');
+    compressionLevel =
+        Math2.minMax(0, 19, getSetupEVInt(setup, ev, "compressionLevel", DEFAULT_compressionLevel));
+    // e.g., .nc=1, .csv=4
+    for (String pair : String2.split(getSetupEVString(setup, ev, "compressionLevels", ""), ',')) {
+      if (pair.isEmpty()) continue;
+      int po = pair.indexOf('=');
+      int level = po < 0 ? Integer.MAX_VALUE : String2.parseInt(pair.substring(po + 1).trim());
+      if (level == Integer.MAX_VALUE)
+        String2.log(
+            "WARNING: unsupported <compressionLevels> item (should be fileType=level): " + pair);
+      else compressionLevels.put(pair.substring(0, po).trim(), Math2.minMax(0, 19, level));
+    }
+    compressionMinBytes =
+        Math.max(0, getSetupEVInt(setup, ev, "compressionMinBytes", DEFAULT_compressionMinBytes));
+    compressionThreads =
+        Math.max(1, getSetupEVInt(setup, ev, "compressionThreads", DEFAULT_compressionThreads));
+    fileVisitorThreads =
+        Math.max(1, getSetupEVInt(setup, ev, "fileVisitorThreads", DEFAULT_fileVisitorThreads));
+    taskThreads = Math.max(1, getSetupEVInt(setup, ev, "taskThreads", DEFAULT_taskThreads));
+    taskThreadsPerDataset =
+        Math.max(
+            1, getSetupEVInt(setup, ev, "taskThreadsPerDataset", DEFAULT_taskThreadsPerDataset));
+    watchDebounceMillis =
+        Math.max(0, getSetupEVInt(setup, ev, "watchDebounceMillis", DEFAULT_watchDebounceMillis));
+    watchMaxDelayMillis =
+        Math.max(0, getSetupEVInt(setup, ev, "watchMaxDelayMillis", DEFAULT_watchMaxDelayMillis));
     showLoadErrorsOnStatusPage =
         getSetupEVBoolean(
             setup, ev, "showLoadErrorsOnStatusPage", DEFAULT_showLoadErrorsOnStatusPage);
@@ -741,6 +856,7 @@ public class EDConfig {
 
   private void lazyInitializeStatics() {
     FileVisitorDNLS.FILE_VISITOR_DIRECTORY = fullFileVisitorDirectory;
+    FileVisitorDNLS.nThreads = fileVisitorThreads;
     SgtMap.drawPoliticalBoundaries = politicalBoundariesActive;
   }
 
@@ -5,7 +5,6 @@
 package gov.noaa.pfel.erddap.util;
 
 import com.cohort.array.Attributes;
-import com.cohort.array.IntArray;
 import com.cohort.array.LongArray;
 import com.cohort.array.PAType;
 import com.cohort.array.PrimitiveArray;
@@ -51,6 +50,7 @@ import gov.noaa.pfel.erddap.dataset.metadata.LocalizedAttributes;
 import gov.noaa.pfel.erddap.util.EDMessages.Message;
 import gov.noaa.pfel.erddap.variable.EDV;
 import gov.noaa.pfel.erddap.variable.EDVGridAxis;
+import io.prometheus.metrics.model.snapshots.Unit;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
@@ -282,8 +282,17 @@ public class EDStatic {
 
   public static final String ipAddressNotSetYet = "NotSetYet";
   public static final String ipAddressUnknown = "(unknownIPAddress)";
-  public static final ConcurrentHashMap<String, IntArray> ipAddressQueue =
-      new ConcurrentHashMap<>(); // ipAddress -> list of request#
+  // admission control for requests: nRequests per ipAddress and slots per RequestClass
+  // (The slots and metrics are set in init().)
+  public static final RequestScheduler requestScheduler =
+      new RequestScheduler(
+          new int[] {
+            EDConfig.DEFAULT_requestSlotsMetadata,
+            EDConfig.DEFAULT_requestSlotsSmallData,
+            EDConfig.DEFAULT_requestSlotsLargeDownload,
+            EDConfig.DEFAULT_requestSlotsImage
+          },
+          null);
   public static final int DEFAULT_ipAddressMaxRequestsActive = 2; // in datasets.xml
   public static final int DEFAULT_ipAddressMaxRequests =
       15; // in datasets.xml //more requests will see Too Many Requests error. This must be at least
@@ -350,11 +359,23 @@ public class EDStatic {
       10; // for now, 1 value applies to each dataset's decompressed dir
   public static final int DEFAULT_decompressedCacheMaxMinutesOld = 15;
   public static final int DEFAULT_nGridThreads = 1;
+  public static final int DEFAULT_gridReadAheadChunks = 0;
+  public static final int DEFAULT_ncFileCacheMaxOpen = 0;
   public static final int DEFAULT_nTableThreads = 1;
+  public static final int DEFAULT_nLoadDatasetsThreads = 1;
+  public static final int DEFAULT_loadDatasetTimeoutMinutes = 15;
   public static int decompressedCacheMaxGB = DEFAULT_decompressedCacheMaxGB;
   public static int decompressedCacheMaxMinutesOld = DEFAULT_decompressedCacheMaxMinutesOld;
   public static int nGridThreads = DEFAULT_nGridThreads; // will be a valid number 1+
+  // 0=GridDataAccessor gets each chunk from the source when it is needed
+  public static int gridReadAheadChunks = DEFAULT_gridReadAheadChunks; // valid number 0+
+  // 0=NcFileCache is off. This is passed to NcFileCache.setMaxOpen.
+  public static int ncFileCacheMaxOpen = DEFAULT_ncFileCacheMaxOpen; // valid number 0+
   public static int nTableThreads = DEFAULT_nTableThreads; // will be a valid number 1+
+  // 1=LoadDatasets constructs the datasets one at a time (in the LoadDatasets thread)
+  public static int nLoadDatasetsThreads = DEFAULT_nLoadDatasetsThreads; // valid number 1+
+  // loadDatasetTimeoutMinutes is only used if nLoadDatasetsThreads > 1
+  public static int loadDatasetTimeoutMinutes = DEFAULT_loadDatasetTimeoutMinutes;
   public static String convertInterpolateRequestCSVExample = null; // may be null or ""
   public static String convertInterpolateDatasetIDVariableList[] = new String[0]; // may be [0]
 
@@ -404,14 +425,15 @@ public class EDStatic {
   public static final AtomicInteger nextEmail = new AtomicInteger(0);
 
   // taskThread variables
-  // Funnelling all taskThread tasks through one taskThread ensures
-  //  that the memory requirements, bandwidth usage, cpu usage,
-  //  and stress on remote servers will be minimal
-  //  (although at the cost of not doing the tasks faster / in parallel).
-  // In a grid of erddaps, each will have its own taskThread, which is appropriate.
+  // Funnelling all taskThread tasks through a few (config.taskThreads) taskThreads,
+  //  with at most config.taskThreadsPerDataset tasks per dataset running at once,
+  //  ensures that the memory requirements, bandwidth usage, cpu usage,
+  //  and stress on remote servers will be modest,
+  //  while one dataset's slow tasks don't hold up every other dataset's tasks.
+  // In a grid of erddaps, each will have its own taskThreads, which is appropriate.
   public static final ArrayList<Object[]> taskList =
       new ArrayList<>(); // keep here in case TaskThread needs to be restarted
-  private static TaskThread taskThread;
+  private static final ArrayList<TaskThread> taskThreads = new ArrayList<>(); // guarded by taskList
 
   /**
    * lastAssignedTask is used by EDDxxxCopy instances to keep track of the number of the last task
@@ -432,6 +454,10 @@ public class EDStatic {
    */
   public static final AtomicInteger nextTask = new AtomicInteger(0);
 
+  /** This decides which task on the taskList each taskThread should do next. */
+  public static final TaskScheduler taskScheduler =
+      new TaskScheduler(taskList, lastFinishedTask, nextTask);
+
   // touchThread variables
   // Funnelling all touchThread tasks through one touchThread ensures that
   //  touches that timeout don't slow down other processes.
@@ -623,6 +649,8 @@ public class EDStatic {
 
       config = new EDConfig(webInfParentDirectory);
       metrics = new Metrics();
+      requestScheduler.setSlots(config.requestSlots);
+      requestScheduler.setMetrics(metrics);
 
       if (!config.skipEmailThread) {
         ensureEmailThreadIsRunningIfNeeded();
@@ -1608,8 +1636,9 @@ public class EDStatic {
     sb.append(errorsDuringMajorReload);
     sb.append(
         "Unique users (since startup)                            n = "
-            + ipAddressQueue.size()
+            + requestScheduler.nClients()
             + "\n");
+    sb.append("Request slots: " + requestScheduler.statistics() + "\n");
     sb.append("Response Failed    Time (since last major LoadDatasets) ");
     sb.append(
         String2.getBriefTimeDistributionStatistics(failureTimesDistributionLoadDatasets) + "\n");
@@ -1628,7 +1657,10 @@ public class EDStatic {
     synchronized (taskList) {
       ensureTaskThreadIsRunningIfNeeded(); // clients (like this class) are responsible for checking
       // on it
-      long tElapsedTime = taskThread == null ? -1 : taskThread.elapsedTime();
+      long tElapsedTime = -1;
+      for (TaskThread tTaskThread : taskThreads)
+        tElapsedTime = Math.max(tElapsedTime, tTaskThread.elapsedTime());
+      int nRunningTasks = taskScheduler.nRunning();
       sb.append(
           "TaskThread has finished "
               + (lastFinishedTask.get() + 1)
@@ -1637,9 +1669,15 @@ public class EDStatic {
               + " tasks.  "
               + (tElapsedTime < 0
                   ? "Currently, no task is running.\n"
-                  : "The current task has been running for "
-                      + Calendar2.elapsedTimeString(tElapsedTime)
-                      + ".\n"));
+                  : nRunningTasks <= 1
+                      ? "The current task has been running for "
+                          + Calendar2.elapsedTimeString(tElapsedTime)
+                          + ".\n"
+                      : "Currently, "
+                          + nRunningTasks
+                          + " tasks are running. The oldest has been running for "
+                          + Calendar2.elapsedTimeString(tElapsedTime)
+                          + ".\n"));
     }
 
     sb.append("TaskThread Failed    Time (since last Daily Report)     ");
@@ -2492,9 +2530,9 @@ public class EDStatic {
         touchThread = null;
       }
 
-      if (taskThread != null) {
-        taskThread.interrupt();
-        taskThread = null;
+      synchronized (taskList) {
+        for (TaskThread tTaskThread : taskThreads) tTaskThread.interrupt();
+        taskThreads.clear();
       }
 
       if (emailThread != null) {
@@ -2596,48 +2634,54 @@ public class EDStatic {
   }
 
   /**
-   * This checks if the task thread is live/running and not stalled. If it is stalled, this will
-   * stop it.
+   * This checks if the task threads are live/running and not stalled. If one is stalled, this will
+   * stop it. Stopped and finished task threads are removed from taskThreads (and their current
+   * tasks are marked as finished).
    *
-   * @return true if the task thread is live/running. If false, taskThread will be null.
+   * @return true if at least one task thread is live/running.
    */
   public static boolean isTaskThreadRunning() {
     synchronized (taskList) {
-      if (taskThread == null) return false;
-
-      if (taskThread.isAlive()) {
-        // is it stalled?
-        long eTime = taskThread.elapsedTime();
-        long maxTime = 6 * Calendar2.MILLIS_PER_HOUR; // appropriate??? user settable???
-        if (eTime > maxTime) {
-
-          // taskThread is stalled; interrupt it
-          String tError =
-              "%%% TaskThread ERROR: EDStatic is interrupting a stalled taskThread ("
-                  + Calendar2.elapsedTimeString(eTime)
-                  + " > "
-                  + Calendar2.elapsedTimeString(maxTime)
-                  + ") at "
-                  + Calendar2.getCurrentISODateTimeStringLocalTZ();
-          email(config.emailEverythingToCsv, "taskThread Stalled", tError);
-          String2.log(tError);
-
-          stopThread(taskThread, 10); // short time; it is already in trouble
-          // runningThreads.remove   not necessary since new one is put() in below
-          lastFinishedTask.set(nextTask.get() - 1);
-          taskThread = null;
-          return false;
+      for (int i = taskThreads.size() - 1; i >= 0; i--) {
+        TaskThread tTaskThread = taskThreads.get(i);
+        int tCurrentTask = tTaskThread.currentTask();
+
+        if (tTaskThread.isAlive()) {
+          // is it stalled?
+          long eTime = tTaskThread.elapsedTime();
+          long maxTime = 6 * Calendar2.MILLIS_PER_HOUR; // appropriate??? user settable???
+          if (eTime > maxTime) {
+
+            // taskThread is stalled; interrupt it
+            String tError =
+                "%%% TaskThread ERROR: EDStatic is interrupting a stalled "
+                    + tTaskThread.getName()
+                    + " ("
+                    + Calendar2.elapsedTimeString(eTime)
+                    + " > "
+                    + Calendar2.elapsedTimeString(maxTime)
+                    + ") at "
+                    + Calendar2.getCurrentISODateTimeStringLocalTZ();
+            email(config.emailEverythingToCsv, "taskThread Stalled", tError);
+            String2.log(tError);
+
+            stopThread(tTaskThread, 10); // short time; it is already in trouble
+            // runningThreads.remove   not necessary since new one is put() in below
+            taskScheduler.finish(tCurrentTask);
+            taskThreads.remove(i);
+          }
+        } else {
+          // it isn't alive
+          String2.log(
+              "%%% TaskThread: EDStatic noticed that "
+                  + tTaskThread.getName()
+                  + " is finished at "
+                  + Calendar2.getCurrentISODateTimeStringLocalTZ());
+          if (tCurrentTask >= 0) taskScheduler.finish(tCurrentTask);
+          taskThreads.remove(i);
         }
-        return true;
-      } else {
-        // it isn't alive
-        String2.log(
-            "%%% TaskThread: EDStatic noticed that taskThread is finished at "
-                + Calendar2.getCurrentISODateTimeStringLocalTZ());
-        lastFinishedTask.set(nextTask.get() - 1);
-        taskThread = null;
-        return false;
       }
+      return !taskThreads.isEmpty();
     }
   }
 
@@ -2709,29 +2753,84 @@ public class EDStatic {
   }
 
   /**
-   * This ensures the task thread is running if there are tasks to do. This won't throw an
-   * exception.
+   * This ensures that enough task threads (up to config.taskThreads) are running to do the tasks
+   * that can be started now. This won't throw an exception.
    */
   public static void ensureTaskThreadIsRunningIfNeeded() {
     synchronized (taskList) {
-      // this checks if it is running and not stalled
-      if (isTaskThreadRunning()) return;
+      // this removes stalled and finished taskThreads
+      isTaskThreadRunning();
+
+      // Are there tasks which no taskThread will start soon?
+      int nIdle = 0;
+      for (TaskThread tTaskThread : taskThreads) if (tTaskThread.currentTask() < 0) nIdle++;
+      int nStartable = taskScheduler.nStartable(config.taskThreadsPerDataset);
+      int nToStart = Math.min(config.taskThreads - taskThreads.size(), nStartable - nIdle);
+
+      // start new taskThreads
+      for (int i = 0; i < nToStart; i++) {
+        String tName = "TaskThread";
+        for (int which = 2; isTaskThreadName(tName); which++) tName = "TaskThread" + which;
+        TaskThread tTaskThread = new TaskThread(tName);
+        taskThreads.add(tTaskThread);
+        runningThreads.put(tTaskThread.getName(), tTaskThread);
+        String2.log(
+            "%%% TaskThread: new "
+                + tName
+                + " started at "
+                + Calendar2.getCurrentISODateTimeStringLocalTZ()
+                + " nPendingTasks="
+                + taskScheduler.nWaiting());
+        tTaskThread.start();
+      }
+    }
+  }
 
-      // taskThread isn't running
-      // Are there no tasks to do?
-      int nPending = taskList.size() - nextTask.get();
-      if (nPending <= 0) return; // no need to start it
+  /** This returns true if one of the taskThreads has the name. The caller must sync on taskList. */
+  private static boolean isTaskThreadName(String tName) {
+    for (TaskThread tTaskThread : taskThreads) if (tTaskThread.getName().equals(tName)) return true;
+    return false;
+  }
 
-      // need to start a new taskThread
-      taskThread = new TaskThread(nextTask.get());
-      runningThreads.put(taskThread.getName(), taskThread);
-      String2.log(
-          "%%% TaskThread: new TaskThread started at "
-              + Calendar2.getCurrentISODateTimeStringLocalTZ()
-              + " nPendingTasks="
-              + nPending);
-      taskThread.start();
-      return;
+  /**
+   * TaskThreads use this to start their next task.
+   *
+   * @param taskThread the calling taskThread
+   * @return the started task, or null if there is no task the taskThread can start now (in which
+   *     case the taskThread has been removed from taskThreads and must exit)
+   */
+  static TaskScheduler.Started startNextTask(TaskThread taskThread) {
+    synchronized (taskList) {
+      TaskScheduler.Started started = taskScheduler.start(config.taskThreadsPerDataset);
+      if (started == null) {
+        taskThreads.remove(taskThread);
+        return null;
+      }
+      if (metrics != null) {
+        String taskType = "" + started.taskType();
+        metrics
+            .taskQueueWaitDuration
+            .labelValues(taskType)
+            .observe(Unit.millisToSeconds(started.waitMillis()));
+        metrics
+            .taskQueueDepth
+            .labelValues(taskType)
+            .set(taskScheduler.nWaiting(started.taskType()));
+      }
+      return started;
+    }
+  }
+
+  /**
+   * TaskThreads use this when a task is finished (successfully or not).
+   *
+   * @param taskNumber the task's number
+   */
+  static void finishTask(int taskNumber) {
+    synchronized (taskList) {
+      taskScheduler.finish(taskNumber);
+      // other datasets' tasks may be waiting for another taskThread
+      ensureTaskThreadIsRunningIfNeeded();
     }
   }
 
@@ -2764,22 +2863,38 @@ public class EDStatic {
   }
 
   /**
-   * This adds a task to the taskList if it (other than TASK_SET_FLAG) isn't already on the
-   * taskList.
+   * This adds a task to the taskList if it (other than TASK_SET_FLAG) isn't already waiting on the
+   * taskList. The task belongs to the dataset indicated by the task's settings (see
+   * TaskScheduler.datasetID), if any.
    *
    * @return the task number that was assigned to the task, or -1 if it was a duplicate task.
    */
   public static int addTask(Object taskOA[]) {
+    return addTask(null, taskOA);
+  }
+
+  /**
+   * This adds a task to the taskList if it (other than TASK_SET_FLAG) isn't already waiting on the
+   * taskList.
+   *
+   * @param datasetID the datasetID the task belongs to (for the per-dataset limits), or null to use
+   *     the datasetID indicated by the task's settings (see TaskScheduler.datasetID), if any.
+   * @return the task number that was assigned to the task, or -1 if it was a duplicate task (whose
+   *     settings replaced the waiting task's settings).
+   */
+  public static int addTask(String datasetID, Object taskOA[]) {
     synchronized (taskList) {
 
       // Note that all task creators check that
       //   EDStatic.lastFinishedTask >= lastAssignedTask(datasetID).  I.E., tasks are all done,
       // before again creating new tasks.
-      // So no need to see if this new task duplicates an existing unfinished task.
-
-      // add the task to the list
-      taskList.add(taskOA);
-      return taskList.size() - 1;
+      // But different datasets (or reloads of the same dataset) may make the same task,
+      // so taskScheduler doesn't add a task that duplicates a waiting task.
+      int taskNumber = taskScheduler.add(datasetID, taskOA);
+      Integer taskType = (Integer) taskOA[0];
+      if (metrics != null)
+        metrics.taskQueueDepth.labelValues("" + taskType).set(taskScheduler.nWaiting(taskType));
+      return taskNumber;
     }
   }
 
@@ -3633,7 +3748,8 @@ public class EDStatic {
           nFilesToDownload++;
           int tTaskNumber = -1;
           if (nFilesToDownload <= maxTasks) {
-            tTaskNumber = lastTask = addTask(taskOA);
+            tTaskNumber = addTask(tDatasetID, taskOA);
+            if (tTaskNumber >= 0) lastTask = tTaskNumber;
           } else {
             // This is weird but the number is really only used in the log below.
             tTaskNumber = -nFilesToDownload;
@@ -1,9 +1,11 @@
 package gov.noaa.pfel.erddap.util;
 
 import com.cohort.util.String2;
+import gov.noaa.pfel.coastwatch.griddata.NcFileCache;
 import gov.noaa.pfel.coastwatch.sgt.GSHHS;
 import gov.noaa.pfel.coastwatch.sgt.SgtMap;
 import gov.noaa.pfel.coastwatch.sgt.SgtUtil;
+import gov.noaa.pfel.coastwatch.util.SharedWatchService;
 import io.prometheus.metrics.core.metrics.Counter;
 import io.prometheus.metrics.core.metrics.Gauge;
 import io.prometheus.metrics.core.metrics.Histogram;
@@ -78,6 +80,22 @@ public class Metrics {
           .nativeOnly()
           .build();
 
+  public Histogram taskQueueWaitDuration =
+      Histogram.builder()
+          .name("task_queue_wait_seconds")
+          .help("Time tasks waited on the taskList before a TaskThread started them, in seconds")
+          .unit(Unit.SECONDS)
+          .labelNames("task_type")
+          .nativeOnly()
+          .build();
+
+  public Gauge taskQueueDepth =
+      Gauge.builder()
+          .name("task_queue_depth")
+          .help("Number of tasks waiting on the taskList for a TaskThread")
+          .labelNames("task_type")
+          .build();
+
   public Histogram loadDatasetsDuration =
       Histogram.builder()
           .name("load_datasets_duration_seconds")
@@ -103,6 +121,52 @@ public class Metrics {
           .nativeOnly()
           .build();
 
+  public Histogram requestQueueWaitDuration =
+      Histogram.builder()
+          .name("request_queue_wait_seconds")
+          .help("Time requests waited for a RequestScheduler slot, in seconds")
+          .unit(Unit.SECONDS)
+          .labelNames("request_class", "outcome")
+          .nativeOnly()
+          .build();
+
+  public Gauge requestQueueDepth =
+      Gauge.builder()
+          .name("request_queue_depth")
+          .help("Number of requests waiting for a RequestScheduler slot")
+          .labelNames("request_class")
+          .build();
+
+  public Gauge requestsActive =
+      Gauge.builder()
+          .name("request_active_count")
+          .help("Number of requests with a RequestScheduler slot")
+          .labelNames("request_class")
+          .build();
+
+  public Histogram responseCompressionDuration =
+      Histogram.builder()
+          .name("response_compression_duration_seconds")
+          .help("Time spent writing compressed responses, in seconds")
+          .unit(Unit.SECONDS)
+          .labelNames("encoding")
+          .nativeOnly()
+          .build();
+
+  public Counter responseCompressionBytesIn =
+      Counter.builder()
+          .name("response_compression_bytes_in_total")
+          .help("Count of uncompressed bytes written to compressed responses")
+          .labelNames("encoding")
+          .build();
+
+  public Counter responseCompressionBytesOut =
+      Counter.builder()
+          .name("response_compression_bytes_out_total")
+          .help("Count of compressed bytes sent in compressed responses")
+          .labelNames("encoding")
+          .build();
+
   public Gauge datasetsCount =
       Gauge.builder()
           .name("dataset_count")
@@ -147,9 +211,17 @@ public class Metrics {
       PrometheusRegistry.defaultRegistry.register(loadDatasetsDuration);
       PrometheusRegistry.defaultRegistry.register(emailThreadDuration);
       PrometheusRegistry.defaultRegistry.register(taskThreadDuration);
+      PrometheusRegistry.defaultRegistry.register(taskQueueWaitDuration);
+      PrometheusRegistry.defaultRegistry.register(taskQueueDepth);
       PrometheusRegistry.defaultRegistry.register(touchThreadDuration);
       PrometheusRegistry.defaultRegistry.register(responseDuration);
       PrometheusRegistry.defaultRegistry.register(emailsCountDistribution);
+      PrometheusRegistry.defaultRegistry.register(requestQueueWaitDuration);
+      PrometheusRegistry.defaultRegistry.register(requestQueueDepth);
+      PrometheusRegistry.defaultRegistry.register(requestsActive);
+      PrometheusRegistry.defaultRegistry.register(responseCompressionDuration);
+      PrometheusRegistry.defaultRegistry.register(responseCompressionBytesIn);
+      PrometheusRegistry.defaultRegistry.register(responseCompressionBytesOut);
       PrometheusRegistry.defaultRegistry.register(datasetsCount);
       PrometheusRegistry.defaultRegistry.register(datasetsFailedCount);
       PrometheusRegistry.defaultRegistry.register(shedRequests);
@@ -160,6 +232,9 @@ public class Metrics {
       SgtMap.nationalBoundaries.counter.register(PrometheusRegistry.defaultRegistry);
       SgtMap.stateBoundaries.counter.register(PrometheusRegistry.defaultRegistry);
       SgtMap.rivers.counter.register(PrometheusRegistry.defaultRegistry);
+      PrometheusRegistry.defaultRegistry.register(NcFileCache.requests);
+      PrometheusRegistry.defaultRegistry.register(NcFileCache.openFiles);
+      PrometheusRegistry.defaultRegistry.register(SharedWatchService.events);
     }
     datasetsCount.initLabelValues(DatasetCategory.grid.name());
     datasetsCount.initLabelValues(DatasetCategory.table.name());
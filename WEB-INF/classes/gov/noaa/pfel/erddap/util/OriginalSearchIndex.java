@@ -0,0 +1,288 @@
+package gov.noaa.pfel.erddap.util;
+
+import com.cohort.array.IntArray;
+import com.cohort.util.String2;
+import gov.noaa.pfel.erddap.dataset.EDD;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This is an in-memory inverted index (for one language) for the original search engine. For each
+ * dataset, it holds the searchBytes and title (so they aren't remade for each search) and it adds
+ * the dataset's terms (the runs of letters and digits in the lowercase searchString) to the index's
+ * term -&gt; datasets posting lists.
+ *
+ * <p>A search word (or phrase) can only be found in a dataset's searchBytes if the dataset has
+ * terms which match the word's runs of letters and digits (e.g., the word "wind" needs a term which
+ * contains "wind", and the phrase "sea surface" needs a term which ends with "sea" and a term which
+ * starts with "surface"). So candidates() quickly finds the (usually few) datasets which may match
+ * the positive search words and searchRank() just has to search those datasets' searchBytes. To
+ * find the terms which contain (or end with) a run without checking every term, the index also has
+ * a trigram -&gt; terms map: only the terms with the run's rarest trigram need to be checked. The
+ * ranks are exactly the same as EDD.searchRank()'s (which are based on where the words are found in
+ * the searchBytes, so words in the title rank higher than words in the summary, etc.).
+ *
+ * <p>The index is updated incrementally: a dataset is (re)indexed when update() is called with a
+ * different EDD object (e.g., after it was reloaded) and is removed when update() is called with
+ * null (e.g., after it was unloaded). Changes to a dataset's metadata without a reload (e.g.,
+ * actual_range changed by an update) aren't seen until the dataset is reloaded.
+ */
+public class OriginalSearchIndex {
+
+  /** The information about one indexed dataset. */
+  private record Entry(EDD edd, int ordinal, byte[] searchBytes, String title, String[] terms) {}
+
+  private final int language;
+  private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+  // these are guarded by lock
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  private final TreeMap<String, IntArray> postings = new TreeMap<>(); // term -> sorted ordinals
+  private final HashMap<String, HashSet<String>> trigramTerms = new HashMap<>(); // trigram -> terms
+  private int nextOrdinal = 0;
+
+  /**
+   * The candidates for a search: the ordinals of the datasets (among those indexed when the
+   * candidates were found) which may match.
+   */
+  public record Candidates(BitSet ordinals, int endOrdinal) {}
+
+  /**
+   * The constructor.
+   *
+   * @param language the index of the language of the searchBytes and titles
+   */
+  public OriginalSearchIndex(int language) {
+    this.language = language;
+  }
+
+  /** This returns the number of indexed datasets. */
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * This ensures the index has the current version of a dataset. This is fast if the dataset is
+   * already indexed.
+   *
+   * @param datasetID the datasetID
+   * @param edd the current EDD for the datasetID, or null if the dataset has been removed
+   */
+  public void update(String datasetID, EDD edd) {
+    Entry entry = entries.get(datasetID);
+    if (entry == null ? edd == null : entry.edd == edd) return;
+
+    // make the new entry outside of the lock
+    Entry newEntry = null;
+    if (edd != null) {
+      String searchString = edd.searchString(language).toLowerCase();
+      HashSet<String> terms = new HashSet<>();
+      int po = 0;
+      int length = searchString.length();
+      while (po < length) {
+        while (po < length && !Character.isLetterOrDigit(searchString.charAt(po))) po++;
+        int start = po;
+        while (po < length && Character.isLetterOrDigit(searchString.charAt(po))) po++;
+        if (po > start) terms.add(searchString.substring(start, po));
+      }
+      newEntry =
+          new Entry(
+              edd,
+              -1, // set below
+              String2.stringToUtf8Bytes(searchString),
+              edd.title(language),
+              terms.toArray(new String[0]));
+    }
+
+    lock.writeLock().lock();
+    try {
+      entry = entries.get(datasetID);
+      if (entry == null ? edd == null : entry.edd == edd) return; // another thread did it
+      if (entry != null) {
+        for (String term : entry.terms) {
+          IntArray ordinals = postings.get(term);
+          int which = Arrays.binarySearch(ordinals.array, 0, ordinals.size(), entry.ordinal);
+          if (which >= 0) ordinals.remove(which);
+          if (ordinals.size() == 0) {
+            postings.remove(term);
+            for (int i = 0; i + 3 <= term.length(); i++) {
+              String trigram = term.substring(i, i + 3);
+              HashSet<String> terms = trigramTerms.get(trigram);
+              terms.remove(term);
+              if (terms.isEmpty()) trigramTerms.remove(trigram);
+            }
+          }
+        }
+        entries.remove(datasetID);
+      }
+      if (newEntry != null) {
+        int ordinal = nextOrdinal++; // ordinals increase, so the posting lists stay sorted
+        newEntry =
+            new Entry(newEntry.edd, ordinal, newEntry.searchBytes, newEntry.title, newEntry.terms);
+        for (String term : newEntry.terms) {
+          IntArray ordinals = postings.get(term);
+          if (ordinals == null) {
+            ordinals = new IntArray();
+            postings.put(term, ordinals);
+            for (int i = 0; i + 3 <= term.length(); i++)
+              trigramTerms
+                  .computeIfAbsent(term.substring(i, i + 3), k -> new HashSet<>())
+                  .add(term);
+          }
+          ordinals.add(ordinal);
+        }
+        entries.put(datasetID, newEntry);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * This finds the datasets which may match all of the positive search words.
+   *
+   * @param words the search words (lowercase, with the '-' of negative words and the enclosing
+   *     quotes of phrases removed)
+   * @param isNegative indicates which words are negative words
+   * @return the candidates, or null if all datasets are candidates (e.g., all words are negative)
+   */
+  public Candidates candidates(String words[], boolean isNegative[]) {
+    lock.readLock().lock();
+    try {
+      BitSet result = null;
+      for (int w = 0; w < words.length; w++) {
+        if (isNegative[w]) continue;
+        List<String> runs = new ArrayList<>();
+        String word = words[w];
+        int po = 0;
+        int length = word.length();
+        while (po < length) {
+          while (po < length && !Character.isLetterOrDigit(word.charAt(po))) po++;
+          int start = po;
+          while (po < length && Character.isLetterOrDigit(word.charAt(po))) po++;
+          if (po > start) runs.add(word.substring(start, po));
+        }
+        int nRuns = runs.size();
+        for (int r = 0; r < nRuns; r++) {
+          // a run at the start (or end) of the word may start (or end) within a term
+          boolean openStart = r == 0 && Character.isLetterOrDigit(word.charAt(0));
+          boolean openEnd = r == nRuns - 1 && Character.isLetterOrDigit(word.charAt(length - 1));
+          BitSet matches = datasetsWithTerm(runs.get(r), openStart, openEnd);
+          if (result == null) result = matches;
+          else result.and(matches);
+        }
+      }
+      return result == null ? null : new Candidates(result, nextOrdinal);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * This returns the ordinals of the datasets which have a term which matches run. The caller must
+   * hold the read lock.
+   *
+   * @param run a run of letters and digits
+   * @param openStart if true, the run may start within a term
+   * @param openEnd if true, the run may end within a term
+   */
+  private BitSet datasetsWithTerm(String run, boolean openStart, boolean openEnd) {
+    BitSet bits = new BitSet();
+    if (openStart) {
+      HashSet<String> terms = termsWithRarestTrigram(run);
+      if (terms == null) {
+        // run is too short to have a trigram, so check every term
+        for (Map.Entry<String, IntArray> posting : postings.entrySet()) {
+          String term = posting.getKey();
+          if (openEnd ? term.contains(run) : term.endsWith(run)) set(bits, posting.getValue());
+        }
+      } else {
+        for (String term : terms)
+          if (openEnd ? term.contains(run) : term.endsWith(run)) set(bits, postings.get(term));
+      }
+    } else if (openEnd) {
+      // the terms which start with run are together in the sorted map
+      for (Map.Entry<String, IntArray> posting : postings.tailMap(run, true).entrySet()) {
+        if (!posting.getKey().startsWith(run)) break;
+        set(bits, posting.getValue());
+      }
+    } else {
+      IntArray ordinals = postings.get(run);
+      if (ordinals != null) set(bits, ordinals);
+    }
+    return bits;
+  }
+
+  /**
+   * This returns the terms which have the run's rarest trigram (a superset of the terms which
+   * contain the run). The caller must hold the read lock.
+   *
+   * @param run a run of letters and digits
+   * @return the terms (don't change them), or null if run is shorter than 3 characters
+   */
+  private HashSet<String> termsWithRarestTrigram(String run) {
+    if (run.length() < 3) return null;
+    HashSet<String> rarest = null;
+    for (int i = 0; i + 3 <= run.length(); i++) {
+      HashSet<String> terms = trigramTerms.get(run.substring(i, i + 3));
+      if (terms == null) return new HashSet<>(); // no term contains the run
+      if (rarest == null || terms.size() < rarest.size()) rarest = terms;
+    }
+    return rarest;
+  }
+
+  /**
+   * This returns the number of terms which datasetsWithTerm checks for a run which may start and
+   * end within a term (for tests).
+   *
+   * @param run a run of letters and digits
+   * @return the number of terms checked
+   */
+  int nTermsChecked(String run) {
+    lock.readLock().lock();
+    try {
+      HashSet<String> terms = termsWithRarestTrigram(run);
+      return terms == null ? postings.size() : terms.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private static void set(BitSet bits, IntArray ordinals) {
+    int n = ordinals.size();
+    for (int i = 0; i < n; i++) bits.set(ordinals.get(i));
+  }
+
+  /**
+   * This is like edd.searchRank(language, isNegative, words, jump), but uses the cached searchBytes
+   * and title and quickly rejects datasets which aren't candidates.
+   *
+   * @param datasetID the datasetID
+   * @param edd the current EDD for the datasetID
+   * @param candidates from candidates() (may be null)
+   * @return the same rank as edd.searchRank()
+   */
+  public int searchRank(
+      String datasetID,
+      EDD edd,
+      Candidates candidates,
+      boolean isNegative[],
+      byte words[][],
+      int jump[][]) {
+    Entry entry = entries.get(datasetID);
+    if (entry == null || entry.edd != edd) // not (yet) indexed
+    return edd.searchRank(language, isNegative, words, jump);
+    if (candidates != null
+        && entry.ordinal < candidates.endOrdinal
+        && !candidates.ordinals.get(entry.ordinal)) return Integer.MAX_VALUE;
+    return EDD.searchRank(entry.searchBytes, entry.title, isNegative, words, jump);
+  }
+}
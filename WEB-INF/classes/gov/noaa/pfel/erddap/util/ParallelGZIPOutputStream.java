@@ -0,0 +1,203 @@
+package gov.noaa.pfel.erddap.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * This is like GZIPOutputStream, but it compresses blocks of the data in parallel (like pigz), so
+ * large responses aren't limited by the speed of one core. The result is one standard gzip member,
+ * so any gzip reader can read it.
+ *
+ * <p>The data is split into BLOCK_SIZE blocks. Each block is compressed by a task in the
+ * executorService with its own raw Deflater which is primed with the last 32KB of the previous
+ * block (so the compression ratio is almost as good as single-threaded gzip). Each block (except
+ * the last) ends with a SYNC_FLUSH, so the compressed blocks end on byte boundaries and can be
+ * concatenated. The compressed blocks are written in order by the thread calling write(). The CRC32
+ * of the uncompressed data is calculated by that thread, too.
+ *
+ * <p>The number of blocks in memory at once is limited by maxInFlight, so the memory use is bounded
+ * even if the destination is slow.
+ *
+ * <p>This is not thread-safe (like other OutputStreams).
+ */
+public class ParallelGZIPOutputStream extends OutputStream {
+
+  /** The size (in bytes) of the uncompressed blocks which are compressed in parallel. */
+  public static final int BLOCK_SIZE = 1 << 17; // 128KB
+
+  /** The size of deflate's window, so the size of the dictionary from the previous block. */
+  private static final int DICTIONARY_SIZE = 1 << 15; // 32KB
+
+  /** The gzip header: magic number, CM=deflate, no flags, no mtime, XFL=0, OS=0. */
+  private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+  private final OutputStream out;
+  private final ExecutorService executorService;
+  private final int level;
+  private final int maxInFlight;
+  private final ArrayDeque<Future<byte[]>> inFlight = new ArrayDeque<>();
+  private final CRC32 crc = new CRC32();
+  private byte[] block = new byte[BLOCK_SIZE];
+  private int blockSize = 0;
+  private byte[] previousBlock = null; // the previous full block (for the dictionary)
+  private long totalIn = 0;
+  private boolean closed = false;
+
+  /**
+   * The constructor. This writes the gzip header.
+   *
+   * @param out the destination for the compressed data. close() closes it.
+   * @param level the Deflater compression level (1 - 9)
+   * @param executorService the threads which compress the blocks (often shared by several
+   *     ParallelGZIPOutputStreams)
+   * @param maxInFlight the maximum number of blocks being compressed (or waiting to be written) at
+   *     once (at least 1). Usually the number of threads this stream should use.
+   * @throws IOException if trouble
+   */
+  public ParallelGZIPOutputStream(
+      OutputStream out, int level, ExecutorService executorService, int maxInFlight)
+      throws IOException {
+    this.out = out;
+    this.level = Math.max(Deflater.BEST_SPEED, Math.min(Deflater.BEST_COMPRESSION, level));
+    this.executorService = executorService;
+    this.maxInFlight = Math.max(1, maxInFlight);
+    out.write(HEADER);
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[] {(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (closed) throw new IOException("Stream closed");
+    crc.update(b, off, len);
+    totalIn += len;
+    while (len > 0) {
+      int n = Math.min(len, BLOCK_SIZE - blockSize);
+      System.arraycopy(b, off, block, blockSize, n);
+      blockSize += n;
+      off += n;
+      len -= n;
+      if (blockSize == BLOCK_SIZE) submitBlock(false);
+    }
+  }
+
+  /**
+   * This compresses the data written so far (in the current, partial block) and writes all of the
+   * compressed data to out, then flushes out. Frequent flushes reduce the compression ratio.
+   */
+  @Override
+  public void flush() throws IOException {
+    if (closed) return;
+    if (blockSize > 0) submitBlock(false);
+    while (!inFlight.isEmpty()) writeNext();
+    out.flush();
+  }
+
+  /** This finishes the compressed data, writes the gzip trailer, and closes out. */
+  @Override
+  public void close() throws IOException {
+    if (closed) return;
+    try {
+      submitBlock(true); // the last block (perhaps empty) marks the end of the deflate data
+      while (!inFlight.isEmpty()) writeNext();
+      byte[] trailer = new byte[8];
+      writeIntLE(trailer, 0, (int) crc.getValue());
+      writeIntLE(trailer, 4, (int) totalIn); // ISIZE is the size mod 2^32
+      out.write(trailer);
+    } finally {
+      closed = true;
+      for (Future<byte[]> future : inFlight) future.cancel(true);
+      inFlight.clear();
+      out.close();
+    }
+  }
+
+  /**
+   * This submits the current block to be compressed, then writes the compressed blocks which are
+   * done (or waits for the oldest block if too many are in flight).
+   *
+   * @param last true if this is the last block of the stream
+   */
+  private void submitBlock(boolean last) throws IOException {
+    byte[] data = block;
+    int dataSize = blockSize;
+    byte[] dictionary = previousBlock;
+    inFlight.add(executorService.submit(() -> compress(data, dataSize, dictionary, level, last)));
+    // a partial block (from flush()) is too small to be a good dictionary
+    previousBlock = dataSize == BLOCK_SIZE ? data : null;
+    block = new byte[BLOCK_SIZE];
+    blockSize = 0;
+
+    while (!inFlight.isEmpty() && (inFlight.size() >= maxInFlight || inFlight.peek().isDone()))
+      writeNext();
+  }
+
+  /** This waits for the oldest block to be compressed and writes it to out. */
+  private void writeNext() throws IOException {
+    try {
+      out.write(inFlight.remove().get());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while compressing.");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException ioe) throw ioe;
+      throw new IOException(cause);
+    }
+  }
+
+  /**
+   * This compresses one block with a raw Deflater.
+   *
+   * @param data the uncompressed data
+   * @param dataSize the number of bytes in data to be compressed
+   * @param dictionary the previous full block (the last DICTIONARY_SIZE bytes are used), or null
+   * @param level the compression level
+   * @param last true if this is the last block (so it is finished, not just flushed)
+   * @return the compressed data
+   */
+  static byte[] compress(byte[] data, int dataSize, byte[] dictionary, int level, boolean last) {
+    Deflater deflater = new Deflater(level, true); // true=nowrap, i.e., raw deflate
+    try {
+      if (dictionary != null)
+        deflater.setDictionary(dictionary, dictionary.length - DICTIONARY_SIZE, DICTIONARY_SIZE);
+      deflater.setInput(data, 0, dataSize);
+      if (last) deflater.finish();
+      byte[] result = new byte[dataSize / 2 + 64];
+      int resultSize = 0;
+      while (true) {
+        if (resultSize == result.length) result = Arrays.copyOf(result, result.length * 2);
+        int n =
+            deflater.deflate(
+                result,
+                resultSize,
+                result.length - resultSize,
+                last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+        resultSize += n;
+        // For SYNC_FLUSH, deflate is done when it doesn't fill the output buffer.
+        if (last ? deflater.finished() : resultSize < result.length) break;
+      }
+      return Arrays.copyOf(result, resultSize);
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static void writeIntLE(byte[] bar, int po, int i) {
+    bar[po] = (byte) i;
+    bar[po + 1] = (byte) (i >> 8);
+    bar[po + 2] = (byte) (i >> 16);
+    bar[po + 3] = (byte) (i >> 24);
+  }
+}
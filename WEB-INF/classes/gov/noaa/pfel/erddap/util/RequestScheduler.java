@@ -0,0 +1,411 @@
+package gov.noaa.pfel.erddap.util;
+
+import com.cohort.util.Math2;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This is the admission control system for requests to ERDDAP. It replaces the old ipAddressQueue
+ * (a list of request numbers for each ipAddress, where each request polled until it was in the top
+ * ipAddressMaxRequestsActive of its ipAddress's list).
+ *
+ * <p>Each request is registered (so the number of simultaneous requests from each ipAddress is
+ * known, see ipAddressMaxRequests), then it must acquire a slot for its RequestClass before being
+ * processed. There are a limited number of slots for each RequestClass, so e.g., lots of large
+ * downloads can't use all of the servlet's threads and prevent metadata and image requests from
+ * being processed.
+ *
+ * <p>When a slot becomes available, it is given to the waiting request (from an ipAddress that
+ * isn't already using ipAddressMaxRequestsActive slots) whose ipAddress has the fewest active
+ * requests relative to its weight (ties go to the request that has waited longest). So one heavy
+ * user (e.g., a scraper) can't fill all of the slots while other users' requests wait: it gets
+ * roughly its fair share.
+ *
+ * <p>If a request can't get a slot within maxWaitMillis, acquire returns null and the caller should
+ * send a 503 Service Unavailable error with a Retry-After header (see retryAfterSeconds).
+ *
+ * <p>This is thread-safe.
+ */
+public class RequestScheduler {
+
+  /** The classes of requests. The names are used as labels in the metrics. */
+  public enum RequestClass {
+    metadata,
+    small_data,
+    large_download,
+    image,
+  }
+
+  /** Information about the requests from one ipAddress. Guarded by lock. */
+  private static class Client {
+    int nRequests; // registered (waiting or active)
+    int nActive; // has a slot
+  }
+
+  /** A request waiting for a slot. Guarded by lock. */
+  private static class Waiter {
+    final Client client;
+    final double weight;
+    final int maxActive;
+    final long seq;
+    final Condition condition;
+    boolean granted;
+
+    Waiter(Client client, double weight, int maxActive, long seq, Condition condition) {
+      this.client = client;
+      this.weight = weight;
+      this.maxActive = maxActive;
+      this.seq = seq;
+      this.condition = condition;
+    }
+  }
+
+  /** A granted slot. Close it (once) when the request is finished. */
+  public final class Permit implements AutoCloseable {
+    private final Client client;
+    private final RequestClass requestClass;
+    private final long startNanos = System.nanoTime();
+    private boolean closed;
+
+    private Permit(Client client, RequestClass requestClass) {
+      this.client = client;
+      this.requestClass = requestClass;
+    }
+
+    public RequestClass requestClass() {
+      return requestClass;
+    }
+
+    @Override
+    public void close() {
+      release(this);
+    }
+  }
+
+  /**
+   * The weight of the average service time (per RequestClass) given to each new service time. The
+   * average is used to estimate Retry-After.
+   */
+  private static final double SERVICE_TIME_ALPHA = 0.1;
+
+  private final ReentrantLock lock = new ReentrantLock(true);
+  private final EnumMap<RequestClass, Integer> slots = new EnumMap<>(RequestClass.class);
+  private final EnumMap<RequestClass, Integer> nActive = new EnumMap<>(RequestClass.class);
+  private final EnumMap<RequestClass, List<Waiter>> waiters = new EnumMap<>(RequestClass.class);
+  private final EnumMap<RequestClass, Double> avgServiceMillis = new EnumMap<>(RequestClass.class);
+
+  /**
+   * ipAddress -> Client. Like the old ipAddressQueue, entries are only removed by forget(), so
+   * size() is the number of unique users since startup.
+   */
+  private final ConcurrentHashMap<String, Client> clients = new ConcurrentHashMap<>();
+
+  private long nextSeq = 0;
+  private volatile Metrics metrics;
+
+  /**
+   * The constructor.
+   *
+   * @param nSlots the number of slots for each RequestClass (in RequestClass order)
+   * @param metrics the metrics to be updated (or null if none)
+   */
+  public RequestScheduler(int[] nSlots, Metrics metrics) {
+    for (RequestClass rc : RequestClass.values()) {
+      slots.put(rc, Math.max(1, nSlots[rc.ordinal()]));
+      nActive.put(rc, 0);
+      waiters.put(rc, new ArrayList<>());
+      avgServiceMillis.put(rc, 1000.0);
+    }
+    this.metrics = metrics;
+  }
+
+  /**
+   * This changes the number of slots for each RequestClass. If there are now more slots, waiting
+   * requests get them right away. If there are now fewer, no active requests are affected.
+   *
+   * @param nSlots the number of slots for each RequestClass (in RequestClass order)
+   */
+  public void setSlots(int[] nSlots) {
+    lock.lock();
+    try {
+      for (RequestClass rc : RequestClass.values())
+        slots.put(rc, Math.max(1, nSlots[rc.ordinal()]));
+      dispatch();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * This sets the metrics to be updated.
+   *
+   * @param metrics the metrics (or null if none)
+   */
+  public void setMetrics(Metrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * This registers a request from an ipAddress as soon as it arrives (before it waits for a slot).
+   * Every call to register must be matched by a call to unregister (e.g., in a finally block).
+   *
+   * @param ipAddress the requester's ipAddress
+   * @return the number of registered requests from this ipAddress (including this one). If this is
+   *     &gt; ipAddressMaxRequests, the request should be rejected (429 Too Many Requests).
+   */
+  public int register(String ipAddress) {
+    Client client = clients.computeIfAbsent(ipAddress, k -> new Client());
+    lock.lock();
+    try {
+      return ++client.nRequests;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * This unregisters a request from an ipAddress (when it is finished).
+   *
+   * @param ipAddress the requester's ipAddress
+   */
+  public void unregister(String ipAddress) {
+    Client client = clients.get(ipAddress);
+    if (client == null) // e.g., just forgotten
+    return;
+    lock.lock();
+    try {
+      if (client.nRequests > 0) client.nRequests--;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * This forgets everything about an ipAddress (e.g., because it was just added to
+   * ipAddressUnlimited). Requests from it that are active or waiting are unaffected.
+   *
+   * @param ipAddress the requester's ipAddress
+   */
+  public void forget(String ipAddress) {
+    clients.remove(ipAddress);
+  }
+
+  /**
+   * @return the number of unique ipAddresses that have made requests (since startup).
+   */
+  public int nClients() {
+    return clients.size();
+  }
+
+  /**
+   * This waits (up to maxWaitMillis) for a slot for a request.
+   *
+   * @param ipAddress the requester's ipAddress
+   * @param weight the requester's weight (usually 1). A requester with weight 2 and 4 active
+   *     requests is treated like a requester with weight 1 and 2 active requests.
+   * @param maxActive If &gt; 0, the request won't get a slot while its ipAddress already has
+   *     maxActive active requests (see ipAddressMaxRequestsActive). If &lt;= 0, there is no limit.
+   * @param requestClass the request's class
+   * @param maxWaitMillis the maximum time to wait for a slot
+   * @return a Permit (which must be closed when the request is finished) or null if the request
+   *     didn't get a slot within maxWaitMillis.
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public Permit acquire(
+      String ipAddress, double weight, int maxActive, RequestClass requestClass, long maxWaitMillis)
+      throws InterruptedException {
+    long startNanos = System.nanoTime();
+    Client client = clients.computeIfAbsent(ipAddress, k -> new Client());
+    List<Waiter> classWaiters = waiters.get(requestClass);
+    lock.lock();
+    try {
+      // join the queue, then see if this (or another) waiter can get a slot right away
+      Waiter waiter =
+          new Waiter(client, Math.max(weight, 0.001), maxActive, nextSeq++, lock.newCondition());
+      classWaiters.add(waiter);
+      dispatch();
+      if (!waiter.granted) updateQueueDepth(requestClass);
+      long remainingNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+      boolean interrupted = true;
+      try {
+        while (!waiter.granted && remainingNanos > 0)
+          remainingNanos = waiter.condition.awaitNanos(remainingNanos);
+        interrupted = false;
+      } finally {
+        if (!waiter.granted) {
+          // interrupted or timed out: leave the queue
+          classWaiters.remove(waiter);
+          updateQueueDepth(requestClass);
+        } else if (interrupted) {
+          // granted, but interrupted before this thread woke up: no Permit will be returned,
+          // so give the slot back
+          freeSlot(client, requestClass);
+          dispatch();
+        }
+      }
+      recordWait(requestClass, startNanos, waiter.granted);
+      return waiter.granted ? new Permit(client, requestClass) : null;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** This is used by Permit.close(). */
+  private void release(Permit permit) {
+    lock.lock();
+    try {
+      if (permit.closed) return;
+      permit.closed = true;
+      RequestClass rc = permit.requestClass;
+      freeSlot(permit.client, rc);
+      double millis = (System.nanoTime() - permit.startNanos) / 1e6;
+      avgServiceMillis.put(
+          rc, (1 - SERVICE_TIME_ALPHA) * avgServiceMillis.get(rc) + SERVICE_TIME_ALPHA * millis);
+      // this slot (and, since client.nActive decreased, maybe a slot in another class) is free
+      dispatch();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** This gives a slot to a client. lock must be held. */
+  private void grant(Client client, RequestClass rc) {
+    nActive.put(rc, nActive.get(rc) + 1);
+    client.nActive++;
+    updateActive(rc);
+  }
+
+  /** This takes a slot back from a client. lock must be held. */
+  private void freeSlot(Client client, RequestClass rc) {
+    nActive.put(rc, nActive.get(rc) - 1);
+    client.nActive--;
+    updateActive(rc);
+  }
+
+  /**
+   * This gives free slots to the waiters that deserve them most (fewest active requests per unit of
+   * weight, then longest waiting). lock must be held.
+   */
+  private void dispatch() {
+    for (RequestClass rc : RequestClass.values()) {
+      List<Waiter> classWaiters = waiters.get(rc);
+      boolean changed = false;
+      while (!classWaiters.isEmpty() && nActive.get(rc) < slots.get(rc)) {
+        Waiter best = null;
+        for (Waiter w : classWaiters) {
+          if (w.maxActive > 0 && w.client.nActive >= w.maxActive) continue;
+          if (best == null) {
+            best = w;
+            continue;
+          }
+          double wShare = w.client.nActive / w.weight;
+          double bestShare = best.client.nActive / best.weight;
+          if (wShare < bestShare || (wShare == bestShare && w.seq < best.seq)) best = w;
+        }
+        if (best == null) break; // all of the waiters' clients are at their limit
+        classWaiters.remove(best);
+        best.granted = true;
+        grant(best.client, rc);
+        best.condition.signal();
+        changed = true;
+      }
+      if (changed) updateQueueDepth(rc);
+    }
+  }
+
+  /**
+   * This returns the number of seconds a rejected client should wait before trying again (for the
+   * Retry-After header), based on the number of waiting requests and the average service time.
+   *
+   * @param requestClass the request's class
+   * @return the number of seconds (1 - 600)
+   */
+  public int retryAfterSeconds(RequestClass requestClass) {
+    lock.lock();
+    try {
+      double seconds =
+          (waiters.get(requestClass).size() + 1.0)
+              * avgServiceMillis.get(requestClass)
+              / slots.get(requestClass)
+              / 1000;
+      return Math2.minMax(1, 600, (int) Math.ceil(seconds));
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the number of requests waiting for a slot of this class
+   */
+  public int queueDepth(RequestClass requestClass) {
+    lock.lock();
+    try {
+      return waiters.get(requestClass).size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the number of requests of this class that have a slot
+   */
+  public int nActive(RequestClass requestClass) {
+    lock.lock();
+    try {
+      return nActive.get(requestClass);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * This returns a one line summary, e.g., for the status page.
+   *
+   * @return e.g., "metadata active=2/100 waiting=0, small_data ..."
+   */
+  public String statistics() {
+    StringBuilder sb = new StringBuilder();
+    lock.lock();
+    try {
+      for (RequestClass rc : RequestClass.values()) {
+        if (sb.length() > 0) sb.append(", ");
+        sb.append(
+            rc.name()
+                + " active="
+                + nActive.get(rc)
+                + "/"
+                + slots.get(rc)
+                + " waiting="
+                + waiters.get(rc).size());
+      }
+    } finally {
+      lock.unlock();
+    }
+    return sb.toString();
+  }
+
+  private void recordWait(RequestClass rc, long startNanos, boolean admitted) {
+    Metrics tMetrics = metrics;
+    if (tMetrics != null)
+      tMetrics
+          .requestQueueWaitDuration
+          .labelValues(rc.name(), admitted ? "admitted" : "rejected")
+          .observe((System.nanoTime() - startNanos) / 1e9);
+  }
+
+  private void updateQueueDepth(RequestClass rc) {
+    Metrics tMetrics = metrics;
+    if (tMetrics != null)
+      tMetrics.requestQueueDepth.labelValues(rc.name()).set(waiters.get(rc).size());
+  }
+
+  private void updateActive(RequestClass rc) {
+    Metrics tMetrics = metrics;
+    if (tMetrics != null) tMetrics.requestsActive.labelValues(rc.name()).set(nActive.get(rc));
+  }
+}
@@ -0,0 +1,271 @@
+package gov.noaa.pfel.erddap.util;
+
+import gov.noaa.pfel.erddap.dataset.EDD;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This decides which task on the taskList a TaskThread should do next, so that several TaskThreads
+ * can work on the taskList at once.
+ *
+ * <p>The tasks are numbered (their index in the taskList) as before, and lastFinishedTask is still
+ * the number of the last task for which it and all previous tasks are finished (so the
+ * EDDxxxCopy-style "lastFinishedTask &gt;= lastAssignedTask(datasetID)" tests still work), but
+ * tasks may now be started and finished out of order:
+ *
+ * <ul>
+ *   <li>Each task belongs to a dataset (or to no dataset, e.g., TASK_CLEAR_CACHE). A dataset's
+ *       tasks are started in the order they were added and at most maxPerDataset of them run at
+ *       once (so one dataset can't tie up all of the TaskThreads or swamp its remote server). A
+ *       TASK_SET_FLAG only starts when all of its dataset's previous tasks are finished.
+ *   <li>Among the datasets that can start a task, the task with the highest priority class is
+ *       started first (ties go to the task that was added first). So quick, user-visible work
+ *       (e.g., cacheFromUrl downloads) isn't stuck behind a long series of background copies.
+ *   <li>If an identical task (one that would make the same file, or the same dataset's subset
+ *       table, or clear the cache) of the same dataset is already waiting to be started, add()
+ *       doesn't add another task, but the waiting task's settings are replaced by the newer ones
+ *       (e.g., a newer EDD). An identical task of another dataset is added, so that each dataset's
+ *       TASK_SET_FLAG still comes after all of its tasks.
+ * </ul>
+ *
+ * <p>All methods synchronize on the taskList (like the rest of EDStatic's taskList code).
+ */
+public class TaskScheduler {
+
+  /** Priority classes (lower runs first). */
+  public static final int PRIORITY_USER = 0, PRIORITY_DATASET = 1, PRIORITY_BACKGROUND = 2;
+
+  /** A task that has been added but not yet started. */
+  private record Waiting(int number, Integer taskType, long addedMillis) {}
+
+  /** A task that has been started. */
+  public record Started(int number, Integer taskType, String datasetID, long waitMillis) {}
+
+  private final List<Object[]> taskList;
+  private final AtomicInteger lastFinishedTask;
+  private final AtomicInteger nextTask;
+
+  // these are guarded by taskList
+  private final LinkedHashMap<String, ArrayDeque<Waiting>> waiting = new LinkedHashMap<>();
+  private final HashMap<String, Integer> waitingKeys = new HashMap<>(); // dedupKey -> task#
+  private final HashMap<Integer, String> numberToKey = new HashMap<>(); // task# -> dedupKey
+  private final HashMap<String, Integer> nRunning = new HashMap<>(); // datasetID -> nRunning
+  private final HashMap<Integer, String> running = new HashMap<>(); // task# -> datasetID
+  private final HashSet<Integer> startedAhead = new HashSet<>(); // started, > nextTask
+  private final HashSet<Integer> finishedAhead = new HashSet<>(); // finished, > lastFinished+1
+  private final HashMap<Integer, Integer> nWaitingByType = new HashMap<>();
+  private int nWaiting = 0;
+
+  /**
+   * The constructor.
+   *
+   * @param taskList the list of tasks (see TaskThread for the contents of each taskOA)
+   * @param lastFinishedTask is set to the number of the last task for which it and all previous
+   *     tasks are finished
+   * @param nextTask is set to the number of the first task which hasn't been started
+   */
+  public TaskScheduler(
+      List<Object[]> taskList, AtomicInteger lastFinishedTask, AtomicInteger nextTask) {
+    this.taskList = taskList;
+    this.lastFinishedTask = lastFinishedTask;
+    this.nextTask = nextTask;
+  }
+
+  /** This returns the priority class of a taskType. */
+  public static int priority(Integer taskType) {
+    if (TaskThread.TASK_DOWNLOAD.equals(taskType)
+        || TaskThread.TASK_SET_FLAG.equals(taskType)
+        || TaskThread.TASK_CLEAR_CACHE.equals(taskType)) return PRIORITY_USER;
+    if (TaskThread.TASK_CREATE_SUBSET_TABLE.equals(taskType)) return PRIORITY_DATASET;
+    return PRIORITY_BACKGROUND; // the copy tasks
+  }
+
+  /**
+   * This returns the datasetID that a task obviously belongs to (from the task's settings), or ""
+   * if none. Note that a TASK_MAKE_A_DATAFILE's EDD is the source dataset (e.g., an EDDxxxCopy's
+   * child), so the task creator must specify the datasetID.
+   */
+  public static String datasetID(Object taskOA[]) {
+    Integer taskType = (Integer) taskOA[0];
+    if (TaskThread.TASK_SET_FLAG.equals(taskType)) return (String) taskOA[1];
+    if (TaskThread.TASK_CREATE_SUBSET_TABLE.equals(taskType)) return ((EDD) taskOA[1]).datasetID();
+    return "";
+  }
+
+  /**
+   * This returns the key which identifies identical tasks, or null if tasks of this type are never
+   * de-duplicated.
+   */
+  static String dedupKey(Object taskOA[]) {
+    Integer taskType = (Integer) taskOA[0];
+    if (TaskThread.TASK_MAKE_A_DATAFILE.equals(taskType))
+      return taskType + " " + taskOA[3] + taskOA[4] + taskOA[5];
+    if (TaskThread.TASK_DAP_TO_NC.equals(taskType)) return taskType + " " + taskOA[4];
+    if (TaskThread.TASK_ALL_DAP_TO_NC.equals(taskType) || TaskThread.TASK_DOWNLOAD.equals(taskType))
+      return taskType + " " + taskOA[2];
+    if (TaskThread.TASK_CREATE_SUBSET_TABLE.equals(taskType))
+      return taskType + " " + ((EDD) taskOA[1]).datasetID();
+    if (TaskThread.TASK_CLEAR_CACHE.equals(taskType)) return "" + taskType;
+    return null; // e.g., TASK_SET_FLAG
+  }
+
+  /**
+   * This adds a task to the taskList, unless an identical task of the same dataset is waiting to be
+   * started.
+   *
+   * @param datasetID the datasetID the task belongs to (or null to use datasetID(taskOA))
+   * @param taskOA the task
+   * @return the task number that was assigned to the task, or -1 if it was a duplicate task (whose
+   *     settings replaced the waiting task's settings).
+   */
+  public int add(String datasetID, Object taskOA[]) {
+    synchronized (taskList) {
+      if (datasetID == null) datasetID = datasetID(taskOA);
+      String key = dedupKey(taskOA);
+      if (key != null) {
+        key = datasetID + "\n" + key; // the waiting task must be in the same dataset's queue
+        Integer number = waitingKeys.get(key);
+        if (number != null) {
+          taskList.set(number, taskOA);
+          return -1;
+        }
+      }
+      taskList.add(taskOA);
+      int number = taskList.size() - 1;
+      Integer taskType = (Integer) taskOA[0];
+      waiting
+          .computeIfAbsent(datasetID, k -> new ArrayDeque<>())
+          .add(new Waiting(number, taskType, System.currentTimeMillis()));
+      if (key != null) {
+        waitingKeys.put(key, number);
+        numberToKey.put(number, key);
+      }
+      nWaiting++;
+      nWaitingByType.merge(taskType, 1, Integer::sum);
+      return number;
+    }
+  }
+
+  /**
+   * This starts the next task: the one with the highest priority (ties go to the first added) whose
+   * dataset has fewer than maxPerDataset running tasks.
+   *
+   * @param maxPerDataset the maximum number of running tasks per dataset (&gt;=1)
+   * @return the started task, or null if no task can be started now
+   */
+  public Started start(int maxPerDataset) {
+    synchronized (taskList) {
+      String bestID = null;
+      Waiting best = null;
+      for (Map.Entry<String, ArrayDeque<Waiting>> entry : waiting.entrySet()) {
+        Waiting head = entry.getValue().peek();
+        int tnRunning = nRunning.getOrDefault(entry.getKey(), 0);
+        if (tnRunning >= maxPerDataset
+            || (tnRunning > 0 && TaskThread.TASK_SET_FLAG.equals(head.taskType))) continue;
+        int diff = best == null ? -1 : priority(head.taskType) - priority(best.taskType);
+        if (diff < 0 || (diff == 0 && head.number < best.number)) {
+          bestID = entry.getKey();
+          best = head;
+        }
+      }
+      if (best == null) return null;
+
+      ArrayDeque<Waiting> queue = waiting.get(bestID);
+      queue.poll();
+      if (queue.isEmpty()) waiting.remove(bestID);
+      String key = numberToKey.remove(best.number);
+      if (key != null) waitingKeys.remove(key);
+      nWaiting--;
+      nWaitingByType.merge(best.taskType, -1, Integer::sum);
+      nRunning.merge(bestID, 1, Integer::sum);
+      running.put(best.number, bestID);
+
+      // advance nextTask past all started tasks
+      if (best.number == nextTask.get()) {
+        int next = best.number + 1;
+        while (startedAhead.remove(next)) next++;
+        nextTask.set(next);
+      } else {
+        startedAhead.add(best.number);
+      }
+      return new Started(
+          best.number, best.taskType, bestID, System.currentTimeMillis() - best.addedMillis);
+    }
+  }
+
+  /**
+   * This notes that a started task is finished (successfully or not) and throws away the task's
+   * settings. This does nothing if the task isn't running (e.g., it was already finished).
+   *
+   * @param number the task's number
+   */
+  public void finish(int number) {
+    synchronized (taskList) {
+      String datasetID = running.remove(number);
+      if (datasetID == null) return;
+      if (nRunning.merge(datasetID, -1, Integer::sum) <= 0) nRunning.remove(datasetID);
+      taskList.set(number, null); // throw away the task info (gc)
+
+      // advance lastFinishedTask past all finished tasks
+      if (number == lastFinishedTask.get() + 1) {
+        int last = number;
+        while (finishedAhead.remove(last + 1)) last++;
+        lastFinishedTask.set(last);
+      } else {
+        finishedAhead.add(number);
+      }
+    }
+  }
+
+  /** This returns the number of tasks which are waiting to be started. */
+  public int nWaiting() {
+    synchronized (taskList) {
+      return nWaiting;
+    }
+  }
+
+  /** This returns the number of tasks of one taskType which are waiting to be started. */
+  public int nWaiting(Integer taskType) {
+    synchronized (taskList) {
+      return nWaitingByType.getOrDefault(taskType, 0);
+    }
+  }
+
+  /**
+   * This returns (approximately) the number of tasks which could be started now, i.e., how many
+   * more taskThreads would be busy.
+   *
+   * @param maxPerDataset the maximum number of running tasks per dataset (&gt;=1)
+   */
+  public int nStartable(int maxPerDataset) {
+    synchronized (taskList) {
+      int n = 0;
+      for (Map.Entry<String, ArrayDeque<Waiting>> entry : waiting.entrySet()) {
+        int tnRunning = nRunning.getOrDefault(entry.getKey(), 0);
+        for (Waiting w : entry.getValue()) {
+          if (tnRunning >= maxPerDataset) break;
+          if (TaskThread.TASK_SET_FLAG.equals(w.taskType)) {
+            // it waits for the tasks before it
+            if (tnRunning == 0) n++;
+            break;
+          }
+          tnRunning++;
+          n++;
+        }
+      }
+      return n;
+    }
+  }
+
+  /** This returns the number of tasks which are running. */
+  public int nRunning() {
+    synchronized (taskList) {
+      return running.size();
+    }
+  }
+}
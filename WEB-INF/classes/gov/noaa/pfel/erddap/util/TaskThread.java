@@ -67,53 +67,74 @@ public class TaskThread extends Thread {
   public static boolean reallyVerbose = false;
 
   // set while running
-  private long lastStartTime;
+  private volatile long lastStartTime;
+  private volatile int currentTask = -1;
 
-  /** The constructor. TaskThread uses task variables in EDStatic. */
-  public TaskThread(int tNextTask) {
-    EDStatic.nextTask.set(tNextTask);
-    EDStatic.lastFinishedTask.set(tNextTask - 1);
-    setName("TaskThread");
+  /**
+   * The constructor. TaskThread uses task variables in EDStatic. Several TaskThreads may work on
+   * the taskList at once (see EDStatic.taskScheduler).
+   *
+   * @param tName the thread's name, e.g., TaskThread or TaskThread2
+   */
+  public TaskThread(String tName) {
+    setName(tName);
   }
 
   /** This returns elapsed time for the current task (or -1 if no task is running). */
   public long elapsedTime() {
-    return System.currentTimeMillis() - lastStartTime;
+    return currentTask < 0 ? -1 : System.currentTimeMillis() - lastStartTime;
+  }
+
+  /** This returns the number of the current task (or -1 if no task is running). */
+  public int currentTask() {
+    return currentTask;
   }
 
-  /** This does any pending tasks, then exits. */
+  /** This does tasks until there are no tasks it can start, then exits. */
   @Override
   public void run() {
-    while (EDStatic.nextTask.get() < EDStatic.taskList.size()) {
+    while (true) {
+      // check isInterrupted
+      if (isInterrupted()) {
+        String2.log(
+            "%%% "
+                + getName()
+                + " was interrupted at "
+                + Calendar2.getCurrentISODateTimeStringLocalTZ());
+        return;
+      }
+
+      // start the next task (or exit if there are no tasks this thread can start now)
+      // do these things quickly to keep internal consistency
+      TaskScheduler.Started started = EDStatic.startNextTask(this);
+      if (started == null) return;
+      int taskNumber = started.number();
+      Integer taskType = started.taskType();
+      lastStartTime = System.currentTimeMillis();
+      currentTask = taskNumber;
       String taskSummary = null;
       try {
-        // check isInterrupted
-        if (isInterrupted()) {
-          String2.log(
-              "%%% TaskThread was interrupted at "
-                  + Calendar2.getCurrentISODateTimeStringLocalTZ());
-          return;
-        }
-
-        // start to do the task
-        // do these things quickly to keep internal consistency
-        lastStartTime = System.currentTimeMillis();
         String2.log(
-            "\n%%% TaskThread started task #"
-                + EDStatic.nextTask.get()
+            "\n%%% "
+                + getName()
+                + " started task #"
+                + taskNumber
                 + " of "
                 + (EDStatic.taskList.size() - 1)
-                + " at "
+                + " (waited "
+                + Calendar2.elapsedTimeString(started.waitMillis())
+                + ") at "
                 + Calendar2.getCurrentISODateTimeStringLocalTZ());
-        EDStatic.nextTask.incrementAndGet();
 
         // get the task settings
-        Object taskOA[] = EDStatic.taskList.get(EDStatic.nextTask.get() - 1);
+        Object taskOA[];
+        synchronized (EDStatic.taskList) {
+          taskOA = EDStatic.taskList.get(taskNumber);
+        }
         if (taskOA == null) {
-          String2.log("task #" + (EDStatic.nextTask.get() - 1) + " was null.");
-          continue;
+          String2.log("task #" + taskNumber + " was null.");
+          continue; // finally finishes it
         }
-        Integer taskType = (Integer) taskOA[0];
 
         // TASK_MAKE_A_DATAFILE
         if (taskType.equals(TASK_MAKE_A_DATAFILE)) {
@@ -238,18 +259,16 @@ public class TaskThread extends Thread {
           // UNKNOWN taskType
         } else {
           String2.log(
-              "TaskThread error: Unknown taskType="
-                  + taskType
-                  + " for task #"
-                  + (EDStatic.nextTask.get() - 1)
-                  + ".");
+              "TaskThread error: Unknown taskType=" + taskType + " for task #" + taskNumber + ".");
         }
 
         // task finished successfully
         long tElapsedTime = elapsedTime();
         String2.log(
-            "%%% TaskThread task #"
-                + (EDStatic.nextTask.get() - 1)
+            "%%% "
+                + getName()
+                + " task #"
+                + taskNumber
                 + " of "
                 + (EDStatic.taskList.size() - 1)
                 + " succeeded.  elapsedTime = "
@@ -265,26 +284,23 @@ public class TaskThread extends Thread {
         long tElapsedTime = elapsedTime();
         String2.distributeTime(tElapsedTime, EDStatic.taskThreadFailedDistribution24);
         String2.distributeTime(tElapsedTime, EDStatic.taskThreadFailedDistributionTotal);
-        Object taskOA[] = EDStatic.taskList.get(EDStatic.nextTask.get() - 1);
-        Integer taskType = (Integer) taskOA[0];
         EDStatic.metrics
             .taskThreadDuration
             .labelValues(Metrics.ThreadStatus.fail.name(), "" + taskType)
             .observe(Unit.millisToSeconds(tElapsedTime));
         String subject =
             "TaskThread error: task #"
-                + (EDStatic.nextTask.get() - 1)
+                + taskNumber
                 + " failed after "
                 + Calendar2.elapsedTimeString(tElapsedTime);
         String content = taskSummary + "\n" + MustBe.throwableToString(t);
         String2.log("%%% " + subject + "\n" + content);
         EDStatic.email(EDStatic.config.emailEverythingToCsv, subject, content);
-      }
 
-      // whether succeeded or failed
-      synchronized (EDStatic.taskList) {
-        EDStatic.lastFinishedTask.set(EDStatic.nextTask.get() - 1);
-        EDStatic.taskList.set(EDStatic.nextTask.get() - 1, null); // throw away the task info (gc)
+      } finally {
+        // whether succeeded or failed
+        currentTask = -1;
+        EDStatic.finishTask(taskNumber);
       }
     }
   }
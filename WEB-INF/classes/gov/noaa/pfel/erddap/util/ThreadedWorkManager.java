@@ -1,37 +1,118 @@
 package gov.noaa.pfel.erddap.util;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.ArrayDeque;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
 
+/**
+ * This runs tasks (e.g., reading data files) in parallel and gives their results to a WorkConsumer
+ * in the order the tasks were added. The consumer is always called by the thread which adds the
+ * tasks.
+ *
+ * <p>There are two modes:
+ *
+ * <ul>
+ *   <li>The original mode makes a thread pool for each request. All results are kept until
+ *       processResults() is called (after the last task has been added).
+ *   <li>The windowed mode (see forRequest()) runs the tasks on virtual threads from one executor
+ *       shared by all requests (with at most nThreads tasks running at once for each request). At
+ *       most maxPending tasks can be outstanding (running or done but not yet consumed). When the
+ *       window is full, addTask() waits for the oldest task and consumes its result before adding
+ *       the new task, so a fast producer can't pile up results in memory.
+ * </ul>
+ */
 public class ThreadedWorkManager<T> {
+
+  /** In the windowed mode made by forRequest(), maxPending is this times nThreads. */
+  public static final int WINDOW_PER_THREAD = 2;
+
+  /** The virtual threads (shared by all requests) used by the windowed mode. */
+  private static final ExecutorService virtualThreadExecutor =
+      Executors.newThreadPerTaskExecutor(
+          Thread.ofVirtual().name("ThreadedWorkManager-", 0).factory());
+
   ExecutorService executorService = null;
-  final List<FutureTask<T>> taskList = new ArrayList<>();
+  final ArrayDeque<FutureTask<T>> taskList = new ArrayDeque<>();
   final WorkConsumer<T> processor;
 
-  int completed = 0;
+  // for the windowed mode (else windowed=false, maxPending=Integer.MAX_VALUE and permits=null)
+  final boolean windowed;
+  final int maxPending;
+  final Semaphore permits;
 
+  /**
+   * This makes a ThreadedWorkManager for a request: the windowed mode with a maxPending of
+   * WINDOW_PER_THREAD * nThreads if setup.xml's &lt;virtualThreadWork&gt; is true (the default),
+   * else the original mode.
+   *
+   * @param nThreads the maximum number of tasks that may run at once. If &lt;= 1, each task is done
+   *     (and its result consumed) by addTask().
+   * @param processResult the consumer of the results
+   */
+  public static <T> ThreadedWorkManager<T> forRequest(int nThreads, WorkConsumer<T> processResult) {
+    return EDStatic.config == null || EDStatic.config.virtualThreadWork
+        ? new ThreadedWorkManager<>(nThreads, WINDOW_PER_THREAD * nThreads, processResult)
+        : new ThreadedWorkManager<>(nThreads, processResult);
+  }
+
+  /** The constructor for the original mode, with a thread pool for this request. */
   public ThreadedWorkManager(int nThreads, WorkConsumer<T> processResult) {
     if (nThreads > 1) {
       executorService = Executors.newFixedThreadPool(nThreads);
     }
     processor = processResult;
+    windowed = false;
+    maxPending = Integer.MAX_VALUE;
+    permits = null;
+  }
+
+  /**
+   * The constructor for the windowed mode, with the shared virtual thread executor.
+   *
+   * @param nThreads the maximum number of tasks that may run at once. If &lt;= 1, each task is done
+   *     (and its result consumed) by addTask().
+   * @param maxPending the maximum number of outstanding tasks (at least nThreads)
+   * @param processResult the consumer of the results
+   */
+  public ThreadedWorkManager(int nThreads, int maxPending, WorkConsumer<T> processResult) {
+    if (nThreads > 1) {
+      executorService = virtualThreadExecutor;
+    }
+    processor = processResult;
+    windowed = true;
+    this.maxPending = Math.max(nThreads, maxPending);
+    permits = nThreads > 1 ? new Semaphore(nThreads) : null;
   }
 
   public void addTask(Callable<T> callable) throws Exception, Throwable {
     // If we're threaded add the work to the thread.
     if (executorService != null) {
-      FutureTask<T> task = new FutureTask<>(callable);
-      taskList.add(task);
-      if (executorService != null) {
-        @SuppressWarnings("unused")
-        Future<?> unused = executorService.submit(task);
+      // if the window is full, wait for and consume the oldest result
+      while (taskList.size() >= maxPending) processor.accept(getNextTaskResult());
+
+      FutureTask<T> task;
+      if (!windowed) {
+        task = new FutureTask<>(callable);
+      } else {
+        task =
+            new FutureTask<>(
+                () -> {
+                  permits.acquire();
+                  try {
+                    return callable.call();
+                  } finally {
+                    permits.release();
+                  }
+                });
       }
+      taskList.add(task);
+      @SuppressWarnings("unused")
+      Future<?> unused = executorService.submit(task);
     } else {
       // No threading here, just do the work and process it.
       processor.accept(callable.call());
@@ -39,25 +120,33 @@ public class ThreadedWorkManager<T> {
   }
 
   public boolean hasNext() {
-    return taskList.size() > completed;
+    return !taskList.isEmpty();
   }
 
   public T getNextTaskResult() throws InterruptedException, ExecutionException {
     // get results table from a futureTask
-    // Put null in that position in futureTasks so it can be gc'd after this method
-    FutureTask<T> task = taskList.set(completed++, null);
+    // Remove the task so it can be gc'd after this method
+    FutureTask<T> task = taskList.remove();
     return task.get();
   }
 
   public void finishedEnqueing() {
-    if (executorService != null) {
+    // the shared virtual thread executor is never shut down
+    if (executorService != null && !windowed) {
       executorService.shutdown();
     }
   }
 
+  /**
+   * This cancels the tasks which are pending or in progress (interrupting their threads) and (in
+   * the original mode) shuts down the thread pool.
+   */
   public void forceShutdown() {
     if (executorService != null) {
-      executorService.shutdownNow();
+      // newest first, so waiting tasks are cancelled before running tasks release their permits
+      taskList.descendingIterator().forEachRemaining(task -> task.cancel(true));
+      taskList.clear();
+      if (!windowed) executorService.shutdownNow();
     }
   }
 
@@ -0,0 +1,54 @@
+package com.cohort.array;
+
+import com.cohort.util.String2;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks for going through all of the elements of an NDimensionalIndex. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NDimensionalIndexBenchmark {
+
+  /** The shape, e.g., time, altitude, latitude, longitude. */
+  @Param({"10,5,100,200", "1000,1,1,1000"})
+  public String shape;
+
+  private NDimensionalIndex index;
+
+  @Setup
+  public void setup() {
+    index = new NDimensionalIndex(String2.csvToIntArray(shape));
+  }
+
+  /** Go through all of the elements in row-major order. */
+  @Benchmark
+  public long increment() {
+    index.reset();
+    long sum = 0;
+    while (index.increment()) sum += index.getIndex();
+    return sum;
+  }
+
+  /** Go through all of the elements in column-major order. */
+  @Benchmark
+  public long incrementCM() {
+    index.reset();
+    long sum = 0;
+    while (index.incrementCM()) sum += index.getIndex();
+    return sum;
+  }
+}
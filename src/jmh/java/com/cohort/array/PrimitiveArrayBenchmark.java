@@ -0,0 +1,99 @@
+package com.cohort.array;
+
+import gov.noaa.pfel.coastwatch.pointdata.BenchmarkTables;
+import gov.noaa.pfel.coastwatch.pointdata.Table;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks for PrimitiveArray.rank and applyConstraint, using BenchmarkTables.makeTable. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PrimitiveArrayBenchmark {
+
+  @Param({"100000", "1000000"})
+  public int nRows;
+
+  private List<PrimitiveArray> columns;
+  private PrimitiveArray time, lon, station, temp, id;
+
+  @Setup
+  public void setup() {
+    Table table = BenchmarkTables.makeTable(nRows, 1);
+    columns = new ArrayList<>();
+    for (int col = 0; col < table.nColumns(); col++) columns.add(table.getColumn(col));
+    time = table.getColumn("time");
+    lon = table.getColumn("longitude");
+    station = table.getColumn("station");
+    temp = table.getColumn("temp");
+    id = table.getColumn("id");
+  }
+
+  /** Rank by a numeric key. */
+  @Benchmark
+  public int[] rankTemp() {
+    return PrimitiveArray.rank(columns, new int[] {5}, new boolean[] {true});
+  }
+
+  /** Rank by a String key (with lots of ties) and a numeric key. */
+  @Benchmark
+  public int[] rankStationTime() {
+    return PrimitiveArray.rank(columns, new int[] {3, 0}, new boolean[] {true, false});
+  }
+
+  private BitSet allTrue() {
+    BitSet keep = new BitSet(nRows);
+    keep.set(0, nRows);
+    return keep;
+  }
+
+  /** A typical time range constraint (morePrecise). */
+  @Benchmark
+  public int applyConstraintTime() {
+    BitSet keep = allTrue();
+    time.applyConstraint(true, keep, ">=", "1.0e9");
+    return time.applyConstraint(true, keep, "<", "" + (1.0e9 + nRows * 300.0));
+  }
+
+  /** A float constraint (which uses almostEqual for &gt;=). */
+  @Benchmark
+  public int applyConstraintLon() {
+    return lon.applyConstraint(false, allTrue(), ">=", "-40.5");
+  }
+
+  @Benchmark
+  public int applyConstraintTemp() {
+    return temp.applyConstraint(false, allTrue(), "!=", "NaN");
+  }
+
+  @Benchmark
+  public int applyConstraintId() {
+    return id.applyConstraint(false, allTrue(), "<", "500000");
+  }
+
+  @Benchmark
+  public int applyConstraintStation() {
+    return station.applyConstraint(false, allTrue(), "=", "46026");
+  }
+
+  @Benchmark
+  public int applyConstraintStationRegex() {
+    return station.applyConstraint(false, allTrue(), PrimitiveArray.REGEX_OP, "46.*");
+  }
+}
@@ -0,0 +1,65 @@
+package com.cohort.util;
+
+import java.time.ZonedDateTime;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for parsing ISO 8601 date time strings (Zulu, i.e., UTC), as is done for every time
+ * constraint and for every time value in lots of source files.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class Calendar2Benchmark {
+
+  private static final int N = 1024;
+  private String[] isoStrings;
+  private int next;
+
+  /** This makes a mix of the common variants (date, minutes, seconds, millis, Z, offset). */
+  @Setup
+  public void setup() {
+    Random random = new Random(1);
+    String[] suffixes = {
+      "", "T12:34", "T12:34:56", "T12:34:56Z", "T12:34:56.789Z", "T12:34:56-07:00"
+    };
+    isoStrings = new String[N];
+    for (int i = 0; i < N; i++)
+      isoStrings[i] =
+          String2.zeroPad("" + (1900 + random.nextInt(150)), 4)
+              + "-"
+              + String2.zeroPad("" + (1 + random.nextInt(12)), 2)
+              + "-"
+              + String2.zeroPad("" + (1 + random.nextInt(28)), 2)
+              + suffixes[i % suffixes.length];
+  }
+
+  private String nextString() {
+    next = (next + 1) & (N - 1);
+    return isoStrings[next];
+  }
+
+  @Benchmark
+  public ZonedDateTime parseISODateTimeUtc() {
+    return Calendar2.parseISODateTimeUtc(nextString());
+  }
+
+  @Benchmark
+  public double isoStringToEpochSeconds() {
+    return Calendar2.isoStringToEpochSeconds(nextString());
+  }
+}
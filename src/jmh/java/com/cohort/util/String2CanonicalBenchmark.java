@@ -0,0 +1,124 @@
+package com.cohort.util;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This compares String2.canonical (which uses a CanonicalMap) with the previous implementation (127
+ * synchronized WeakHashMaps), with 1, 8, and 64 threads. Most calls find an existing canonical
+ * string (as when the values in a file are read), but the strings passed in are never the canonical
+ * instances.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class String2CanonicalBenchmark {
+
+  /** The number of different strings. */
+  @Param({"1000", "100000"})
+  public int nDistinct;
+
+  /** "CanonicalMap" (String2.canonical) or "synchronizedWeakHashMaps" (the previous version). */
+  @Param({"CanonicalMap", "synchronizedWeakHashMaps"})
+  public String implementation;
+
+  private String[] canonicalValues; // hold the canonical strings so they aren't collected
+  private SynchronizedWeakHashMaps previous;
+
+  @Setup
+  public void setup() {
+    previous = new SynchronizedWeakHashMaps();
+    canonicalValues = new String[nDistinct];
+    for (int i = 0; i < nDistinct; i++) {
+      String s = "station_" + i + "_sea_water_temperature";
+      canonicalValues[i] =
+          implementation.equals("CanonicalMap") ? String2.canonical(s) : previous.canonical(s);
+    }
+  }
+
+  /** Each thread has its own (non-canonical) copies of the strings. */
+  @State(Scope.Thread)
+  public static class ThreadState {
+    String[] strings;
+    int next;
+
+    @Setup
+    public void setup(String2CanonicalBenchmark benchmark) {
+      strings = new String[benchmark.nDistinct];
+      for (int i = 0; i < strings.length; i++)
+        strings[i] = new String(benchmark.canonicalValues[i]);
+      next = (int) (Thread.currentThread().threadId() * 7919 % strings.length);
+    }
+
+    String nextString() {
+      if (++next == strings.length) next = 0;
+      return strings[next];
+    }
+  }
+
+  private String canonical(ThreadState state) {
+    String s = state.nextString();
+    return implementation.equals("CanonicalMap") ? String2.canonical(s) : previous.canonical(s);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public String canonical1Thread(ThreadState state) {
+    return canonical(state);
+  }
+
+  @Benchmark
+  @Threads(8)
+  public String canonical8Threads(ThreadState state) {
+    return canonical(state);
+  }
+
+  @Benchmark
+  @Threads(64)
+  public String canonical64Threads(ThreadState state) {
+    return canonical(state);
+  }
+
+  /** A copy of the previous String2.canonical: 127 WeakHashMaps, each guarded by synchronized. */
+  static class SynchronizedWeakHashMaps {
+    private static final int nCanonicalMaps = 127;
+    private final Map<String, WeakReference<String>>[] canonicalMap;
+
+    @SuppressWarnings("unchecked")
+    SynchronizedWeakHashMaps() {
+      canonicalMap = new Map[nCanonicalMaps];
+      for (int i = 0; i < nCanonicalMaps; i++) canonicalMap[i] = new WeakHashMap<>();
+    }
+
+    String canonical(String s) {
+      Map<String, WeakReference<String>> tCanonicalMap =
+          canonicalMap[Math.abs(s.hashCode() ^ s.length()) % nCanonicalMaps];
+      synchronized (tCanonicalMap) {
+        WeakReference<String> wr = tCanonicalMap.get(s);
+        String canonical = wr == null ? null : wr.get();
+        if (canonical == null) {
+          canonical = s;
+          tCanonicalMap.put(canonical, new WeakReference<>(canonical));
+        }
+        return canonical;
+      }
+    }
+  }
+}
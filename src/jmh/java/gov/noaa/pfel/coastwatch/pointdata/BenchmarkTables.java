@@ -0,0 +1,70 @@
+package gov.noaa.pfel.coastwatch.pointdata;
+
+import com.cohort.array.Attributes;
+import com.cohort.array.DoubleArray;
+import com.cohort.array.FloatArray;
+import com.cohort.array.IntArray;
+import com.cohort.array.LongArray;
+import com.cohort.array.ShortArray;
+import com.cohort.array.StringArray;
+import java.util.Random;
+
+/**
+ * This makes the test tables used by the benchmarks. They are made from a seeded Random, so the
+ * benchmarks run offline and every run (and every commit) works with exactly the same data.
+ */
+public class BenchmarkTables {
+
+  /** The station names: lots of repeats, as in real data. */
+  private static final String[] STATIONS = {
+    "41001", "41002", "41004", "46026", "46042", "46086", "51001", "TPLM2", "SAUF1", "WPOW1"
+  };
+
+  /**
+   * This makes a table like a typical EDDTable response: time, lon, lat, station, depth, and some
+   * measurements (with a few missing values), with CF units attributes.
+   *
+   * @param nRows the number of rows
+   * @param seed the seed for the Random
+   * @return a new table
+   */
+  public static Table makeTable(int nRows, long seed) {
+    Random random = new Random(seed);
+    DoubleArray time = new DoubleArray(nRows, false);
+    FloatArray lon = new FloatArray(nRows, false);
+    FloatArray lat = new FloatArray(nRows, false);
+    StringArray station = new StringArray(nRows, false);
+    ShortArray depth = new ShortArray(nRows, false);
+    FloatArray temp = new FloatArray(nRows, false);
+    IntArray id = new IntArray(nRows, false);
+    LongArray count = new LongArray(nRows, false);
+    for (int row = 0; row < nRows; row++) {
+      time.add(1.0e9 + row * 600.0 + random.nextInt(60));
+      lon.add(-180 + random.nextFloat() * 360);
+      lat.add(-90 + random.nextFloat() * 180);
+      station.add(STATIONS[random.nextInt(STATIONS.length)]);
+      depth.add((short) random.nextInt(500));
+      temp.add(random.nextInt(100) == 0 ? Float.NaN : 5 + random.nextFloat() * 25);
+      id.add(random.nextInt(1000000));
+      count.add(random.nextLong() >>> 20);
+    }
+
+    Table table = new Table();
+    table.globalAttributes().add("title", "Benchmark Table").add("cdm_data_type", "Point");
+    table.addColumn(
+        0,
+        "time",
+        time,
+        new Attributes()
+            .add("units", "seconds since 1970-01-01T00:00:00Z")
+            .add("ioos_category", "Time"));
+    table.addColumn(1, "longitude", lon, new Attributes().add("units", "degrees_east"));
+    table.addColumn(2, "latitude", lat, new Attributes().add("units", "degrees_north"));
+    table.addColumn(3, "station", station, new Attributes().add("cf_role", "timeseries_id"));
+    table.addColumn(4, "depth", depth, new Attributes().add("units", "m"));
+    table.addColumn(5, "temp", temp, new Attributes().add("units", "degree_C"));
+    table.addColumn(6, "id", id, new Attributes());
+    table.addColumn(7, "count", count, new Attributes());
+    return table;
+  }
+}
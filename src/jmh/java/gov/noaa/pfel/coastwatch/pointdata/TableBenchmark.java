@@ -0,0 +1,113 @@
+package gov.noaa.pfel.coastwatch.pointdata;
+
+import com.cohort.util.File2;
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for Table: sort, and reading .nc, ASCII (.csv), and NCCSV files. The files are made
+ * (in a temporary directory) from BenchmarkTables.makeTable when the benchmark starts.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TableBenchmark {
+
+  @Param({"100000"})
+  public int nRows;
+
+  private Path dir;
+  private Table table;
+  private String ncFileName;
+  private String csvFileName;
+  private String nccsv;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    dir = Files.createTempDirectory("TableBenchmark");
+    table = BenchmarkTables.makeTable(nRows, 1);
+
+    ncFileName = dir.resolve("table.nc").toString();
+    table.saveAsFlatNc(ncFileName, "row");
+
+    csvFileName = dir.resolve("table.csv").toString();
+    table.saveAsCsvASCII(csvFileName);
+
+    String nccsvFileName = dir.resolve("table_nccsv.csv").toString();
+    table.saveAsNccsvFile(true, true, 0, Integer.MAX_VALUE, nccsvFileName);
+    nccsv = Files.readString(Path.of(nccsvFileName), StandardCharsets.UTF_8);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    File2.deleteAllFiles(dir.toString());
+    Files.deleteIfExists(dir);
+  }
+
+  /** Table.sort sorts in place, so each invocation gets a new copy of the unsorted table. */
+  @State(Scope.Thread)
+  public static class Unsorted {
+    Table table;
+
+    @Setup(Level.Invocation)
+    public void setup(TableBenchmark benchmark) {
+      table = (Table) benchmark.table.clone();
+    }
+  }
+
+  /** Sort by 2 keys: station (a String column with lots of ties), then time. */
+  @Benchmark
+  public Table sortStationTime(Unsorted unsorted) {
+    unsorted.table.sort(new int[] {3, 0}, new boolean[] {true, true});
+    return unsorted.table;
+  }
+
+  /** Sort by 1 numeric key. */
+  @Benchmark
+  public Table sortTemp(Unsorted unsorted) {
+    unsorted.table.sort(new int[] {5}, new boolean[] {false});
+    return unsorted.table;
+  }
+
+  @Benchmark
+  public Table readFlatNc() throws Exception {
+    Table t = new Table();
+    t.readFlatNc(ncFileName, null, 0);
+    return t;
+  }
+
+  @Benchmark
+  public Table readASCII() throws Exception {
+    Table t = new Table();
+    t.readASCII(csvFileName, 0, 2); // line 1 has units
+    return t;
+  }
+
+  /** This just measures parsing (the file's contents are already in memory). */
+  @Benchmark
+  public Table lowReadNccsv() {
+    Table t = new Table();
+    t.lowReadNccsv("table_nccsv.csv", true, new BufferedReader(new StringReader(nccsv)));
+    return t;
+  }
+}
@@ -0,0 +1,74 @@
+package gov.noaa.pfel.erddap.dataset;
+
+import gov.noaa.pfel.coastwatch.pointdata.BenchmarkTables;
+import gov.noaa.pfel.coastwatch.pointdata.Table;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for encoding a table as .csv, .tsv, and .json. The output is discarded, so this just
+ * measures the encoding (including formatting the time values as ISO 8601 strings).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TableWriterBenchmark {
+
+  @Param({"100000"})
+  public int nRows;
+
+  /** The number of rows in each chunk sent to writeSome, as when a dataset is read in chunks. */
+  @Param({"10000"})
+  public int chunkSize;
+
+  private Table[] chunks;
+
+  @Setup
+  public void setup() {
+    Table table = BenchmarkTables.makeTable(nRows, 1);
+    int nChunks = (nRows + chunkSize - 1) / chunkSize;
+    chunks = new Table[nChunks];
+    for (int c = 0; c < nChunks; c++)
+      chunks[c] = table.subset(c * chunkSize, 1, Math.min(nRows, (c + 1) * chunkSize) - 1);
+  }
+
+  private void writeAll(TableWriter tw) throws Throwable {
+    // writeSome converts missing values to NaN, which is a no-op after the first time
+    for (Table chunk : chunks) tw.writeSome(chunk);
+    tw.finish();
+  }
+
+  private static OutputStreamSource discard() {
+    return new OutputStreamSourceSimple(OutputStream.nullOutputStream());
+  }
+
+  @Benchmark
+  public void csv() throws Throwable {
+    writeAll(new TableWriterSeparatedValue(0, null, null, discard(), ",", true, true, '2', "NaN"));
+  }
+
+  @Benchmark
+  public void tsv() throws Throwable {
+    writeAll(
+        new TableWriterSeparatedValue(0, null, null, discard(), "\t", false, true, '2', "NaN"));
+  }
+
+  @Benchmark
+  public void json() throws Throwable {
+    writeAll(new TableWriterJson(0, null, null, discard(), null, true));
+  }
+}
@@ -0,0 +1,99 @@
+package gov.noaa.pfel.erddap.util;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * This compares two JMH JSON result files (e.g., from before and after a commit) and prints the
+ * change in each benchmark's score. Changes bigger than the scores' combined error are marked with
+ * "*". Use it via the benchmarks profile:
+ *
+ * <pre>mvn -Pbenchmarks test-compile exec:exec@jmh-diff -Djmh.baseline=old.json</pre>
+ */
+public class JmhResultsDiff {
+
+  /** One benchmark's score. */
+  private record Score(double score, double error, String unit, String mode) {}
+
+  /**
+   * This reads a JMH JSON result file.
+   *
+   * @return a map of "benchmark params" to Score
+   */
+  static Map<String, Score> read(String fileName) throws Exception {
+    JSONArray results = new JSONArray(Files.readString(Path.of(fileName), StandardCharsets.UTF_8));
+    Map<String, Score> map = new LinkedHashMap<>();
+    for (int i = 0; i < results.length(); i++) {
+      JSONObject result = results.getJSONObject(i);
+      StringBuilder name = new StringBuilder(result.getString("benchmark"));
+      JSONObject params = result.optJSONObject("params");
+      if (params != null)
+        for (String key : new TreeMap<>(params.toMap()).keySet())
+          name.append(' ').append(key).append('=').append(params.get(key));
+      JSONObject metric = result.getJSONObject("primaryMetric");
+      double error = metric.optDouble("scoreError", 0);
+      map.put(
+          name.toString(),
+          new Score(
+              metric.getDouble("score"),
+              Double.isNaN(error) ? 0 : error,
+              metric.getString("scoreUnit"),
+              result.getString("mode")));
+    }
+    return map;
+  }
+
+  /**
+   * This compares the results.
+   *
+   * @return the report
+   */
+  static String diff(Map<String, Score> oldScores, Map<String, Score> newScores) {
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format("%-80s %14s %14s %9s%n", "benchmark", "old", "new", "change"));
+    for (Map.Entry<String, Score> entry : newScores.entrySet()) {
+      Score n = entry.getValue();
+      Score o = oldScores.get(entry.getKey());
+      if (o == null || !o.unit().equals(n.unit())) {
+        sb.append(String.format("%-80s %14s %14.3f %9s%n", entry.getKey(), "-", n.score(), "new"));
+        continue;
+      }
+      double change = (n.score() - o.score()) / o.score() * 100;
+      boolean significant = Math.abs(n.score() - o.score()) > o.error() + n.error();
+      sb.append(
+          String.format(
+              "%-80s %14.3f %14.3f %+8.1f%%%s %s%s%n",
+              entry.getKey(),
+              o.score(),
+              n.score(),
+              change,
+              significant ? "*" : " ",
+              n.unit(),
+              // for throughput, bigger is better; for times, smaller is better
+              n.mode().equals("thrpt") ? "" : " (smaller is better)"));
+    }
+    for (String name : oldScores.keySet())
+      if (!newScores.containsKey(name))
+        sb.append(
+            String.format(
+                "%-80s %14.3f %14s %9s%n", name, oldScores.get(name).score(), "-", "gone"));
+    return sb.toString();
+  }
+
+  /**
+   * @param args the old (baseline) and the new JMH JSON result file names
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length != 2) {
+      System.out.println("Usage: JmhResultsDiff old.json new.json");
+      return;
+    }
+    System.out.print(diff(read(args[0]), read(args[1])));
+  }
+}
@@ -0,0 +1,178 @@
+package com.cohort.array;
+
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+import java.util.BitSet;
+import java.util.Random;
+
+class ConstraintKernelsTests {
+
+  private static final PAType[] PA_TYPES = {
+    PAType.BYTE,
+    PAType.SHORT,
+    PAType.INT,
+    PAType.LONG,
+    PAType.UBYTE,
+    PAType.USHORT,
+    PAType.UINT,
+    PAType.FLOAT,
+    PAType.DOUBLE
+  };
+
+  private static final String[] OPS = {"=", "!=", "<=", ">=", "<", ">"};
+
+  private static final String[] VALUES = {
+    "-3",
+    "-1",
+    "0",
+    "1",
+    "2",
+    "2.5",
+    "5",
+    "127",
+    "255",
+    "32767",
+    "65535",
+    "2147483647",
+    "4294967295",
+    "1e-20",
+    "1.0000001",
+    "0.99999999",
+    "1e30",
+    "NaN",
+    "Infinity",
+    "-Infinity",
+    ""
+  };
+
+  /** This is the per row version of applyConstraint (as it was before ConstraintKernels). */
+  private static boolean rowTest(
+      PrimitiveArray pa, boolean morePrecise, int row, String op, String value2) {
+    double value2d = String2.parseDouble(value2);
+    return switch (pa.elementType()) {
+      case LONG -> {
+        long value2l = String2.parseLong(value2);
+        yield value2d == value2l && value2l != Long.MAX_VALUE
+            ? PrimitiveArray.testValueOpValue(pa.getLong(row), op, value2l)
+            : PrimitiveArray.testValueOpValueExact(pa.getDouble(row), op, value2d);
+      }
+      case FLOAT ->
+          PrimitiveArray.testValueOpValue(pa.getFloat(row), op, String2.parseFloat(value2));
+      case DOUBLE ->
+          morePrecise
+              ? PrimitiveArray.testValueOpValueExtra(pa.getDouble(row), op, value2d)
+              : PrimitiveArray.testValueOpValue(pa.getDouble(row), op, value2d);
+      default -> {
+        int value2i = String2.parseInt(value2);
+        yield value2d == value2i && value2d != Integer.MAX_VALUE
+            ? PrimitiveArray.testValueOpValue(pa.getInt(row), op, value2i)
+            : PrimitiveArray.testValueOpValueExact(pa.getDouble(row), op, value2d);
+      }
+    };
+  }
+
+  /**
+   * This tests that applyConstraint (which uses ConstraintKernels) gets exactly the same results as
+   * the per row tests, for all numeric PATypes (with and without maxIsMV), all ops, lots of
+   * value2's (including ones that are almostEqual, missing values, and non-integers for integer
+   * types), and sparse and partial keep's.
+   */
+  @org.junit.jupiter.api.Test
+  void applyConstraintTest() throws Throwable {
+    String2.log("*** ConstraintKernelsTests.applyConstraintTest");
+    Random random = new Random(6);
+    for (PAType paType : PA_TYPES) {
+      for (boolean maxIsMV : new boolean[] {false, true}) {
+        for (int n : new int[] {0, 1, 63, 64, 65, 1000}) {
+          PrimitiveArray pa = PrimitiveArray.factory(paType, n, false);
+          for (int i = 0; i < n; i++) pa.addString(VALUES[random.nextInt(VALUES.length)]);
+          pa.setMaxIsMV(maxIsMV);
+
+          for (String op : OPS) {
+            for (String value2 : VALUES) {
+              for (boolean morePrecise : new boolean[] {false, true}) {
+                BitSet keep = new BitSet();
+                for (int i = 0; i < n; i++) if (random.nextInt(4) > 0) keep.set(i);
+                BitSet expected = new BitSet();
+                for (int row = keep.nextSetBit(0); row >= 0; row = keep.nextSetBit(row + 1))
+                  if (rowTest(pa, morePrecise, row, op, value2)) expected.set(row);
+                String msg =
+                    "paType="
+                        + paType
+                        + " maxIsMV="
+                        + maxIsMV
+                        + " n="
+                        + n
+                        + " test="
+                        + op
+                        + value2
+                        + " morePrecise="
+                        + morePrecise;
+                Test.ensureEqual(
+                    pa.applyConstraint(morePrecise, keep, op, value2), expected.cardinality(), msg);
+                Test.ensureEqual(keep, expected, msg);
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /** This tests the almostEqual fudge factor for floats and doubles. */
+  @org.junit.jupiter.api.Test
+  void almostEqualTest() throws Throwable {
+    String2.log("*** ConstraintKernelsTests.almostEqualTest");
+    FloatArray fa = new FloatArray(new float[] {1, 1.0000001f, 1.001f, 0.9999999f, Float.NaN});
+    BitSet keep = new BitSet();
+    keep.set(0, fa.size());
+    Test.ensureEqual(fa.applyConstraint(false, keep, "=", "1"), 3, "");
+    Test.ensureEqual(keep.toString(), "{0, 1, 3}", "");
+
+    DoubleArray da = new DoubleArray(new double[] {1, 1 + 1e-10, 1 + 1e-13, 1 - 1e-10, 2});
+    keep = new BitSet();
+    keep.set(0, da.size());
+    Test.ensureEqual(da.applyConstraint(false, keep, "<=", "1"), 4, "");
+    Test.ensureEqual(keep.toString(), "{0, 1, 2, 3}", "");
+    keep.set(0, da.size());
+    Test.ensureEqual(da.applyConstraint(true, keep, "<=", "1"), 3, ""); // morePrecise
+    Test.ensureEqual(keep.toString(), "{0, 2, 3}", "");
+  }
+
+  /** This tests the errors. */
+  @org.junit.jupiter.api.Test
+  void errorTest() throws Throwable {
+    String2.log("*** ConstraintKernelsTests.errorTest");
+    IntArray ia = new IntArray(new int[] {3, 1, 2});
+    BitSet keep = new BitSet();
+    Test.ensureEqual(ia.applyConstraint(false, keep, "<>", "1"), 0, ""); // nothing to test
+    keep.set(0, 3);
+    try {
+      ia.applyConstraint(false, keep, "<>", "1");
+      throw new RuntimeException("Shouldn't get here.");
+    } catch (Exception e) {
+      Test.ensureEqual(e.getMessage(), "Query error: Unknown operator=\"<>\".", "");
+    }
+    keep.set(5); // beyond size()
+    try {
+      ia.applyConstraint(false, keep, "<", "3");
+      throw new RuntimeException("Shouldn't get here.");
+    } catch (Exception e) {
+      Test.ensureTrue(
+          e.getMessage().indexOf("IntArray.applyConstraint: index (5) >= size (3)") >= 0,
+          e.getMessage());
+    }
+    Test.ensureEqual(keep.toString(), "{0, 1, 2, 5}", ""); // unchanged
+    DoubleArray da = new DoubleArray(new double[] {1, 2});
+    keep = new BitSet();
+    keep.set(70); // beyond size() and beyond the first block
+    try {
+      da.applyConstraint(true, keep, "=", "1");
+      throw new RuntimeException("Shouldn't get here.");
+    } catch (Exception e) {
+      Test.ensureTrue(
+          e.getMessage().indexOf("DoubleArray.applyConstraint: index (70) >= size (2)") >= 0,
+          e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,157 @@
+package com.cohort.array;
+
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+class RowSorterTests {
+
+  private static final PAType[] PA_TYPES = {
+    PAType.BYTE,
+    PAType.SHORT,
+    PAType.INT,
+    PAType.LONG,
+    PAType.UBYTE,
+    PAType.USHORT,
+    PAType.UINT,
+    PAType.ULONG,
+    PAType.FLOAT,
+    PAType.DOUBLE,
+    PAType.CHAR,
+    PAType.STRING
+  };
+
+  private static final String[] SIGNED_VALUES = {"-3", "-1", "0", "1", "2", "5", ""};
+  private static final String[] UNSIGNED_VALUES = {"0", "1", "2", "5", "200", ""};
+  private static final String[] FLOAT_VALUES = {
+    "-1e30", "-2.5", "-0.0", "0", "1", "2.5", "1e30", "NaN", "Infinity", "-Infinity"
+  };
+  private static final String[] STRING_VALUES = {"a", "A", "abe", "ABE", "", "b", "B", "é"};
+  private static final String[] CHAR_VALUES = {"a", "A", "b", "B", "0", ""};
+
+  /** This makes a column of random values (with lots of ties and missing values). */
+  private static PrimitiveArray makeColumn(PAType paType, int n, Random random) {
+    PrimitiveArray pa = PrimitiveArray.factory(paType, n, false);
+    pa.setMaxIsMV(true);
+    String[] values =
+        switch (paType) {
+          case FLOAT, DOUBLE -> FLOAT_VALUES;
+          case UBYTE, USHORT, UINT -> UNSIGNED_VALUES;
+          case ULONG -> new String[] {"0", "1", "9223372036854775809", "18446744073709551614", ""};
+          case CHAR -> CHAR_VALUES;
+          case STRING -> STRING_VALUES;
+          default -> SIGNED_VALUES;
+        };
+    for (int i = 0; i < n; i++) pa.addString(values[random.nextInt(values.length)]);
+    return pa;
+  }
+
+  /** This ranks the rows the way PrimitiveArray.rank did before RowSorter. */
+  private static int[] comparatorRank(RowComparator comparator, int n) {
+    Integer[] rowArray = new Integer[n];
+    for (int i = 0; i < n; i++) rowArray[i] = i;
+    Arrays.sort(rowArray, comparator); // this is "stable"
+    int[] ranks = new int[n];
+    for (int i = 0; i < n; i++) ranks[i] = rowArray[i];
+    return ranks;
+  }
+
+  /**
+   * This tests that RowSorter ranks rows exactly like RowComparator (including stability, NaN's,
+   * and missing values), for all PATypes, for the insertion, merge, parallel merge, and radix
+   * sorts.
+   */
+  @org.junit.jupiter.api.Test
+  void rankTest() throws Throwable {
+    String2.log("*** RowSorter.rankTest");
+    Random random = new Random(17);
+    for (int n : new int[] {0, 1, 2, 20, 500, 3000, 20000}) {
+      List<PrimitiveArray> table = new ArrayList<>();
+      for (PAType paType : PA_TYPES) table.add(makeColumn(paType, n, random));
+      int nColumns = table.size();
+
+      // one key
+      for (int col = 0; col < nColumns; col++) {
+        for (boolean asc : new boolean[] {true, false}) {
+          int[] keys = {col};
+          boolean[] ascending = {asc};
+          String msg = "n=" + n + " type=" + table.get(col).elementTypeString() + " asc=" + asc;
+          Test.ensureEqual(
+              PrimitiveArray.rank(table, keys, ascending),
+              comparatorRank(new RowComparator(table, keys, ascending), n),
+              msg);
+          Test.ensureEqual(
+              PrimitiveArray.rankIgnoreCase(table, keys, ascending),
+              comparatorRank(new RowComparatorIgnoreCase(table, keys, ascending), n),
+              "ignoreCase " + msg);
+        }
+      }
+
+      // several keys
+      for (int trial = 0; trial < 20; trial++) {
+        int nKeys = 1 + random.nextInt(3);
+        int[] keys = new int[nKeys];
+        boolean[] ascending = new boolean[nKeys];
+        for (int k = 0; k < nKeys; k++) {
+          keys[k] = random.nextInt(nColumns);
+          ascending[k] = random.nextBoolean();
+        }
+        String msg =
+            "n="
+                + n
+                + " keys="
+                + String2.toCSSVString(keys)
+                + " ascending="
+                + Arrays.toString(ascending);
+        Test.ensureEqual(
+            PrimitiveArray.rank(table, keys, ascending),
+            comparatorRank(new RowComparator(table, keys, ascending), n),
+            msg);
+        Test.ensureEqual(
+            PrimitiveArray.rankIgnoreCase(table, keys, ascending),
+            comparatorRank(new RowComparatorIgnoreCase(table, keys, ascending), n),
+            "ignoreCase " + msg);
+      }
+    }
+  }
+
+  /** This tests the sortable values for the extreme values of each type. */
+  @org.junit.jupiter.api.Test
+  void sortableValuesTest() throws Throwable {
+    String2.log("*** RowSorter.sortableValuesTest");
+    for (PAType paType : PA_TYPES) {
+      if (paType == PAType.CHAR || paType == PAType.STRING) continue;
+      PrimitiveArray pa = PrimitiveArray.factory(paType, 8, false);
+      pa.addPAOne(pa.MINEST_VALUE());
+      pa.addPAOne(pa.MAXEST_VALUE());
+      pa.addString("0");
+      pa.addString("");
+      pa.addString("1");
+      long[] sortable = RowSorter.sortableValues(pa, pa.size());
+      for (int i = 0; i < pa.size(); i++)
+        for (int j = 0; j < pa.size(); j++)
+          Test.ensureEqual(
+              Integer.signum(Long.compare(sortable[i], sortable[j])),
+              Integer.signum(pa.compare(i, j)),
+              "type=" + pa.elementTypeString() + " pa=" + pa + " i=" + i + " j=" + j);
+    }
+  }
+
+  /** This tests that the keys are validated. */
+  @org.junit.jupiter.api.Test
+  void errorTest() throws Throwable {
+    String2.log("*** RowSorter.errorTest");
+    List<PrimitiveArray> table = List.of(new IntArray(new int[] {3, 1, 2}));
+    try {
+      PrimitiveArray.rank(table, new int[] {1}, new boolean[] {true});
+      throw new RuntimeException("Shouldn't get here.");
+    } catch (Exception e) {
+      Test.ensureTrue(
+          e.toString().indexOf("keys[0] points to a column that isn't in the table.") >= 0,
+          e.toString());
+    }
+  }
+}
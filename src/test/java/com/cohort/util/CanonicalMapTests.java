@@ -0,0 +1,76 @@
+package com.cohort.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+class CanonicalMapTests {
+
+  /** This tests that equal keys get the same value. */
+  @org.junit.jupiter.api.Test
+  void basicTest() {
+    String2.log("\n*** CanonicalMap.basicTest");
+    CanonicalMap<String, String> map = new CanonicalMap<>(16);
+    String a = new String("test");
+    String b = new String("test");
+    Test.ensureTrue(a != b, "");
+    Test.ensureTrue(map.get(a, Function.identity()) == a, "");
+    Test.ensureTrue(map.get(b, Function.identity()) == a, "");
+    Test.ensureTrue(map.get("other", Function.identity()) == "other", "");
+    Test.ensureEqual(map.size(), 2, "");
+
+    // values that aren't the key
+    CanonicalMap<Object, ReentrantLock> lockMap = new CanonicalMap<>(16);
+    ReentrantLock lock = lockMap.get(a, k -> new ReentrantLock());
+    Test.ensureTrue(lockMap.get(b, k -> new ReentrantLock()) == lock, "");
+    Test.ensureTrue(lockMap.get("other", k -> new ReentrantLock()) != lock, "");
+  }
+
+  /** This tests that the entries are removed after the keys are garbage collected. */
+  @org.junit.jupiter.api.Test
+  void garbageCollectionTest() throws Exception {
+    String2.log("\n*** CanonicalMap.garbageCollectionTest");
+    CanonicalMap<String, String> map = new CanonicalMap<>(16);
+    String keep = map.get(new String("keep"), Function.identity());
+    for (int i = 0; i < 10000; i++) map.get("s" + i, Function.identity());
+    for (int i = 0; i < 50 && map.size() > 1; i++) {
+      System.gc();
+      Thread.sleep(100);
+    }
+    Test.ensureEqual(map.size(), 1, "");
+    Test.ensureTrue(map.get(new String("keep"), Function.identity()) == keep, "");
+  }
+
+  /** This tests that lots of threads get the same canonical strings. */
+  @org.junit.jupiter.api.Test
+  void threadTest() throws Exception {
+    String2.log("\n*** CanonicalMap.threadTest");
+    CanonicalMap<String, String> map = new CanonicalMap<>(16);
+    int nThreads = 8;
+    int n = 20000;
+    ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+    try {
+      Future<String[]>[] futures = new Future[nThreads];
+      for (int t = 0; t < nThreads; t++) {
+        futures[t] =
+            executor.submit(
+                () -> {
+                  String[] sar = new String[n];
+                  for (int i = 0; i < n; i++)
+                    sar[i] = map.get(new String("s" + (i % 1000)), Function.identity());
+                  return sar;
+                });
+      }
+      String[] first = futures[0].get();
+      for (int t = 1; t < nThreads; t++) {
+        String[] sar = futures[t].get();
+        for (int i = 0; i < n; i++) Test.ensureTrue(sar[i] == first[i], "t=" + t + " i=" + i);
+      }
+      Test.ensureEqual(map.size(), 1000, "");
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
@@ -7,7 +7,6 @@ package com.cohort.util;
 import com.cohort.array.StringArray;
 import java.io.File;
 import java.io.Writer;
-import java.lang.ref.WeakReference;
 import java.nio.file.Path;
 import java.time.Instant;
 import java.time.OffsetDateTime;
@@ -8117,10 +8116,7 @@ public class TestUtil {
 
   /** This is only used to test canonical. */
   private static int canonicalSize() {
-    int sum = 0;
-    for (Map<String, WeakReference<String>> stringWeakReferenceMap : String2.canonicalMap)
-      sum += stringWeakReferenceMap.size();
-    return sum;
+    return String2.canonicalMap.size();
   }
 
   /**
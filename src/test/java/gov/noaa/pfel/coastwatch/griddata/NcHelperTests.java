@@ -460,6 +460,62 @@ class NcHelperTests {
     Test.ensureEqual(results, expected, "results=" + results);
   }
 
+  /**
+   * Test openCachedFile and NcFileCache.
+   *
+   * @throws Exception if trouble
+   */
+  @org.junit.jupiter.api.Test
+  void testOpenCachedFile() throws Exception {
+    String fullName = TEMP_DIR.toAbsolutePath().toString() + "/ncFileCache.nc";
+    File2.copy(
+        NcHelperTests.class.getResource("/data/nodcTemplates/ncCFMA2a.nc").getFile(), fullName);
+    int oMaxOpen = NcFileCache.maxOpen();
+    try {
+      // the pool is off, so each NetcdfFile is new
+      NcFileCache.setMaxOpen(0);
+      NetcdfFile first;
+      try (NcFileCache.Handle handle = NcHelper.openCachedFile(fullName)) {
+        first = handle.netcdfFile();
+        Test.ensureEqual(NcHelper.findAllVariablesWithDims(first).length, 8, "");
+      }
+      try (NcFileCache.Handle handle = NcHelper.openCachedFile(fullName)) {
+        Test.ensureTrue(handle.netcdfFile() != first, "");
+      }
+
+      // the pool is on, so the idle NetcdfFile is reused
+      NcFileCache.setMaxOpen(2);
+      try (NcFileCache.Handle handle = NcHelper.openCachedFile(fullName)) {
+        first = handle.netcdfFile();
+      }
+      try (NcFileCache.Handle handle = NcHelper.openCachedFile(fullName)) {
+        Test.ensureTrue(handle.netcdfFile() == first, "");
+        Test.ensureEqual(NcHelper.findAllVariablesWithDims(first).length, 8, "");
+
+        // but a leased NetcdfFile is never shared
+        try (NcFileCache.Handle handle2 = NcHelper.openCachedFile(fullName)) {
+          Test.ensureTrue(handle2.netcdfFile() != first, "");
+        }
+      }
+
+      // a changed file gets a new NetcdfFile
+      File2.setLastModified(fullName, File2.getLastModified(fullName) - 60000);
+      try (NcFileCache.Handle handle = NcHelper.openCachedFile(fullName)) {
+        Test.ensureTrue(handle.netcdfFile() != first, "");
+        first = handle.netcdfFile();
+      }
+
+      // invalidate closes the idle NetcdfFiles for the file
+      NcFileCache.invalidate(fullName);
+      try (NcFileCache.Handle handle = NcHelper.openCachedFile(fullName)) {
+        Test.ensureTrue(handle.netcdfFile() != first, "");
+      }
+      String2.log(NcFileCache.statistics());
+    } finally {
+      NcFileCache.setMaxOpen(oMaxOpen);
+    }
+  }
+
   /** This is the test that Bob sent to Sean. It only uses netcdf-java methods, not NcHelper. */
   @org.junit.jupiter.api.Test
   void testReadStructure() throws Throwable {
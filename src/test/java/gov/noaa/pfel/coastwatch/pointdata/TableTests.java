@@ -4302,6 +4302,90 @@ public class TableTests {
     Test.ensureEqual(results, expected3, "results=\n" + results);
   }
 
+  /** This tests readNccsvInChunks(). */
+  @org.junit.jupiter.api.Test
+  void testReadNccsvInChunks() throws Throwable {
+    Table table = new Table();
+    table.globalAttributes().add("title", "chunk test");
+    table.addColumn("time", new DoubleArray(new double[] {0, 1, 2, 3, 4, 5, 6, 7, 8, 9}));
+    table.addColumn(
+        "name",
+        new StringArray(new String[] {"a", "b,c", "d\"e", "", "f", "g", "h", "i", "j", "k"}));
+    table.addColumn("count", new LongArray(new long[] {10, 11, 12, 13, 14, 15, 16, 17, 18, 19}));
+    table.addColumn("id", new IntArray(new int[] {7, 7, 7, 7, 7, 7, 7, 7, 7, 7})); // a *SCALAR*
+    table.columnAttributes(0).add("units", "seconds since 1970-01-01T00:00:00Z");
+    String nccsv = table.saveAsNccsv(true, true, 0, Integer.MAX_VALUE);
+    Test.ensureTrue(nccsv.indexOf("id,*SCALAR*,") >= 0, nccsv);
+
+    // read it all
+    Table expected = new Table();
+    expected.lowReadNccsv("test", true, new BufferedReader(new StringReader(nccsv)));
+    Test.ensureEqual(expected.nRows(), 10, "");
+
+    // read it in chunks
+    Table metadata = new Table();
+    Table all[] = {null}; // the consumer may keep the chunks
+    IntArray chunkSizes = new IntArray();
+    metadata.readNccsvInChunks(
+        "test",
+        new BufferedReader(new StringReader(nccsv)),
+        3,
+        chunk -> {
+          chunkSizes.add(chunk.nRows());
+          if (all[0] == null) all[0] = chunk;
+          else all[0].append(chunk);
+          Test.ensureEqual(chunk.globalAttributes().getString("title"), "chunk test", "");
+          Test.ensureEqual(
+              chunk.columnAttributes(0).getString("units"),
+              "seconds since 1970-01-01T00:00:00Z",
+              "");
+          return true;
+        });
+    Test.ensureEqual(chunkSizes.toString(), "3, 3, 3, 1", "");
+    Test.ensureEqual(metadata.nRows(), 0, "");
+    Test.ensureEqual(
+        all[0].saveAsNccsv(false, true, 0, Integer.MAX_VALUE),
+        expected.saveAsNccsv(false, true, 0, Integer.MAX_VALUE),
+        "");
+
+    // the consumer can stop the reading, and its exceptions are thrown unchanged
+    chunkSizes.clear();
+    metadata.readNccsvInChunks(
+        "test",
+        new BufferedReader(new StringReader(nccsv)),
+        4,
+        chunk -> {
+          chunkSizes.add(chunk.nRows());
+          return false;
+        });
+    Test.ensureEqual(chunkSizes.toString(), "4", "");
+    try {
+      metadata.readNccsvInChunks(
+          "test",
+          new BufferedReader(new StringReader(nccsv)),
+          4,
+          chunk -> {
+            throw new SimpleException("consumer trouble");
+          });
+      throw new RuntimeException("shouldn't get here");
+    } catch (SimpleException e) {
+      Test.ensureEqual(e.getMessage(), "consumer trouble", "");
+    }
+
+    // no data rows: one chunk with 0 rows
+    chunkSizes.clear();
+    metadata.readNccsvInChunks(
+        "test",
+        new BufferedReader(
+            new StringReader(table.saveAsNccsv(true, true, 0, 0) + "time,name,count\n")),
+        4,
+        chunk -> {
+          chunkSizes.add(chunk.nRows());
+          return true;
+        });
+    Test.ensureEqual(chunkSizes.toString(), "0", "");
+  }
+
   /**
    * This tests saveAsMatlab().
    *
@@ -0,0 +1,146 @@
+package gov.noaa.pfel.coastwatch.pointdata.parquet;
+
+import com.cohort.array.PAOne;
+import com.cohort.array.PAType;
+import com.cohort.array.PrimitiveArray;
+import com.cohort.array.StringArray;
+import com.cohort.util.Test;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.io.LocalOutputFile;
+import org.apache.parquet.schema.LogicalTypeAnnotation;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.PrimitiveType.PrimitiveTypeName;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.io.TempDir;
+
+class ParquetColumnReaderTests {
+
+  @TempDir private static Path TEMP_DIR;
+
+  private static final int N_ROWS = 1000;
+  private static String fileName;
+
+  /**
+   * This writes a file with 10 row groups of 100 rows. Row i has station="S" + i/100,
+   * time=1000000+1000*i, temp=i/10+0.5 (but missing if i%7=0), flag=(i is even), and count=i.
+   */
+  @BeforeAll
+  static void writeFile() throws Exception {
+    fileName = TEMP_DIR.toAbsolutePath().toString() + "/testColumnReader.parquet";
+    MessageType schema =
+        org.apache.parquet.schema.Types.buildMessage()
+            .optional(PrimitiveTypeName.BINARY)
+            .as(LogicalTypeAnnotation.stringType())
+            .named("station")
+            .optional(PrimitiveTypeName.INT64)
+            .named("time")
+            .optional(PrimitiveTypeName.FLOAT)
+            .named("temp")
+            .optional(PrimitiveTypeName.BOOLEAN)
+            .named("flag")
+            .optional(PrimitiveTypeName.INT32)
+            .named("count")
+            .named("m");
+    try (ParquetWriter<List<PAOne>> writer =
+        new ParquetWriterBuilder(schema, new LocalOutputFile(Path.of(fileName)), new HashMap<>())
+            .withRowGroupRowCountLimit(100)
+            .build()) {
+      for (int i = 0; i < N_ROWS; i++) {
+        List<PAOne> record = new ArrayList<>();
+        record.add(new PAOne(PAType.STRING, "S" + i / 100));
+        record.add(new PAOne(PAType.LONG, "" + (1000000 + 1000L * i)));
+        record.add(new PAOne(PAType.FLOAT, i % 7 == 0 ? "" : "" + (i / 10f + 0.5f)));
+        record.add(new PAOne(PAType.STRING, "" + (i % 2 == 0)));
+        record.add(new PAOne(PAType.INT, "" + i));
+        writer.write(record);
+      }
+    }
+  }
+
+  /** This reads the file and returns the columns. */
+  private static PrimitiveArray[] read(
+      String names, String types, String conVars, String conOps, String conValues, int nSkipped)
+      throws Exception {
+    ParquetColumnReader reader =
+        new ParquetColumnReader(
+            StringArray.fromCSV(names),
+            StringArray.fromCSV(types).toArray(),
+            conVars == null ? null : StringArray.fromCSV(conVars),
+            conOps == null ? null : StringArray.fromCSV(conOps),
+            conValues == null ? null : StringArray.fromCSV(conValues));
+    PrimitiveArray pas[] = reader.read(fileName);
+    Test.ensureEqual(reader.nRowGroups, 10, "");
+    Test.ensureEqual(
+        reader.nRowGroupsSkipped, nSkipped, "conVars=" + conVars + " conValues=" + conValues);
+    return pas;
+  }
+
+  /** This tests reading typed columns without constraints. */
+  @org.junit.jupiter.api.Test
+  void testRead() throws Exception {
+    PrimitiveArray pas[] =
+        read(
+            "count,temp,station,notInFile,flag,time",
+            "int,float,String,double,boolean,double",
+            null,
+            null,
+            null,
+            0);
+    Test.ensureEqual(pas.length, 6, "");
+    Test.ensureEqual(pas[3] == null, true, "");
+    String types[] = {"int", "float", "String", null, "byte", "double"};
+    for (int col = 0; col < 6; col++) {
+      if (pas[col] == null) continue;
+      Test.ensureEqual(pas[col].elementTypeString(), types[col], "col=" + col);
+      Test.ensureEqual(pas[col].size(), N_ROWS, "col=" + col);
+    }
+    for (int i = 0; i < N_ROWS; i++) {
+      Test.ensureEqual(pas[0].getInt(i), i, "");
+      Test.ensureEqual(pas[1].getFloat(i), i % 7 == 0 ? Float.NaN : i / 10f + 0.5f, "i=" + i);
+      Test.ensureEqual(pas[2].getString(i), "S" + i / 100, "");
+      Test.ensureEqual(pas[4].getInt(i), i % 2 == 0 ? 1 : 0, "");
+      Test.ensureEqual(pas[5].getDouble(i), 1000000 + 1000.0 * i, "");
+    }
+
+    // other types
+    pas = read("count,flag", "String,String", null, null, null, 0);
+    Test.ensureEqual(pas[0].getString(5), "5", "");
+    Test.ensureEqual(pas[1].getString(5), "false", "");
+  }
+
+  /** This tests that the constraints skip the row groups which can't have matching rows. */
+  @org.junit.jupiter.api.Test
+  void testConstraints() throws Exception {
+    String names = "station,time,temp,count";
+    String types = "String,double,float,int";
+
+    PrimitiveArray pas[] = read(names, types, "time,time", ">=,<", "1250000,1450000", 7);
+    Test.ensureEqual(pas[3].size(), 300, "");
+    Test.ensureEqual(pas[3].getInt(0), 200, "");
+    Test.ensureEqual(pas[0].getString(299), "S4", "");
+
+    pas = read(names, types, "station", "=", "S7", 9);
+    Test.ensureEqual(pas[3].getInt(0), 700, "");
+    pas = read(names, types, "station", "=", "S75", 10);
+    Test.ensureEqual(pas[0].size(), 0, "");
+    Test.ensureEqual(pas[3].size(), 0, "");
+
+    read(names, types, "temp", ">", "99.9", 9);
+    read(names, types, "temp", "<", "0.6", 10);
+    read(names, types, "temp", "<=", "0.599999", 9); // a little lenient
+    read(names, types, "count", "=", "555", 9);
+    read(names, types, "count", ">=", "1000", 10);
+
+    // constraints that can't be tested with the statistics
+    read(names, types, "temp", "=", "NaN", 0);
+    read(names, types, "count", "!=", "555", 0);
+    read(names, types, "station", "=~", "S7", 0);
+    read(names, types, "station", "<", "S2", 0); // String < > tests ignore case
+    read(names, types, "notInFile", "=", "5", 0);
+    read(names, "String,double,float,String", "count", "=", "555", 0); // String tests
+  }
+}
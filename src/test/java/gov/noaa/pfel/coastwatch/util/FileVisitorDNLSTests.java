@@ -8,10 +8,26 @@ import com.cohort.util.Math2;
 import com.cohort.util.String2;
 import com.cohort.util.Test;
 import com.cohort.util.TestUtil;
+import com.sun.net.httpserver.HttpServer;
 import gov.noaa.pfel.coastwatch.pointdata.Table;
+import gov.noaa.pfel.erddap.util.EDStatic;
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.jupiter.api.BeforeAll;
 import tags.TagDisabledAWS;
 import tags.TagDisabledExternalOther;
@@ -1318,6 +1334,251 @@ class FileVisitorDNLSTests {
     Test.ensureEqual(results, expected, "results=\n" + results);
   }
 
+  /**
+   * This tests that oneStep's parallel crawl of a local directory tree (nThreads &gt; 1) gets the
+   * same results as the original, single-threaded walk, including with an unreadable subdirectory
+   * and a symbolic link loop.
+   */
+  @org.junit.jupiter.api.Test
+  void testParallelLocal() throws Throwable {
+    String dir = EDStatic.config.fullTestCacheDirectory + "fileVisitorParallel/";
+    Path loop = Path.of(dir + "d1/s1/loop");
+    File unreadable = new File(dir + "d2/unreadable");
+    int oNThreads = FileVisitorDNLS.nThreads;
+    try {
+      Files.deleteIfExists(loop); // before deleting the dir, so delete doesn't follow it
+      File2.deleteAllFiles(dir, true, true);
+      for (int d = 0; d < 5; d++) {
+        for (int s = 0; s < 3; s++) {
+          String subdir = dir + "d" + d + "/s" + s + "/";
+          File2.makeDirectory(subdir);
+          for (int f = 0; f < 4; f++)
+            File2.writeToFileUtf8(subdir + "f" + f + (f % 2 == 0 ? ".nc" : ".txt"), "f" + f);
+        }
+      }
+      File2.makeDirectory(dir + "empty/");
+      File2.makeDirectory(unreadable.getPath());
+      File2.writeToFileUtf8(unreadable.getPath() + "/f0.nc", "f0");
+      unreadable.setReadable(false);
+      try {
+        Files.createSymbolicLink(loop, Path.of(dir + "d1"));
+      } catch (UnsupportedOperationException | IOException e) {
+        String2.log("testParallelLocal can't make a symbolic link: " + e.getMessage());
+      }
+
+      Object[][] params = {
+        {".*\\.nc", true, null, false},
+        {".*", true, null, true},
+        {".*", true, ".*/d[0-2]/(|s[01]/)", true},
+        {"f[12]\\..*", false, null, true}
+      };
+      for (Object[] param : params) {
+        String msg = "params=" + Arrays.toString(param);
+        FileVisitorDNLS.nThreads = 1;
+        Table serial =
+            FileVisitorDNLS.oneStep(
+                dir, (String) param[0], (Boolean) param[1], (String) param[2], (Boolean) param[3]);
+        FileVisitorDNLS.nThreads = 4;
+        Table parallel =
+            FileVisitorDNLS.oneStep(
+                dir, (String) param[0], (Boolean) param[1], (String) param[2], (Boolean) param[3]);
+        Test.ensureTrue(serial.nRows() > 0, msg);
+        Test.ensureEqual(parallel.dataToString(), serial.dataToString(), msg);
+      }
+    } finally {
+      FileVisitorDNLS.nThreads = oNThreads;
+      unreadable.setReadable(true);
+      Files.deleteIfExists(loop);
+      File2.deleteAllFiles(dir, true, true);
+    }
+  }
+
+  /**
+   * This makes a fake WAF, THREDDS, or Hyrax catalog page for testParallelCatalogs. The catalog has
+   * 4 directories (d0 - d3), each with 3 subdirectories (s0 - s2), and 3 files in each directory.
+   *
+   * @param path the request's path, e.g., /thredds/catalog/root/d1/catalog.html
+   * @return the page, or null if path isn't in the catalog
+   */
+  private static String catalogPage(String path) {
+    String type;
+    String rel;
+    if (path.startsWith("/waf/root/") && path.endsWith("/")) {
+      type = "waf";
+      rel = path.substring(10);
+    } else if (path.startsWith("/thredds/catalog/root/") && path.endsWith("/catalog.html")) {
+      type = "thredds";
+      rel = path.substring(22, path.length() - 12);
+    } else if (path.startsWith("/opendap/root/") && path.endsWith("/contents.html")) {
+      type = "hyrax";
+      rel = path.substring(14, path.length() - 13);
+    } else {
+      return null;
+    }
+    int level = rel.length() == 0 ? 0 : rel.split("/").length;
+    if (level > 2) return null;
+    List<String> subdirs = new ArrayList<>();
+    for (int i = 0; i < (level == 0 ? 4 : level == 1 ? 3 : 0); i++)
+      subdirs.add((level == 0 ? "d" : "s") + i);
+    String files[] = {"f0.nc", "f1.txt", "f2.nc"};
+
+    StringBuilder sb = new StringBuilder();
+    switch (type) {
+      case "waf" -> {
+        sb.append(
+            "<pre><img src=\"/i.gif\" alt=\"Icon \"> <a href=\"?C=N;O=D\">Name</a>"
+                + " <a href=\"?C=M;O=A\">Last modified</a> <a href=\"?C=S;O=A\">Size</a>"
+                + " <a href=\"?C=D;O=A\">Description</a>\n");
+        for (String subdir : subdirs)
+          sb.append(
+              "<img src=\"/i.gif\" alt=\"[DIR]\" align=\"absbottom\"> <a href=\""
+                  + subdir
+                  + "/\">"
+                  + subdir
+                  + "</a>\n");
+        for (int f = 0; f < files.length; f++)
+          sb.append(
+              "<img src=\"/i.gif\" alt=\"[BIN]\" align=\"absbottom\"> <a href=\""
+                  + files[f]
+                  + "\">"
+                  + files[f]
+                  + "</a>  0"
+                  + (f + 1)
+                  + "-Jan-2010 16:29  2"
+                  + f
+                  + "K\n");
+        sb.append("</pre>\n");
+      }
+      case "thredds" -> {
+        sb.append("<table>\n<tr><th>Dataset</th><th>Size</th><th>Last Modified</th></tr>\n");
+        for (String subdir : subdirs)
+          sb.append(
+              "<tr><td><img src='/thredds/folder.gif' alt='Folder'> &nbsp;<a href='"
+                  + subdir
+                  + "/catalog.html'><tt>"
+                  + subdir
+                  + "</tt></a></td><td><tt>&nbsp;</tt></td><td><tt>--</tt></td></tr>\n");
+        for (int f = 0; f < files.length; f++)
+          sb.append(
+              "<tr><td><a href='catalog.html?dataset=root/"
+                  + rel
+                  + files[f]
+                  + "'><tt>"
+                  + files[f]
+                  + "</tt></a></td><td><tt>2"
+                  + f
+                  + ".5 Kbytes</tt></td><td><tt>2009-11-2"
+                  + f
+                  + " 17:58:53Z</tt></td></tr>\n");
+        sb.append("</table>\n");
+      }
+      default -> { // hyrax
+        sb.append(
+            "<html><body><pre><table>\n<tr><th>Name</th></tr>\n"
+                + "<tr><td><a href=\"../contents.html\">Parent Directory/</a></td></tr>\n");
+        for (String subdir : subdirs)
+          sb.append(
+              "<tr><td><a href=\""
+                  + subdir
+                  + "/contents.html\">"
+                  + subdir
+                  + "/</a></td><td>-</td><td>-</td></tr>\n");
+        for (int f = 0; f < files.length; f++)
+          sb.append(
+              "<tr><td><a href=\""
+                  + files[f]
+                  + ".html\">"
+                  + files[f]
+                  + "</a></td><td>2011-06-3"
+                  + f
+                  + "T04:43:09</td><td>123"
+                  + f
+                  + "</td><td><a href=\""
+                  + files[f]
+                  + ".das\">das</a></td></tr>\n");
+        sb.append("</table></pre></body></html>\n");
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * This tests that oneStep's parallel crawl of WAF, THREDDS, and Hyrax catalogs (nThreads &gt; 1)
+   * gets the same results as the original, serial crawl, and that concurrent crawls share the
+   * nThreads crawler threads (so they don't request more than nThreads pages at once).
+   */
+  @org.junit.jupiter.api.Test
+  void testParallelCatalogs() throws Throwable {
+    AtomicInteger inFlight = new AtomicInteger();
+    AtomicInteger maxInFlight = new AtomicInteger();
+    HttpServer server =
+        HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    ExecutorService serverThreads = Executors.newFixedThreadPool(16);
+    server.createContext(
+        "/",
+        exchange -> {
+          maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+          try {
+            Math2.sleep(20); // so the crawler threads overlap
+          } finally {
+            inFlight.decrementAndGet(); // before the client gets the response
+          }
+          String page = catalogPage(exchange.getRequestURI().getPath());
+          byte bytes[] = page == null ? new byte[0] : page.getBytes(StandardCharsets.UTF_8);
+          exchange.sendResponseHeaders(
+              page == null ? 404 : 200, bytes.length == 0 ? -1 : bytes.length);
+          try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+          }
+        });
+    server.setExecutor(serverThreads);
+    server.start();
+    String base = "http://127.0.0.1:" + server.getAddress().getPort();
+    String urls[] = {base + "/waf/root/", base + "/thredds/catalog/root/", base + "/opendap/root/"};
+    int oNThreads = FileVisitorDNLS.nThreads;
+    ExecutorService crawls = Executors.newFixedThreadPool(urls.length);
+    try {
+      for (String url : urls) {
+        Object[][] params = {
+          {".*\\.nc", null, false},
+          {".*", null, true},
+          {".*", ".*/d[0-1]/(|s[01]/)", false}
+        };
+        for (Object[] param : params) {
+          String msg = "url=" + url + " params=" + Arrays.toString(param);
+          FileVisitorDNLS.nThreads = 1;
+          maxInFlight.set(0);
+          Table serial =
+              FileVisitorDNLS.oneStep(
+                  url, (String) param[0], true, (String) param[1], (Boolean) param[2]);
+          Test.ensureEqual(maxInFlight.get(), 1, msg);
+          FileVisitorDNLS.nThreads = 4;
+          maxInFlight.set(0);
+          Table parallel =
+              FileVisitorDNLS.oneStep(
+                  url, (String) param[0], true, (String) param[1], (Boolean) param[2]);
+          Test.ensureBetween(maxInFlight.get(), 2, 4, msg);
+          Test.ensureTrue(serial.nRows() >= 8, msg + "\n" + serial.dataToString());
+          Test.ensureEqual(parallel.dataToString(), serial.dataToString(), msg);
+        }
+      }
+
+      // concurrent crawls share the crawler threads
+      FileVisitorDNLS.nThreads = 2;
+      maxInFlight.set(0);
+      List<Future<Table>> futures = new ArrayList<>();
+      for (String url : urls)
+        futures.add(crawls.submit(() -> FileVisitorDNLS.oneStep(url, ".*", true, null, false)));
+      for (Future<Table> future : futures) Test.ensureTrue(future.get().nRows() > 0, "");
+      Test.ensureBetween(maxInFlight.get(), 1, 2, "");
+    } finally {
+      FileVisitorDNLS.nThreads = oNThreads;
+      crawls.shutdownNow();
+      server.stop(0);
+      serverThreads.shutdownNow();
+    }
+  }
+
   /**
    * This tests following symbolic links / soft links. THIS DOESN'T WORK on Windows, because Java
    * doesn't follow Windows .lnk's. Windows links are not easily parsed files. It would be hard to
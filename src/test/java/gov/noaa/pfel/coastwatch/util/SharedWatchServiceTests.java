@@ -1,12 +1,19 @@
 package gov.noaa.pfel.coastwatch.util;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import com.cohort.array.StringArray;
 import com.cohort.util.File2;
 import com.cohort.util.Math2;
+import gov.noaa.pfel.erddap.util.EDConfig;
+import gov.noaa.pfel.erddap.util.EDStatic;
 import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import tags.TagSlowTests;
@@ -22,6 +29,8 @@ class SharedWatchServiceTests {
 
     public boolean reloadRequested = false;
     public StringArray contexts = new StringArray();
+    public int nHandleUpdates = 0;
+    public Map<String, Long> knownFiles = null;
 
     public void resetTest() {
       reloadRequested = false;
@@ -36,6 +45,12 @@ class SharedWatchServiceTests {
     @Override
     public void handleUpdates(StringArray contexts) throws Throwable {
       this.contexts = contexts;
+      nHandleUpdates++;
+    }
+
+    @Override
+    public Map<String, Long> knownFiles(String dir) {
+      return knownFiles;
     }
   }
 
@@ -56,7 +71,8 @@ class SharedWatchServiceTests {
     String file1 = "/columnarAsciiWithComments.txt";
     String file2 = "/csvAscii.txt";
     String results;
-    int sleep = 200;
+    // longer than the default watchDebounceMillis, so each processEvents handles the changes
+    int sleep = EDConfig.DEFAULT_watchDebounceMillis + 200;
 
     // delete all files in watchDir and subdir
     try {
@@ -122,8 +138,9 @@ class SharedWatchServiceTests {
               || results.equals(subDirNS));
     }
     assertFalse(eventHandler.reloadRequested);
+    // the CREATE and MODIFY events for each file are coalesced
     assertTrue(
-        contexts.size() >= 4 && contexts.size() <= 5); // sometimes the dir event isn't caught
+        contexts.size() >= 2 && contexts.size() <= 3); // sometimes the dir event isn't caught
     eventHandler.resetTest();
 
     // programmatic test: delete files
@@ -147,4 +164,124 @@ class SharedWatchServiceTests {
     assertFalse(eventHandler.reloadRequested);
     assertTrue(contexts.size() >= 2 && contexts.size() <= 5);
   }
+
+  /**
+   * This tests that a burst of events is given to the handler as one batch (with one context per
+   * file) after the debounce time.
+   */
+  @Test
+  @TagSlowTests
+  void testCoalescing() throws Throwable {
+    EventHandler eventHandler = new EventHandler();
+    String watchDir = File2.addSlash(EDStatic.config.fullTestCacheDirectory) + "watchCoalesce/";
+    File2.makeDirectory(watchDir);
+    RegexFilenameFilter.regexDelete(watchDir, ".*", false);
+    int debounceMillis = EDStatic.config.watchDebounceMillis;
+    EDStatic.config.watchDebounceMillis = EDConfig.DEFAULT_watchDebounceMillis;
+    try {
+      SharedWatchService.watchDirectory(watchDir, false, null, eventHandler, "coalesceTest");
+      long received = eventCount(SharedWatchService.RECEIVED);
+      long applied = eventCount(SharedWatchService.APPLIED);
+      SharedWatchService.processEvents(); // polling often (as during a burst of requests)
+
+      // write each file several times (CREATE, then MODIFY events)
+      for (int i = 0; i < 3; i++) {
+        for (int f = 0; f < 5; f++)
+          File2.writeToFileUtf8(watchDir + "file" + f + ".txt", "pass " + i);
+        Math2.sleep(100);
+        SharedWatchService.processEvents(); // events are too recent, so nothing is handled
+        assertEquals(0, eventHandler.nHandleUpdates);
+      }
+
+      Math2.sleep(1200);
+      SharedWatchService.processEvents();
+      assertEquals(1, eventHandler.nHandleUpdates);
+      eventHandler.contexts.sort();
+      assertEquals(
+          watchDir
+              + "file0.txt, "
+              + watchDir
+              + "file1.txt, "
+              + watchDir
+              + "file2.txt, "
+              + watchDir
+              + "file3.txt, "
+              + watchDir
+              + "file4.txt",
+          eventHandler.contexts.toString());
+      assertTrue(eventCount(SharedWatchService.RECEIVED) - received >= 5);
+      assertEquals(5, eventCount(SharedWatchService.APPLIED) - applied);
+
+      // nothing new
+      SharedWatchService.processEvents();
+      assertEquals(1, eventHandler.nHandleUpdates);
+      // the handled events were removed
+      assertFalse(SharedWatchService.hasPendingEvents("coalesceTest"));
+    } finally {
+      EDStatic.config.watchDebounceMillis = debounceMillis;
+      RegexFilenameFilter.regexDelete(watchDir, ".*", false);
+    }
+  }
+
+  /**
+   * This tests that, with the default watchDebounceMillis, a change is handled by the first
+   * processEvents which sees it if the previous processEvents was longer ago than the debounce time
+   * (as when processEvents is called by update() every updateEveryNMillis).
+   */
+  @Test
+  @TagSlowTests
+  void testSettledOnFirstUpdate() throws Throwable {
+    EventHandler eventHandler = new EventHandler();
+    String watchDir = File2.addSlash(EDStatic.config.fullTestCacheDirectory) + "watchSettled/";
+    File2.makeDirectory(watchDir);
+    RegexFilenameFilter.regexDelete(watchDir, ".*", false);
+    int debounceMillis = EDStatic.config.watchDebounceMillis;
+    EDStatic.config.watchDebounceMillis = EDConfig.DEFAULT_watchDebounceMillis;
+    try {
+      SharedWatchService.watchDirectory(watchDir, false, null, eventHandler, "settledTest");
+      SharedWatchService.processEvents(); // an update()
+      File2.writeToFileUtf8(watchDir + "file0.txt", "new");
+
+      // the next update()
+      Math2.sleep(EDConfig.DEFAULT_watchDebounceMillis + 500);
+      SharedWatchService.processEvents();
+      assertEquals(1, eventHandler.nHandleUpdates);
+      assertEquals(watchDir + "file0.txt", eventHandler.contexts.toString());
+    } finally {
+      EDStatic.config.watchDebounceMillis = debounceMillis;
+      RegexFilenameFilter.regexDelete(watchDir, ".*", false);
+    }
+  }
+
+  private static long eventCount(String stage) {
+    return SharedWatchService.events.labelValues(stage).getLongValue();
+  }
+
+  /** This tests the rescan of a directory after an OVERFLOW event. */
+  @Test
+  void testRescanDirectory() throws Throwable {
+    EventHandler eventHandler = new EventHandler();
+    String dir = File2.addSlash(EDStatic.config.fullTestCacheDirectory) + "watchRescan/";
+    File2.makeDirectory(dir);
+    RegexFilenameFilter.regexDelete(dir, ".*", false);
+    File2.writeToFileUtf8(dir + "same.txt", "same");
+    File2.writeToFileUtf8(dir + "changed.txt", "changed");
+    File2.writeToFileUtf8(dir + "new.txt", "new");
+    try {
+      Set<String> contexts = new TreeSet<>();
+      // the handler doesn't support rescans
+      assertFalse(SharedWatchService.rescanDirectory(eventHandler, dir, contexts));
+
+      eventHandler.knownFiles = new HashMap<>();
+      eventHandler.knownFiles.put("same.txt", File2.getLastModified(dir + "same.txt"));
+      eventHandler.knownFiles.put("changed.txt", File2.getLastModified(dir + "changed.txt") - 5000);
+      eventHandler.knownFiles.put("deleted.txt", 1000L);
+      assertTrue(SharedWatchService.rescanDirectory(eventHandler, dir, contexts));
+      assertEquals(
+          "[" + dir + "changed.txt, " + dir + "deleted.txt, " + dir + "new.txt]",
+          contexts.toString());
+    } finally {
+      RegexFilenameFilter.regexDelete(dir, ".*", false);
+    }
+  }
 }
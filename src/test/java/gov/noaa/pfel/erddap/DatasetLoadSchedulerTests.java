@@ -0,0 +1,84 @@
+package gov.noaa.pfel.erddap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.cohort.util.SimpleException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.jupiter.api.Test;
+
+class DatasetLoadSchedulerTests {
+
+  private static DatasetLoadScheduler.Job job(String datasetID, int lineNumber) {
+    return new DatasetLoadScheduler.Job(
+        datasetID, "EDDGridFromEtopo", "", lineNumber, Set.<String>of());
+  }
+
+  /**
+   * This tests that datasets whose construction times out (and which ignore the interrupt, like a
+   * thread stuck in I/O) don't hold up the other datasets, and that duplicate datasetIDs aren't
+   * submitted.
+   */
+  @Test
+  void stuckJobTest() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    DatasetLoadScheduler scheduler =
+        new DatasetLoadScheduler(
+            2,
+            100,
+            job -> {
+              if (job.datasetID().startsWith("stuck")) {
+                // ignore interrupts until released
+                while (true) {
+                  try {
+                    if (release.await(10, TimeUnit.SECONDS)) break;
+                  } catch (InterruptedException e) {
+                  }
+                }
+              }
+              throw new SimpleException("built " + job.datasetID());
+            });
+    try {
+      assertTrue(scheduler.submit(job("stuck1", 1)));
+      assertTrue(scheduler.submit(job("stuck2", 2)));
+      assertFalse(scheduler.submit(job("stuck1", 3)), "a duplicate");
+      assertTrue(scheduler.submit(job("a", 4)));
+
+      // both worker threads are stuck, but "a" is still constructed
+      Map<String, Throwable> results = new HashMap<>();
+      long start = System.currentTimeMillis();
+      while (results.size() < 3 && System.currentTimeMillis() - start < 30000) {
+        DatasetLoadScheduler.Result result = scheduler.next(100);
+        if (result != null) {
+          results.put(result.job().datasetID(), result.throwable());
+          scheduler.published(result.job().datasetID());
+        }
+      }
+      assertEquals(3, results.size(), results.toString());
+      assertTrue(results.get("stuck1") instanceof TimeoutException);
+      assertTrue(results.get("stuck2") instanceof TimeoutException);
+      assertEquals("built a", results.get("a").getMessage());
+      assertTrue(scheduler.isIdle());
+      assertEquals(4, scheduler.nWorkerThreads());
+
+      // when the stuck threads finish, the replacement threads are removed
+      release.countDown();
+      start = System.currentTimeMillis();
+      while (scheduler.nWorkerThreads() > 2 && System.currentTimeMillis() - start < 10000)
+        Thread.sleep(10);
+      assertEquals(2, scheduler.nWorkerThreads());
+
+      // and a published datasetID can be submitted again
+      assertTrue(scheduler.submit(job("stuck1", 5)));
+    } finally {
+      release.countDown();
+      scheduler.shutdownNow();
+    }
+  }
+}
@@ -9,6 +9,8 @@ import com.cohort.util.String2;
 import com.cohort.util.Test;
 import gov.noaa.pfel.coastwatch.pointdata.Table;
 import gov.noaa.pfel.erddap.dataset.EDDGrid;
+import gov.noaa.pfel.erddap.util.EDStatic;
+import gov.noaa.pfel.erddap.util.RequestScheduler;
 import jakarta.servlet.ServletOutputStream;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
@@ -35,6 +37,46 @@ class ErddapTests {
     verify(response, times(1)).getOutputStream();
   }
 
+  /** This tests the RequestScheduler.RequestClass guessed from a request's URL. */
+  @org.junit.jupiter.api.Test
+  void testRequestClass() throws Throwable {
+    String start = "/" + EDStatic.config.warName + "/";
+    Test.ensureEqual(Erddap.requestClass(start + "images/erddap.css", ""), null, "");
+    Test.ensureEqual(
+        Erddap.requestClass(start + "griddap/erdMHchla8day.html", ""),
+        RequestScheduler.RequestClass.metadata,
+        "");
+    Test.ensureEqual(
+        Erddap.requestClass(start + "griddap/erdMHchla8day.png", "chlorophyll[0]"),
+        RequestScheduler.RequestClass.image,
+        "");
+    // data requests: constrained or not
+    Test.ensureEqual(
+        Erddap.requestClass(start + "griddap/erdMHchla8day.nc", "chlorophyll%5B0%5D"),
+        RequestScheduler.RequestClass.small_data,
+        "");
+    Test.ensureEqual(
+        Erddap.requestClass(start + "griddap/erdMHchla8day.nc", "chlorophyll"),
+        RequestScheduler.RequestClass.large_download,
+        "");
+    Test.ensureEqual(
+        Erddap.requestClass(start + "tabledap/cwwcNDBCMet.csv", "time,wtmp&time%3E=2020-01-01"),
+        RequestScheduler.RequestClass.small_data,
+        "");
+    Test.ensureEqual(
+        Erddap.requestClass(start + "tabledap/cwwcNDBCMet.csv", "time,wtmp&orderBy(%22time%22)"),
+        RequestScheduler.RequestClass.large_download,
+        "");
+    Test.ensureEqual(
+        Erddap.requestClass(start + "tabledap/cwwcNDBCMet.csv", ""),
+        RequestScheduler.RequestClass.large_download,
+        "");
+    Test.ensureEqual(
+        Erddap.requestClass(start + "files/cwwcNDBCMet/", ""),
+        RequestScheduler.RequestClass.metadata,
+        "");
+  }
+
   /** Test Convert Nearest Data. */
   @org.junit.jupiter.api.Test
   void testConvertInterpolate() throws Throwable {
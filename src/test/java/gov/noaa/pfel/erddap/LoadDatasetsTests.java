@@ -1,6 +1,7 @@
 package gov.noaa.pfel.erddap;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import com.cohort.util.File2;
 import gov.noaa.pfel.erddap.util.EDStatic;
@@ -41,6 +42,39 @@ public class LoadDatasetsTests {
             + "    etopo36, (end)\n");
   }
 
+  @Test
+  @SuppressWarnings("DoNotCall")
+  void failedToLoadDatasetsParallelTest() throws Throwable {
+    // nLoadDatasetsThreads is set in the datasets.xml file (before the first <dataset>)
+    String pathToDatasetsXml =
+        Objects.requireNonNull(
+            Path.of(
+                    LoadDatasets.class
+                        .getResource("/datasets/failedToLoadDatasetsParallelTest.xml")
+                        .toURI())
+                .toString());
+    int oNLoadDatasetsThreads = EDStatic.nLoadDatasetsThreads;
+    try {
+      EDStatic.nLoadDatasetsThreads = 1;
+      Erddap erddap = new Erddap();
+      loadDatasets =
+          new LoadDatasets(
+              erddap,
+              EDStatic.config.datasetsRegex,
+              File2.getBufferedInputStream(pathToDatasetsXml),
+              true);
+      loadDatasets.run();
+      assertEquals(3, loadDatasets.nLoadThreadsUsed);
+      assertEquals(
+          EDStatic.datasetsThatFailedToLoad,
+          "n Datasets Failed To Load (in the last major LoadDatasets) = 1\n"
+              + "    etopo36, (end)\n");
+      assertTrue(erddap.gridDatasetHashMap.containsKey("etopo180"));
+    } finally {
+      EDStatic.nLoadDatasetsThreads = oNLoadDatasetsThreads;
+    }
+  }
+
   @Test
   @SuppressWarnings("DoNotCall")
   void duplicateDatasetsTest() throws Throwable {
@@ -60,4 +94,34 @@ public class LoadDatasetsTests {
         EDStatic.errorsDuringMajorReload,
         "ERROR: Duplicate datasetIDs in datasets.xml:\n" + "    etopo180\n");
   }
+
+  @Test
+  @SuppressWarnings("DoNotCall")
+  void duplicateDatasetsParallelTest() throws Throwable {
+    String pathToDatasetsXml =
+        Objects.requireNonNull(
+                Path.of(
+                    LoadDatasets.class
+                        .getResource("/datasets/duplicateDatasetsParallelTest.xml")
+                        .toURI()))
+            .toString();
+    int oNLoadDatasetsThreads = EDStatic.nLoadDatasetsThreads;
+    try {
+      Erddap erddap = new Erddap();
+      loadDatasets =
+          new LoadDatasets(
+              erddap,
+              EDStatic.config.datasetsRegex,
+              File2.getBufferedInputStream(pathToDatasetsXml),
+              true);
+      loadDatasets.run();
+      assertEquals(3, loadDatasets.nLoadThreadsUsed);
+      assertEquals(
+          EDStatic.errorsDuringMajorReload,
+          "ERROR: Duplicate datasetIDs in datasets.xml:\n" + "    etopo180\n");
+      assertTrue(erddap.gridDatasetHashMap.containsKey("etopo180"));
+    } finally {
+      EDStatic.nLoadDatasetsThreads = oNLoadDatasetsThreads;
+    }
+  }
 }
@@ -0,0 +1,180 @@
+package gov.noaa.pfel.erddap.dataset;
+
+import com.cohort.array.IntArray;
+import com.cohort.array.PAType;
+import com.cohort.array.PrimitiveArray;
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.io.TempDir;
+
+class ColumnSpillTests {
+  @TempDir private static Path TEMP_DIR;
+
+  /** This makes a PA with n random values. */
+  private static PrimitiveArray makePA(PAType paType, int n, Random random) {
+    PrimitiveArray pa = PrimitiveArray.factory(paType, n, false);
+    for (int i = 0; i < n; i++) {
+      if (paType == PAType.STRING)
+        pa.addString(i % 1000 == 0 ? "" : "sé" + random.nextInt(100000) + "€");
+      else if (paType == PAType.CHAR) pa.addString("" + (char) ('A' + random.nextInt(50)));
+      else pa.addDouble(i % 100 == 0 ? Double.NaN : random.nextInt(200));
+    }
+    return pa;
+  }
+
+  /**
+   * This tests that ColumnSpill reads back exactly what was written, for all PATypes, with and
+   * without lz4, with pages that span several writes and writes that span several pages.
+   */
+  @org.junit.jupiter.api.Test
+  void basicTest() throws Throwable {
+    String2.log("\n*** ColumnSpillTests.basicTest");
+    Random random = new Random(1);
+    for (boolean lz4 : new boolean[] {false, true}) {
+      for (PAType paType :
+          new PAType[] {
+            PAType.BYTE, PAType.UBYTE, PAType.SHORT, PAType.USHORT, PAType.CHAR, PAType.INT,
+            PAType.UINT, PAType.LONG, PAType.ULONG, PAType.FLOAT, PAType.DOUBLE, PAType.STRING
+          }) {
+        String msg = "paType=" + paType + " lz4=" + lz4;
+        PrimitiveArray expected = PrimitiveArray.factory(paType, 8, false);
+        try (ColumnSpill spill =
+            new ColumnSpill(
+                TEMP_DIR.resolve(paType + "." + lz4 + ".temp").toString(), paType, lz4)) {
+          // small writes, then a write bigger than a page, then more small writes
+          for (int n : new int[] {0, 1, 17, 400000, 3, 1000, 0, 250000}) {
+            PrimitiveArray pa = makePA(paType, n, random);
+            spill.write(pa);
+            expected.append(pa);
+          }
+          spill.finishWriting();
+          Test.ensureEqual(spill.nValues(), expected.size(), msg);
+
+          // read it all
+          try (ColumnSpill.Reader reader = spill.reader()) {
+            PrimitiveArray pa = reader.read(expected.size());
+            pa.setMaxIsMV(expected.getMaxIsMV()); // as TableWriterAll does
+            Test.ensureEqual(pa.size(), expected.size(), msg);
+            Test.ensureEqual(pa.capacity(), expected.size(), msg);
+            Test.ensureEqual(pa.testEquals(expected), "", msg);
+            Test.ensureEqual(reader.nRemaining(), 0, msg);
+          }
+
+          // read it in chunks
+          try (ColumnSpill.Reader reader = spill.reader()) {
+            int po = 0;
+            while (reader.nRemaining() > 0) {
+              int n = (int) Math.min(reader.nRemaining(), 1 + random.nextInt(300000));
+              PrimitiveArray pa = reader.read(n);
+              pa.setMaxIsMV(expected.getMaxIsMV());
+              Test.ensureEqual(
+                  pa.testEquals(expected.subset(po, 1, po + n - 1)), "", msg + " po=" + po);
+              po += n;
+            }
+            Test.ensureEqual(po, expected.size(), msg);
+          }
+
+          // dataInputStream has the same bytes as writeDos
+          ByteArrayOutputStream baos = new ByteArrayOutputStream();
+          try (DataOutputStream dos = new DataOutputStream(baos)) {
+            expected.writeDos(dos);
+          }
+          try (DataInputStream dis = spill.reader().dataInputStream()) {
+            Test.ensureTrue(Arrays.equals(dis.readAllBytes(), baos.toByteArray()), msg);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * This tests that the write buffer starts small and only grows to PAGE_BYTES when there is enough
+   * data, and that a closed Reader has released its mapped window.
+   */
+  @org.junit.jupiter.api.Test
+  void bufferTest() throws Throwable {
+    String2.log("\n*** ColumnSpillTests.bufferTest");
+    Random random = new Random(2);
+    for (boolean lz4 : new boolean[] {false, true}) {
+      String msg = "lz4=" + lz4;
+      try (ColumnSpill spill =
+          new ColumnSpill(
+              TEMP_DIR.resolve("buffer." + lz4 + ".temp").toString(), PAType.INT, lz4)) {
+        // nothing is allocated until something is written
+        Test.ensureEqual(spill.bufferBytes(), 0, msg);
+        long needed = spill.bufferBytesNeeded(10);
+        if (lz4) Test.ensureBetween(needed, 2 * ColumnSpill.MIN_PAGE_BYTES, 17000, msg);
+        else Test.ensureEqual(needed, ColumnSpill.MIN_PAGE_BYTES, msg);
+
+        spill.write(new IntArray(random.ints(10, 0, 200).toArray()));
+        Test.ensureEqual(spill.bufferBytes(), ColumnSpill.MIN_PAGE_BYTES, msg);
+
+        // the page grows (but not beyond PAGE_BYTES) when there is lots of data
+        needed = spill.bufferBytesNeeded(1000000);
+        if (lz4) Test.ensureBetween(needed, 2 * ColumnSpill.PAGE_BYTES, 2110000, msg);
+        else Test.ensureEqual(needed, ColumnSpill.PAGE_BYTES, msg);
+        PrimitiveArray expected = PrimitiveArray.factory(PAType.INT, 8, false);
+        PrimitiveArray pa = new IntArray(random.ints(10000, 0, 200).toArray());
+        spill.write(pa);
+        expected.append(pa);
+        Test.ensureEqual(spill.bufferBytes(), 40040, msg); // sized to the data
+        pa = new IntArray(random.ints(1000000, 0, 200).toArray());
+        spill.write(pa);
+        expected.append(pa);
+        Test.ensureBetween(spill.bufferBytes(), ColumnSpill.PAGE_BYTES, needed, msg);
+        spill.finishWriting();
+        Test.ensureEqual(spill.bufferBytes(), 0, msg);
+
+        try (ColumnSpill.Reader reader = spill.reader()) {
+          Test.ensureEqual(reader.read(10).size(), 10, msg);
+          pa = reader.read(expected.size());
+          Test.ensureEqual(pa.testEquals(expected), "", msg);
+        }
+
+        // a closed Reader has unmapped its window, so it can't be read
+        ColumnSpill.Reader reader = spill.reader();
+        Test.ensureEqual(reader.read(10).size(), 10, msg);
+        reader.close();
+        try {
+          reader.read(1);
+          throw new RuntimeException("Shouldn't get here.");
+        } catch (Exception e) {
+          Test.ensureTrue(e.getMessage().indexOf("Reader is closed") >= 0, e.getMessage());
+        }
+      }
+      // the file can be deleted (on Windows, this fails if part of it is still mapped)
+      Test.ensureTrue(
+          java.nio.file.Files.deleteIfExists(TEMP_DIR.resolve("buffer." + lz4 + ".temp")), msg);
+    }
+  }
+
+  /** This tests the errors. */
+  @org.junit.jupiter.api.Test
+  void errorTest() throws Throwable {
+    String2.log("\n*** ColumnSpillTests.errorTest");
+    try (ColumnSpill spill =
+        new ColumnSpill(TEMP_DIR.resolve("error.temp").toString(), PAType.INT, false)) {
+      spill.write(PrimitiveArray.csvFactory(PAType.INT, "1, 2, 3"));
+      try {
+        spill.reader();
+        throw new RuntimeException("Shouldn't get here.");
+      } catch (Exception e) {
+        Test.ensureTrue(e.getMessage().indexOf("is still being written") >= 0, e.getMessage());
+      }
+      spill.finishWriting();
+      try (ColumnSpill.Reader reader = spill.reader()) {
+        Test.ensureEqual(reader.read(2).toString(), "1, 2", "");
+        reader.read(2);
+        throw new RuntimeException("Shouldn't get here.");
+      } catch (Exception e) {
+        Test.ensureTrue(e.getMessage().indexOf("has 1 values left, not 2") >= 0, e.getMessage());
+      }
+    }
+  }
+}
@@ -2,6 +2,7 @@ package gov.noaa.pfel.erddap.dataset;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
+import com.cohort.array.IntArray;
 import com.cohort.array.PrimitiveArray;
 import com.cohort.util.Calendar2;
 import com.cohort.util.File2;
@@ -13788,6 +13789,100 @@ class EDDGridFromNcFilesTests {
     }
   }
 
+  /**
+   * This tests that getSourceData gets exactly the same values (in the same order) when it reads
+   * numerous files in parallel as when it reads them serially, with strides that don't line up with
+   * the file boundaries.
+   *
+   * @throws Throwable if trouble
+   */
+  @org.junit.jupiter.api.Test
+  void testNThreadsSameAsSerial() throws Throwable {
+    int language = 0;
+    EDDGridFromFiles eddGrid = (EDDGridFromFiles) EDDTestDataset.gettestGridNThreads();
+    int nFiles = eddGrid.getFileTable().nRows();
+    Test.ensureTrue(nFiles > 10, "nFiles=" + nFiles);
+    int nav = eddGrid.axisVariables().length;
+    IntArray constraints = new IntArray();
+    for (int av = 0; av < nav; av++) {
+      int stride = av == 0 ? 3 : 2;
+      int stop =
+          Math.min(eddGrid.axisVariables()[av].sourceValues().size() - 1, av == 0 ? 150 : 20);
+      constraints.add(0);
+      constraints.add(stride);
+      constraints.add(stop / stride * stride);
+    }
+    int oldNThreads = eddGrid.nThreads;
+    try {
+      PrimitiveArray expected[] = null;
+      for (int nt : new int[] {1, 4, 2}) {
+        eddGrid.nThreads = nt;
+        PrimitiveArray results[] =
+            eddGrid.getSourceData(language, null, null, eddGrid.dataVariables(), constraints);
+        if (expected == null) {
+          expected = results;
+          Test.ensureTrue(expected[nav].size() > 100, "n=" + expected[nav].size());
+        } else {
+          Test.ensureEqual(results.length, expected.length, "nThreads=" + nt);
+          for (int i = 0; i < results.length; i++)
+            Test.ensureEqual(
+                results[i].toString(), expected[i].toString(), "nThreads=" + nt + " i=" + i);
+        }
+      }
+    } finally {
+      eddGrid.nThreads = oldNThreads;
+    }
+  }
+
+  /**
+   * This tests readAheadChunks (getting chunks in other threads before they are needed) by making a
+   * request for 1 datum from each of numerous files.
+   *
+   * @throws Throwable if trouble
+   */
+  @org.junit.jupiter.api.Test
+  void testReadAheadChunks() throws Throwable {
+    int language = 0;
+    String tName, results;
+    String tDir = EDStatic.config.fullTestCacheDirectory;
+    EDDGrid eddGrid = (EDDGrid) EDDTestDataset.gettestGridNThreads();
+    String expected = null; // from readAheadChunks=0
+    try {
+      for (int rac : new int[] {0, 1, 3, 200}) { // 200 > the number of chunks
+        eddGrid.setReadAheadChunks(rac);
+        long tTime = System.currentTimeMillis();
+        tName =
+            eddGrid.makeNewFileForDapQuery(
+                language,
+                null,
+                null,
+                "taux[0:150][][(30)][(330)]",
+                tDir,
+                "EDDGridFromNcFiles.testReadAheadChunks" + rac,
+                ".csv");
+        results = File2.directReadFrom88591File(tDir + tName);
+        if (expected == null) {
+          expected = results;
+          String expectedStart =
+              "time,altitude,latitude,longitude,taux\n"
+                  + "UTC,m,degrees_north,degrees_east,Pa\n"
+                  + "2009-10-03T12:00:00Z,0.0,30.0,330.0,NaN\n"
+                  + "2009-10-04T12:00:00Z,0.0,30.0,330.0,NaN\n";
+          Test.ensureEqual(
+              results.substring(0, expectedStart.length()),
+              expectedStart,
+              "\nresults=\n" + results);
+        } else {
+          Test.ensureEqual(results, expected, "readAheadChunks=" + rac);
+        }
+        String2.log(
+            "readAheadChunks=" + rac + " time=" + (System.currentTimeMillis() - tTime) + "ms");
+      }
+    } finally {
+      eddGrid.setReadAheadChunks(-1);
+    }
+  }
+
   /**
    * This tests reading data from a file with a structure.
    *
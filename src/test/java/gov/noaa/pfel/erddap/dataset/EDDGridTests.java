@@ -7,6 +7,13 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
+import com.cohort.array.DoubleArray;
+import com.cohort.array.FloatArray;
+import com.cohort.array.IntArray;
+import com.cohort.array.NDimensionalIndex;
+import com.cohort.array.PAOne;
+import com.cohort.array.PAType;
+import com.cohort.array.PrimitiveArray;
 import com.cohort.util.File2;
 import com.cohort.util.Image2Tests;
 import com.cohort.util.Math2;
@@ -42,6 +49,76 @@ class EDDGridTests {
     Initialization.edStatic();
   }
 
+  /**
+   * This tests that addChunkAxisValues and addChunkDataValues (used by saveAsTableWriter's block
+   * fast path) expand a row-major chunk the same way as going through it one cell at a time.
+   */
+  @org.junit.jupiter.api.Test
+  void testAddChunkValues() throws Throwable {
+    int shape[] = {1, 3, 4, 5}; // e.g., time (from driver), depth, lat, lon
+    int start[] = {7, 0, 0, 0}; // the chunk's position in the total request
+    PrimitiveArray axisValues[] = {
+      new DoubleArray(new double[] {0, 1, 2, 3, 4, 5, 6, 7, 8}),
+      new FloatArray(new float[] {10, 20, 30}),
+      new IntArray(new int[] {-1, -2, -3, -4}),
+      new DoubleArray(new double[] {100, 101, 102, 103, 104})
+    };
+    // the lat column is double, so the int axis values must be converted
+    PAType columnTypes[] = {PAType.DOUBLE, PAType.FLOAT, PAType.DOUBLE, PAType.DOUBLE};
+    int nAv = shape.length;
+    int chunkSize = 60;
+    long inner[] = new long[nAv];
+    long tInner = 1;
+    for (int av = nAv - 1; av >= 0; av--) {
+      inner[av] = tInner;
+      tInner *= shape[av];
+    }
+    // the chunk has 3 too few data values (so missing values are added)
+    int nData = chunkSize - 3;
+    IntArray data = new IntArray(0, nData - 1); // 0 to nData-1 (inclusive)
+    Test.ensureEqual(data.size(), nData, "");
+
+    // expected: one cell at a time
+    NDimensionalIndex index = new NDimensionalIndex(shape);
+    PrimitiveArray expected[] = new PrimitiveArray[nAv + 1];
+    for (int av = 0; av < nAv; av++)
+      expected[av] = PrimitiveArray.factory(columnTypes[av], 8, false);
+    expected[nAv] = new IntArray();
+    while (index.increment()) {
+      for (int av = 0; av < nAv; av++)
+        expected[av].addDouble(axisValues[av].getDouble(start[av] + index.getCurrent()[av]));
+      int i = (int) index.getIndex();
+      expected[nAv].addInt(i < data.size() ? data.get(i) : Integer.MAX_VALUE);
+    }
+
+    // observed: in blocks of various sizes (as when the table is written every nBufferRows)
+    for (int blockSize : new int[] {1, 7, 13, 60}) {
+      PrimitiveArray observed[] = new PrimitiveArray[nAv + 1];
+      for (int av = 0; av < nAv; av++)
+        observed[av] = PrimitiveArray.factory(columnTypes[av], 8, false);
+      observed[nAv] = new IntArray();
+      for (int row = 0; row < chunkSize; row += blockSize) {
+        int nRows = Math.min(blockSize, chunkSize - row);
+        for (int av = 0; av < nAv; av++)
+          EDDGrid.addChunkAxisValues(
+              observed[av],
+              axisValues[av],
+              start[av],
+              shape[av],
+              inner[av],
+              row,
+              nRows,
+              new PAOne(columnTypes[av]));
+        EDDGrid.addChunkDataValues(observed[nAv], data, row, nRows, new PAOne(PAType.INT));
+      }
+      for (int col = 0; col <= nAv; col++)
+        Test.ensureEqual(
+            observed[col].toString(),
+            expected[col].toString(),
+            "blockSize=" + blockSize + " col=" + col);
+    }
+  }
+
   @org.junit.jupiter.api.Test
   void testSaveAsDODS() throws Throwable {
     EDDGrid eddGrid = (EDDGrid) EDDTestDataset.getetopo180();
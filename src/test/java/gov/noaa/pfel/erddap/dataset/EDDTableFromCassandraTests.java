@@ -1,11 +1,28 @@
 package gov.noaa.pfel.erddap.dataset;
 
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
 import com.cohort.array.Attributes;
 import com.cohort.util.File2;
 import com.cohort.util.MustBe;
 import com.cohort.util.String2;
 import com.cohort.util.Test;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
 import gov.noaa.pfel.erddap.util.EDStatic;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
@@ -18,6 +35,105 @@ class EDDTableFromCassandraTests {
     Initialization.edStatic();
   }
 
+  /**
+   * This makes a mock Session. Each statement made by the returned statements list gets its own
+   * ResultSet. For executeAsync, the ResultSetFuture's get() waits a random time (so the queries
+   * finish out of order).
+   */
+  private static Session mockSession(
+      int nPartitions,
+      List<Statement> statements,
+      Map<Statement, ResultSet> resultSets,
+      List<ResultSetFuture> futures,
+      AtomicInteger nAsync)
+      throws Exception {
+    Random random = new Random(0);
+    Session session = mock(Session.class);
+    for (int i = 0; i < nPartitions; i++) {
+      Statement statement = mock(Statement.class);
+      statements.add(statement);
+      resultSets.put(statement, mock(ResultSet.class));
+    }
+    when(session.execute(any(Statement.class)))
+        .thenAnswer(invocation -> resultSets.get(invocation.getArgument(0)));
+    when(session.executeAsync(any(Statement.class)))
+        .thenAnswer(
+            invocation -> {
+              nAsync.incrementAndGet();
+              ResultSet rs = resultSets.get(invocation.getArgument(0));
+              int sleep = random.nextInt(5);
+              ResultSetFuture future = mock(ResultSetFuture.class);
+              when(future.get())
+                  .thenAnswer(
+                      inv -> {
+                        Thread.sleep(sleep);
+                        return rs;
+                      });
+              futures.add(future);
+              return future;
+            });
+    return session;
+  }
+
+  /** This tests executeInPartitionOrder with a mock Session. */
+  @org.junit.jupiter.api.Test
+  void testExecuteInPartitionOrder() throws Throwable {
+    int nPartitions = 50;
+    for (int maxConcurrent : new int[] {1, 2, 8, 100}) {
+      List<Statement> statements = new ArrayList<>();
+      Map<Statement, ResultSet> resultSets = new HashMap<>();
+      List<ResultSetFuture> futures = new ArrayList<>();
+      AtomicInteger nAsync = new AtomicInteger();
+      Session session = mockSession(nPartitions, statements, resultSets, futures, nAsync);
+
+      // results are handled in partition order, with at most maxConcurrent in flight
+      List<Integer> handled = new ArrayList<>();
+      EDDTableFromCassandra.executeInPartitionOrder(
+          session,
+          nPartitions,
+          maxConcurrent,
+          statements::get,
+          (pkdRow, rs) -> {
+            Test.ensureTrue(rs == resultSets.get(statements.get(pkdRow)), "pkdRow=" + pkdRow);
+            if (maxConcurrent > 1)
+              Test.ensureTrue(
+                  nAsync.get() - handled.size() <= maxConcurrent,
+                  "nInFlight=" + (nAsync.get() - handled.size()));
+            handled.add(pkdRow);
+            return true;
+          });
+      Test.ensureEqual(handled.size(), nPartitions, "maxConcurrent=" + maxConcurrent);
+      for (int i = 0; i < nPartitions; i++) Test.ensureEqual(handled.get(i).intValue(), i, "");
+      if (maxConcurrent == 1) verify(session, never()).executeAsync(any(Statement.class));
+      else Test.ensureEqual(nAsync.get(), nPartitions, "");
+    }
+
+    // if the handler wants no more data, the queries still in flight are cancelled
+    List<Statement> statements = new ArrayList<>();
+    Map<Statement, ResultSet> resultSets = new HashMap<>();
+    List<ResultSetFuture> futures = new ArrayList<>();
+    AtomicInteger nAsync = new AtomicInteger();
+    Session session = mockSession(nPartitions, statements, resultSets, futures, nAsync);
+    EDDTableFromCassandra.executeInPartitionOrder(
+        session, nPartitions, 4, statements::get, (pkdRow, rs) -> pkdRow < 10);
+    Test.ensureEqual(nAsync.get(), 14, ""); // 0..10 handled, 11..13 in flight
+    for (int i = 11; i < 14; i++) verify(futures.get(i)).cancel(true);
+    verify(futures.get(10), never()).cancel(true);
+
+    // an exception from a query is rethrown (unwrapped)
+    ResultSetFuture failed = mock(ResultSetFuture.class);
+    when(failed.get()).thenThrow(new ExecutionException(new IllegalStateException("test")));
+    Session failing = mock(Session.class);
+    when(failing.executeAsync(any(Statement.class))).thenReturn(failed);
+    try {
+      EDDTableFromCassandra.executeInPartitionOrder(
+          failing, 3, 2, pkdRow -> mock(Statement.class), (pkdRow, rs) -> true);
+      throw new RuntimeException("Shouldn't get here.");
+    } catch (IllegalStateException e) {
+      Test.ensureEqual(e.getMessage(), "test", "");
+    }
+  }
+
   /**
    * This tests generateDatasetsXml.
    *
@@ -1,12 +1,34 @@
 package gov.noaa.pfel.erddap.dataset;
 
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.cohort.array.PAType;
+import com.cohort.array.PrimitiveArray;
 import com.cohort.util.File2;
 import com.cohort.util.MustBe;
 import com.cohort.util.SimpleException;
 import com.cohort.util.String2;
 import com.cohort.util.Test;
+import gov.noaa.pfel.coastwatch.pointdata.Table;
 import gov.noaa.pfel.erddap.GenerateDatasetsXml;
+import gov.noaa.pfel.erddap.dataset.metadata.LocalizedAttributes;
+import gov.noaa.pfel.erddap.util.EDMessages;
 import gov.noaa.pfel.erddap.util.EDStatic;
+import gov.noaa.pfel.erddap.variable.EDV;
+import gov.noaa.pfel.erddap.variable.EDVTimeStamp;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
@@ -908,4 +930,278 @@ class EDDTableFromDatabaseTests {
     Test.ensureTrue(
         results.indexOf("relation \"myschema.zztop\" does not exist") >= 0, "results=\n" + results);
   }
+
+  /**
+   * This tests the ColumnBinders (which read a ResultSet column into a PrimitiveArray), including
+   * their handling of NULLs.
+   *
+   * @throws Throwable if trouble
+   */
+  @org.junit.jupiter.api.Test
+  void testColumnBinders() throws Throwable {
+    int language = EDMessages.DEFAULT_LANGUAGE;
+    ResultSet rs = mock(ResultSet.class);
+    // each column: first row has a value, second row is NULL
+    when(rs.getBoolean(1)).thenReturn(true, false);
+    when(rs.getTimestamp(2)).thenReturn(new Timestamp(1500), null);
+    when(rs.getString(3)).thenReturn("abc", (String) null);
+    when(rs.getDouble(4)).thenReturn(2.5, 0.0);
+    when(rs.getInt(5)).thenReturn(17, 0);
+    when(rs.getLong(6)).thenReturn(12345678901L, 0L);
+    when(rs.wasNull()).thenReturn(false, false, false, false, true, true, true, true);
+
+    EDV edvs[] = {
+      new EDV("test", "b", "", null, new LocalizedAttributes(), "boolean"),
+      new EDVTimeStamp(
+          "test",
+          "t",
+          "t",
+          null,
+          new LocalizedAttributes().set(language, "units", "seconds since 1970-01-01T00:00:00Z"),
+          "double"),
+      new EDV("test", "s", "", null, new LocalizedAttributes(), "String"),
+      new EDV("test", "d", "", null, new LocalizedAttributes(), "double"),
+      new EDV("test", "i", "", null, new LocalizedAttributes(), "int"),
+      new EDV("test", "l", "", null, new LocalizedAttributes(), "long")
+    };
+    PrimitiveArray pas[] = new PrimitiveArray[edvs.length];
+    EDDTableFromDatabase.ColumnBinder binders[] =
+        new EDDTableFromDatabase.ColumnBinder[edvs.length];
+    for (int col = 0; col < edvs.length; col++) {
+      binders[col] = EDDTableFromDatabase.makeColumnBinder(edvs[col], col + 1);
+      pas[col] = PrimitiveArray.factory(edvs[col].sourceDataPAType(), 2, false);
+    }
+    Test.ensureEqual(pas[0].elementType(), PAType.BYTE, "");
+    for (int row = 0; row < 2; row++)
+      for (int col = 0; col < edvs.length; col++) binders[col].addTo(rs, pas[col]);
+
+    Test.ensureEqual(pas[0].getInt(0), 1, "");
+    Test.ensureEqual(pas[0].getInt(1), (int) Byte.MAX_VALUE, ""); // missing value
+    Test.ensureEqual(pas[1].getDouble(0), 1.5, "");
+    Test.ensureEqual(pas[1].getDouble(1), Double.NaN, "");
+    Test.ensureEqual(pas[2].getString(0), "abc", "");
+    Test.ensureEqual(pas[2].getString(1), "", "");
+    Test.ensureEqual(pas[3].getDouble(0), 2.5, "");
+    Test.ensureEqual(pas[3].getDouble(1), Double.NaN, "");
+    Test.ensureEqual(pas[4].getInt(0), 17, "");
+    Test.ensureEqual(pas[4].getInt(1), Integer.MAX_VALUE, "");
+    Test.ensureTrue(pas[4].getMaxIsMV(), "");
+    Test.ensureEqual(pas[5].getLong(0), 12345678901L, "");
+    Test.ensureEqual(pas[5].getLong(1), Long.MAX_VALUE, "");
+    Test.ensureTrue(pas[5].getMaxIsMV(), "");
+  }
+
+  /**
+   * This tests partitionCuts, which splits a partitionColumn's range into range scans.
+   *
+   * @throws Throwable if trouble
+   */
+  @org.junit.jupiter.api.Test
+  void testPartitionCuts() throws Throwable {
+    Test.ensureEqual(
+        String2.toCSSVString(EDDTableFromDatabase.partitionCuts(0, 100, 4, false)),
+        "25.0, 50.0, 75.0",
+        "");
+    Test.ensureEqual(
+        String2.toCSSVString(EDDTableFromDatabase.partitionCuts(0, 10, 3, true)), "3.0, 7.0", "");
+    // fewer cuts if there aren't enough distinct integers
+    Test.ensureEqual(
+        String2.toCSSVString(EDDTableFromDatabase.partitionCuts(0, 1, 4, true)), "1.0", "");
+    // can't be split
+    Test.ensureEqual(EDDTableFromDatabase.partitionCuts(5, 5, 4, false).length, 0, "");
+    Test.ensureEqual(EDDTableFromDatabase.partitionCuts(Double.NaN, 5, 4, false).length, 0, "");
+    Test.ensureEqual(EDDTableFromDatabase.partitionCuts(0, 100, 1, false).length, 0, "");
+  }
+
+  /**
+   * This makes a range scan which makes nChunks chunks (each with one row with the value chunk#).
+   * running is the number of scans which have started but not finished (as a real scan holds a
+   * connection), and maxRunning is the most that were running at once.
+   */
+  private static EDDTableFromDatabase.RangeScan makeRangeScan(
+      int nChunks, AtomicInteger running, AtomicInteger maxRunning) {
+    return sink -> {
+      maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+      try {
+        for (int i = 0; i < nChunks; i++) {
+          Table table = new Table();
+          table.addColumn("i", PrimitiveArray.factory(new int[] {i}));
+          if (!sink.accept(table)) return;
+        }
+      } finally {
+        running.decrementAndGet();
+      }
+    };
+  }
+
+  /** This waits (up to 10 seconds) until none of the range scans are running. */
+  private static boolean noneRunning(AtomicInteger running) throws InterruptedException {
+    long stopTime = System.currentTimeMillis() + 10000;
+    while (running.get() > 0) {
+      if (System.currentTimeMillis() > stopTime) return false;
+      Thread.sleep(10);
+    }
+    return true;
+  }
+
+  /**
+   * This tests readRangeScans (used by readPartitions), including that no more than
+   * maxConcurrentScans scans run at once and that the range scans are finished (and so free their
+   * connections) when the consumer stops partway through.
+   *
+   * @throws Throwable if trouble
+   */
+  @org.junit.jupiter.api.Test
+  void testReadRangeScans() throws Throwable {
+    // all of the data, in scan order
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    List<EDDTableFromDatabase.RangeScan> scans =
+        List.of(
+            makeRangeScan(3, running, maxRunning),
+            makeRangeScan(0, running, maxRunning),
+            makeRangeScan(5, running, maxRunning));
+    StringBuilder sb = new StringBuilder();
+    EDDTableFromDatabase.readRangeScans(
+        scans,
+        3,
+        table -> {
+          sb.append(table.getColumn(0).getInt(0));
+          return true;
+        });
+    Test.ensureEqual(sb.toString(), "01201234", "");
+    Test.ensureTrue(noneRunning(running), "the scans didn't finish");
+
+    // with maxConcurrentScans=2, at most 2 scans run at once, and the data is still in scan order
+    maxRunning.set(0);
+    scans =
+        List.of(
+            makeRangeScan(2, running, maxRunning),
+            makeRangeScan(3, running, maxRunning),
+            makeRangeScan(1, running, maxRunning),
+            makeRangeScan(4, running, maxRunning),
+            makeRangeScan(2, running, maxRunning));
+    sb.setLength(0);
+    EDDTableFromDatabase.readRangeScans(
+        scans,
+        2,
+        table -> {
+          sb.append(table.getColumn(0).getInt(0));
+          return true;
+        });
+    Test.ensureEqual(sb.toString(), "010120012301", "");
+    Test.ensureTrue(noneRunning(running), "the scans didn't finish");
+    Test.ensureBetween(maxRunning.get(), 1, 2, "");
+
+    // the consumer stops partway through the first range, while the running scans are blocked
+    // waiting for room in their queues (scans which hadn't started are cancelled)
+    scans =
+        List.of(
+            makeRangeScan(100, running, maxRunning),
+            makeRangeScan(100, running, maxRunning),
+            makeRangeScan(100, running, maxRunning));
+    int count[] = {0};
+    EDDTableFromDatabase.readRangeScans(scans, 3, table -> ++count[0] < 3);
+    Test.ensureEqual(count[0], 3, "");
+    Test.ensureTrue(noneRunning(running), "the scans didn't finish");
+
+    // the consumer throws an exception (e.g., too much data)
+    scans =
+        List.of(makeRangeScan(100, running, maxRunning), makeRangeScan(100, running, maxRunning));
+    try {
+      EDDTableFromDatabase.readRangeScans(
+          scans,
+          2,
+          table -> {
+            throw new SimpleException("Too much data.");
+          });
+      throw new RuntimeException("Shouldn't get here.");
+    } catch (SimpleException e) {
+      Test.ensureEqual(e.getMessage(), "Too much data.", "");
+    }
+    Test.ensureTrue(noneRunning(running), "the scans didn't finish");
+
+    // a scan's exception is passed on (after the earlier ranges' data)
+    scans =
+        List.of(
+            makeRangeScan(2, running, maxRunning),
+            sink -> {
+              throw new SimpleException("Database trouble.");
+            });
+    sb.setLength(0);
+    try {
+      EDDTableFromDatabase.readRangeScans(
+          scans,
+          2,
+          table -> {
+            sb.append(table.getColumn(0).getInt(0));
+            return true;
+          });
+      throw new RuntimeException("Shouldn't get here.");
+    } catch (SimpleException e) {
+      Test.ensureEqual(e.getMessage(), "Database trouble.", "");
+    }
+    Test.ensureEqual(sb.toString(), "01", "");
+    Test.ensureTrue(noneRunning(running), "the scans didn't finish");
+  }
+
+  /**
+   * This tests that a fetchSize turns off autocommit (so the driver can stream the results) and
+   * that closeConnection ends the transaction (with a commit, or a rollback if there was trouble)
+   * and restores autocommit (even if the commit fails).
+   *
+   * @throws Throwable if trouble
+   */
+  @org.junit.jupiter.api.Test
+  void testFetchSize() throws Throwable {
+    // with a fetchSize
+    Connection connection = mock(Connection.class);
+    PreparedStatement statement = mock(PreparedStatement.class);
+    when(connection.prepareStatement("q", ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY))
+        .thenReturn(statement);
+    Test.ensureTrue(
+        EDDTableFromDatabase.prepareQueryStatement(connection, "q", 500) == statement, "");
+    verify(connection).setAutoCommit(false);
+    verify(statement).setFetchSize(500);
+    when(connection.getAutoCommit()).thenReturn(false);
+    EDDTableFromDatabase.closeConnection(connection, 500, true);
+    verify(connection).commit();
+    verify(connection, never()).rollback();
+    verify(connection).setAutoCommit(true);
+    verify(connection).close();
+
+    // trouble: rollback
+    connection = mock(Connection.class);
+    when(connection.getAutoCommit()).thenReturn(false);
+    EDDTableFromDatabase.closeConnection(connection, 500, false);
+    verify(connection).rollback();
+    verify(connection, never()).commit();
+    verify(connection).setAutoCommit(true);
+    verify(connection).close();
+
+    // the commit fails: autocommit is still restored and the connection is still closed
+    connection = mock(Connection.class);
+    when(connection.getAutoCommit()).thenReturn(false);
+    doThrow(new SQLException("commit failed")).when(connection).commit();
+    try {
+      EDDTableFromDatabase.closeConnection(connection, 500, true);
+      throw new RuntimeException("Shouldn't get here.");
+    } catch (SQLException e) {
+      Test.ensureEqual(e.getMessage(), "commit failed", "");
+    }
+    verify(connection).setAutoCommit(true);
+    verify(connection).close();
+
+    // without a fetchSize, the connection is used as is
+    connection = mock(Connection.class);
+    statement = mock(PreparedStatement.class);
+    when(connection.prepareStatement("q", ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY))
+        .thenReturn(statement);
+    EDDTableFromDatabase.prepareQueryStatement(connection, "q", 0);
+    verify(connection, never()).setAutoCommit(anyBoolean());
+    verify(statement, never()).setFetchSize(anyInt());
+    EDDTableFromDatabase.closeConnection(connection, 0, true);
+    verify(connection, never()).commit();
+    verify(connection).close();
+  }
 }
@@ -1,5 +1,6 @@
 package gov.noaa.pfel.erddap.dataset;
 
+import com.cohort.array.Attributes;
 import com.cohort.util.Calendar2;
 import com.cohort.util.File2;
 import com.cohort.util.Image2Tests;
@@ -9,10 +10,14 @@ import dods.dap.DAS;
 import dods.dap.DConnect;
 import gov.noaa.pfel.coastwatch.griddata.OpendapHelper;
 import gov.noaa.pfel.coastwatch.util.SSR;
+import gov.noaa.pfel.erddap.dataset.metadata.LocalizedAttributes;
+import gov.noaa.pfel.erddap.util.EDMessages;
 import gov.noaa.pfel.erddap.util.EDStatic;
+import gov.noaa.pfel.erddap.variable.EDV;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
+import org.mockito.Mockito;
 import tags.TagDisabledExternalERDDAP;
 import tags.TagDisabledLocalERDDAP;
 import tags.TagDisabledMissingDataset;
@@ -706,4 +711,41 @@ class EDDTableFromErddapTests {
           t);
     }
   }
+
+  /**
+   * This tests that metadata overrides (which the source ERDDAP's responses don't have) prevent the
+   * source ERDDAP's responses from being passed through.
+   */
+  @org.junit.jupiter.api.Test
+  void testMetadataOverrides() throws Throwable {
+    int language = EDMessages.DEFAULT_LANGUAGE;
+    Attributes sourceAtts = new Attributes();
+    sourceAtts.set("ioos_category", "Temperature");
+    sourceAtts.set("units", "degree_C");
+    EDDTableFromErddap edd = Mockito.mock(EDDTableFromErddap.class, Mockito.CALLS_REAL_METHODS);
+
+    // the source's metadata
+    edd.addGlobalAttributes = new LocalizedAttributes();
+    edd.dataVariables =
+        new EDV[] {new EDV("test", "sst", "sst", sourceAtts, new LocalizedAttributes(), "float")};
+    Test.ensureEqual(edd.hasMetadataOverrides(edd.dataVariables), false, "");
+
+    // a global addAttribute (e.g., from <defaultDataQuery>)
+    edd.addGlobalAttributes.set(language, "defaultDataQuery", "sst&time>=now-1day");
+    Test.ensureEqual(edd.hasMetadataOverrides(edd.dataVariables), true, "");
+    edd.addGlobalAttributes = new LocalizedAttributes();
+
+    // a variable addAttribute (e.g., a guessed ioos_category)
+    LocalizedAttributes addAtts = new LocalizedAttributes();
+    addAtts.set(language, "long_name", "Sea Surface Temperature");
+    edd.dataVariables = new EDV[] {new EDV("test", "sst", "sst", sourceAtts, addAtts, "float")};
+    Test.ensureEqual(edd.hasMetadataOverrides(edd.dataVariables), true, "");
+
+    // a renamed variable
+    edd.dataVariables =
+        new EDV[] {
+          new EDV("test", "sst", "temperature", sourceAtts, new LocalizedAttributes(), "float")
+        };
+    Test.ensureEqual(edd.hasMetadataOverrides(edd.dataVariables), true, "");
+  }
 }
@@ -0,0 +1,133 @@
+package gov.noaa.pfel.erddap.dataset;
+
+import com.cohort.array.PAType;
+import com.cohort.array.PrimitiveArray;
+import com.cohort.util.Calendar2;
+import com.cohort.util.Test;
+import gov.noaa.pfel.coastwatch.pointdata.Table;
+import gov.noaa.pfel.erddap.dataset.metadata.LocalizedAttributes;
+import gov.noaa.pfel.erddap.util.EDMessages;
+import gov.noaa.pfel.erddap.variable.EDV;
+import gov.noaa.pfel.erddap.variable.EDVTimeStamp;
+import java.util.BitSet;
+import java.util.Random;
+import org.junit.jupiter.api.BeforeAll;
+import testDataset.Initialization;
+
+class FileTableIndexTests {
+
+  private static final String[] OPS = {"=", "!=", "<", "<=", ">", ">=", PrimitiveArray.REGEX_OP};
+
+  @BeforeAll
+  static void init() {
+    Initialization.edStatic();
+  }
+
+  /** This makes a fileTable with nFiles rows for the dataVariables (with random min/max). */
+  private static Table makeFileTable(EDV[] dataVariables, int nFiles, Random random) {
+    Table table = new Table();
+    table.addColumn("dirIndex", PrimitiveArray.factory(PAType.SHORT, nFiles, true));
+    table.addColumn("fileName", PrimitiveArray.factory(PAType.STRING, nFiles, true));
+    table.addColumn("lastMod", PrimitiveArray.factory(PAType.LONG, nFiles, true));
+    table.addColumn("size", PrimitiveArray.factory(PAType.LONG, nFiles, true));
+    table.addColumn("sortedSpacing", PrimitiveArray.factory(PAType.DOUBLE, nFiles, true));
+    for (EDV edv : dataVariables) {
+      PAType paType = edv.sourceDataPAType();
+      PrimitiveArray min = PrimitiveArray.factory(paType, nFiles, false);
+      PrimitiveArray max = PrimitiveArray.factory(paType, nFiles, false);
+      PrimitiveArray hasNaN = PrimitiveArray.factory(PAType.BYTE, nFiles, false);
+      for (int f = 0; f < nFiles; f++) {
+        double a = random.nextInt(1000) / (paType == PAType.LONG ? 1.0 : 10.0);
+        double b = a + random.nextInt(50) / (paType == PAType.LONG ? 1.0 : 10.0);
+        if (f % 17 == 0) {
+          a = Double.NaN;
+          b = Double.NaN;
+        }
+        if (edv instanceof EDVTimeStamp) {
+          // a few invalid times
+          min.addString(
+              f % 13 == 0
+                  ? "bad"
+                  : Double.isNaN(a) ? "" : Calendar2.epochSecondsToIsoStringTZ(a * 1e5));
+          max.addString(Double.isNaN(b) ? "" : Calendar2.epochSecondsToIsoStringTZ(b * 1e5));
+        } else {
+          min.addDouble(a);
+          max.addDouble(b);
+        }
+        hasNaN.addInt(f % 5 == 0 ? 1 : 0);
+      }
+      table.addColumn(edv.sourceName() + "_min_", min);
+      table.addColumn(edv.sourceName() + "_max_", max);
+      table.addColumn(edv.sourceName() + "_hasNaN_", hasNaN);
+    }
+    return table;
+  }
+
+  /** This tests that the candidates are a superset of the files that pass isOK. */
+  @org.junit.jupiter.api.Test
+  void candidatesTest() throws Throwable {
+    int language = EDMessages.DEFAULT_LANGUAGE;
+    EDV[] dataVariables = {
+      new EDV("test", "temp", "", null, new LocalizedAttributes(), "float"),
+      new EDV("test", "count", "", null, new LocalizedAttributes(), "long"),
+      new EDV("test", "name", "", null, new LocalizedAttributes(), "String"),
+      new EDVTimeStamp(
+          "test",
+          "time",
+          "time",
+          null,
+          new LocalizedAttributes().set(language, "units", "yyyy-MM-dd'T'HH:mm:ssXXX"),
+          "String")
+    };
+    Random random = new Random(17);
+    int nFiles = 500;
+    Table fileTable = makeFileTable(dataVariables, nFiles, random);
+    FileTableIndex index = new FileTableIndex(fileTable, 0, nFiles, dataVariables);
+    Test.ensureTrue(index.isFor(fileTable, 0, nFiles), "");
+    Test.ensureTrue(!index.isFor(fileTable, 2, nFiles), "");
+    Test.ensureTrue(index.canIndex(0) && index.canIndex(1) && index.canIndex(3), "");
+    Test.ensureTrue(!index.canIndex(2), "");
+
+    int nRejected = 0;
+    for (int dv : new int[] {0, 1, 3}) {
+      EDV edv = dataVariables[dv];
+      boolean isTime = edv instanceof EDVTimeStamp;
+      PAType paType = isTime ? PAType.STRING : edv.sourceDataPAType();
+      double[] epochMin = isTime ? index.epochMin(dv, fileTable) : null;
+      double[] epochMax = isTime ? index.epochMax(dv, fileTable) : null;
+      for (int i = 0; i < 200; i++) {
+        String op = OPS[random.nextInt(OPS.length)];
+        double value =
+            i % 50 == 0
+                ? Double.NaN
+                : random.nextInt(1100) / (edv.sourceDataPAType() == PAType.LONG ? 1.0 : 10.0);
+        if (isTime && !Double.isNaN(value)) value *= 1e5;
+        BitSet candidates = index.candidates(dv, fileTable, op, value);
+        if (op.equals("!=") || op.equals(PrimitiveArray.REGEX_OP) || Double.isNaN(value)) {
+          Test.ensureTrue(candidates == null, "op=" + op + " value=" + value);
+          continue;
+        }
+        for (int f = 0; f < nFiles; f++) {
+          double fMin = isTime ? epochMin[f] : fileTable.getDoubleData(dv0(dv, 0), f);
+          double fMax = isTime ? epochMax[f] : fileTable.getDoubleData(dv0(dv, 1), f);
+          int fNaN = fileTable.getIntData(dv0(dv, 2), f);
+          boolean ok = EDDTableFromFiles.isOK(paType, fMin, fMax, fNaN, op, value);
+          if (ok)
+            Test.ensureTrue(
+                candidates.get(f),
+                "dv=" + dv + " f=" + f + " min=" + fMin + " max=" + fMax + " " + op + value);
+          else if (!candidates.get(f)) nRejected++;
+        }
+      }
+    }
+    // and the index rejects most of the files that isOK rejects
+    Test.ensureTrue(nRejected > 10000, "nRejected=" + nRejected);
+  }
+
+  /**
+   * This returns the fileTable column number for a dataVariable's min (0), max (1), or hasNaN (2).
+   */
+  private static int dv0(int dv, int which) {
+    return EDDTableFromFiles.dv0 + dv * 3 + which;
+  }
+}
@@ -0,0 +1,399 @@
+package gov.noaa.pfel.erddap.dataset;
+
+import com.cohort.array.DoubleArray;
+import com.cohort.array.LongArray;
+import com.cohort.array.ShortArray;
+import com.cohort.array.StringArray;
+import com.cohort.util.File2;
+import com.cohort.util.Test;
+import gov.noaa.pfel.coastwatch.pointdata.Table;
+import gov.noaa.pfel.erddap.util.EDStatic;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.BeforeAll;
+import testDataset.Initialization;
+
+class FileTableJournalTests {
+
+  private static final String ID = "1234abcd";
+
+  @BeforeAll
+  static void init() {
+    Initialization.edStatic();
+  }
+
+  private static String testDir() {
+    String dir = EDStatic.config.fullTestCacheDirectory + "fileTableJournal/";
+    File2.makeDirectory(dir);
+    File2.deleteAllFiles(dir);
+    return dir;
+  }
+
+  /** This makes the snapshot's dirTable. */
+  private static Table makeDirTable() {
+    Table table = new Table();
+    table.addColumn("dirName", new StringArray(new String[] {"/data/a/"}));
+    table.globalAttributes().set(FileTableJournal.JOURNAL_ID, ID);
+    return table;
+  }
+
+  /** This makes the snapshot's fileTable. */
+  private static Table makeFileTable() {
+    Table table = new Table();
+    table.addColumn("dirIndex", new ShortArray(new short[] {0, 0, 0}));
+    table.addColumn("fileName", new StringArray(new String[] {"f1.nc", "f2.nc", "f3.nc"}));
+    table.addColumn("lastMod", new LongArray(new long[] {100, 200, 300}));
+    table.addColumn("size", new LongArray(new long[] {10, 20, 30}));
+    table.addColumn("sst_min_", new DoubleArray(new double[] {1.5, 2.5, 3.5}));
+    table.globalAttributes().set(FileTableJournal.JOURNAL_ID, ID);
+    return table;
+  }
+
+  /** This adds or changes a file in the fileTable (like lowUpdate). */
+  private static void setFile(
+      Table fileTable, int dirIndex, String fileName, long lastMod, Set<String> changed)
+      throws Exception {
+    ShortArray ftDirIndex = (ShortArray) fileTable.getColumn(0);
+    StringArray ftFileList = (StringArray) fileTable.getColumn(1);
+    int row = EDD.findInFileTable(dirIndex, fileName, fileTable, ftDirIndex, ftFileList);
+    if (row < 0) {
+      row = fileTable.nRows();
+      fileTable.insertBlankRow(row);
+    }
+    ftDirIndex.setInt(row, dirIndex);
+    ftFileList.set(row, fileName);
+    fileTable.getColumn(2).setLong(row, lastMod);
+    fileTable.getColumn(3).setLong(row, lastMod / 10);
+    fileTable.getColumn(4).setDouble(row, lastMod / 100.0);
+    changed.add(FileTableJournal.key(dirIndex, fileName));
+  }
+
+  private static void removeFile(
+      Table fileTable, int dirIndex, String fileName, Set<String> changed, Set<String> removed) {
+    Test.ensureTrue(
+        EDD.removeFromFileTable(
+            dirIndex,
+            fileName,
+            fileTable,
+            (ShortArray) fileTable.getColumn(0),
+            (StringArray) fileTable.getColumn(1)),
+        fileName);
+    EDD.noteRemoved(FileTableJournal.key(dirIndex, fileName), changed, removed);
+  }
+
+  /** This returns the table's data (sorted by dirIndex and fileName), for comparisons. */
+  private static String toString(Table table) {
+    Table tTable = (Table) table.clone();
+    if (tTable.nColumns() > 1) tTable.sort(new int[] {0, 1}, new boolean[] {true, true});
+    return tTable.dataToString();
+  }
+
+  /**
+   * This appends 3 records to a journal.
+   *
+   * @param dir the datasetDir
+   * @param dirStates receives the dirTable after each record (#0 is the snapshot)
+   * @param fileStates receives the fileTable after each record (#0 is the snapshot)
+   * @return the journal's length after each record (#0 is 0)
+   */
+  private static long[] writeJournal(String dir, List<String> dirStates, List<String> fileStates)
+      throws Exception {
+    Table dirTable = makeDirTable();
+    Table fileTable = makeFileTable();
+    long lengths[] = new long[4];
+    dirStates.add(toString(dirTable));
+    fileStates.add(toString(fileTable));
+    for (int record = 1; record <= 3; record++) {
+      int nOldDirs = dirTable.nRows();
+      Set<String> changed = new HashSet<>();
+      Set<String> removed = new HashSet<>();
+      if (record == 1) {
+        // a new dir with a new file, and a changed file
+        dirTable.getColumn(0).addString("/data/b/");
+        setFile(fileTable, 1, "g1.nc", 1000, changed);
+        setFile(fileTable, 0, "f2.nc", 250, changed);
+      } else if (record == 2) {
+        // a removed file, and a file that is removed then added again (i.e., changed)
+        removeFile(fileTable, 0, "f1.nc", changed, removed);
+        removeFile(fileTable, 0, "f3.nc", changed, removed);
+        setFile(fileTable, 0, "f3.nc", 350, changed);
+      } else {
+        // a removed file that was added in record 1, and a new file in the new dir
+        removeFile(fileTable, 1, "g1.nc", changed, removed);
+        setFile(fileTable, 1, "g2.nc", 2000, changed);
+      }
+      Test.ensureTrue(
+          FileTableJournal.append(dir, dirTable, nOldDirs, fileTable, changed, removed),
+          "record=" + record);
+      lengths[record] = File2.length(dir + FileTableJournal.FILENAME);
+      dirStates.add(toString(dirTable));
+      fileStates.add(toString(fileTable));
+    }
+    return lengths;
+  }
+
+  /** This tests that replaying the journal onto the snapshot makes the current tables. */
+  @org.junit.jupiter.api.Test
+  void testReplay() throws Throwable {
+    String dir = testDir();
+    List<String> dirStates = new ArrayList<>();
+    List<String> fileStates = new ArrayList<>();
+    writeJournal(dir, dirStates, fileStates);
+
+    Table dirTable = makeDirTable();
+    Test.ensureEqual(FileTableJournal.replay(dir, dirTable, false), false, "");
+    Test.ensureEqual(toString(dirTable), dirStates.get(3), "");
+    Table fileTable = makeFileTable();
+    Test.ensureEqual(FileTableJournal.replay(dir, fileTable, true), false, "");
+    Test.ensureEqual(toString(fileTable), fileStates.get(3), "");
+    Test.ensureEqual(
+        toString(fileTable),
+        "dirIndex,fileName,lastMod,size,sst_min_\n"
+            + "0,f2.nc,250,25,2.5\n"
+            + "0,f3.nc,350,35,3.5\n"
+            + "1,g2.nc,2000,200,20.0\n",
+        "");
+
+    // a snapshot with a different journalId (e.g., saved after the journal) ignores the journal
+    fileTable = makeFileTable();
+    fileTable.globalAttributes().set(FileTableJournal.JOURNAL_ID, "other");
+    Test.ensureEqual(FileTableJournal.replay(dir, fileTable, true), false, "");
+    Test.ensureEqual(toString(fileTable), fileStates.get(0), "");
+
+    // and the journal isn't appended to for a different snapshot
+    Table otherDirTable = makeDirTable();
+    otherDirTable.globalAttributes().set(FileTableJournal.JOURNAL_ID, "other");
+    Test.ensureEqual(
+        FileTableJournal.append(dir, otherDirTable, 1, fileTable, new HashSet<>(), new HashSet<>()),
+        false,
+        "");
+
+    FileTableJournal.delete(dir);
+    Test.ensureEqual(File2.isFile(dir + FileTableJournal.FILENAME), false, "");
+  }
+
+  /**
+   * This tests that a journal which was cut off at any byte (e.g., by a crash during append) or has
+   * garbage at the end is replayed up to the last complete record.
+   */
+  @org.junit.jupiter.api.Test
+  void testTornJournal() throws Throwable {
+    String dir = testDir();
+    List<String> dirStates = new ArrayList<>();
+    List<String> fileStates = new ArrayList<>();
+    long lengths[] = writeJournal(dir, dirStates, fileStates);
+    Path path = Path.of(dir + FileTableJournal.FILENAME);
+    byte bytes[] = Files.readAllBytes(path);
+    Test.ensureEqual(bytes.length, lengths[3], "");
+
+    for (int length = 0; length <= bytes.length; length++) {
+      Files.write(path, Arrays.copyOf(bytes, length));
+      int nComplete = 0;
+      while (nComplete < 3 && lengths[nComplete + 1] <= length) nComplete++;
+      boolean atEnd = length == lengths[nComplete] && length > 0;
+      String msg = "length=" + length;
+
+      Table dirTable = makeDirTable();
+      Test.ensureEqual(FileTableJournal.replay(dir, dirTable, false), !atEnd, msg);
+      Test.ensureEqual(toString(dirTable), dirStates.get(nComplete), msg);
+      Table fileTable = makeFileTable();
+      Test.ensureEqual(FileTableJournal.replay(dir, fileTable, true), !atEnd, msg);
+      Test.ensureEqual(toString(fileTable), fileStates.get(nComplete), msg);
+    }
+
+    // garbage (or zeros, e.g., from a file system that extended the file) at the end
+    for (byte b : new byte[] {0, 0x52, (byte) 0xff}) {
+      byte garbage[] = Arrays.copyOf(bytes, bytes.length + 40);
+      Arrays.fill(garbage, bytes.length, garbage.length, b);
+      Files.write(path, garbage);
+      Table fileTable = makeFileTable();
+      Test.ensureEqual(FileTableJournal.replay(dir, fileTable, true), true, "b=" + b);
+      Test.ensureEqual(toString(fileTable), fileStates.get(3), "b=" + b);
+    }
+
+    // a changed byte in record 2 stops the replay after record 1
+    byte corrupt[] = Arrays.copyOf(bytes, bytes.length);
+    corrupt[(int) (lengths[1] + lengths[2]) / 2] ^= 0x10;
+    Files.write(path, corrupt);
+    Table fileTable = makeFileTable();
+    Test.ensureEqual(FileTableJournal.replay(dir, fileTable, true), true, "");
+    Test.ensureEqual(toString(fileTable), fileStates.get(1), "");
+  }
+
+  /**
+   * This tests that JournaledDirFileTables replays the journal once after each change (both tables
+   * from one replay), returns copies of the cached tables, and notices a torn or deleted journal.
+   */
+  @org.junit.jupiter.api.Test
+  void testJournaledDirFileTables() throws Throwable {
+    String dir = testDir();
+    List<String> dirStates = new ArrayList<>();
+    List<String> fileStates = new ArrayList<>();
+    long lengths[] = writeJournal(dir, dirStates, fileStates);
+    int nReads[] = {0};
+    boolean needsCompaction[] = {false};
+    JournaledDirFileTables tables =
+        new JournaledDirFileTables(
+            fileName -> {
+              nReads[0]++;
+              return fileName.endsWith(EDD.FILE_TABLE_FILENAME) ? makeFileTable() : makeDirTable();
+            },
+            fileTable -> fileTable.sort(new int[] {0, 1}, new boolean[] {true, true}),
+            () -> needsCompaction[0] = true);
+
+    Test.ensureEqual(toString(tables.get(dir, true)), fileStates.get(3), "");
+    Test.ensureEqual(toString(tables.get(dir, false)), dirStates.get(3), "");
+    Test.ensureEqual(nReads[0], 2, ""); // one replay for both tables
+    tables.get(dir, true).getColumn(1).setString(0, "changed"); // a copy
+    Test.ensureEqual(toString(tables.get(dir, true)), fileStates.get(3), "");
+    Test.ensureEqual(nReads[0], 2, "");
+    Test.ensureEqual(needsCompaction[0], false, "");
+
+    // a torn record at the end: replayed again, up to the last complete record
+    try (RandomAccessFile raf = new RandomAccessFile(dir + FileTableJournal.FILENAME, "rw")) {
+      raf.setLength(lengths[2] + 5);
+    }
+    Test.ensureEqual(toString(tables.get(dir, true)), fileStates.get(2), "");
+    Test.ensureEqual(toString(tables.get(dir, false)), dirStates.get(2), "");
+    Test.ensureEqual(nReads[0], 4, "");
+    Test.ensureEqual(needsCompaction[0], true, "");
+
+    // the journal was compacted: just the snapshot
+    FileTableJournal.delete(dir);
+    Test.ensureEqual(toString(tables.get(dir, true)), fileStates.get(0), "");
+  }
+
+  /** This makes the datasets.xml fragment for the dataset in testDatasetCrash. */
+  private static String datasetXml(String datasetID, String dataDir) {
+    return "<dataset type=\"EDDTableFromAsciiFiles\" datasetID=\""
+        + datasetID
+        + "\" active=\"true\">\n"
+        + "    <reloadEveryNMinutes>10000</reloadEveryNMinutes>\n"
+        + "    <fileDir>"
+        + dataDir
+        + "</fileDir>\n"
+        + "    <fileNameRegex>.*\\.csv</fileNameRegex>\n"
+        + "    <recursive>false</recursive>\n"
+        + "    <columnNamesRow>1</columnNamesRow>\n"
+        + "    <firstDataRow>2</firstDataRow>\n"
+        + "    <sortFilesBySourceNames>station</sortFilesBySourceNames>\n"
+        + "    <fileTableInMemory>false</fileTableInMemory>\n"
+        + "    <addAttributes>\n"
+        + "        <att name=\"cdm_data_type\">Other</att>\n"
+        + "        <att name=\"infoUrl\">https://example.com/</att>\n"
+        + "        <att name=\"institution\">Test</att>\n"
+        + "        <att name=\"license\">[standard]</att>\n"
+        + "        <att name=\"sourceUrl\">(local files)</att>\n"
+        + "        <att name=\"summary\">The summary.</att>\n"
+        + "        <att name=\"title\">The Title</att>\n"
+        + "    </addAttributes>\n"
+        + "    <dataVariable>\n"
+        + "        <sourceName>station</sourceName>\n"
+        + "        <dataType>String</dataType>\n"
+        + "    </dataVariable>\n"
+        + "    <dataVariable>\n"
+        + "        <sourceName>sst</sourceName>\n"
+        + "        <dataType>float</dataType>\n"
+        + "        <addAttributes>\n"
+        + "            <att name=\"units\">degree_C</att>\n"
+        + "        </addAttributes>\n"
+        + "    </dataVariable>\n"
+        + "</dataset>\n";
+  }
+
+  /** This writes a data file with one row for the dataset in testDatasetCrash. */
+  private static String writeDataFile(String dataDir, String station, double sst) {
+    String fullName = dataDir + station + ".csv";
+    Test.ensureEqual(
+        File2.writeToFile88591(fullName, "station,sst\n" + station + "," + sst + "\n"), "", "");
+    return fullName;
+  }
+
+  /** This returns the fileTable's fileName column as a CSV string. */
+  private static String fileNames(EDDTableFromFiles edd) throws Throwable {
+    return edd.getFileTable().getColumn(EDDTableFromFiles.FT_FILE_LIST_COL).toString();
+  }
+
+  /**
+   * This tests a dataset with fileTableInMemory=false which crashes while (and between) lowUpdate
+   * appends records to the fileTable journal: requests see the changes without replaying the
+   * journal each time, and a reload uses the snapshot plus the complete records, then compacts the
+   * journal.
+   */
+  @org.junit.jupiter.api.Test
+  void testDatasetCrash() throws Throwable {
+    String datasetID = "testFileTableJournalCrash";
+    String dataDir = EDStatic.config.fullTestCacheDirectory + "fileTableJournalData/";
+    File2.makeDirectory(dataDir);
+    File2.deleteAllFiles(dataDir);
+    File2.deleteAllFiles(EDD.datasetDir(datasetID));
+    String journal = EDD.datasetDir(datasetID) + FileTableJournal.FILENAME;
+    String xml = datasetXml(datasetID, dataDir);
+    boolean oldFileTableJournal = EDStatic.config.fileTableJournal;
+    EDStatic.config.fileTableJournal = true;
+    try {
+      writeDataFile(dataDir, "s1", 1.5);
+      writeDataFile(dataDir, "s2", 2.5);
+      EDDTableFromFiles edd = (EDDTableFromFiles) EDD.oneFromXmlFragment(null, xml);
+      Test.ensureEqual(fileNames(edd), "s1.csv, s2.csv", "");
+      Test.ensureEqual(File2.isFile(journal), false, "");
+
+      // each update appends a record to the journal
+      String s3 = writeDataFile(dataDir, "s3", 3.5);
+      edd.handleUpdates(new StringArray(new String[] {s3}));
+      long length1 = File2.length(journal);
+      Test.ensureTrue(length1 > 0, "length1=" + length1);
+      Test.ensureEqual(fileNames(edd), "s1.csv, s2.csv, s3.csv", "");
+      String s4 = writeDataFile(dataDir, "s4", 4.5);
+      edd.handleUpdates(new StringArray(new String[] {s4}));
+      long length2 = File2.length(journal);
+      Test.ensureTrue(length2 > length1, "length1=" + length1 + " length2=" + length2);
+      Test.ensureEqual(fileNames(edd), "s1.csv, s2.csv, s3.csv, s4.csv", "");
+
+      // requests use the cached replay: they don't read the journal again
+      // (so they don't notice that its last byte was changed)
+      try (RandomAccessFile raf = new RandomAccessFile(journal, "rw")) {
+        raf.seek(length2 - 1);
+        int b = raf.read();
+        raf.seek(length2 - 1);
+        raf.write(b ^ 0xff);
+        Test.ensureEqual(fileNames(edd), "s1.csv, s2.csv, s3.csv, s4.csv", "");
+        Test.ensureEqual(edd.fileTableJournalNeedsCompaction, false, "");
+        raf.seek(length2 - 1);
+        raf.write(b);
+      }
+
+      // crash while the 2nd record was being appended
+      try (RandomAccessFile raf = new RandomAccessFile(journal, "rw")) {
+        raf.setLength((length1 + length2) / 2);
+      }
+      EDDTableFromFiles.testQuickRestart = true; // so the reload uses the snapshot and journal
+      edd = (EDDTableFromFiles) EDD.oneFromXmlFragment(null, xml);
+      // the snapshot and the 1st record, and the journal was compacted
+      Test.ensureEqual(fileNames(edd), "s1.csv, s2.csv, s3.csv", "");
+      Test.ensureEqual(File2.isFile(journal), false, "");
+
+      // crash between appends (after the record for s4, before the one for s5)
+      edd.handleUpdates(new StringArray(new String[] {s4}));
+      String s5 = writeDataFile(dataDir, "s5", 5.5);
+      Test.ensureTrue(File2.length(journal) > 0, "");
+      edd = (EDDTableFromFiles) EDD.oneFromXmlFragment(null, xml);
+      Test.ensureEqual(fileNames(edd), "s1.csv, s2.csv, s3.csv, s4.csv", "");
+      Test.ensureEqual(File2.isFile(journal), false, "");
+
+      // and the reloaded dataset continues to journal its updates
+      edd.handleUpdates(new StringArray(new String[] {s5}));
+      Test.ensureTrue(File2.length(journal) > 0, "");
+      Test.ensureEqual(fileNames(edd), "s1.csv, s2.csv, s3.csv, s4.csv, s5.csv", "");
+    } finally {
+      EDDTableFromFiles.testQuickRestart = false;
+      EDStatic.config.fileTableJournal = oldFileTableJournal;
+    }
+  }
+}
@@ -0,0 +1,159 @@
+package gov.noaa.pfel.erddap.dataset;
+
+import com.cohort.array.DoubleArray;
+import com.cohort.array.IntArray;
+import com.cohort.array.PrimitiveArray;
+import com.cohort.util.File2;
+import com.cohort.util.Math2;
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+import gov.noaa.pfel.erddap.util.EDStatic;
+import java.io.File;
+import java.util.Random;
+import org.junit.jupiter.api.BeforeAll;
+import testDataset.Initialization;
+
+class GridChunkCacheTests {
+
+  private static final int AXIS_SIZES[] = {7, 300, 520};
+
+  @BeforeAll
+  static void init() {
+    Initialization.edStatic();
+  }
+
+  /** The value of the stand-in source at an index (each index is encoded in 3 digits). */
+  private static double value(int index[]) {
+    double d = 0;
+    for (int i : index) d = d * 1000 + i;
+    return d;
+  }
+
+  /**
+   * This acts like a DAP server: it returns the values for a constraint (e.g.,
+   * [start:stride:stop][start:stride:stop][start:stride:stop]) in row-major order.
+   */
+  private static PrimitiveArray standInSource(int constraints[]) {
+    int nAxes = constraints.length / 3;
+    DoubleArray da = new DoubleArray();
+    int index[] = new int[nAxes];
+    for (int av = 0; av < nAxes; av++) index[av] = constraints[av * 3];
+    while (true) {
+      da.add(value(index));
+      int av = nAxes - 1;
+      for (; av >= 0; av--) {
+        index[av] += constraints[av * 3 + 1];
+        if (index[av] <= constraints[av * 3 + 2]) break;
+        index[av] = constraints[av * 3];
+      }
+      if (av < 0) return da;
+    }
+  }
+
+  /** This parses a DAP constraint, e.g., [0:1:0][0:1:255][256:1:511]. */
+  private static int[] parseConstraint(String constraint) {
+    String parts[] = String2.split(constraint.substring(1, constraint.length() - 1), ']');
+    int results[] = new int[parts.length * 3];
+    for (int i = 0; i < parts.length; i++) {
+      String sss[] =
+          String2.split(parts[i].startsWith("[") ? parts[i].substring(1) : parts[i], ':');
+      for (int j = 0; j < 3; j++) results[i * 3 + j] = String2.parseInt(sss[j]);
+    }
+    return results;
+  }
+
+  /**
+   * This tests that the cache returns the same values as the source for random tile-like requests,
+   * reuses the cached chunks, and removes the chunks at the end of the leftmost axis.
+   */
+  @org.junit.jupiter.api.Test
+  void testGet() throws Throwable {
+    String dir = EDStatic.config.fullTestCacheDirectory + "gridChunkCache/";
+    File2.deleteAllFiles(dir);
+    String generationFullName =
+        EDStatic.config.fullTestCacheDirectory
+            + "gridChunkCacheGeneration/"
+            + GridChunkCache.GENERATION_FILE_NAME;
+    File2.delete(generationFullName);
+    GridChunkCache cache =
+        new GridChunkCache(dir, 1000L * 1000 * 1000, generationFullName, AXIS_SIZES);
+    Test.ensureEqual(
+        String2.toCSSVString(GridChunkCache.chunkLengths(AXIS_SIZES)), "1, 256, 256", "");
+
+    int nAxes = AXIS_SIZES.length;
+    PrimitiveArray axisValues[] = new PrimitiveArray[nAxes];
+    for (int av = 0; av < nAxes; av++) {
+      axisValues[av] = new DoubleArray();
+      for (int i = 0; i < AXIS_SIZES[av]; i++) axisValues[av].addDouble(i * 0.5);
+    }
+    int nReads[] = {0};
+    GridChunkCache.ChunkReader reader =
+        constraint -> {
+          nReads[0]++;
+          return standInSource(parseConstraint(constraint));
+        };
+
+    int nUsed = 0;
+    int nReadsAfterPass1 = 0;
+    for (int pass = 0; pass < 2; pass++) {
+      Random random = new Random(17);
+      for (int i = 0; i < 200; i++) {
+        int constraints[] = new int[nAxes * 3];
+        for (int av = 0; av < nAxes; av++) {
+          int stride = av > 0 && i % 5 == 0 ? 2 : 1;
+          int start = random.nextInt(AXIS_SIZES[av]);
+          int n = av == 0 ? 1 : 100 + random.nextInt(200);
+          int stop = Math.min(AXIS_SIZES[av] - 1, start + (n - 1) * stride);
+          stop = start + (stop - start) / stride * stride;
+          constraints[av * 3] = start;
+          constraints[av * 3 + 1] = stride;
+          constraints[av * 3 + 2] = stop;
+        }
+        PrimitiveArray results =
+            cache.get("http://localhost/dap", "sst", axisValues, new IntArray(constraints), reader);
+        if (results == null) continue; // not worth caching
+        if (pass == 0) nUsed++;
+        Test.ensureEqual(
+            results.toString(),
+            standInSource(constraints).toString(),
+            "pass=" + pass + " i=" + i + " constraints=" + String2.toCSSVString(constraints));
+      }
+      if (pass == 0) nReadsAfterPass1 = nReads[0];
+    }
+    Test.ensureTrue(nUsed > 50, "nUsed=" + nUsed);
+    // overlapping requests reuse chunks
+    Test.ensureTrue(nReadsAfterPass1 < nUsed * 4, "nReads=" + nReadsAfterPass1);
+    // the second pass gets everything from the cache
+    Test.ensureEqual(nReads[0], nReadsAfterPass1, "");
+
+    // chunks with the last time (index=6) are removed when the time axis grows
+    int nFiles = new File(dir).list().length;
+    int nRemoved = cache.removeTail(AXIS_SIZES[0]);
+    Test.ensureTrue(nRemoved > 0 && nRemoved < nFiles, "nRemoved=" + nRemoved);
+
+    // a new cache (e.g., after a restart) with the same generation reuses the chunks
+    IntArray constraints = new IntArray(new int[] {0, 1, 0, 0, 1, 255, 0, 1, 255});
+    cache = new GridChunkCache(dir, 1000L * 1000 * 1000, generationFullName, AXIS_SIZES);
+    int nReadsBefore = nReads[0];
+    cache.get("http://localhost/dap", "sst", axisValues, constraints, reader);
+    cache.get("http://localhost/dap", "sst", axisValues, constraints, reader);
+    Test.ensureTrue(nReads[0] - nReadsBefore <= 1, "nReads=" + (nReads[0] - nReadsBefore));
+
+    // a hard flag deletes the generation file, so the source's revised values are used
+    File2.delete(generationFullName);
+    Math2.sleep(2); // ensure a new generation
+    cache = new GridChunkCache(dir, 1000L * 1000 * 1000, generationFullName, AXIS_SIZES);
+    PrimitiveArray results =
+        cache.get(
+            "http://localhost/dap",
+            "sst",
+            axisValues,
+            constraints,
+            constraint -> {
+              PrimitiveArray pa = standInSource(parseConstraint(constraint));
+              pa.setDouble(0, -1); // revised in place
+              return pa;
+            });
+    Test.ensureEqual(results.getDouble(0), -1.0, "");
+  }
+}
@@ -0,0 +1,157 @@
+package gov.noaa.pfel.erddap.dataset;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.cohort.util.Test;
+import gov.noaa.pfel.erddap.util.EDStatic;
+import gov.noaa.pfel.erddap.util.ParallelGZIPOutputStream;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import org.junit.jupiter.api.BeforeAll;
+import testDataset.Initialization;
+
+class ResponseEncodingTests {
+
+  @BeforeAll
+  static void init() {
+    Initialization.edStatic();
+  }
+
+  /** This tests parsing Accept-Encoding headers. */
+  @org.junit.jupiter.api.Test
+  void testAccepts() {
+    Test.ensureTrue(ResponseEncoding.accepts("gzip, deflate, br, zstd", "zstd"), "");
+    Test.ensureTrue(ResponseEncoding.accepts("x-gzip", "gzip"), "");
+    Test.ensureTrue(ResponseEncoding.accepts("GZip;q=0.5", "gzip"), "");
+    Test.ensureTrue(!ResponseEncoding.accepts("gzip;q=0, deflate", "gzip"), "");
+    Test.ensureTrue(!ResponseEncoding.accepts("gzip; q=0.000", "gzip"), "");
+    Test.ensureTrue(!ResponseEncoding.accepts("gzipped", "gzip"), "");
+    Test.ensureTrue(!ResponseEncoding.accepts("", "gzip"), "");
+    Test.ensureTrue(!ResponseEncoding.accepts(null, "gzip"), "");
+
+    String[] preferences = {"nonsense", "gzip", "deflate"};
+    Test.ensureEqual(ResponseEncoding.choose("deflate, gzip", preferences), "gzip", "");
+    Test.ensureEqual(ResponseEncoding.choose("deflate, gzip;q=0", preferences), "deflate", "");
+    Test.ensureEqual(ResponseEncoding.choose("br, nonsense", preferences), null, "");
+  }
+
+  /** This returns a ServletOutputStream which writes to baos. */
+  private static ServletOutputStream servletOutputStream(ByteArrayOutputStream baos) {
+    return new ServletOutputStream() {
+      @Override
+      public void write(int b) {
+        baos.write(b);
+      }
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setWriteListener(WriteListener writeListener) {}
+    };
+  }
+
+  /**
+   * This tests that OutputStreamFromHttpResponse compresses large responses, but not small ones.
+   */
+  @org.junit.jupiter.api.Test
+  void testMinBytes() throws Throwable {
+    int minBytes = EDStatic.config.compressionMinBytes;
+    for (int size : new int[] {10, minBytes, minBytes + 1, 1000000}) {
+      HttpServletRequest request = mock(HttpServletRequest.class);
+      HttpServletResponse response = mock(HttpServletResponse.class);
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      when(request.getHeader("Range")).thenReturn(null);
+      when(request.getHeader("accept-encoding")).thenReturn("gzip");
+      when(response.getOutputStream()).thenReturn(servletOutputStream(baos));
+
+      byte[] data = new byte[size];
+      for (int i = 0; i < size; i++) data[i] = (byte) ('a' + i % 7);
+      OutputStreamFromHttpResponse source =
+          new OutputStreamFromHttpResponse(request, response, "temp", ".csv", ".csv");
+      OutputStream out = source.outputStream("");
+      Test.ensureEqual(source.usingCompression(), "gzip", ""); // tentatively
+      out.write(data, 0, size / 2);
+      out.flush();
+      out.write(data, size / 2, size - size / 2);
+      out.close();
+
+      byte[] results = baos.toByteArray();
+      if (size <= minBytes) {
+        Test.ensureEqual(source.usingCompression(), "identity", "size=" + size);
+        verify(response).setHeader("Content-Encoding", "identity");
+      } else {
+        Test.ensureEqual(source.usingCompression(), "gzip", "size=" + size);
+        results = new GZIPInputStream(new ByteArrayInputStream(results)).readAllBytes();
+      }
+      Test.ensureEqual(new String(results), new String(data), "size=" + size);
+    }
+  }
+
+  /**
+   * This tests that gzip uses a ParallelGZIPOutputStream, unless all of the shared compression
+   * threads are busy, in which case it compresses in the caller's thread.
+   */
+  @org.junit.jupiter.api.Test
+  void testGzipFallback() throws Throwable {
+    byte[] data = new byte[3 * ParallelGZIPOutputStream.BLOCK_SIZE];
+    for (int i = 0; i < data.length; i++) data[i] = (byte) ('a' + i % 7);
+    ResponseEncoding.Encoder gzip = ResponseEncoding.get("gzip");
+
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (OutputStream out = gzip.encode(baos, 6, 4)) {
+      Test.ensureTrue(out instanceof ParallelGZIPOutputStream, "");
+      out.write(data);
+    }
+    Test.ensureEqual(
+        new String(
+            new GZIPInputStream(new ByteArrayInputStream(baos.toByteArray())).readAllBytes()),
+        new String(data),
+        "");
+
+    // keep all of the compression threads busy
+    int nThreads = ResponseEncoding.compressionExecutor.getMaximumPoolSize();
+    CountDownLatch started = new CountDownLatch(nThreads);
+    CountDownLatch release = new CountDownLatch(1);
+    try {
+      for (int i = 0; i < nThreads; i++) {
+        @SuppressWarnings("unused")
+        Future<?> unused =
+            ResponseEncoding.compressionExecutor.submit(
+                () -> {
+                  started.countDown();
+                  release.await();
+                  return null;
+                });
+      }
+      Test.ensureTrue(started.await(10, TimeUnit.SECONDS), "");
+      Test.ensureTrue(ResponseEncoding.compressionExecutorIsBusy(), "");
+
+      baos = new ByteArrayOutputStream();
+      try (OutputStream out = gzip.encode(baos, 6, 4)) {
+        Test.ensureTrue(!(out instanceof ParallelGZIPOutputStream), "");
+        out.write(data);
+      }
+      Test.ensureEqual(
+          new String(
+              new GZIPInputStream(new ByteArrayInputStream(baos.toByteArray())).readAllBytes()),
+          new String(data),
+          "");
+    } finally {
+      release.countDown();
+    }
+  }
+}
@@ -0,0 +1,433 @@
+package gov.noaa.pfel.erddap.util;
+
+import com.cohort.array.Attributes;
+import com.cohort.array.PAOne;
+import com.cohort.array.PrimitiveArray;
+import com.cohort.array.StringArray;
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+import gov.noaa.pfel.erddap.dataset.EDD;
+import gov.noaa.pfel.erddap.dataset.EDDTable;
+import gov.noaa.pfel.erddap.dataset.TableWriter;
+import gov.noaa.pfel.erddap.dataset.metadata.LocalizedAttributes;
+import gov.noaa.pfel.erddap.variable.EDV;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.BeforeAll;
+import tags.TagSlowTests;
+import testDataset.Initialization;
+
+class DatasetCatalogIndexTests {
+
+  private static final String INSTITUTIONS[] = {"noaa ndbc", "noaa nos", "usgs", "ioos"};
+
+  @BeforeAll
+  static void init() {
+    Initialization.edStatic();
+  }
+
+  /**
+   * This makes a fake table dataset with longitude, latitude, and time variables (or not, if the
+   * range is null).
+   */
+  private static EDD makeEdd(String datasetID, double lon[], double lat[], double time[])
+      throws Throwable {
+    List<EDV> edvs = new ArrayList<>();
+    int indexes[] = {-1, -1, -1};
+    double ranges[][] = {lon, lat, time};
+    String names[] = {"longitude", "latitude", "time"};
+    for (int d = 0; d < 3; d++) {
+      if (ranges[d] == null) continue;
+      indexes[d] = edvs.size();
+      edvs.add(
+          new EDV(
+              datasetID,
+              names[d],
+              names[d],
+              new Attributes(),
+              new LocalizedAttributes(),
+              "double",
+              PAOne.fromDouble(ranges[d][0]),
+              PAOne.fromDouble(ranges[d][1])));
+    }
+    return new EDDTable() {
+      {
+        this.datasetID = datasetID;
+        dataVariables = edvs.toArray(new EDV[0]);
+        lonIndex = indexes[0];
+        latIndex = indexes[1];
+        timeIndex = indexes[2];
+      }
+
+      @Override
+      public void getDataForDapQuery(
+          int language,
+          String loggedInAs,
+          String requestUrl,
+          String userDapQuery,
+          TableWriter tableWriter) {}
+    };
+  }
+
+  /** This makes a random range (sometimes null or with NaN's). */
+  private static double[] randomRange(Random random, double min, double max) {
+    if (random.nextInt(10) == 0) return null;
+    double a = min + random.nextDouble() * (max - min);
+    double b = a + random.nextDouble() * (max - a);
+    if (random.nextInt(4) == 0) a = Math.rint(a); // so some tests are on the exact bound
+    return new double[] {
+      random.nextInt(15) == 0 ? Double.NaN : a, random.nextInt(15) == 0 ? Double.NaN : b
+    };
+  }
+
+  private static EDD randomEdd(Random random, String datasetID) throws Throwable {
+    return makeEdd(
+        datasetID,
+        randomRange(random, -180, 180),
+        randomRange(random, -90, 90),
+        randomRange(random, 0, 2e9));
+  }
+
+  private static Map<String, Set<String>> randomFacets(Random random) {
+    Map<String, Set<String>> facets = new HashMap<>();
+    facets.put("institution", Set.of(INSTITUTIONS[random.nextInt(INSTITUTIONS.length)]));
+    return facets;
+  }
+
+  /** This is the bounding box test from Erddap.doAdvancedSearch (without the index). */
+  private static boolean inBoundingBox(
+      EDD edd,
+      double minLon,
+      double maxLon,
+      double minLat,
+      double maxLat,
+      double minTimeD,
+      double maxTimeD) {
+    EDDTable eddt = (EDDTable) edd;
+    EDV lonEdv = eddt.lonIndex() >= 0 ? eddt.dataVariables()[eddt.lonIndex()] : null;
+    EDV latEdv = eddt.latIndex() >= 0 ? eddt.dataVariables()[eddt.latIndex()] : null;
+    EDV timeEdv = eddt.timeIndex() >= 0 ? eddt.dataVariables()[eddt.timeIndex()] : null;
+    if (!Double.isNaN(minLon) || !Double.isNaN(maxLon)) {
+      if (lonEdv == null) return false;
+      if (!Double.isNaN(minLon)
+          && (Double.isNaN(lonEdv.destinationMaxDouble())
+              || minLon > lonEdv.destinationMaxDouble())) return false;
+      if (!Double.isNaN(maxLon)
+          && (Double.isNaN(lonEdv.destinationMinDouble())
+              || maxLon < lonEdv.destinationMinDouble())) return false;
+    }
+    if (!Double.isNaN(minLat) || !Double.isNaN(maxLat)) {
+      if (latEdv == null) return false;
+      if (!Double.isNaN(minLat)
+          && (Double.isNaN(latEdv.destinationMaxDouble())
+              || minLat > latEdv.destinationMaxDouble())) return false;
+      if (!Double.isNaN(maxLat)
+          && (Double.isNaN(latEdv.destinationMinDouble())
+              || maxLat < latEdv.destinationMinDouble())) return false;
+    }
+    if (!Double.isNaN(minTimeD) || !Double.isNaN(maxTimeD)) {
+      if (timeEdv == null) return false;
+      if (!Double.isNaN(minTimeD)
+          && !Double.isNaN(timeEdv.destinationMaxDouble())
+          && minTimeD > timeEdv.destinationMaxDouble()) return false;
+      if (!Double.isNaN(maxTimeD)
+          && (Double.isNaN(timeEdv.destinationMinDouble())
+              || maxTimeD < timeEdv.destinationMinDouble())) return false;
+    }
+    return true;
+  }
+
+  /** This makes a random query value (often NaN, i.e., not tested). */
+  private static double randomValue(Random random, double min, double max) {
+    if (random.nextInt(3) == 0) return Double.NaN;
+    double d = min + random.nextDouble() * (max - min);
+    return random.nextInt(4) == 0 ? Math.rint(d) : d;
+  }
+
+  /** This returns the sorted datasetIDs (of the datasets in edds) which pass the test. */
+  private static String[] bruteForce(
+      Map<String, EDD> edds, double q[], Map<String, String> facets, String institution) {
+    StringArray sa = new StringArray();
+    for (Map.Entry<String, EDD> e : edds.entrySet()) {
+      if (institution != null && !institution.equals(facets.get(e.getKey()))) continue;
+      if (inBoundingBox(e.getValue(), q[0], q[1], q[2], q[3], q[4], q[5])) sa.add(e.getKey());
+    }
+    sa.sort();
+    return sa.toArray();
+  }
+
+  private static String[] sortedIDs(DatasetCatalogIndex index, BitSet bits) {
+    StringArray sa = index.datasetIDs(bits);
+    sa.sort();
+    return sa.toArray();
+  }
+
+  /**
+   * This tests that the index finds the same datasets as doAdvancedSearch's tests, including after
+   * datasets are reloaded, unloaded, and updated.
+   */
+  @org.junit.jupiter.api.Test
+  void testSameResults() throws Throwable {
+    Random random = new Random(23);
+    DatasetCatalogIndex index = new DatasetCatalogIndex();
+    Map<String, EDD> edds = new HashMap<>();
+    Map<String, String> institutions = new HashMap<>();
+    int nMatches = 0;
+    for (int round = 0; round < 12; round++) {
+      // load, reload, and unload some datasets
+      // (in even rounds, enough to re-sort the columns; in odd rounds, just a few)
+      int nChanges = round % 2 == 0 ? 300 : 30;
+      for (int i = 0; i < nChanges; i++) {
+        String id = "ds" + random.nextInt(round == 0 ? 1000 : 400);
+        if (round > 0 && random.nextInt(3) == 0) {
+          index.remove(id, edds.get(id));
+          edds.remove(id);
+          institutions.remove(id);
+        } else {
+          EDD edd = randomEdd(random, id);
+          Map<String, Set<String>> facets = randomFacets(random);
+          index.update(id, edd, facets);
+          edds.put(id, edd);
+          institutions.put(id, facets.get("institution").iterator().next());
+        }
+      }
+      // removing a different version of a dataset does nothing
+      String someID = edds.keySet().iterator().next();
+      index.remove(someID, randomEdd(random, someID));
+      Test.ensureEqual(index.size(), edds.size(), "round=" + round);
+
+      // in odd rounds, change some ranges without a reload
+      if (round % 2 == 1) {
+        for (int i = 0; i < 20; i++) {
+          String id = "ds" + random.nextInt(400);
+          EDDTable eddt = (EDDTable) edds.get(id);
+          if (eddt == null || eddt.timeIndex() < 0) continue;
+          double time = random.nextDouble() * 2e9;
+          eddt.dataVariables()[eddt.timeIndex()].setDestinationMinMax(
+              PAOne.fromDouble(time), PAOne.fromDouble(time + random.nextDouble() * 1e8));
+          DatasetCatalogIndex.rangesChanged(id);
+        }
+      }
+
+      for (int test = 0; test < 100; test++) {
+        double q[] = {
+          randomValue(random, -180, 180),
+          randomValue(random, -180, 180),
+          randomValue(random, -90, 90),
+          randomValue(random, -90, 90),
+          randomValue(random, 0, 2e9),
+          randomValue(random, 0, 2e9)
+        };
+        String institution =
+            random.nextBoolean() ? null : INSTITUTIONS[random.nextInt(INSTITUTIONS.length)];
+        BitSet bits = index.boundingBox(q[0], q[1], q[2], q[3], q[4], q[5]);
+        if (institution != null) bits.and(index.facet("institution", institution));
+        String expected[] = bruteForce(edds, q, institutions, institution);
+        nMatches += expected.length;
+        Test.ensureEqual(
+            sortedIDs(index, bits),
+            expected,
+            "round=" + round + " test=" + test + " q=" + String2.toCSSVString(q));
+      }
+    }
+    Test.ensureTrue(nMatches > 10000, "nMatches=" + nMatches);
+    Test.ensureEqual(index.facet("institution", "nobody").cardinality(), 0, "");
+    Test.ensureEqual(index.facet("nothing", "nobody").cardinality(), 0, "");
+  }
+
+  /**
+   * This tests that rangesChanged(datasetID) just refreshes that dataset's entry, and that it
+   * doesn't matter if the dataset isn't indexed (yet).
+   */
+  @org.junit.jupiter.api.Test
+  void testRangesChanged() throws Throwable {
+    DatasetCatalogIndex index = new DatasetCatalogIndex();
+    EDDTable a = (EDDTable) makeEdd("rcA", new double[] {0, 1}, null, new double[] {100, 200});
+    EDDTable b = (EDDTable) makeEdd("rcB", new double[] {0, 1}, null, new double[] {100, 200});
+    DatasetCatalogIndex.rangesChanged("rcNotIndexed");
+    index.update("rcA", a, randomFacets(new Random(1)));
+    index.update("rcB", b, randomFacets(new Random(2)));
+    BitSet late = index.boundingBox(Double.NaN, Double.NaN, Double.NaN, Double.NaN, 1000, 2000);
+    Test.ensureEqual(sortedIDs(index, late), new String[0], "");
+
+    // both datasets get new times, but only rcA says so
+    for (EDDTable eddt : new EDDTable[] {a, b})
+      eddt.dataVariables()[eddt.timeIndex()].setDestinationMinMax(
+          PAOne.fromDouble(1500), PAOne.fromDouble(1600));
+    DatasetCatalogIndex.rangesChanged("rcA");
+    late = index.boundingBox(Double.NaN, Double.NaN, Double.NaN, Double.NaN, 1000, 2000);
+    Test.ensureEqual(sortedIDs(index, late), new String[] {"rcA"}, "");
+    Test.ensureEqual(
+        sortedIDs(index, index.constraint(DatasetCatalogIndex.TIME_MIN, ">=", 1500)),
+        new String[] {"rcA"},
+        "");
+
+    DatasetCatalogIndex.rangesChanged("rcB");
+    late = index.boundingBox(Double.NaN, Double.NaN, Double.NaN, Double.NaN, 1000, 2000);
+    Test.ensureEqual(sortedIDs(index, late), new String[] {"rcA", "rcB"}, "");
+  }
+
+  /**
+   * This tests that queries in several threads get the right results while other threads update the
+   * index (so the columns are often re-sorted while queries and updates are going on).
+   */
+  @org.junit.jupiter.api.Test
+  void testConcurrent() throws Throwable {
+    DatasetCatalogIndex index = new DatasetCatalogIndex();
+    int nDatasets = 2000;
+    // the ranges of the "fixed" datasets never change, so queries can check them
+    for (int i = 0; i < nDatasets; i++) {
+      double lon = i % 2 == 0 ? 10 : 50;
+      index.update(
+          "fixed" + i,
+          makeEdd("fixed" + i, new double[] {lon, lon + 1}, null, null),
+          randomFacets(new Random(i)));
+    }
+    List<Thread> threads = new ArrayList<>();
+    List<Throwable> errors = java.util.Collections.synchronizedList(new ArrayList<>());
+    for (int t = 0; t < 4; t++) {
+      final int ft = t;
+      threads.add(
+          new Thread(
+              () -> {
+                try {
+                  Random random = new Random(ft);
+                  for (int i = 0; i < 3000; i++) {
+                    if (ft % 2 == 0) {
+                      // updates (with lon far from the fixed datasets)
+                      String id = "moving" + ft + "_" + random.nextInt(500);
+                      EDD edd = makeEdd(id, new double[] {-100, -99}, null, null);
+                      index.update(id, edd, randomFacets(random));
+                      if (random.nextInt(4) == 0) index.remove(id, edd);
+                    } else {
+                      BitSet bits =
+                          index.boundingBox(9, 12, Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+                      if (bits.cardinality() != nDatasets / 2)
+                        throw new RuntimeException("cardinality=" + bits.cardinality());
+                    }
+                  }
+                } catch (Throwable e) {
+                  errors.add(e);
+                }
+              }));
+    }
+    for (Thread thread : threads) thread.start();
+    for (Thread thread : threads) thread.join();
+    if (!errors.isEmpty()) throw errors.get(0);
+  }
+
+  /**
+   * This tests that constraint() finds (at least) the datasets which match allDatasets constraints
+   * on the indexed columns.
+   */
+  @org.junit.jupiter.api.Test
+  void testConstraint() throws Throwable {
+    Random random = new Random(123);
+    DatasetCatalogIndex index = new DatasetCatalogIndex();
+    Map<String, EDD> edds = new HashMap<>();
+    for (int i = 0; i < 500; i++) {
+      EDD edd = randomEdd(random, "ds" + i);
+      index.update("ds" + i, edd, new HashMap<>());
+      edds.put("ds" + i, edd);
+    }
+    Test.ensureEqual(DatasetCatalogIndex.boundIndex("maxTime"), DatasetCatalogIndex.TIME_MAX, "");
+    Test.ensureEqual(DatasetCatalogIndex.boundIndex("minAltitude"), -1, "");
+    Test.ensureTrue(index.constraint(DatasetCatalogIndex.LON_MIN, "!=", 5) == null, "");
+    Test.ensureTrue(index.constraint(DatasetCatalogIndex.LON_MIN, "=~", 5) == null, "");
+    Test.ensureTrue(index.constraint(DatasetCatalogIndex.LON_MIN, ">", Double.NaN) == null, "");
+
+    String ops[] = {"=", "<", "<=", ">", ">="};
+    int nMatches = 0;
+    for (int test = 0; test < 500; test++) {
+      int bound = random.nextInt(6);
+      String op = ops[random.nextInt(ops.length)];
+      EDDTable eddt = (EDDTable) edds.get("ds" + random.nextInt(500));
+      double value = random.nextDouble() * 300 - 150;
+      if (random.nextBoolean()) {
+        // use a dataset's bound, so some = tests match
+        int which = bound < 2 ? eddt.lonIndex() : bound < 4 ? eddt.latIndex() : eddt.timeIndex();
+        if (which >= 0) {
+          EDV edv = eddt.dataVariables()[which];
+          value = bound % 2 == 0 ? edv.destinationMinDouble() : edv.destinationMaxDouble();
+          if (Double.isNaN(value)) continue;
+          if (random.nextBoolean()) value *= 1 + 1e-12; // almostEqual
+        }
+      }
+      BitSet bits = index.constraint(bound, op, value);
+      String msg = "bound=" + DatasetCatalogIndex.BOUND_NAMES[bound] + op + value;
+      int nBits = 0;
+      for (Map.Entry<String, EDD> e : edds.entrySet()) {
+        EDDTable tEddt = (EDDTable) e.getValue();
+        int which = bound < 2 ? tEddt.lonIndex() : bound < 4 ? tEddt.latIndex() : tEddt.timeIndex();
+        double d = Double.NaN;
+        if (which >= 0) {
+          EDV edv = tEddt.dataVariables()[which];
+          d = bound % 2 == 0 ? edv.destinationMinDouble() : edv.destinationMaxDouble();
+        }
+        int ordinal = Integer.parseInt(e.getKey().substring(2)); // they were added in order
+        if (PrimitiveArray.testValueOpValue(d, op, value)) {
+          nMatches++;
+          Test.ensureTrue(bits.get(ordinal), msg + " id=" + e.getKey() + " d=" + d);
+        }
+        if (bits.get(ordinal)) nBits++;
+      }
+      Test.ensureEqual(sortedIDs(index, bits).length, nBits, msg);
+    }
+    Test.ensureTrue(nMatches > 10000, "nMatches=" + nMatches);
+  }
+
+  /** This compares the time to search 10000 datasets with and without the index. */
+  @org.junit.jupiter.api.Test
+  @TagSlowTests
+  void testSpeed() throws Throwable {
+    Random random = new Random(10000);
+    DatasetCatalogIndex index = new DatasetCatalogIndex();
+    Map<String, EDD> edds = new HashMap<>();
+    Map<String, String> institutions = new HashMap<>();
+    for (int i = 0; i < 10000; i++) {
+      EDD edd = randomEdd(random, "ds" + i);
+      Map<String, Set<String>> facets = randomFacets(random);
+      index.update("ds" + i, edd, facets);
+      edds.put("ds" + i, edd);
+      institutions.put("ds" + i, facets.get("institution").iterator().next());
+    }
+    // small boxes and time ranges, like a typical advanced search
+    double queries[][] = new double[200][];
+    for (int i = 0; i < queries.length; i++) {
+      double lon = random.nextDouble() * 350 - 175;
+      double lat = random.nextDouble() * 170 - 85;
+      double time = random.nextDouble() * 2e9;
+      queries[i] = new double[] {lon, lon + 5, lat, lat + 5, time, time + 1e7};
+    }
+
+    long bruteTime = 0, indexTime = 0;
+    for (int rep = 0; rep < 3; rep++) {
+      long tTime = System.nanoTime();
+      for (double q[] : queries) bruteForce(edds, q, institutions, null);
+      bruteTime = System.nanoTime() - tTime;
+
+      tTime = System.nanoTime();
+      for (double q[] : queries)
+        sortedIDs(index, index.boundingBox(q[0], q[1], q[2], q[3], q[4], q[5]));
+      indexTime = System.nanoTime() - tTime;
+    }
+    for (double q[] : queries)
+      Test.ensureEqual(
+          sortedIDs(index, index.boundingBox(q[0], q[1], q[2], q[3], q[4], q[5])),
+          bruteForce(edds, q, institutions, null),
+          "");
+    String2.log(
+        "DatasetCatalogIndexTests.testSpeed for "
+            + queries.length
+            + " searches of 10000 datasets: without index="
+            + bruteTime / 1000000
+            + "ms, with index="
+            + indexTime / 1000000
+            + "ms");
+  }
+}
@@ -0,0 +1,201 @@
+package gov.noaa.pfel.erddap.util;
+
+import com.cohort.array.StringArray;
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+import gov.noaa.pfel.erddap.dataset.EDD;
+import gov.noaa.pfel.erddap.dataset.EDDTable;
+import gov.noaa.pfel.erddap.dataset.TableWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.BeforeAll;
+import testDataset.Initialization;
+
+class OriginalSearchIndexTests {
+
+  private static final String VOCABULARY[] = {
+    "Sea Surface Temperature",
+    "sea_water_temperature",
+    "wind_speed",
+    "Windspeed",
+    "northwind",
+    "NOAA",
+    "NDBC",
+    "http://www.example.com/data?x=1",
+    "2025-01-01T00:00:00Z",
+    "a+b=c",
+    "Café über",
+    "€5",
+    "salinity",
+    "Chlorophyll-a",
+    "(degrees_north)",
+    "DEPRECATED",
+    "1e-5",
+    "x",
+    "..."
+  };
+
+  @BeforeAll
+  static void init() {
+    Initialization.edStatic();
+  }
+
+  /** This makes a fake dataset with the title and searchString. */
+  private static EDD makeEdd(String title, String searchString) {
+    return new EDDTable() {
+      @Override
+      public String title(int language) {
+        return title;
+      }
+
+      @Override
+      public String searchString(int language) {
+        return searchString;
+      }
+
+      @Override
+      public void getDataForDapQuery(
+          int language,
+          String loggedInAs,
+          String requestUrl,
+          String userDapQuery,
+          TableWriter tableWriter) {}
+    };
+  }
+
+  private static String randomText(Random random, int nWords) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < nWords; i++)
+      sb.append(VOCABULARY[random.nextInt(VOCABULARY.length)])
+          .append(random.nextBoolean() ? " " : "\n");
+    return sb.toString();
+  }
+
+  /**
+   * This tests that the index gives the same ranks as EDD.searchRank (for searches like those in
+   * Erddap.getSearchDatasetIDs), including after datasets are replaced and removed.
+   */
+  @org.junit.jupiter.api.Test
+  void testSameRanks() throws Exception {
+    Random random = new Random(22);
+    List<String> ids = new ArrayList<>();
+    List<EDD> edds = new ArrayList<>();
+    OriginalSearchIndex index = new OriginalSearchIndex(0);
+    for (int i = 0; i < 40; i++) {
+      String title = randomText(random, 3);
+      EDD edd = makeEdd(title, title + "\n" + randomText(random, 2 + random.nextInt(20)));
+      ids.add("ds" + i);
+      edds.add(edd);
+      index.update("ds" + i, edd);
+    }
+    // replace and remove some datasets
+    for (int i = 0; i < 10; i++) {
+      EDD edd = makeEdd("new title", randomText(random, 10));
+      edds.set(i, edd);
+      index.update(ids.get(i), edd);
+    }
+    for (int i = 10; i < 15; i++) index.update(ids.get(i), null);
+    Test.ensureEqual(index.size(), 35, "");
+
+    String searches[] = {
+      "wind",
+      "speed",
+      "indsp",
+      "northw",
+      "\"wind speed\"",
+      "wind_",
+      "_speed",
+      "sea_water",
+      "\"sea surface\"",
+      "temperature -wind",
+      "-wind",
+      "-noaa -ndbc",
+      "http",
+      "http://",
+      "example.com",
+      "x=1",
+      "café",
+      "üb",
+      "€",
+      "chlorophyll-a",
+      "-",
+      "...",
+      "(",
+      "e-5",
+      "2025-01",
+      "deprecated",
+      "a+b",
+      "nothere",
+      "sea -\"sea surface\"",
+      "t00",
+      "degrees_north)"
+    };
+    int nMatches = 0;
+    for (String searchFor : searches) {
+      StringArray searchWords = StringArray.wordsAndQuotedPhrases(searchFor.toLowerCase());
+      int nWords = searchWords.size();
+      boolean isNegative[] = new boolean[nWords];
+      String words[] = new String[nWords];
+      byte wordsB[][] = new byte[nWords][];
+      int jump[][] = new int[nWords][];
+      for (int w = 0; w < nWords; w++) {
+        String sw = searchWords.get(w);
+        isNegative[w] = sw.charAt(0) == '-';
+        if (isNegative[w]) sw = sw.substring(1);
+        words[w] = String2.fromJson(sw);
+        wordsB[w] = String2.stringToUtf8Bytes(words[w]);
+        jump[w] = String2.makeJumpTable(wordsB[w]);
+      }
+      OriginalSearchIndex.Candidates candidates = index.candidates(words, isNegative);
+      if (searchFor.equals("nothere")) Test.ensureEqual(candidates.ordinals().cardinality(), 0, "");
+      if (searchFor.startsWith("-")) Test.ensureTrue(candidates == null, "");
+      for (int i = 0; i < ids.size(); i++) {
+        if (i >= 10 && i < 15) continue; // removed
+        EDD edd = edds.get(i);
+        int expected = edd.searchRank(0, isNegative, wordsB, jump);
+        if (expected < Integer.MAX_VALUE) nMatches++;
+        Test.ensureEqual(
+            index.searchRank(ids.get(i), edd, candidates, isNegative, wordsB, jump),
+            expected,
+            "searchFor=" + searchFor + " id=" + ids.get(i));
+      }
+    }
+    Test.ensureTrue(nMatches > 100, "nMatches=" + nMatches);
+  }
+
+  /**
+   * This tests that a typical single search word has fewer candidates than datasets, and that the
+   * trigram map finds them without checking every term.
+   */
+  @org.junit.jupiter.api.Test
+  void testFewCandidates() throws Exception {
+    Random random = new Random(23);
+    // made-up words, so there are many distinct terms
+    String words[] = new String[5000];
+    for (int i = 0; i < words.length; i++) {
+      StringBuilder sb = new StringBuilder();
+      int nLetters = 4 + random.nextInt(7);
+      for (int j = 0; j < nLetters; j++) sb.append((char) ('a' + random.nextInt(26)));
+      words[i] = sb.toString();
+    }
+    OriginalSearchIndex index = new OriginalSearchIndex(0);
+    int nDatasets = 1000;
+    for (int i = 0; i < nDatasets; i++) {
+      StringBuilder sb = new StringBuilder(randomText(random, 2));
+      for (int j = 0; j < 30; j++) sb.append(words[random.nextInt(words.length)]).append(' ');
+      index.update("ds" + i, makeEdd("title" + i, sb.toString()));
+    }
+
+    OriginalSearchIndex.Candidates candidates =
+        index.candidates(new String[] {"wind"}, new boolean[] {false});
+    int nCandidates = candidates.ordinals().cardinality();
+    Test.ensureBetween(nCandidates, 1, nDatasets / 2, "nCandidates=" + nCandidates);
+
+    int nTerms = index.nTermsChecked("wi"); // too short for a trigram, so all terms
+    int nChecked = index.nTermsChecked("wind");
+    Test.ensureTrue(nTerms > 4000, "nTerms=" + nTerms);
+    Test.ensureTrue(nChecked * 20 < nTerms, "nChecked=" + nChecked + " nTerms=" + nTerms);
+    Test.ensureEqual(index.nTermsChecked("qqqzzz"), 0, "");
+  }
+}
@@ -0,0 +1,94 @@
+package gov.noaa.pfel.erddap.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+class ParallelGZIPOutputStreamTests {
+
+  private static ExecutorService executor;
+
+  @BeforeAll
+  static void init() {
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  @AfterAll
+  static void shutdown() {
+    executor.shutdownNow();
+  }
+
+  /** This makes compressible, csv-like test data. */
+  private static byte[] makeData(int n, Random random) {
+    StringBuilder sb = new StringBuilder();
+    while (sb.length() < n)
+      sb.append("station")
+          .append(random.nextInt(20))
+          .append(",2024-01-01T")
+          .append(random.nextInt(24))
+          .append(":00:00Z,")
+          .append(random.nextInt(1000) / 10.0)
+          .append('\n');
+    sb.setLength(n);
+    return sb.toString().getBytes();
+  }
+
+  private static byte[] gunzip(byte[] bytes) throws IOException {
+    try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+      return in.readAllBytes();
+    }
+  }
+
+  /** This tests that the result is standard gzip for various sizes, writes, and flushes. */
+  @Test
+  void testRoundTrip() throws IOException {
+    Random random = new Random(17);
+    int block = ParallelGZIPOutputStream.BLOCK_SIZE;
+    for (int size : new int[] {0, 1, 1000, block - 1, block, block + 1, 5 * block + 12345}) {
+      for (int maxInFlight : new int[] {1, 3}) {
+        byte[] data = makeData(size, random);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ParallelGZIPOutputStream out =
+            new ParallelGZIPOutputStream(baos, 6, executor, maxInFlight)) {
+          int po = 0;
+          while (po < size) {
+            int n = Math.min(size - po, 1 + random.nextInt(70000));
+            if (n == 1) out.write(data[po]);
+            else out.write(data, po, n);
+            po += n;
+            if (random.nextInt(10) == 0) out.flush();
+          }
+        }
+        assertArrayEquals(data, gunzip(baos.toByteArray()), "size=" + size);
+      }
+    }
+  }
+
+  /** This tests that the compression ratio is close to GZIPOutputStream's. */
+  @Test
+  void testRatio() throws IOException {
+    byte[] data = makeData(20 * ParallelGZIPOutputStream.BLOCK_SIZE, new Random(1));
+    ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+    try (ParallelGZIPOutputStream out = new ParallelGZIPOutputStream(parallel, 6, executor, 4)) {
+      out.write(data);
+    }
+    ByteArrayOutputStream serial = new ByteArrayOutputStream();
+    try (java.util.zip.GZIPOutputStream out = new java.util.zip.GZIPOutputStream(serial)) {
+      out.write(data);
+    }
+    assertArrayEquals(data, gunzip(parallel.toByteArray()));
+    assertTrue(
+        parallel.size() < serial.size() * 1.05,
+        "parallel=" + parallel.size() + " serial=" + serial.size());
+  }
+}
@@ -0,0 +1,197 @@
+package gov.noaa.pfel.erddap.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import gov.noaa.pfel.erddap.util.RequestScheduler.Permit;
+import gov.noaa.pfel.erddap.util.RequestScheduler.RequestClass;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Test;
+
+public class RequestSchedulerTests {
+
+  private static final long LONG_WAIT = 60000;
+
+  /** Start a thread that waits for a slot, then wait until it is in the queue. */
+  private static Thread startWaiter(
+      RequestScheduler scheduler,
+      String ipAddress,
+      RequestClass rc,
+      AtomicReference<Permit> result,
+      List<String> order)
+      throws InterruptedException {
+    int depth = scheduler.queueDepth(rc);
+    Thread thread =
+        new Thread(
+            () -> {
+              try {
+                Permit permit = scheduler.acquire(ipAddress, 1, 2, rc, LONG_WAIT);
+                order.add(ipAddress);
+                result.set(permit);
+              } catch (InterruptedException e) {
+              }
+            });
+    thread.start();
+    while (scheduler.queueDepth(rc) == depth) Thread.sleep(5);
+    return thread;
+  }
+
+  @Test
+  void slotsTests() throws Exception {
+    RequestScheduler scheduler = new RequestScheduler(new int[] {1, 1, 1, 1}, new Metrics());
+
+    Permit a = scheduler.acquire("1.1.1.1", 1, 0, RequestClass.small_data, 0);
+    assertNotNull(a);
+    assertEquals(1, scheduler.nActive(RequestClass.small_data));
+
+    // no small_data slot is free
+    assertNull(scheduler.acquire("2.2.2.2", 1, 0, RequestClass.small_data, 0));
+    assertNull(scheduler.acquire("2.2.2.2", 1, 0, RequestClass.small_data, 50));
+    assertEquals(0, scheduler.queueDepth(RequestClass.small_data));
+
+    // but the other classes are unaffected
+    Permit b = scheduler.acquire("2.2.2.2", 1, 0, RequestClass.image, 0);
+    assertNotNull(b);
+
+    a.close();
+    a.close(); // a second close does nothing
+    assertEquals(0, scheduler.nActive(RequestClass.small_data));
+    Permit c = scheduler.acquire("2.2.2.2", 1, 0, RequestClass.small_data, 0);
+    assertNotNull(c);
+    b.close();
+    c.close();
+
+    // more slots
+    scheduler.setSlots(new int[] {1, 2, 1, 1});
+    Permit d = scheduler.acquire("3.3.3.3", 1, 0, RequestClass.small_data, 0);
+    Permit e = scheduler.acquire("3.3.3.3", 1, 0, RequestClass.small_data, 0);
+    assertNotNull(d);
+    assertNotNull(e);
+    assertEquals(
+        "metadata active=0/1 waiting=0, small_data active=2/2 waiting=0, large_download active=0/1 waiting=0, image active=0/1 waiting=0",
+        scheduler.statistics());
+    int retryAfter = scheduler.retryAfterSeconds(RequestClass.small_data);
+    assertTrue(retryAfter >= 1 && retryAfter <= 600, "retryAfter=" + retryAfter);
+    d.close();
+    e.close();
+  }
+
+  @Test
+  void waitTests() throws Exception {
+    RequestScheduler scheduler = new RequestScheduler(new int[] {1, 1, 1, 1}, new Metrics());
+    List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+    // the waiter gets the slot as soon as it is released
+    Permit a = scheduler.acquire("1.1.1.1", 1, 0, RequestClass.large_download, 0);
+    AtomicReference<Permit> result = new AtomicReference<>();
+    Thread thread = startWaiter(scheduler, "2.2.2.2", RequestClass.large_download, result, order);
+    assertEquals(1, scheduler.queueDepth(RequestClass.large_download));
+    a.close();
+    thread.join(LONG_WAIT);
+    assertNotNull(result.get());
+    assertEquals(0, scheduler.queueDepth(RequestClass.large_download));
+    result.get().close();
+
+    // an interrupted waiter leaves the queue
+    a = scheduler.acquire("1.1.1.1", 1, 0, RequestClass.large_download, 0);
+    result.set(null);
+    thread = startWaiter(scheduler, "2.2.2.2", RequestClass.large_download, result, order);
+    thread.interrupt();
+    thread.join(LONG_WAIT);
+    assertEquals(0, scheduler.queueDepth(RequestClass.large_download));
+    assertNull(result.get());
+    a.close();
+    assertEquals(0, scheduler.nActive(RequestClass.large_download));
+  }
+
+  @Test
+  void fairnessTests() throws Exception {
+    RequestScheduler scheduler = new RequestScheduler(new int[] {4, 1, 1, 1}, new Metrics());
+    List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+    // heavy has 2 active requests
+    Permit heavyMetadata = scheduler.acquire("heavy", 1, 0, RequestClass.metadata, 0);
+    Permit heavyData = scheduler.acquire("heavy", 1, 0, RequestClass.small_data, 0);
+
+    // heavy's next request is queued before light's, but light has no active requests
+    AtomicReference<Permit> heavyResult = new AtomicReference<>();
+    AtomicReference<Permit> lightResult = new AtomicReference<>();
+    Thread heavyThread =
+        startWaiter(scheduler, "heavy", RequestClass.small_data, heavyResult, order);
+    Thread lightThread =
+        startWaiter(scheduler, "light", RequestClass.small_data, lightResult, order);
+
+    heavyData.close();
+    lightThread.join(LONG_WAIT);
+    assertEquals(List.of("light"), order);
+    lightResult.get().close();
+    heavyThread.join(LONG_WAIT);
+    assertEquals(List.of("light", "heavy"), order);
+    heavyResult.get().close();
+
+    // maxActive: heavy (with 1 active request) can't get a 2nd slot if maxActive=1
+    assertNull(scheduler.acquire("heavy", 1, 1, RequestClass.image, 50));
+    heavyMetadata.close();
+    Permit p = scheduler.acquire("heavy", 1, 1, RequestClass.image, 0);
+    assertNotNull(p);
+    p.close();
+  }
+
+  @Test
+  void registerTests() {
+    RequestScheduler scheduler = new RequestScheduler(new int[] {1, 1, 1, 1}, null);
+    assertEquals(0, scheduler.nClients());
+    assertEquals(1, scheduler.register("1.1.1.1"));
+    assertEquals(2, scheduler.register("1.1.1.1"));
+    assertEquals(1, scheduler.register("2.2.2.2"));
+    assertEquals(2, scheduler.nClients());
+    scheduler.unregister("1.1.1.1");
+    assertEquals(2, scheduler.register("1.1.1.1"));
+
+    // forget, e.g., when added to ipAddressUnlimited
+    scheduler.forget("1.1.1.1");
+    scheduler.unregister("1.1.1.1"); // does nothing
+    assertEquals(1, scheduler.nClients());
+    assertEquals(1, scheduler.register("1.1.1.1"));
+  }
+
+  /**
+   * An interrupted waiter must never keep a slot: if a slot is given to it and it is interrupted
+   * before it wakes up (a race), acquire throws InterruptedException and must give the slot back.
+   */
+  @Test
+  void interruptTests() throws Exception {
+    RequestScheduler scheduler = new RequestScheduler(new int[] {1, 1, 1, 1}, null);
+
+    // interrupted while waiting
+    Permit holder = scheduler.acquire("a", 1, 0, RequestClass.metadata, 0);
+    Thread.currentThread().interrupt();
+    try {
+      scheduler.acquire("b", 1, 0, RequestClass.metadata, LONG_WAIT);
+      throw new RuntimeException("Shouldn't get here.");
+    } catch (InterruptedException e) {
+    }
+    assertEquals(0, scheduler.queueDepth(RequestClass.metadata));
+    holder.close();
+    assertEquals(0, scheduler.nActive(RequestClass.metadata));
+
+    // a slot is given to a waiter at about the same time that it is interrupted
+    for (int i = 0; i < 200; i++) {
+      holder = scheduler.acquire("a", 1, 0, RequestClass.metadata, LONG_WAIT);
+      assertNotNull(holder);
+      AtomicReference<Permit> result = new AtomicReference<>();
+      Thread thread = startWaiter(scheduler, "b", RequestClass.metadata, result, new ArrayList<>());
+      thread.interrupt();
+      holder.close(); // usually before the interrupted thread wakes up
+      thread.join(LONG_WAIT);
+      if (result.get() != null) result.get().close();
+      assertEquals(0, scheduler.nActive(RequestClass.metadata), "i=" + i);
+      assertEquals(0, scheduler.queueDepth(RequestClass.metadata), "i=" + i);
+    }
+  }
+}
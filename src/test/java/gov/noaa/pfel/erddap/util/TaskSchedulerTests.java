@@ -0,0 +1,145 @@
+package gov.noaa.pfel.erddap.util;
+
+import com.cohort.util.Test;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class TaskSchedulerTests {
+
+  private static Object[] download(String fileName) {
+    return new Object[] {TaskThread.TASK_DOWNLOAD, "http://example.com/" + fileName, fileName, 0L};
+  }
+
+  private static Object[] allDapToNc(String fileName) {
+    return new Object[] {TaskThread.TASK_ALL_DAP_TO_NC, "http://example.com/" + fileName, fileName};
+  }
+
+  private static Object[] makeADataFile(String fileName) {
+    // taskOA[1] would be the source EDD (e.g., an EDDxxxCopy's child)
+    return new Object[] {
+      TaskThread.TASK_MAKE_A_DATAFILE, null, "time>=2020", "/copy/", fileName, ".nc"
+    };
+  }
+
+  private static Object[] setFlag(String datasetID) {
+    return new Object[] {TaskThread.TASK_SET_FLAG, datasetID};
+  }
+
+  /** This tests the order in which tasks are started, the per-dataset limit, and the watermark. */
+  @org.junit.jupiter.api.Test
+  void testOrder() throws Exception {
+    ArrayList<Object[]> taskList = new ArrayList<>();
+    AtomicInteger lastFinishedTask = new AtomicInteger(-1);
+    AtomicInteger nextTask = new AtomicInteger(0);
+    TaskScheduler scheduler = new TaskScheduler(taskList, lastFinishedTask, nextTask);
+
+    // a background copy dataset with lots of tasks, then a cacheFromUrl dataset
+    Test.ensureEqual(scheduler.add("copy", allDapToNc("c0")), 0, "");
+    Test.ensureEqual(scheduler.add("copy", allDapToNc("c1")), 1, "");
+    Test.ensureEqual(scheduler.add("copy", allDapToNc("c2")), 2, "");
+    Test.ensureEqual(scheduler.add("copy", setFlag("copy")), 3, "");
+    Test.ensureEqual(scheduler.add("cache", download("d0")), 4, "");
+    Test.ensureEqual(scheduler.add("cache", download("d1")), 5, "");
+    Test.ensureEqual(scheduler.add("cache", setFlag("cache")), 6, "");
+    Test.ensureEqual(scheduler.nWaiting(), 7, "");
+    Test.ensureEqual(scheduler.nWaiting(TaskThread.TASK_DOWNLOAD), 2, "");
+    Test.ensureEqual(scheduler.nStartable(1), 2, "");
+
+    // the download has priority over the (earlier) copy task
+    TaskScheduler.Started d0 = scheduler.start(1);
+    Test.ensureEqual(d0.number(), 4, "");
+    Test.ensureEqual(d0.datasetID(), "cache", "");
+    TaskScheduler.Started c0 = scheduler.start(1);
+    Test.ensureEqual(c0.number(), 0, "");
+    Test.ensureEqual(nextTask.get(), 1, "");
+    Test.ensureTrue(scheduler.start(1) == null, "both datasets are at their limit");
+
+    // finishing out of order doesn't advance lastFinishedTask past unfinished tasks
+    scheduler.finish(4);
+    Test.ensureEqual(lastFinishedTask.get(), -1, "");
+    Test.ensureTrue(taskList.get(4) == null, "");
+    scheduler.finish(4); // not running, so ignored
+    Test.ensureEqual(scheduler.start(1).number(), 5, "");
+    scheduler.finish(0);
+    Test.ensureEqual(lastFinishedTask.get(), 0, "");
+
+    // TASK_SET_FLAG waits until the dataset's earlier tasks are finished (even with a higher limit)
+    Test.ensureEqual(scheduler.start(2).number(), 1, "");
+    Test.ensureEqual(scheduler.start(2).number(), 2, "");
+    Test.ensureTrue(scheduler.start(2) == null, "");
+    scheduler.finish(5);
+    Test.ensureEqual(scheduler.start(2).number(), 6, "");
+    scheduler.finish(6);
+    scheduler.finish(2);
+    Test.ensureEqual(lastFinishedTask.get(), 0, "");
+    Test.ensureTrue(scheduler.start(2) == null, "");
+    scheduler.finish(1);
+    Test.ensureEqual(lastFinishedTask.get(), 2, "");
+    Test.ensureEqual(scheduler.start(2).number(), 3, "");
+    Test.ensureEqual(nextTask.get(), 7, "");
+    scheduler.finish(3);
+    Test.ensureEqual(lastFinishedTask.get(), 6, "");
+    Test.ensureEqual(scheduler.nWaiting(), 0, "");
+    Test.ensureEqual(scheduler.nRunning(), 0, "");
+    Test.ensureTrue(scheduler.start(1) == null, "");
+  }
+
+  /** This tests that identical waiting tasks aren't added again. */
+  @org.junit.jupiter.api.Test
+  void testDedup() throws Exception {
+    ArrayList<Object[]> taskList = new ArrayList<>();
+    TaskScheduler scheduler =
+        new TaskScheduler(taskList, new AtomicInteger(-1), new AtomicInteger(0));
+
+    Test.ensureEqual(scheduler.add("a", download("f0")), 0, "");
+    Object newer[] = download("f0");
+    newer[3] = 1000L;
+    Test.ensureEqual(scheduler.add("a", newer), -1, "a duplicate");
+    Test.ensureTrue(taskList.get(0) == newer, "the newer settings are used");
+    Test.ensureEqual(scheduler.add("a", setFlag("a")), 1, "");
+    Test.ensureEqual(scheduler.add("a", setFlag("a")), 2, "TASK_SET_FLAG is always added");
+    Test.ensureEqual(scheduler.add(null, new Object[] {TaskThread.TASK_CLEAR_CACHE}), 3, "");
+    Test.ensureEqual(scheduler.add(null, new Object[] {TaskThread.TASK_CLEAR_CACHE}), -1, "");
+    Test.ensureEqual(scheduler.nWaiting(), 4, "");
+
+    // once a task is started, an identical task is added (it will redo the work)
+    Test.ensureEqual(scheduler.start(1).number(), 0, "");
+    Test.ensureEqual(scheduler.add("a", download("f0")), 4, "");
+    Test.ensureEqual(scheduler.start(1).number(), 3, "");
+    Test.ensureEqual(scheduler.add(null, new Object[] {TaskThread.TASK_CLEAR_CACHE}), 5, "");
+
+    // an identical task of another dataset is added to that dataset's queue
+    Test.ensureEqual(scheduler.add("b", download("f1")), 6, "");
+    Test.ensureEqual(scheduler.add("c", download("f1")), 7, "");
+    Test.ensureEqual(scheduler.add("c", download("f1")), -1, "");
+  }
+
+  /**
+   * This tests that an EDDxxxCopy's TASK_SET_FLAG (a high priority task) doesn't start until its
+   * (low priority) TASK_MAKE_A_DATAFILE tasks are finished, even with several taskThreads.
+   */
+  @org.junit.jupiter.api.Test
+  void testCopyOrder() throws Exception {
+    ArrayList<Object[]> taskList = new ArrayList<>();
+    AtomicInteger lastFinishedTask = new AtomicInteger(-1);
+    TaskScheduler scheduler = new TaskScheduler(taskList, lastFinishedTask, new AtomicInteger(0));
+
+    // as EDDTableCopy and EDDGridCopy add them
+    Test.ensureEqual(scheduler.add("copy", makeADataFile("f0")), 0, "");
+    Test.ensureEqual(scheduler.add("copy", makeADataFile("f1")), 1, "");
+    Test.ensureEqual(scheduler.add("copy", setFlag("copy")), 2, "");
+    Test.ensureEqual(scheduler.nStartable(4), 2, "");
+
+    Test.ensureEqual(scheduler.start(4).number(), 0, "");
+    Test.ensureEqual(scheduler.start(4).number(), 1, "");
+    Test.ensureTrue(scheduler.start(4) == null, "the flag waits for the copies");
+    scheduler.finish(1);
+    Test.ensureTrue(scheduler.start(4) == null, "the flag waits for the copies");
+    scheduler.finish(0);
+    TaskScheduler.Started flag = scheduler.start(4);
+    Test.ensureEqual(flag.number(), 2, "");
+    Test.ensureEqual(flag.taskType(), TaskThread.TASK_SET_FLAG, "");
+    scheduler.finish(2);
+    Test.ensureEqual(lastFinishedTask.get(), 2, "");
+  }
+}
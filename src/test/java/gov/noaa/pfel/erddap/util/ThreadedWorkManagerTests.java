@@ -0,0 +1,124 @@
+package gov.noaa.pfel.erddap.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class ThreadedWorkManagerTests {
+
+  /**
+   * This tests that both modes give the results in order, and that the windowed mode limits the
+   * number of outstanding and running tasks.
+   */
+  @Test
+  void testOrderAndWindow() throws Throwable {
+    for (boolean windowed : new boolean[] {false, true}) {
+      Random random = new Random(17);
+      List<Integer> results = new ArrayList<>();
+      AtomicInteger running = new AtomicInteger();
+      AtomicInteger maxRunning = new AtomicInteger();
+      ThreadedWorkManager<Integer> manager =
+          windowed
+              ? new ThreadedWorkManager<>(3, 6, results::add)
+              : new ThreadedWorkManager<>(3, results::add);
+      int n = 60;
+      try {
+        for (int i = 0; i < n; i++) {
+          int task = i;
+          int sleep = random.nextInt(5);
+          manager.addTask(
+              () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                  Thread.sleep(sleep);
+                } finally {
+                  running.decrementAndGet();
+                }
+                return task;
+              });
+          if (windowed)
+            assertTrue(i + 1 - results.size() <= 6, "outstanding=" + (i + 1 - results.size()));
+        }
+        manager.finishedEnqueing();
+        manager.processResults();
+      } finally {
+        manager.forceShutdown();
+      }
+      assertEquals(n, results.size());
+      for (int i = 0; i < n; i++) assertEquals(i, results.get(i), "windowed=" + windowed);
+      assertTrue(maxRunning.get() <= 3, "maxRunning=" + maxRunning.get());
+    }
+  }
+
+  /** This tests that nThreads=1 does each task in addTask. */
+  @Test
+  void testNotThreaded() throws Throwable {
+    List<String> results = new ArrayList<>();
+    ThreadedWorkManager<String> manager = new ThreadedWorkManager<>(1, 2, results::add);
+    manager.addTask(() -> Thread.currentThread().getName());
+    assertEquals(List.of(Thread.currentThread().getName()), results);
+    manager.finishedEnqueing();
+    manager.processResults();
+    assertEquals(1, results.size());
+  }
+
+  /** This tests that forceShutdown interrupts the tasks in progress and cancels the others. */
+  @Test
+  void testCancel() throws Throwable {
+    CountDownLatch started = new CountDownLatch(2);
+    CountDownLatch interrupted = new CountDownLatch(2);
+    AtomicInteger nStarted = new AtomicInteger();
+    ThreadedWorkManager<Integer> manager = new ThreadedWorkManager<>(2, 4, result -> {});
+    for (int i = 0; i < 4; i++) {
+      manager.addTask(
+          () -> {
+            nStarted.incrementAndGet();
+            started.countDown();
+            try {
+              Thread.sleep(60_000);
+            } catch (InterruptedException e) {
+              interrupted.countDown();
+              throw e;
+            }
+            return 0;
+          });
+    }
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    manager.forceShutdown();
+    assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+    assertTrue(!manager.hasNext());
+    Thread.sleep(100);
+    assertEquals(2, nStarted.get()); // the tasks waiting for a thread never started
+  }
+
+  /** This tests that an exception from a task is thrown by processResults. */
+  @Test
+  void testTaskException() throws Throwable {
+    List<Integer> results = new ArrayList<>();
+    ThreadedWorkManager<Integer> manager = new ThreadedWorkManager<>(2, 2, results::add);
+    Throwable caught = null;
+    try {
+      manager.addTask(() -> 1);
+      manager.addTask(
+          () -> {
+            throw new IllegalStateException("trouble");
+          });
+      manager.addTask(() -> 3); // the window is full, so this consumes the first result
+      manager.finishedEnqueing();
+      manager.processResults();
+    } catch (Throwable t) {
+      caught = t;
+    } finally {
+      manager.forceShutdown();
+    }
+    assertTrue(caught != null && caught.getCause() instanceof IllegalStateException, "" + caught);
+    assertEquals(List.of(1), results);
+  }
+}